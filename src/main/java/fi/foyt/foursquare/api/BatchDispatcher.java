@@ -0,0 +1,298 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import fi.foyt.foursquare.api.entities.Checkin;
+import fi.foyt.foursquare.api.entities.CompleteTip;
+import fi.foyt.foursquare.api.entities.CompleteUser;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+
+/**
+ * Dispatcher that coalesces independent requests into multi requests.
+ *
+ * Requests arriving within the batching window are collected into a single BatchRequest, which
+ * is sent when the window closes or when it reaches the maximum batch size, whichever comes first.
+ * Batches are sent on the executor of the dispatcher and each caller's future is completed
+ * individually. Executor of the API's IOHandler is not used, because synchronous calls routed
+ * through the dispatcher wait for their batch and may be made from that executor, for example
+ * from a callback of an asynchronous call.
+ *
+ * Dispatcher can be used directly or set to a FoursquareApi instance with setBatchDispatcher, in
+ * which case venue, user, checkin and tip calls are routed through it transparently.
+ *
+ * @author Antti Leppä
+ */
+public class BatchDispatcher {
+
+  /**
+   * Constructor
+   *
+   * @param foursquareApi API instance used to send the requests
+   * @param window batching window
+   * @param unit unit of the batching window
+   * @param maxBatchSize maximum number of requests in a batch, at most BatchRequest.MAX_BATCH_SIZE
+   */
+  public BatchDispatcher(FoursquareApi foursquareApi, long window, TimeUnit unit, int maxBatchSize) {
+    if (maxBatchSize < 1 || maxBatchSize > BatchRequest.MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("Batch size must be between 1 and " + BatchRequest.MAX_BATCH_SIZE);
+    }
+
+    this.foursquareApi = foursquareApi;
+    this.windowNanos = unit.toNanos(window);
+    this.maxBatchSize = maxBatchSize;
+    this.batchSizeCounts = new AtomicLongArray(maxBatchSize + 1);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "foursquare-api-batch-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "foursquare-api-batch");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Sets executor that sends the batches. Executor must not be shared with callers waiting for
+   * batched results, or they may wait for batches that can not be sent.
+   *
+   * @param executor executor that sends the batches
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Returns executor that sends the batches
+   *
+   * @return executor that sends the batches
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Queues request for venue details
+   *
+   * @see FoursquareApi#venue(String)
+   *
+   * @param venueId id of venue to retrieve
+   * @return Future of CompleteVenue entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public synchronized ResultFuture<CompleteVenue> venue(String venueId) throws FoursquareApiException {
+    ResultFuture<CompleteVenue> future = getBatch().venue(venueId);
+    requestAdded();
+    return future;
+  }
+
+  /**
+   * Queues request for user's profile
+   *
+   * @see FoursquareApi#user(String)
+   *
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @return Future of CompleteUser entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public synchronized ResultFuture<CompleteUser> user(String userId) throws FoursquareApiException {
+    ResultFuture<CompleteUser> future = getBatch().user(userId);
+    requestAdded();
+    return future;
+  }
+
+  /**
+   * Queues request for check-in details
+   *
+   * @see FoursquareApi#checkin(String, String)
+   *
+   * @param checkinId id of check-in to retrieve
+   * @param signature check-in signature
+   * @return Future of Checkin entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public synchronized ResultFuture<Checkin> checkin(String checkinId, String signature) throws FoursquareApiException {
+    ResultFuture<Checkin> future = getBatch().checkin(checkinId, signature);
+    requestAdded();
+    return future;
+  }
+
+  /**
+   * Queues request for tip details
+   *
+   * @see FoursquareApi#tip(String)
+   *
+   * @param tipId id of tip to retrieve
+   * @return Future of CompleteTip entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public synchronized ResultFuture<CompleteTip> tip(String tipId) throws FoursquareApiException {
+    ResultFuture<CompleteTip> future = getBatch().tip(tipId);
+    requestAdded();
+    return future;
+  }
+
+  /**
+   * Sends queued requests immediately without waiting for the batching window to close
+   */
+  public synchronized void flush() {
+    if (batch != null) {
+      dispatch();
+    }
+  }
+
+  /**
+   * Sends queued requests and stops the dispatcher. Queuing requests after shutdown throws an exception.
+   */
+  public synchronized void shutdown() {
+    flush();
+    shutdown = true;
+    scheduler.shutdown();
+  }
+
+  /**
+   * Returns number of batches sent
+   *
+   * @return number of batches sent
+   */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /**
+   * Returns number of requests sent in batches
+   *
+   * @return number of requests sent in batches
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Returns average number of requests per batch
+   *
+   * @return average number of requests per batch or 0 if no batches have been sent
+   */
+  public double getAverageBatchSize() {
+    long batches = batchCount.get();
+    return batches > 0 ? (double) requestCount.get() / batches : 0;
+  }
+
+  /**
+   * Returns batch size distribution. Element at index n is the number of batches sent with n requests.
+   *
+   * @return batch size distribution
+   */
+  public long[] getBatchSizeCounts() {
+    long[] counts = new long[batchSizeCounts.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = batchSizeCounts.get(i);
+    }
+
+    return counts;
+  }
+
+  /**
+   * Returns batch that collects requests, creating new one and scheduling its dispatch if needed
+   *
+   * @return batch that collects requests
+   * @throws FoursquareApiException when dispatcher has been shut down
+   */
+  private BatchRequest getBatch() throws FoursquareApiException {
+    if (shutdown) {
+      throw new FoursquareApiException("Batch dispatcher has been shut down");
+    }
+
+    if (batch == null) {
+      batch = new BatchRequest(foursquareApi, maxBatchSize);
+      final BatchRequest scheduledBatch = batch;
+      scheduledDispatch = scheduler.schedule(new Runnable() {
+        public void run() {
+          synchronized (BatchDispatcher.this) {
+            if (batch == scheduledBatch) {
+              dispatch();
+            }
+          }
+        }
+      }, windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    return batch;
+  }
+
+  /**
+   * Dispatches current batch if it is full
+   */
+  private void requestAdded() {
+    if (batch.size() >= maxBatchSize) {
+      dispatch();
+    }
+  }
+
+  /**
+   * Sends current batch on the executor of the dispatcher
+   */
+  private void dispatch() {
+    final BatchRequest dispatchedBatch = batch;
+    batch = null;
+    scheduledDispatch.cancel(false);
+    scheduledDispatch = null;
+
+    int size = dispatchedBatch.size();
+    batchCount.incrementAndGet();
+    requestCount.addAndGet(size);
+    batchSizeCounts.incrementAndGet(size);
+
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            dispatchedBatch.execute();
+          } catch (FoursquareApiException e) {
+            // Futures of the batch have been failed with the exception
+          } catch (RuntimeException e) {
+            // Futures of the batch have been failed by execute
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      // Executor rejected the batch, so its callers would wait forever
+      dispatchedBatch.fail(new FoursquareApiException(e));
+    }
+  }
+
+  private FoursquareApi foursquareApi;
+  private long windowNanos;
+  private int maxBatchSize;
+  private ScheduledExecutorService scheduler;
+  private volatile ExecutorService executor;
+  private BatchRequest batch;
+  private ScheduledFuture<?> scheduledDispatch;
+  private boolean shutdown = false;
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLongArray batchSizeCounts;
+}
@@ -0,0 +1,397 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.foyt.foursquare.api.entities.Checkin;
+import fi.foyt.foursquare.api.entities.CheckinGroup;
+import fi.foyt.foursquare.api.entities.CompleteSpecial;
+import fi.foyt.foursquare.api.entities.CompleteTip;
+import fi.foyt.foursquare.api.entities.CompleteUser;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+import fi.foyt.foursquare.api.entities.LinkGroup;
+import fi.foyt.foursquare.api.entities.Photo;
+import fi.foyt.foursquare.api.entities.PhotoGroup;
+import fi.foyt.foursquare.api.entities.TipGroup;
+import fi.foyt.foursquare.api.entities.UserGroup;
+
+/**
+ * Batch of API requests sent through the multi endpoint.
+ *
+ * Requests are collected with the endpoint methods of this class, each of which returns a future
+ * of the result. When execute is called, requests are packed into multi requests of at most batch size
+ * requests each and futures are completed with the results split from the combined responses.
+ *
+ * @see <a href="https://developer.foursquare.com/docs/multi/multi.html" target="_blank">https://developer.foursquare.com/docs/multi/multi.html</a>
+ *
+ * @author Antti Leppä
+ */
+public class BatchRequest {
+
+  /**
+   * Maximum number of requests the multi endpoint accepts in one request
+   */
+  public static final int MAX_BATCH_SIZE = 5;
+
+  /**
+   * Constructor
+   *
+   * @param foursquareApi API instance used to send the requests
+   */
+  public BatchRequest(FoursquareApi foursquareApi) {
+    this(foursquareApi, MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param foursquareApi API instance used to send the requests
+   * @param batchSize number of requests packed into a single multi request, at most MAX_BATCH_SIZE
+   */
+  public BatchRequest(FoursquareApi foursquareApi, int batchSize) {
+    if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE);
+    }
+
+    this.foursquareApi = foursquareApi;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Returns number of requests packed into a single multi request
+   *
+   * @return number of requests packed into a single multi request
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Returns number of requests waiting for execution
+   *
+   * @return number of requests waiting for execution
+   */
+  public synchronized int size() {
+    return requests.size();
+  }
+
+  /**
+   * Adds request for venue details into the batch
+   *
+   * @see FoursquareApi#venue(String)
+   *
+   * @param venueId id of venue to retrieve
+   * @return Future of CompleteVenue entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<CompleteVenue> venue(String venueId) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<CompleteVenue>("venue", CompleteVenue.class), "venues/" + venueId);
+  }
+
+  /**
+   * Adds request for venue's here now check-ins into the batch
+   *
+   * @see FoursquareApi#venuesHereNow(String, Integer, Integer, Long)
+   *
+   * @param venueId id of the venue to retrieve check-ins for
+   * @param limit number of results to return, up to 500.
+   * @param offset used to page through results.
+   * @param afterTimestamp retrieve the first results to follow these seconds since epoch.
+   * @return Future of CheckinGroup entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<CheckinGroup> venuesHereNow(String venueId, Integer limit, Integer offset, Long afterTimestamp) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<CheckinGroup>("hereNow", CheckinGroup.class), "venues/" + venueId + "/herenow", "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp);
+  }
+
+  /**
+   * Adds request for venue's tips into the batch
+   *
+   * @see FoursquareApi#venuesTips(String, String, Integer, Integer)
+   *
+   * @param venueId id of the venue to retrieve tips for
+   * @param sort one of recent or popular.
+   * @param limit number of results to return, up to 500.
+   * @param offset used to page through results.
+   * @return Future of TipGroup entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<TipGroup> venuesTips(String venueId, String sort, Integer limit, Integer offset) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<TipGroup>("tips", TipGroup.class), "venues/" + venueId + "/tips", "sort", sort, "limit", limit, "offset", offset);
+  }
+
+  /**
+   * Adds request for venue's photos into the batch
+   *
+   * @see FoursquareApi#venuesPhotos(String, String, Integer, Integer)
+   *
+   * @param venueId id of the venue to retrieve photos for
+   * @param group pass checkin for photos added by friends on their recent checkins. Pass venue for public photos added to the venue by anyone.
+   * @param limit number of results to return, up to 500.
+   * @param offset used to page through results.
+   * @return Future of PhotoGroup entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<PhotoGroup> venuesPhotos(String venueId, String group, Integer limit, Integer offset) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<PhotoGroup>("photos", PhotoGroup.class), "venues/" + venueId + "/photos", "group", group, "limit", limit, "offset", offset);
+  }
+
+  /**
+   * Adds request for venue's links into the batch
+   *
+   * @see FoursquareApi#venuesLinks(String)
+   *
+   * @param venueId id of the venue to retrieve links for
+   * @return Future of LinkGroup entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<LinkGroup> venuesLinks(String venueId) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<LinkGroup>("links", LinkGroup.class), "venues/" + venueId + "/links");
+  }
+
+  /**
+   * Adds request for user's profile into the batch
+   *
+   * @see FoursquareApi#user(String)
+   *
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @return Future of CompleteUser entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<CompleteUser> user(String userId) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<CompleteUser>("user", CompleteUser.class), "users/" + (userId != null ? userId : "self"));
+  }
+
+  /**
+   * Adds request for user's check-in history into the batch
+   *
+   * @see FoursquareApi#usersCheckins(String, Integer, Integer, Long, Long)
+   *
+   * @param userId User id (For now, only 'self' is supported, 'self' assumed if null)
+   * @param limit number of results to return
+   * @param offset used to page through results.
+   * @param afterTimestamp retrieve the first results to follow these seconds since epoch.
+   * @param beforeTimestamp retrieve the first results prior to these seconds since epoch.
+   * @return Future of CheckinGroup entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<CheckinGroup> usersCheckins(String userId, Integer limit, Integer offset, Long afterTimestamp, Long beforeTimestamp) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<CheckinGroup>("checkins", CheckinGroup.class), "users/" + (userId != null ? userId : "self") + "/checkins", "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp, "beforeTimestamp", beforeTimestamp);
+  }
+
+  /**
+   * Adds request for user's friends into the batch
+   *
+   * @see FoursquareApi#usersFriends(String)
+   *
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @return Future of UserGroup entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<UserGroup> usersFriends(String userId) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<UserGroup>("friends", UserGroup.class), "users/" + (userId != null ? userId : "self") + "/friends");
+  }
+
+  /**
+   * Adds request for check-in details into the batch
+   *
+   * @see FoursquareApi#checkin(String, String)
+   *
+   * @param checkinId id of check-in to retrieve
+   * @param signature when check-ins are sent to public feeds such as Twitter, foursquare appends a signature (s=XXXXXX) allowing users to bypass the friends-only access check on check-ins.
+   * @return Future of Checkin entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<Checkin> checkin(String checkinId, String signature) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<Checkin>("checkin", Checkin.class), "checkins/" + checkinId, "signature", signature);
+  }
+
+  /**
+   * Adds request for tip details into the batch
+   *
+   * @see FoursquareApi#tip(String)
+   *
+   * @param tipId id of tip to retrieve
+   * @return Future of CompleteTip entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<CompleteTip> tip(String tipId) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<CompleteTip>("tip", CompleteTip.class), "tips/" + tipId);
+  }
+
+  /**
+   * Adds request for photo details into the batch
+   *
+   * @see FoursquareApi#photo(String)
+   *
+   * @param photoId id of photo to retrieve
+   * @return Future of Photo entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<Photo> photo(String photoId) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<Photo>("photo", Photo.class), "photos/" + photoId);
+  }
+
+  /**
+   * Adds request for special details into the batch
+   *
+   * @see FoursquareApi#special(String, String)
+   *
+   * @param specialId id of special to retrieve
+   * @param venueId id of a venue the special is running at
+   * @return Future of CompleteSpecial entity wrapped in Result object
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public ResultFuture<CompleteSpecial> special(String specialId, String venueId) throws FoursquareApiException {
+    return addRequest(new FoursquareApi.EntityResultHandler<CompleteSpecial>("special", CompleteSpecial.class), "specials/" + specialId, "venueId", venueId);
+  }
+
+  /**
+   * Sends all requests added into this batch. Requests are removed from the batch, so batch can be reused
+   * after execution.
+   *
+   * Futures of the requests are completed before this method returns. If a multi request fails with an
+   * exception, futures of the remaining requests are failed with the same exception.
+   *
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public void execute() throws FoursquareApiException {
+    List<Request<?>> pending;
+    synchronized (this) {
+      pending = requests;
+      requests = new ArrayList<Request<?>>();
+    }
+
+    FoursquareApiException exception = null;
+
+    try {
+      for (int i = 0, l = pending.size(); i < l; i += batchSize) {
+        List<Request<?>> batch = pending.subList(i, Math.min(i + batchSize, l));
+        if (exception != null) {
+          for (Request<?> request : batch) {
+            request.getFuture().fail(exception);
+          }
+        } else {
+          try {
+            foursquareApi.doMultiRequest(batch);
+          } catch (FoursquareApiException e) {
+            exception = e;
+          }
+        }
+      }
+    } finally {
+      // Callers waiting for futures must not be left waiting if something unexpected was thrown
+      for (Request<?> request : pending) {
+        if (!request.getFuture().isDone()) {
+          request.getFuture().fail(exception != null ? exception : new FoursquareApiException("Batch request was not completed"));
+        }
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /**
+   * Removes all requests from the batch and fails their futures without sending them
+   *
+   * @param exception exception the futures are failed with
+   */
+  void fail(FoursquareApiException exception) {
+    List<Request<?>> pending;
+    synchronized (this) {
+      pending = requests;
+      requests = new ArrayList<Request<?>>();
+    }
+
+    for (Request<?> request : pending) {
+      request.getFuture().fail(exception);
+    }
+  }
+
+  /**
+   * Adds request into the batch
+   *
+   * @param handler handler that builds result from the response
+   * @param path API endpoint
+   * @param params request parameters. Parameters should be added in parameter name, parameter value pairs
+   * @return future of the result
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private <T> ResultFuture<T> addRequest(FoursquareApi.ResultHandler<T> handler, String path, Object... params) throws FoursquareApiException {
+    Request<T> request = new Request<T>(handler, foursquareApi.getMultiRequestPath(path, params));
+
+    synchronized (this) {
+      requests.add(request);
+    }
+
+    return request.getFuture();
+  }
+
+  private FoursquareApi foursquareApi;
+  private int batchSize;
+  private List<Request<?>> requests = new ArrayList<Request<?>>();
+
+  /**
+   * Single request within a batch
+   *
+   * @param <T> type of resulting entity
+   */
+  static class Request<T> {
+
+    /**
+     * Constructor
+     *
+     * @param handler handler that builds result from the response
+     * @param path request path with query parameters
+     */
+    public Request(FoursquareApi.ResultHandler<T> handler, String path) {
+      this.handler = handler;
+      this.path = path;
+      this.future = new ResultFuture<T>(null);
+    }
+
+    /**
+     * Returns handler that builds result from the response
+     *
+     * @return handler that builds result from the response
+     */
+    public FoursquareApi.ResultHandler<T> getHandler() {
+      return handler;
+    }
+
+    /**
+     * Returns request path with query parameters
+     *
+     * @return request path with query parameters
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * Returns future of the result
+     *
+     * @return future of the result
+     */
+    public ResultFuture<T> getFuture() {
+      return future;
+    }
+
+    private FoursquareApi.ResultHandler<T> handler;
+    private String path;
+    private ResultFuture<T> future;
+  }
+}
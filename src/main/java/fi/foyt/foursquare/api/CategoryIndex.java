@@ -0,0 +1,280 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import fi.foyt.foursquare.api.entities.Category;
+import fi.foyt.foursquare.api.entities.CompactVenue;
+
+/**
+ * Index of the venue category tree returned by venuesCategories.
+ *
+ * Index is built once from the category tree and answers category lookups, parent and ancestor
+ * queries and subtree membership checks without walking the tree. Categories are numbered in
+ * depth first order, so that every subtree is a continuous interval of numbers and checking whether
+ * a category belongs into a subtree is a comparison of two numbers.
+ *
+ * Index can be refreshed with a new category tree at any time. Lookups made during refresh see
+ * either the old or the new tree, never a mix of both.
+ *
+ * @author Antti Leppä
+ */
+public class CategoryIndex {
+
+  /**
+   * Constructor
+   *
+   * @param categories category tree as returned by venuesCategories
+   */
+  public CategoryIndex(Category[] categories) {
+    refresh(categories);
+  }
+
+  /**
+   * Creates index from categories fetched with venuesCategories
+   *
+   * @param foursquareApi API instance used to fetch the categories
+   * @return category index
+   * @throws FoursquareApiException when categories could not be fetched
+   */
+  public static CategoryIndex fetch(FoursquareApi foursquareApi) throws FoursquareApiException {
+    return new CategoryIndex(fetchCategories(foursquareApi));
+  }
+
+  /**
+   * Replaces indexed categories with a new category tree
+   *
+   * @param categories category tree as returned by venuesCategories
+   */
+  public void refresh(Category[] categories) {
+    Map<String, Node> nodes = new HashMap<String, Node>();
+    addNodes(nodes, categories, new Category[0], 0);
+    this.nodes = nodes;
+  }
+
+  /**
+   * Replaces indexed categories with categories fetched with venuesCategories
+   *
+   * @param foursquareApi API instance used to fetch the categories
+   * @throws FoursquareApiException when categories could not be fetched. Index is left unchanged.
+   */
+  public void refresh(FoursquareApi foursquareApi) throws FoursquareApiException {
+    refresh(fetchCategories(foursquareApi));
+  }
+
+  /**
+   * Returns category by id
+   *
+   * @param categoryId category id
+   * @return category or null if category is not indexed
+   */
+  public Category getCategory(String categoryId) {
+    Node node = getNode(categoryId);
+    return node != null ? node.getCategory() : null;
+  }
+
+  /**
+   * Returns parent of the category
+   *
+   * @param categoryId category id
+   * @return parent category or null if category is not indexed or it is a top-level category
+   */
+  public Category getParent(String categoryId) {
+    Node node = getNode(categoryId);
+    if (node == null || node.getAncestors().length == 0) {
+      return null;
+    }
+
+    return node.getAncestors()[node.getAncestors().length - 1];
+  }
+
+  /**
+   * Returns top-level category of the category. Top-level category of a top-level category is the category itself.
+   *
+   * @param categoryId category id
+   * @return top-level category or null if category is not indexed
+   */
+  public Category getRoot(String categoryId) {
+    Node node = getNode(categoryId);
+    if (node == null) {
+      return null;
+    }
+
+    return node.getAncestors().length > 0 ? node.getAncestors()[0] : node.getCategory();
+  }
+
+  /**
+   * Returns ancestors of the category starting from the top-level category. Returned array must not be modified.
+   *
+   * @param categoryId category id
+   * @return ancestors of the category or null if category is not indexed
+   */
+  public Category[] getAncestors(String categoryId) {
+    Node node = getNode(categoryId);
+    return node != null ? node.getAncestors() : null;
+  }
+
+  /**
+   * Returns depth of the category. Top-level categories have depth 0.
+   *
+   * @param categoryId category id
+   * @return depth of the category or -1 if category is not indexed
+   */
+  public int getDepth(String categoryId) {
+    Node node = getNode(categoryId);
+    return node != null ? node.getAncestors().length : -1;
+  }
+
+  /**
+   * Returns whether category is in the subtree of another category, i.e. whether it is the
+   * other category or one of its descendants
+   *
+   * @param categoryId category id
+   * @param subtreeCategoryId id of the category at the top of the subtree
+   * @return whether category is in the subtree. False if either category is not indexed.
+   */
+  public boolean isInSubtree(String categoryId, String subtreeCategoryId) {
+    Map<String, Node> nodes = this.nodes;
+    Node node = categoryId != null ? nodes.get(categoryId) : null;
+    Node subtree = subtreeCategoryId != null ? nodes.get(subtreeCategoryId) : null;
+    if (node == null || subtree == null) {
+      return false;
+    }
+
+    return node.getNumber() >= subtree.getNumber() && node.getNumber() <= subtree.getLastDescendantNumber();
+  }
+
+  /**
+   * Returns indexed primary category of the venue. If no category of the venue is marked primary, first category is returned.
+   *
+   * @param venue venue
+   * @return primary category of the venue or null if venue has no indexed categories
+   */
+  public Category getPrimaryCategory(CompactVenue venue) {
+    Category[] categories = venue.getCategories();
+    if (categories == null || categories.length == 0) {
+      return null;
+    }
+
+    Category primary = categories[0];
+    for (Category category : categories) {
+      if (Boolean.TRUE.equals(category.getPrimary())) {
+        primary = category;
+        break;
+      }
+    }
+
+    return getCategory(primary.getId());
+  }
+
+  /**
+   * Returns top-level category of the venue's primary category
+   *
+   * @param venue venue
+   * @return top-level category or null if venue has no indexed categories
+   */
+  public Category getRoot(CompactVenue venue) {
+    Category primary = getPrimaryCategory(venue);
+    return primary != null ? getRoot(primary.getId()) : null;
+  }
+
+  /**
+   * Returns number of indexed categories
+   *
+   * @return number of indexed categories
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  private Node getNode(String categoryId) {
+    return categoryId != null ? nodes.get(categoryId) : null;
+  }
+
+  /**
+   * Adds nodes of categories and their subcategories
+   *
+   * @param nodes nodes by category id
+   * @param categories categories
+   * @param ancestors ancestors of the categories
+   * @param number depth first number of the first category
+   * @return depth first number following the last added category
+   */
+  private static int addNodes(Map<String, Node> nodes, Category[] categories, Category[] ancestors, int number) {
+    if (categories == null) {
+      return number;
+    }
+
+    for (Category category : categories) {
+      int categoryNumber = number++;
+
+      Category[] childAncestors = new Category[ancestors.length + 1];
+      System.arraycopy(ancestors, 0, childAncestors, 0, ancestors.length);
+      childAncestors[ancestors.length] = category;
+      number = addNodes(nodes, category.getCategories(), childAncestors, number);
+
+      // Top-level categories of some API versions have no ids, they are only reachable as ancestors
+      if (category.getId() != null) {
+        nodes.put(category.getId(), new Node(category, ancestors, categoryNumber, number - 1));
+      }
+    }
+
+    return number;
+  }
+
+  private static Category[] fetchCategories(FoursquareApi foursquareApi) throws FoursquareApiException {
+    Result<Category[]> result = foursquareApi.venuesCategories();
+    if (result.getMeta().getCode() != 200) {
+      throw new FoursquareApiException("Could not fetch categories: " + result.getMeta().getErrorDetail());
+    }
+
+    return result.getResult();
+  }
+
+  private volatile Map<String, Node> nodes;
+
+  /**
+   * Indexed category with its ancestors and depth first numbering
+   */
+  private static class Node {
+
+    public Node(Category category, Category[] ancestors, int number, int lastDescendantNumber) {
+      this.category = category;
+      this.ancestors = ancestors;
+      this.number = number;
+      this.lastDescendantNumber = lastDescendantNumber;
+    }
+
+    public Category getCategory() {
+      return category;
+    }
+
+    public Category[] getAncestors() {
+      return ancestors;
+    }
+
+    public int getNumber() {
+      return number;
+    }
+
+    public int getLastDescendantNumber() {
+      return lastDescendantNumber;
+    }
+
+    private Category category;
+    private Category[] ancestors;
+    private int number;
+    private int lastDescendantNumber;
+  }
+}
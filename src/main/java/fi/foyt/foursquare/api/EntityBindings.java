@@ -0,0 +1,328 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class holding reflective metadata of an entity class.
+ *
+ * Bindings are resolved once per class and shared between threads, so populating
+ * an entity costs a single map lookup per JSON field.
+ *
+ * @author Antti Leppä
+ */
+class EntityBindings {
+
+  /**
+   * Returns bindings for an entity class
+   *
+   * @param entityClass entity class
+   * @return bindings for the class
+   */
+  public static EntityBindings forClass(Class<?> entityClass) {
+    EntityBindings bindings = CACHE.get(entityClass);
+    if (bindings == null) {
+      bindings = new EntityBindings(entityClass);
+      EntityBindings existing = CACHE.putIfAbsent(entityClass, bindings);
+      if (existing != null) {
+        bindings = existing;
+      }
+    }
+
+    return bindings;
+  }
+
+  /**
+   * Constructor. Resolves fields and setter methods of the class and its super classes.
+   * Fields take precedence over setters and sub class members over super class members.
+   *
+   * @param entityClass entity class
+   */
+  private EntityBindings(Class<?> entityClass) {
+    this.entityClass = entityClass;
+    this.bindings = new HashMap<String, Binding>();
+    this.constructor = resolveConstructor(entityClass);
+    this.entityFields = new ArrayList<Field>();
+
+    for (Class<?> currentClass = entityClass; currentClass != null && !currentClass.equals(Object.class); currentClass = currentClass.getSuperclass()) {
+      for (Field field : currentClass.getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers()) && !bindings.containsKey(field.getName())) {
+          field.setAccessible(true);
+          Binding binding = new Binding(field, null, field.getType());
+          bindings.put(field.getName(), binding);
+          
+          if (binding.getKind() == ValueKind.ENTITY || (binding.getKind() == ValueKind.ARRAY && binding.getComponentKind() == ValueKind.ENTITY)) {
+            entityFields.add(field);
+          }
+        }
+      }
+    }
+
+    for (Class<?> currentClass = entityClass; currentClass != null && !currentClass.equals(Object.class); currentClass = currentClass.getSuperclass()) {
+      for (Method method : currentClass.getDeclaredMethods()) {
+        String methodName = method.getName();
+        Class<?>[] parameters = method.getParameterTypes();
+
+        if (methodName.length() > 3 && methodName.startsWith("set") && parameters.length == 1 && !Modifier.isStatic(method.getModifiers())) {
+          method.setAccessible(true);
+          Binding binding = new Binding(null, method, parameters[0]);
+          String propertyName = methodName.substring(3);
+          String fieldName = Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1);
+
+          if (!bindings.containsKey(fieldName)) {
+            bindings.put(fieldName, binding);
+          }
+
+          if (!bindings.containsKey(propertyName)) {
+            bindings.put(propertyName, binding);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns binding for a JSON field or null if class does not have a field or setter for it
+   *
+   * @param fieldName JSON field name
+   * @return binding or null if not found
+   */
+  public Binding getBinding(String fieldName) {
+    return bindings.get(fieldName);
+  }
+
+  /**
+   * Returns fields of the class that hold entities or arrays of entities
+   *
+   * @return fields holding entities
+   */
+  public List<Field> getEntityFields() {
+    return entityFields;
+  }
+
+  /**
+   * Returns value of the id field of an entity
+   *
+   * @param entity entity
+   * @return id or null if entity does not have an id
+   */
+  public Object getId(Object entity) {
+    Binding binding = bindings.get("id");
+    if (binding == null || binding.field == null) {
+      return null;
+    }
+
+    try {
+      return binding.field.get(entity);
+    } catch (IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Initializes new entity instance
+   *
+   * @return new entity instance
+   * @throws FoursquareApiException when entity could not be instantiated
+   */
+  public FoursquareEntity newEntity() throws FoursquareApiException {
+    if (constructor == null) {
+      throw new FoursquareApiException("Could not instantiate " + entityClass.getName() + " class");
+    }
+
+    try {
+      return (FoursquareEntity) constructor.newInstance();
+    } catch (InstantiationException e) {
+      throw new FoursquareApiException(e);
+    } catch (IllegalAccessException e) {
+      throw new FoursquareApiException(e);
+    } catch (InvocationTargetException e) {
+      throw new FoursquareApiException(e);
+    }
+  }
+
+  /**
+   * Returns entity class
+   *
+   * @return entity class
+   */
+  public Class<?> getEntityClass() {
+    return entityClass;
+  }
+
+  /**
+   * Returns the kind of values a class represents
+   *
+   * @param clazz class
+   * @return kind of values
+   */
+  public static ValueKind getValueKind(Class<?> clazz) {
+    if (clazz.isArray()) {
+      return ValueKind.ARRAY;
+    } else if (clazz.equals(String.class)) {
+      return ValueKind.STRING;
+    } else if (clazz.equals(Integer.class)) {
+      return ValueKind.INTEGER;
+    } else if (clazz.equals(Long.class)) {
+      return ValueKind.LONG;
+    } else if (clazz.equals(Double.class)) {
+      return ValueKind.DOUBLE;
+    } else if (clazz.equals(Boolean.class)) {
+      return ValueKind.BOOLEAN;
+    } else if (FoursquareEntity.class.isAssignableFrom(clazz)) {
+      return ValueKind.ENTITY;
+    }
+
+    return ValueKind.UNKNOWN;
+  }
+
+  /**
+   * Resolves no-argument constructor of a class
+   *
+   * @param clazz class
+   * @return constructor or null if class does not have one
+   */
+  private static Constructor<?> resolveConstructor(Class<?> clazz) {
+    try {
+      Constructor<?> constructor = clazz.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return constructor;
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (SecurityException e) {
+      return null;
+    }
+  }
+
+  private static final ConcurrentMap<Class<?>, EntityBindings> CACHE = new ConcurrentHashMap<Class<?>, EntityBindings>();
+
+  private Class<?> entityClass;
+  private Constructor<?> constructor;
+  private Map<String, Binding> bindings;
+  private List<Field> entityFields;
+
+  /**
+   * Enumeration of value kinds parser knows how to handle
+   */
+  public enum ValueKind {
+    STRING,
+    INTEGER,
+    LONG,
+    DOUBLE,
+    BOOLEAN,
+    ENTITY,
+    ARRAY,
+    UNKNOWN
+  }
+
+  /**
+   * Class representing a prebuilt accessor for single JSON field
+   */
+  public static class Binding {
+
+    /**
+     * Constructor
+     *
+     * @param field field or null if value is set via setter method
+     * @param setter setter method or null if value is set directly to the field
+     * @param type type of the value
+     */
+    private Binding(Field field, Method setter, Class<?> type) {
+      this.field = field;
+      this.setter = setter;
+      this.type = type;
+      this.kind = getValueKind(type);
+
+      if (kind == ValueKind.ARRAY) {
+        this.componentType = type.getComponentType();
+        this.componentKind = getValueKind(componentType);
+      }
+    }
+
+    /**
+     * Returns type of the value
+     *
+     * @return type of the value
+     */
+    public Class<?> getType() {
+      return type;
+    }
+
+    /**
+     * Returns kind of the value
+     *
+     * @return kind of the value
+     */
+    public ValueKind getKind() {
+      return kind;
+    }
+
+    /**
+     * Returns array component type or null if value is not an array
+     *
+     * @return array component type
+     */
+    public Class<?> getComponentType() {
+      return componentType;
+    }
+
+    /**
+     * Returns array component kind or null if value is not an array
+     *
+     * @return array component kind
+     */
+    public ValueKind getComponentKind() {
+      return componentKind;
+    }
+
+    /**
+     * Sets value into the entity
+     *
+     * @param entity entity
+     * @param value value
+     * @throws FoursquareApiException when value could not be set
+     */
+    public void setValue(Object entity, Object value) throws FoursquareApiException {
+      try {
+        if (field != null) {
+          field.set(entity, value);
+        } else {
+          setter.invoke(entity, value);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new FoursquareApiException(e);
+      } catch (IllegalAccessException e) {
+        throw new FoursquareApiException(e);
+      } catch (InvocationTargetException e) {
+        throw new FoursquareApiException(e);
+      }
+    }
+
+    private Field field;
+    private Method setter;
+    private Class<?> type;
+    private ValueKind kind;
+    private Class<?> componentType;
+    private ValueKind componentKind;
+  }
+}
@@ -0,0 +1,401 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.foyt.foursquare.api.entities.CompleteUser;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+
+/**
+ * Cache of parsed entities keyed by entity class and id.
+ *
+ * When set to a FoursquareApi instance, entities of cached classes are collected from every
+ * result the API parses and venue and user lookups are served from the cache without fetching
+ * or parsing anything.
+ *
+ * Entities are kept in two tiers. Entities that are results of a request themselves, such as the
+ * venue returned by FoursquareApi.venue, are complete and they are returned by get. Entities nested
+ * in other entities are often partial (for example the venue of a checkin has only some of the
+ * fields of a CompleteVenue), so they are kept in the compact tier and returned only by getCompact.
+ * Nested entities never replace complete ones and they never answer venue or user lookups.
+ *
+ * Compact tier is as large as the complete tier unless its size is set with setMaxCompactEntities.
+ * Tiers are bounded separately, so nested entities never evict complete ones.
+ *
+ * By default CompleteVenue and CompleteUser entities are cached. Each tier is bounded by number of
+ * entities and least recently used entities are evicted first. Entities expire after time to live,
+ * so that frequently used entities are refreshed too. Cached entities are shared between callers,
+ * so they must not be modified.
+ *
+ * @author Antti Leppä
+ */
+public class EntityCache {
+
+  /**
+   * Constructor. Entities expire after 10 minutes.
+   *
+   * @param maxEntities maximum number of cached complete entities and, by default, compact entities
+   */
+  public EntityCache(int maxEntities) {
+    this(maxEntities, DEFAULT_TIME_TO_LIVE, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxEntities maximum number of cached complete entities and, by default, compact entities
+   * @param timeToLive time entities are kept in the cache
+   * @param unit unit of the time to live
+   */
+  public EntityCache(int maxEntities, long timeToLive, TimeUnit unit) {
+    this.entities = new Tier(maxEntities);
+    this.compactEntities = new Tier(maxEntities);
+    this.timeToLive = unit.toMillis(timeToLive);
+    this.cachedClasses.add(CompleteVenue.class);
+    this.cachedClasses.add(CompleteUser.class);
+  }
+
+  /**
+   * Sets maximum number of entities collected from other entities into the compact tier. Default
+   * is the maximum number of complete entities. 0 means that nested entities are not collected.
+   *
+   * @param maxCompactEntities maximum number of cached compact entities
+   */
+  public void setMaxCompactEntities(int maxCompactEntities) {
+    if (maxCompactEntities < 0) {
+      throw new IllegalArgumentException("Max compact entities must not be negative");
+    }
+
+    synchronized (compactEntities) {
+      compactEntities.maxEntities = maxCompactEntities;
+      while (compactEntities.size() > maxCompactEntities) {
+        compactEntities.remove(compactEntities.keySet().iterator().next());
+        evictionCount.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Adds entity class into the set of cached classes. Class must have an id field.
+   *
+   * @param entityClass entity class
+   */
+  public void addCachedClass(Class<? extends FoursquareEntity> entityClass) {
+    cachedClasses.add(entityClass);
+  }
+
+  /**
+   * Removes entity class from the set of cached classes. Already cached entities of the class are not removed.
+   *
+   * @param entityClass entity class
+   */
+  public void removeCachedClass(Class<? extends FoursquareEntity> entityClass) {
+    cachedClasses.remove(entityClass);
+  }
+
+  /**
+   * Returns cached complete entity. Entities that have only been seen nested in other entities are not returned.
+   *
+   * @param entityClass entity class
+   * @param id entity id
+   * @return cached entity or null if entity is not cached
+   */
+  public <T extends FoursquareEntity> T get(Class<T> entityClass, String id) {
+    return entityClass.cast(getEntity(entities, new Key(entityClass, id), true));
+  }
+
+  /**
+   * Returns cached complete entity, or compact entity collected from other entities if complete one is not cached
+   *
+   * @param entityClass entity class
+   * @param id entity id
+   * @return cached entity or null if entity is not cached
+   */
+  public <T extends FoursquareEntity> T getCompact(Class<T> entityClass, String id) {
+    Key key = new Key(entityClass, id);
+    Object entity = getEntity(entities, key, false);
+    if (entity == null) {
+      entity = getEntity(compactEntities, key, true);
+    }
+
+    return entityClass.cast(entity);
+  }
+
+  /**
+   * Adds complete entity into the cache if its class is cached
+   *
+   * @param entity entity
+   */
+  public void put(FoursquareEntity entity) {
+    put(entities, entity);
+  }
+
+  /**
+   * Collects entities of cached classes from a result. Result may be an entity, an array of
+   * entities or any other object, which is ignored. Result entity itself is complete, entities 
+   * nested in it and entities of result arrays are collected into the compact tier if it is enabled.
+   *
+   * @param value result
+   */
+  public void collect(Object value) {
+    boolean collectCompact = isCompactEnabled();
+    if (value instanceof FoursquareEntity) {
+      FoursquareEntity entity = (FoursquareEntity) value;
+      put(entities, entity);
+      if (collectCompact) {
+        collectNested(entity);
+      }
+    } else if (collectCompact) {
+      collectCompact(value);
+    }
+  }
+
+  /**
+   * Removes cached entity
+   *
+   * @param entityClass entity class
+   * @param id entity id
+   */
+  public void invalidate(Class<? extends FoursquareEntity> entityClass, String id) {
+    Key key = new Key(entityClass, id);
+    synchronized (entities) {
+      entities.remove(key);
+    }
+
+    synchronized (compactEntities) {
+      compactEntities.remove(key);
+    }
+  }
+
+  /**
+   * Removes all cached entities
+   */
+  public void clear() {
+    synchronized (entities) {
+      entities.clear();
+    }
+
+    synchronized (compactEntities) {
+      compactEntities.clear();
+    }
+  }
+
+  /**
+   * Returns number of cached entities in both tiers
+   *
+   * @return number of cached entities
+   */
+  public int size() {
+    synchronized (entities) {
+      synchronized (compactEntities) {
+        return entities.size() + compactEntities.size();
+      }
+    }
+  }
+
+  /**
+   * Returns number of lookups served from the cache
+   *
+   * @return number of lookups served from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns number of lookups that were not found from the cache
+   *
+   * @return number of lookups that were not found from the cache
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns number of entities evicted to keep the cache within its size bound
+   *
+   * @return number of entities evicted
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Returns number of entities removed because they had expired
+   *
+   * @return number of expired entities
+   */
+  public long getExpirationCount() {
+    return expirationCount.get();
+  }
+
+  /**
+   * Returns cached entity of a tier and counts the lookup
+   *
+   * @param tier tier
+   * @param key key
+   * @param countMiss whether lookup is counted as a miss if entity is not found
+   * @return entity or null if it is not cached or it has expired
+   */
+  private Object getEntity(Tier tier, Key key, boolean countMiss) {
+    if (key.id == null) {
+      return null;
+    }
+
+    CacheEntry entry;
+    synchronized (tier) {
+      entry = tier.get(key);
+      if (entry != null && entry.expires <= System.currentTimeMillis()) {
+        tier.remove(key);
+        expirationCount.incrementAndGet();
+        entry = null;
+      }
+    }
+
+    if (entry == null) {
+      if (countMiss) {
+        missCount.incrementAndGet();
+      }
+
+      return null;
+    }
+
+    hitCount.incrementAndGet();
+    return entry.entity;
+  }
+
+  private void put(Tier tier, FoursquareEntity entity) {
+    if (cachedClasses.contains(entity.getClass())) {
+      Object id = EntityBindings.forClass(entity.getClass()).getId(entity);
+      if (id != null) {
+        synchronized (tier) {
+          tier.put(new Key(entity.getClass(), id.toString()), new CacheEntry(entity, System.currentTimeMillis() + timeToLive));
+        }
+      }
+    }
+  }
+
+  private boolean isCompactEnabled() {
+    synchronized (compactEntities) {
+      return compactEntities.maxEntities > 0;
+    }
+  }
+
+  private void collectCompact(Object value) {
+    if (value instanceof FoursquareEntity) {
+      FoursquareEntity entity = (FoursquareEntity) value;
+      put(compactEntities, entity);
+      collectNested(entity);
+    } else if (value instanceof FoursquareEntity[]) {
+      for (FoursquareEntity entity : (FoursquareEntity[]) value) {
+        collectCompact(entity);
+      }
+    }
+  }
+
+  private void collectNested(FoursquareEntity entity) {
+    for (Field field : EntityBindings.forClass(entity.getClass()).getEntityFields()) {
+      try {
+        collectCompact(field.get(entity));
+      } catch (IllegalAccessException e) {
+        // Fields are made accessible when bindings are resolved
+      }
+    }
+  }
+
+  private static final long DEFAULT_TIME_TO_LIVE = 10 * 60 * 1000;
+
+  private long timeToLive;
+  private final Set<Class<?>> cachedClasses = new CopyOnWriteArraySet<Class<?>>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong expirationCount = new AtomicLong();
+
+  private final Tier entities;
+  private final Tier compactEntities;
+
+  /**
+   * Entities of a tier in least recently used order
+   */
+  private class Tier extends LinkedHashMap<Key, CacheEntry> {
+
+    public Tier(int maxEntities) {
+      super(16, 0.75f, true);
+      this.maxEntities = maxEntities;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest) {
+      if (size() > maxEntities) {
+        evictionCount.incrementAndGet();
+        return true;
+      }
+
+      return false;
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private int maxEntities;
+  }
+
+  /**
+   * Cached entity
+   */
+  private static class CacheEntry {
+
+    public CacheEntry(Object entity, long expires) {
+      this.entity = entity;
+      this.expires = expires;
+    }
+
+    private Object entity;
+    private long expires;
+  }
+
+  /**
+   * Cache key consisting of entity class and id
+   */
+  private static class Key {
+
+    public Key(Class<?> entityClass, String id) {
+      this.entityClass = entityClass;
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+      return entityClass.hashCode() * 31 + id.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key) obj;
+      return entityClass.equals(key.entityClass) && id.equals(key.id);
+    }
+
+    private Class<?> entityClass;
+    private String id;
+  }
+}
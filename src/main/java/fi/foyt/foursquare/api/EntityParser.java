@@ -0,0 +1,49 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import org.json.JSONObject;
+
+/**
+ * Interface for dedicated entity parsers.
+ *
+ * When a parser has been registered for an entity class with JSONFieldParser.registerEntityParser,
+ * it is used instead of the reflection based parsing, both by JSONFieldParser and by JSONStreamParser.
+ * Parsers assign fields directly, so parsing does not go through Field.set or Method.invoke.
+ * FieldTableParser implements both parse methods from a single table of the fields of the entity.
+ *
+ * @author Antti Leppä
+ *
+ * @param <T> type of parsed entity
+ */
+public interface EntityParser<T extends FoursquareEntity> {
+
+  /**
+   * Parses single JSON Object into entity
+   *
+   * @param jsonObject JSON Object
+   * @param skipNonExistingFields whether parser should ignore non-existing fields
+   * @return entity
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public T parse(JSONObject jsonObject, boolean skipNonExistingFields) throws FoursquareApiException;
+
+  /**
+   * Parses single JSON Object straight from a stream reader
+   *
+   * @param reader reader positioned at the beginning of the object
+   * @param skipNonExistingFields whether parser should ignore non-existing fields
+   * @return entity
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public T parse(JSONStreamReader reader, boolean skipNonExistingFields) throws FoursquareApiException;
+}
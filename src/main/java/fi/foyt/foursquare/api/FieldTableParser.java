@@ -0,0 +1,162 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Dedicated entity parser driven by a table of the fields of the entity.
+ *
+ * Each field of the table knows its JSON name and value class and assigns the parsed value into
+ * the entity, so the same table is used both for JSON Objects and for stream readers.
+ *
+ * @author Antti Leppä
+ *
+ * @param <T> type of parsed entity
+ */
+public abstract class FieldTableParser<T extends FoursquareEntity> implements EntityParser<T> {
+
+  /**
+   * Constructor. Subclasses add the fields of the entity with addField.
+   *
+   * @param entityClass entity class
+   */
+  protected FieldTableParser(Class<T> entityClass) {
+    this.entityClass = entityClass;
+  }
+
+  /**
+   * Adds field into the table
+   *
+   * @param field field of the entity
+   */
+  protected void addField(Field<? super T> field) {
+    fields.put(field.name, field);
+  }
+
+  /**
+   * Adds all fields of a parser of a super class into the table
+   *
+   * @param parser parser of a super class of the entity
+   */
+  protected void addFields(FieldTableParser<? super T> parser) {
+    fields.putAll(parser.fields);
+  }
+
+  /**
+   * Creates new empty entity
+   *
+   * @return entity
+   */
+  protected abstract T newEntity();
+
+  public T parse(JSONObject jsonObject, boolean skipNonExistingFields) throws FoursquareApiException {
+    T entity = newEntity();
+
+    Iterator<?> names = jsonObject.keys();
+    while (names.hasNext()) {
+      String name = (String) names.next();
+      Field<? super T> field = getField(name, skipNonExistingFields);
+      if (field != null) {
+        try {
+          field.set(entity, JSONFieldParser.parseValue(field.type, field.kind, field.componentType, field.componentKind, jsonObject, name, skipNonExistingFields));
+        } catch (JSONException e) {
+          throw new FoursquareApiException(e);
+        }
+      }
+    }
+
+    return entity;
+  }
+
+  public T parse(JSONStreamReader reader, boolean skipNonExistingFields) throws FoursquareApiException {
+    T entity = newEntity();
+
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        Field<? super T> field = getField(reader.nextName(), skipNonExistingFields);
+        if (field != null) {
+          field.set(entity, JSONStreamParser.parseValue(field.type, field.kind, reader, skipNonExistingFields));
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (JSONException e) {
+      throw new FoursquareApiException(e);
+    }
+
+    return entity;
+  }
+
+  /**
+   * Returns field of given JSON name
+   *
+   * @param name JSON name of the field
+   * @param skipNonExistingFields whether parser should ignore non-existing fields
+   * @return field or null if entity does not have the field and non-existing fields are skipped
+   * @throws FoursquareApiException when entity does not have the field and non-existing fields are not skipped
+   */
+  private Field<? super T> getField(String name, boolean skipNonExistingFields) throws FoursquareApiException {
+    Field<? super T> field = fields.get(name);
+    if (field == null && !skipNonExistingFields) {
+      throw new FoursquareApiException("Could not find field " + name + " from " + entityClass.getName() + " class");
+    }
+
+    return field;
+  }
+
+  private Class<T> entityClass;
+  private final Map<String, Field<? super T>> fields = new HashMap<String, Field<? super T>>();
+
+  /**
+   * Field of an entity
+   *
+   * @param <T> type of the entity
+   */
+  public abstract static class Field<T> {
+
+    /**
+     * Constructor
+     *
+     * @param name JSON name of the field
+     * @param type class of the value: String, Integer, Long, Double, Boolean, FoursquareEntity or an array of them
+     */
+    public Field(String name, Class<?> type) {
+      this.name = name;
+      this.type = type;
+      this.kind = EntityBindings.getValueKind(type);
+      this.componentType = kind == EntityBindings.ValueKind.ARRAY ? type.getComponentType() : null;
+      this.componentKind = componentType != null ? EntityBindings.getValueKind(componentType) : null;
+    }
+
+    /**
+     * Assigns parsed value into the entity
+     *
+     * @param entity entity
+     * @param value value of the type of the field or null
+     */
+    protected abstract void set(T entity, Object value);
+
+    private String name;
+    private Class<?> type;
+    private EntityBindings.ValueKind kind;
+    private Class<?> componentType;
+    private EntityBindings.ValueKind componentKind;
+  }
+}
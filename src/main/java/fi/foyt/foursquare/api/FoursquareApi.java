@@ -11,16 +11,24 @@
 package fi.foyt.foursquare.api;
 
 import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import fi.foyt.foursquare.api.entities.Badge;
 import fi.foyt.foursquare.api.entities.BadgeSets;
@@ -57,6 +65,7 @@ import fi.foyt.foursquare.api.entities.VenuesSearchResult;
 import fi.foyt.foursquare.api.entities.Warning;
 import fi.foyt.foursquare.api.entities.notifications.Notification;
 import fi.foyt.foursquare.api.io.DefaultIOHandler;
+import fi.foyt.foursquare.api.io.IOCallback;
 import fi.foyt.foursquare.api.io.IOHandler;
 import fi.foyt.foursquare.api.io.Method;
 import fi.foyt.foursquare.api.io.MultipartParameter;
@@ -168,6 +177,95 @@ public class FoursquareApi {
     return useCallback;
   }
 
+  /**
+   * Enables or disables streaming parser. When enabled, responses of read endpoints are parsed
+   * straight into entities without building an intermediate JSON object tree.
+   *
+   * @param useStreamingParser set true to enable streaming parser
+   */
+  public void setUseStreamingParser(boolean useStreamingParser) {
+    this.useStreamingParser = useStreamingParser;
+  }
+
+  /**
+   * Returns whether streaming parser is enabled
+   *
+   * @return whether streaming parser is enabled
+   */
+  public boolean getUseStreamingParser() {
+    return useStreamingParser;
+  }
+
+  /**
+   * Sets dispatcher that coalesces venue, user, checkin and tip calls into multi requests. 
+   * Calls block until the batch containing the request has been sent.
+   *
+   * @param batchDispatcher dispatcher or null to send requests individually
+   */
+  public void setBatchDispatcher(BatchDispatcher batchDispatcher) {
+    this.batchDispatcher = batchDispatcher;
+  }
+
+  /**
+   * Returns dispatcher that coalesces calls into multi requests
+   *
+   * @return dispatcher or null if requests are sent individually
+   */
+  public BatchDispatcher getBatchDispatcher() {
+    return batchDispatcher;
+  }
+
+  /**
+   * Sets cache of parsed entities. When set, entities are collected into the cache from parsed 
+   * results and venue and user lookups are served from it when possible.
+   *
+   * @param entityCache entity cache or null to disable caching
+   */
+  public void setEntityCache(EntityCache entityCache) {
+    this.entityCache = entityCache;
+  }
+
+  /**
+   * Returns cache of parsed entities
+   *
+   * @return entity cache or null if caching is disabled
+   */
+  public EntityCache getEntityCache() {
+    return entityCache;
+  }
+
+  /**
+   * Enables or disables single-flight mode. In single-flight mode concurrent identical GET requests 
+   * share one fetch: only the first caller hits the network and the others wait for its result. 
+   * Requests are identical when their URLs, including authentication parameters, are equal.
+   * 
+   * Note that callers sharing a fetch receive the same Result instance, so entities must not be 
+   * modified by the callers.
+   *
+   * @param singleFlight set true to enable single-flight mode
+   */
+  public void setSingleFlight(boolean singleFlight) {
+    this.singleFlight = singleFlight;
+  }
+
+  /**
+   * Returns whether single-flight mode is enabled
+   *
+   * @return whether single-flight mode is enabled
+   */
+  public boolean getSingleFlight() {
+    return singleFlight;
+  }
+
+  /**
+   * Returns number of requests that were served by sharing result of an identical request in flight
+   *
+   * @return number of requests that shared result of an identical request
+   */
+  public long getSharedRequestCount() {
+    return sharedRequestCount.get();
+  }
+
   /**
    * Returns profile information for a given user, including selected badges and mayorships.
    *
@@ -178,22 +276,40 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompleteUser> user(String userId) throws FoursquareApiException {
-    try {
-      if (userId == null) {
-        userId = "self";
-      }
+    if (userId == null) {
+      userId = "self";
+    }
 
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/" + userId, true);
-      CompleteUser result = null;
+    Result<CompleteUser> cached = getCachedResult(CompleteUser.class, userId);
+    if (cached != null) {
+      return cached;
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (CompleteUser) JSONFieldParser.parseEntity(CompleteUser.class, response.getResponse().getJSONObject("user"), this.skipNonExistingFields);
-      }
+    if (batchDispatcher != null) {
+      return awaitResult(batchDispatcher.user(userId));
+    }
 
-      return new Result<CompleteUser>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
+    return doApiRequest(new EntityResultHandler<CompleteUser>("user", CompleteUser.class), Method.GET, "users/" + userId, true);
+  }
+
+  /**
+   * Asynchronous version of {@link #user(String)}
+   * 
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @param callback callback notified when request completes or null
+   * @return Future of CompleteUser entity wrapped in Result object
+   */
+  public ResultFuture<CompleteUser> userAsync(String userId, ResultCallback<CompleteUser> callback) {
+    if (userId == null) {
+      userId = "self";
+    }
+
+    Result<CompleteUser> cached = getCachedResult(CompleteUser.class, userId);
+    if (cached != null) {
+      return completedFuture(cached, callback);
     }
+
+    return doApiRequestAsync(new EntityResultHandler<CompleteUser>("user", CompleteUser.class), callback, Method.GET, "users/" + userId, true);
   }
 
   /**
@@ -206,18 +322,18 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<LeaderboardItemGroup> usersLeaderboard(Integer neighbors) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/leaderboard", true, "neighbors", neighbors);
-      LeaderboardItemGroup result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (LeaderboardItemGroup) JSONFieldParser.parseEntity(LeaderboardItemGroup.class, response.getResponse().getJSONObject("leaderboard"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<LeaderboardItemGroup>("leaderboard", LeaderboardItemGroup.class), Method.GET, "users/leaderboard", true, "neighbors", neighbors);
+  }
 
-      return new Result<LeaderboardItemGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #usersLeaderboard(Integer)}
+   * 
+   * @param neighbors number of friends' scores to return that are adjacent to user's score
+   * @param callback callback notified when request completes or null
+   * @return Future of LeaderboardItemGroup entity wrapped in Result object
+   */
+  public ResultFuture<LeaderboardItemGroup> usersLeaderboardAsync(Integer neighbors, ResultCallback<LeaderboardItemGroup> callback) {
+    return doApiRequestAsync(new EntityResultHandler<LeaderboardItemGroup>("leaderboard", LeaderboardItemGroup.class), callback, Method.GET, "users/leaderboard", true, "neighbors", neighbors);
   }
 
   /**
@@ -266,22 +382,53 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CheckinGroup> usersCheckins(String userId, Integer limit, Integer offset, Long afterTimestamp, Long beforeTimestamp) throws FoursquareApiException {
-    try {
-      if (userId == null) {
-        userId = "self";
-      }
-
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/" + userId + "/checkins", true, "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp, "beforeTimestamp", beforeTimestamp);
-      CheckinGroup result = null;
+    if (userId == null) {
+      userId = "self";
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (CheckinGroup) JSONFieldParser.parseEntity(CheckinGroup.class, response.getResponse().getJSONObject("checkins"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<CheckinGroup>("checkins", CheckinGroup.class), Method.GET, "users/" + userId + "/checkins", true, "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp, "beforeTimestamp", beforeTimestamp);
+  }
 
-      return new Result<CheckinGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
+  /**
+   * Asynchronous version of {@link #usersCheckins(String,Integer,Integer,Long,Long)}
+   * 
+   * @param userId User id (For now, only 'self' is supported, 'self' assumed if null)
+   * @param limit number of results to return
+   * @param offset used to page through results. 
+   * @param afterTimestamp retrieve the first results to follow these seconds since epoch.
+   * @param beforeTimestamp retrieve the first results prior to these seconds since epoch.
+   * @param callback callback notified when request completes or null
+   * @return Future of CheckinGroup entity wrapped in Result object 
+   */
+  public ResultFuture<CheckinGroup> usersCheckinsAsync(String userId, Integer limit, Integer offset, Long afterTimestamp, Long beforeTimestamp, ResultCallback<CheckinGroup> callback) {
+    if (userId == null) {
+      userId = "self";
     }
+
+    return doApiRequestAsync(new EntityResultHandler<CheckinGroup>("checkins", CheckinGroup.class), callback, Method.GET, "users/" + userId + "/checkins", true, "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp, "beforeTimestamp", beforeTimestamp);
+  }
+
+  /**
+   * Returns iterator over the whole check-in history of a user. Pages are fetched lazily and 
+   * following pages are prefetched in the background while the current page is consumed.
+   * 
+   * @see #usersCheckins(String, Integer, Integer, Long, Long)
+   * @see PageIterator
+   * 
+   * @param userId User id (For now, only 'self' is supported, 'self' assumed if null)
+   * @param pageSize number of check-ins requested per page, up to 250. Larger page sizes are reduced to 250.
+   * @param prefetchDepth maximum number of pages requested ahead of the page being consumed
+   * @param afterTimestamp retrieve the first results to follow these seconds since epoch.
+   * @param beforeTimestamp retrieve the first results prior to these seconds since epoch.
+   * @return iterator over check-ins
+   */
+  public PageIterator<Checkin> usersCheckinsIterator(final String userId, int pageSize, int prefetchDepth, final Long afterTimestamp, final Long beforeTimestamp) {
+    return new PageIterator<Checkin>(Math.min(pageSize, 250), prefetchDepth) {
+      @Override
+      protected ResultFuture<CheckinGroup> fetchPage(int offset, int limit) {
+        return usersCheckinsAsync(userId, limit, offset, afterTimestamp, beforeTimestamp, null);
+      }
+    };
   }
 
   /**
@@ -298,22 +445,53 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<TipGroup> usersTips(String userId, String sort, String ll, Integer limit, Integer offset) throws FoursquareApiException {
-    try {
-      if (userId == null) {
-        userId = "self";
-      }
-
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/" + userId + "/tips", true, "sort", sort, "ll", ll, "limit", limit, "offset", offset);
-      TipGroup result = null;
+    if (userId == null) {
+      userId = "self";
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (TipGroup) JSONFieldParser.parseEntity(TipGroup.class, response.getResponse().getJSONObject("tips"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<TipGroup>("tips", TipGroup.class), Method.GET, "users/" + userId + "/tips", true, "sort", sort, "ll", ll, "limit", limit, "offset", offset);
+  }
 
-      return new Result<TipGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
+  /**
+   * Asynchronous version of {@link #usersTips(String,String,String,Integer,Integer)}
+   * 
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @param sort one of recent, nearby, or popular. Nearby requires ll to be provided.
+   * @param ll latitude and longitude of the user's location.
+   * @param limit number of results to return, up to 500.
+   * @param offset used to page through results.
+   * @param callback callback notified when request completes or null
+   * @return Future of TipGroup entity wrapped in Result object 
+   */
+  public ResultFuture<TipGroup> usersTipsAsync(String userId, String sort, String ll, Integer limit, Integer offset, ResultCallback<TipGroup> callback) {
+    if (userId == null) {
+      userId = "self";
     }
+
+    return doApiRequestAsync(new EntityResultHandler<TipGroup>("tips", TipGroup.class), callback, Method.GET, "users/" + userId + "/tips", true, "sort", sort, "ll", ll, "limit", limit, "offset", offset);
+  }
+
+  /**
+   * Returns iterator over all tips of a user. Pages are fetched lazily and following pages are 
+   * prefetched in parallel while the current page is consumed.
+   * 
+   * @see #usersTips(String, String, String, Integer, Integer)
+   * @see PageIterator
+   * 
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @param sort one of recent, nearby, or popular. Nearby requires ll to be provided.
+   * @param ll latitude and longitude of the user's location.
+   * @param pageSize number of tips requested per page, up to 500. Larger page sizes are reduced to 500.
+   * @param prefetchDepth maximum number of pages requested ahead of the page being consumed
+   * @return iterator over tips
+   */
+  public PageIterator<CompleteTip> usersTipsIterator(final String userId, final String sort, final String ll, int pageSize, int prefetchDepth) {
+    return new PageIterator<CompleteTip>(Math.min(pageSize, 500), prefetchDepth) {
+      @Override
+      protected ResultFuture<TipGroup> fetchPage(int offset, int limit) {
+        return usersTipsAsync(userId, sort, ll, limit, offset, null);
+      }
+    };
   }
   
   /**
@@ -328,22 +506,28 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<TodoGroup> usersTodos(String userId, String sort, String ll) throws FoursquareApiException {
-    try {
-      if (userId == null) {
-        userId = "self";
-      }
-
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/" + userId + "/todos", true, "sort", sort, "ll", ll);
-      TodoGroup result = null;
+    if (userId == null) {
+      userId = "self";
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (TodoGroup) JSONFieldParser.parseEntity(TodoGroup.class, response.getResponse().getJSONObject("todos"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<TodoGroup>("todos", TodoGroup.class), Method.GET, "users/" + userId + "/todos", true, "sort", sort, "ll", ll);
+  }
 
-      return new Result<TodoGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
+  /**
+   * Asynchronous version of {@link #usersTodos(String,String,String)}
+   * 
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @param sort one of recent or popular. Nearby requires ll to be provided.
+   * @param ll latitude and longitude of the user's location
+   * @param callback callback notified when request completes or null
+   * @return Future of TodoGroup entity wrapped in Result object 
+   */
+  public ResultFuture<TodoGroup> usersTodosAsync(String userId, String sort, String ll, ResultCallback<TodoGroup> callback) {
+    if (userId == null) {
+      userId = "self";
     }
+
+    return doApiRequestAsync(new EntityResultHandler<TodoGroup>("todos", TodoGroup.class), callback, Method.GET, "users/" + userId + "/todos", true, "sort", sort, "ll", ll);
   }
   
   /**
@@ -358,22 +542,28 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<VenueHistoryGroup> usersVenueHistory(String userId, Long beforeTimestamp, Long afterTimestamp) throws FoursquareApiException {
-    try {
-      if (userId == null) {
-        userId = "self";
-      }
-
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/" + userId + "/venuehistory", true, "beforeTimestamp", beforeTimestamp, "afterTimestamp", afterTimestamp);
-      VenueHistoryGroup result = null;
+    if (userId == null) {
+      userId = "self";
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (VenueHistoryGroup) JSONFieldParser.parseEntity(VenueHistoryGroup.class, response.getResponse().getJSONObject("venues"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<VenueHistoryGroup>("venues", VenueHistoryGroup.class), Method.GET, "users/" + userId + "/venuehistory", true, "beforeTimestamp", beforeTimestamp, "afterTimestamp", afterTimestamp);
+  }
 
-      return new Result<VenueHistoryGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
+  /**
+   * Asynchronous version of {@link #usersVenueHistory(String,Long,Long)}
+   * 
+   * @param userId User id (For now, only 'self' is supported, 'self' assumed if null)
+   * @param beforeTimestamp seconds since epoch.
+   * @param afterTimestamp seconds after epoch.
+   * @param callback callback notified when request completes or null
+   * @return Future of VenueHistoryGroup entity wrapped in Result object 
+   */
+  public ResultFuture<VenueHistoryGroup> usersVenueHistoryAsync(String userId, Long beforeTimestamp, Long afterTimestamp, ResultCallback<VenueHistoryGroup> callback) {
+    if (userId == null) {
+      userId = "self";
     }
+
+    return doApiRequestAsync(new EntityResultHandler<VenueHistoryGroup>("venues", VenueHistoryGroup.class), callback, Method.GET, "users/" + userId + "/venuehistory", true, "beforeTimestamp", beforeTimestamp, "afterTimestamp", afterTimestamp);
   }
 
   /**
@@ -512,18 +702,23 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompactUser[]> usersSearch(String phone, String email, String twitter, String twitterSource, String fbid, String name) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/search", true, "phone", phone, "email", email, "twitter", twitter, "twitterSource", twitterSource, "fbid", fbid, "name", name);
-      CompactUser[] result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (CompactUser[]) JSONFieldParser.parseEntities(CompactUser.class, response.getResponse().getJSONArray("results"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<CompactUser[]>("results", CompactUser.class), Method.GET, "users/search", true, "phone", phone, "email", email, "twitter", twitter, "twitterSource", twitterSource, "fbid", fbid, "name", name);
+  }
 
-      return new Result<CompactUser[]>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #usersSearch(String,String,String,String,String,String)}
+   * 
+   * @param phone a comma-delimited list of phone numbers to look for. 
+   * @param email a comma-delimited list of email addresses to look for.
+   * @param twitter a comma-delimited list of Twitter handles to look for.
+   * @param twitterSource a single Twitter handle. Results will be friends of this user who use Foursquare.
+   * @param fbid a comma-delimited list of Facebook id's to look for.
+   * @param name a single string to search for in users' names.
+   * @param callback callback notified when request completes or null
+   * @return Future of array of CompactUser entities wrapped in Result object
+   */
+  public ResultFuture<CompactUser[]> usersSearchAsync(String phone, String email, String twitter, String twitterSource, String fbid, String name, ResultCallback<CompactUser[]> callback) {
+    return doApiRequestAsync(new EntityResultHandler<CompactUser[]>("results", CompactUser.class), callback, Method.GET, "users/search", true, "phone", phone, "email", email, "twitter", twitter, "twitterSource", twitterSource, "fbid", fbid, "name", name);
   }
 
   /**
@@ -535,18 +730,17 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompactUser[]> usersRequests() throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/requests", true);
-      CompactUser[] result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (CompactUser[]) JSONFieldParser.parseEntities(CompactUser.class, response.getResponse().getJSONArray("requests"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<CompactUser[]>("requests", CompactUser.class), Method.GET, "users/requests", true);
+  }
 
-      return new Result<CompactUser[]>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #usersRequests()}
+   * 
+   * @param callback callback notified when request completes or null
+   * @return Future of array of CompactUser entities wrapped in a Result object
+   */
+  public ResultFuture<CompactUser[]> usersRequestsAsync(ResultCallback<CompactUser[]> callback) {
+    return doApiRequestAsync(new EntityResultHandler<CompactUser[]>("requests", CompactUser.class), callback, Method.GET, "users/requests", true);
   }
 
   /**
@@ -559,22 +753,26 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens 
    */
   public Result<UserGroup> usersFriends(String userId) throws FoursquareApiException {
-    try {
-      if (userId == null) {
-        userId = "self";
-      }
-
-      ApiRequestResponse response = doApiRequest(Method.GET, "users/" + userId + "/friends", true);
-      UserGroup result = null;
+    if (userId == null) {
+      userId = "self";
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (UserGroup) JSONFieldParser.parseEntity(UserGroup.class, response.getResponse().getJSONObject("friends"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<UserGroup>("friends", UserGroup.class), Method.GET, "users/" + userId + "/friends", true);
+  }
 
-      return new Result<UserGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
+  /**
+   * Asynchronous version of {@link #usersFriends(String)}
+   * 
+   * @param userId User id (can be 'self' in case of the current user, assumed 'self' if null)
+   * @param callback callback notified when request completes or null
+   * @return Future of UserGroup entity wrapped in Result object
+   */
+  public ResultFuture<UserGroup> usersFriendsAsync(String userId, ResultCallback<UserGroup> callback) {
+    if (userId == null) {
+      userId = "self";
     }
+
+    return doApiRequestAsync(new EntityResultHandler<UserGroup>("friends", UserGroup.class), callback, Method.GET, "users/" + userId + "/friends", true);
   }
 
   /**
@@ -587,18 +785,32 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompleteVenue> venue(String venueId) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/" + venueId, isAuthenticated());
-      CompleteVenue result = null;
+    Result<CompleteVenue> cached = getCachedResult(CompleteVenue.class, venueId);
+    if (cached != null) {
+      return cached;
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (CompleteVenue) JSONFieldParser.parseEntity(CompleteVenue.class, response.getResponse().getJSONObject("venue"), this.skipNonExistingFields);
-      }
+    if (batchDispatcher != null) {
+      return awaitResult(batchDispatcher.venue(venueId));
+    }
 
-      return new Result<CompleteVenue>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
+    return doApiRequest(new EntityResultHandler<CompleteVenue>("venue", CompleteVenue.class), Method.GET, "venues/" + venueId, isAuthenticated());
+  }
+
+  /**
+   * Asynchronous version of {@link #venue(String)}
+   * 
+   * @param venueId id of venue to retrieve
+   * @param callback callback notified when request completes or null
+   * @return Future of CompleteVenue entity wrapped in Result object
+   */
+  public ResultFuture<CompleteVenue> venueAsync(String venueId, ResultCallback<CompleteVenue> callback) {
+    Result<CompleteVenue> cached = getCachedResult(CompleteVenue.class, venueId);
+    if (cached != null) {
+      return completedFuture(cached, callback);
     }
+
+    return doApiRequestAsync(new EntityResultHandler<CompleteVenue>("venue", CompleteVenue.class), callback, Method.GET, "venues/" + venueId, isAuthenticated());
   }
   
   /**
@@ -649,24 +861,49 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CheckinGroup> venuesHereNow(String venueId, Integer limit, Integer offset, Long afterTimestamp) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/" + venueId + "/herenow", isAuthenticated(), "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp);
-      CheckinGroup result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (CheckinGroup) JSONFieldParser.parseEntity(CheckinGroup.class, response.getResponse().getJSONObject("hereNow"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<CheckinGroup>("hereNow", CheckinGroup.class), Method.GET, "venues/" + venueId + "/herenow", isAuthenticated(), "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp);
+  }
 
-      return new Result<CheckinGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #venuesHereNow(String,Integer,Integer,Long)}
+   * 
+   * @param venueId id of venue to retrieve
+   * @param limit number of results to return, up to 500.
+   * @param offset used to page through results. 
+   * @param afterTimestamp retrieve the first results to follow these seconds since epoch
+   * @param callback callback notified when request completes or null
+   * @return Future of CheckinGroup entity wrapped in Result object
+   */
+  public ResultFuture<CheckinGroup> venuesHereNowAsync(String venueId, Integer limit, Integer offset, Long afterTimestamp, ResultCallback<CheckinGroup> callback) {
+    return doApiRequestAsync(new EntityResultHandler<CheckinGroup>("hereNow", CheckinGroup.class), callback, Method.GET, "venues/" + venueId + "/herenow", isAuthenticated(), "limit", limit, "offset", offset, "afterTimestamp", afterTimestamp);
   }
-  
+
   /**
-   * Returns tips for a venue. 
+   * Returns iterator over all check-ins of users currently at a venue. Pages are fetched lazily 
+   * and following pages are prefetched in parallel while the current page is consumed.
    * 
-   * @see <a href="https://developer.foursquare.com/docs/venues/tips.html" target="_blank">https://developer.foursquare.com/docs/venues/tips.html</a>
+   * @see #venuesHereNow(String, Integer, Integer, Long)
+   * @see PageIterator
+   * 
+   * @param venueId id of venue to retrieve
+   * @param pageSize number of check-ins requested per page, up to 500. Larger page sizes are reduced to 500.
+   * @param prefetchDepth maximum number of pages requested ahead of the page being consumed
+   * @param afterTimestamp retrieve the first results to follow these seconds since epoch
+   * @return iterator over check-ins
+   */
+  public PageIterator<Checkin> venuesHereNowIterator(final String venueId, int pageSize, int prefetchDepth, final Long afterTimestamp) {
+    return new PageIterator<Checkin>(Math.min(pageSize, 500), prefetchDepth) {
+      @Override
+      protected ResultFuture<CheckinGroup> fetchPage(int offset, int limit) {
+        return venuesHereNowAsync(venueId, limit, offset, afterTimestamp, null);
+      }
+    };
+  }
+  
+  /**
+   * Returns tips for a venue. 
+   * 
+   * @see <a href="https://developer.foursquare.com/docs/venues/tips.html" target="_blank">https://developer.foursquare.com/docs/venues/tips.html</a>
    * 
    * @param venueId id of venue 
    * @param sort one of recent or popular
@@ -676,19 +913,45 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<TipGroup> venuesTips(String venueId, String sort, Integer limit, Integer offset) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/" + venueId + "/tips", isAuthenticated(), "sort", sort, "limit", limit, "offset", offset);
-      TipGroup result = null;
+    return doApiRequest(new EntityResultHandler<TipGroup>("tips", TipGroup.class), Method.GET, "venues/" + venueId + "/tips", isAuthenticated(), "sort", sort, "limit", limit, "offset", offset);
+  } 
 
-      if (response.getMeta().getCode() == 200) {
-        result = (TipGroup) JSONFieldParser.parseEntity(TipGroup.class, response.getResponse().getJSONObject("tips"), this.skipNonExistingFields);
+  /**
+   * Asynchronous version of {@link #venuesTips(String,String,Integer,Integer)}
+   * 
+   * @param venueId id of venue 
+   * @param sort one of recent or popular
+   * @param limit number of results to return, up to 500.
+   * @param offset used to page through results.
+   * @param callback callback notified when request completes or null
+   * @return Future of TipGroup entity wrapped in Result object
+   */
+  public ResultFuture<TipGroup> venuesTipsAsync(String venueId, String sort, Integer limit, Integer offset, ResultCallback<TipGroup> callback) {
+    return doApiRequestAsync(new EntityResultHandler<TipGroup>("tips", TipGroup.class), callback, Method.GET, "venues/" + venueId + "/tips", isAuthenticated(), "sort", sort, "limit", limit, "offset", offset);
+  }
+
+  /**
+   * Returns iterator over all tips of a venue. Pages are fetched lazily and following pages are 
+   * prefetched in parallel while the current page is consumed.
+   * 
+   * @see #venuesTips(String, String, Integer, Integer)
+   * @see PageIterator
+   * 
+   * @param venueId id of venue 
+   * @param sort one of recent or popular
+   * @param pageSize number of tips requested per page, up to 500. Larger page sizes are reduced to 500.
+   * @param prefetchDepth maximum number of pages requested ahead of the page being consumed
+   * @return iterator over tips
+   */
+  public PageIterator<CompleteTip> venuesTipsIterator(final String venueId, final String sort, int pageSize, int prefetchDepth) {
+    return new PageIterator<CompleteTip>(Math.min(pageSize, 500), prefetchDepth) {
+      @Override
+      protected ResultFuture<TipGroup> fetchPage(int offset, int limit) {
+        return venuesTipsAsync(venueId, sort, limit, offset, null);
       }
+    };
+  }
 
-      return new Result<TipGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
-  } 
 
   /**
    * Returns photos for a venue. 
@@ -703,19 +966,45 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<PhotoGroup> venuesPhotos(String venueId, String group, Integer limit, Integer offset) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/" + venueId + "/photos", isAuthenticated(), "group", group, "limit", limit, "offset", offset);
-      PhotoGroup result = null;
+    return doApiRequest(new EntityResultHandler<PhotoGroup>("photos", PhotoGroup.class), Method.GET, "venues/" + venueId + "/photos", isAuthenticated(), "group", group, "limit", limit, "offset", offset);
+  } 
 
-      if (response.getMeta().getCode() == 200) {
-        result = (PhotoGroup) JSONFieldParser.parseEntity(PhotoGroup.class, response.getResponse().getJSONObject("photos"), this.skipNonExistingFields);
+  /**
+   * Asynchronous version of {@link #venuesPhotos(String,String,Integer,Integer)}
+   * 
+   * @param venueId the venue you want photos for.
+   * @param group pass checkin for photos added by friends on their recent checkins. Pass venue for public photos added to the venue by anyone. Use multi to fetch both.
+   * @param limit number of results to return, up to 500.
+   * @param offset used to page through results.
+   * @param callback callback notified when request completes or null
+   * @return Future of PhotoGroup entity wrapped in Result object
+   */
+  public ResultFuture<PhotoGroup> venuesPhotosAsync(String venueId, String group, Integer limit, Integer offset, ResultCallback<PhotoGroup> callback) {
+    return doApiRequestAsync(new EntityResultHandler<PhotoGroup>("photos", PhotoGroup.class), callback, Method.GET, "venues/" + venueId + "/photos", isAuthenticated(), "group", group, "limit", limit, "offset", offset);
+  }
+
+  /**
+   * Returns iterator over all photos of a venue. Pages are fetched lazily and following pages are 
+   * prefetched in parallel while the current page is consumed.
+   * 
+   * @see #venuesPhotos(String, String, Integer, Integer)
+   * @see PageIterator
+   * 
+   * @param venueId the venue you want photos for.
+   * @param group pass checkin for photos added by friends on their recent checkins. Pass venue for public photos added to the venue by anyone.
+   * @param pageSize number of photos requested per page, up to 500. Larger page sizes are reduced to 500.
+   * @param prefetchDepth maximum number of pages requested ahead of the page being consumed
+   * @return iterator over photos
+   */
+  public PageIterator<Photo> venuesPhotosIterator(final String venueId, final String group, int pageSize, int prefetchDepth) {
+    return new PageIterator<Photo>(Math.min(pageSize, 500), prefetchDepth) {
+      @Override
+      protected ResultFuture<PhotoGroup> fetchPage(int offset, int limit) {
+        return venuesPhotosAsync(venueId, group, limit, offset, null);
       }
+    };
+  }
 
-      return new Result<PhotoGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
-  } 
   
   /**
    * Returns URLs or identifiers from third parties that have been applied to this venue
@@ -727,18 +1016,18 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<LinkGroup> venuesLinks(String id) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/" + id + "/links", isAuthenticated());
-      LinkGroup result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (LinkGroup) JSONFieldParser.parseEntity(LinkGroup.class, response.getResponse().getJSONObject("links"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<LinkGroup>("links", LinkGroup.class), Method.GET, "venues/" + id + "/links", isAuthenticated());
+  }
 
-      return new Result<LinkGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #venuesLinks(String)}
+   * 
+   * @param id id of the venue
+   * @param callback callback notified when request completes or null
+   * @return Future of LinkGroup entity wrapped in Result object
+   */
+  public ResultFuture<LinkGroup> venuesLinksAsync(String id, ResultCallback<LinkGroup> callback) {
+    return doApiRequestAsync(new EntityResultHandler<LinkGroup>("links", LinkGroup.class), callback, Method.GET, "venues/" + id + "/links", isAuthenticated());
   }
 
   /**
@@ -884,18 +1173,17 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<Category[]> venuesCategories() throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/categories", isAuthenticated());
-      Category[] result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (Category[]) JSONFieldParser.parseEntities(Category.class, response.getResponse().getJSONArray("categories"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<Category[]>("categories", Category.class), Method.GET, "venues/categories", isAuthenticated());
+  }
 
-      return new Result<Category[]>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #venuesCategories()}
+   * 
+   * @param callback callback notified when request completes or null
+   * @return Future of Array of Category entities wrapped in Result object
+   */
+  public ResultFuture<Category[]> venuesCategoriesAsync(ResultCallback<Category[]> callback) {
+    return doApiRequestAsync(new EntityResultHandler<Category[]>("categories", Category.class), callback, Method.GET, "venues/categories", isAuthenticated());
   }
 
   /**
@@ -920,61 +1208,33 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<VenuesSearchResult> venuesSearch(String ll, Double llAcc, Double alt, Double altAcc, String query, Integer limit, String intent, String categoryId, String url, String providerId, String linkedId, Integer radius, String near) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/search", isAuthenticated(), "ll", ll, "llAcc", llAcc, "alt", alt, "altAcc", altAcc, "query", query, "limit", limit, "intent", intent, "categoryId", categoryId, "url", url, "providerId", providerId, "linkedId", linkedId, "radius", radius, "near", near);
-      VenuesSearchResult result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        CompactVenue[] venues = null;
-        VenueGroup[] groups = null;
-        
-        if (response.getResponse().has("groups")) {
-          groups = (VenueGroup[]) JSONFieldParser.parseEntities(VenueGroup.class, response.getResponse().getJSONArray("groups"), this.skipNonExistingFields);
-        } 
-        
-        if (response.getResponse().has("venues")) {
-          venues = (CompactVenue[]) JSONFieldParser.parseEntities(CompactVenue.class, response.getResponse().getJSONArray("venues"), this.skipNonExistingFields);
-        }  
-        
-        result = new VenuesSearchResult(venues, groups);
-      }
-
-      return new Result<VenuesSearchResult>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+    return doApiRequest(new VenuesSearchResultHandler(), Method.GET, "venues/search", isAuthenticated(), "ll", ll, "llAcc", llAcc, "alt", alt, "altAcc", altAcc, "query", query, "limit", limit, "intent", intent, "categoryId", categoryId, "url", url, "providerId", providerId, "linkedId", linkedId, "radius", radius, "near", near);
   }
-  
-  
+
   /**
-   * handle parsing a venue search result and parsing the data
-   * @param response
-   * @return
+   * Asynchronous version of {@link #venuesSearch(String,Double,Double,Double,String,Integer,String,String,String,String,String,Integer,String)}
+   * 
+   * @param ll latitude and longitude of the user's location. (Required for query searches)
+   * @param llAcc accuracy of latitude and longitude, in meters. (Does not currently affect search results.)
+   * @param alt altitude of the user's location, in meters. (Does not currently affect search results.)
+   * @param altAcc accuracy of the user's altitude, in meters. (Does not currently affect search results.)
+   * @param query a search term to be applied against titles.
+   * @param limit number of results to return, up to 50.
+   * @param intent one of checkin, match or specials
+   * @param categoryId a category to limit results to
+   * @param url a third-party URL
+   * @param providerId identifier for a known third party
+   * @param linkedId identifier used by third party specifed in providerId parameter
+   * @param radius Limit results to venues within this many meters of the specified location. Maximum is 100 000 meters.
+   * @param near Required if ll is not provided. A string naming a place in the world. Will be geocodd. (required for query searches)
+   * @param callback callback notified when request completes or null
+   * @return Future of VenuesSearchResult object wrapped in Result object
    */
-  private Result<VenuesSearchResult> handleVenueSearchResult(ApiRequestResponse response) throws FoursquareApiException, JSONException {
-	  VenuesSearchResult result = null;
-	     
-      if (response.getMeta().getCode() == 200) {
-        CompactVenue[] venues = null;
-        VenueGroup[] groups = null;
-        GeoCode geocode = null;
-        if (response.getResponse().has("groups")) {
-          groups = (VenueGroup[]) JSONFieldParser.parseEntities(VenueGroup.class, response.getResponse().getJSONArray("groups"), this.skipNonExistingFields);
-        } 
-        
-        if (response.getResponse().has("venues")) {
-          venues = (CompactVenue[]) JSONFieldParser.parseEntities(CompactVenue.class, response.getResponse().getJSONArray("venues"), this.skipNonExistingFields);
-        }  
-        
-        if(response.getResponse().has("geocode")) {
-        	geocode = (GeoCode) JSONFieldParser.parseEntity(GeoCode.class, response.getResponse().getJSONObject("geocode"), this.skipNonExistingFields);
-        }
-        result = new VenuesSearchResult(venues, groups,geocode);
-      }
-
-      return new Result<VenuesSearchResult>(response.getMeta(), result);
+  public ResultFuture<VenuesSearchResult> venuesSearchAsync(String ll, Double llAcc, Double alt, Double altAcc, String query, Integer limit, String intent, String categoryId, String url, String providerId, String linkedId, Integer radius, String near, ResultCallback<VenuesSearchResult> callback) {
+    return doApiRequestAsync(new VenuesSearchResultHandler(), callback, Method.GET, "venues/search", isAuthenticated(), "ll", ll, "llAcc", llAcc, "alt", alt, "altAcc", altAcc, "query", query, "limit", limit, "intent", intent, "categoryId", categoryId, "url", url, "providerId", providerId, "linkedId", linkedId, "radius", radius, "near", near);
   }
   
+  
   /**
    * Generic search which takes a map of parameters
    * The map is converted into parameters for the search API call with key/value pairs matching 
@@ -1009,12 +1269,25 @@ public class FoursquareApi {
 	  }
 	  
 	  Object[] args = argsList.toArray();
-	  try {
-	      ApiRequestResponse response = doApiRequest(Method.GET, "venues/search", isAuthenticated(), args);
-	      return handleVenueSearchResult(response);
-	    } catch (JSONException e) {
-	      throw new FoursquareApiException(e);
-	    }
+	  return doApiRequest(new VenuesSearchResultHandler(), Method.GET, "venues/search", isAuthenticated(), args);
+  }
+
+  /**
+   * Asynchronous version of {@link #venuesSearch(Map)}
+   * 
+   * @param params search parameters in parameter name, parameter value pairs
+   * @param callback callback notified when request completes or null
+   * @return Future of VenuesSearchResult entity wrapped in Result object
+   */
+  public ResultFuture<VenuesSearchResult> venuesSearchAsync(Map<String,String> params, ResultCallback<VenuesSearchResult> callback) {
+	  List<String> argsList = new ArrayList<String>();
+	  for(String s : params.keySet()) {
+		  argsList.add(s);
+		  argsList.add(params.get(s));
+	  }
+	  
+	  Object[] args = argsList.toArray();
+	  return doApiRequestAsync(new VenuesSearchResultHandler(), callback, Method.GET, "venues/search", isAuthenticated(), args);
   }
   
   /**
@@ -1034,12 +1307,25 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<VenuesSearchResult> venuesSearch(String near, String query, Integer limit, String intent, String categoryId, String url, String providerId, String linkedId) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/search", isAuthenticated(), "near", near, "query", query, "limit", limit, "intent", intent, "categoryId", categoryId, "url", url, "providerId", providerId, "linkedId", linkedId);
-      return handleVenueSearchResult(response);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+    return doApiRequest(new VenuesSearchResultHandler(), Method.GET, "venues/search", isAuthenticated(), "near", near, "query", query, "limit", limit, "intent", intent, "categoryId", categoryId, "url", url, "providerId", providerId, "linkedId", linkedId);
+  }
+
+  /**
+   * Asynchronous version of {@link #venuesSearch(String,String,Integer,String,String,String,String,String)}
+   * 
+   * @param near the name of a city or town which can be geocoded by foursquare
+   * @param query a search term to be applied against titles.
+   * @param limit number of results to return, up to 50.
+   * @param intent one of checkin, match or specials
+   * @param categoryId a category to limit results to
+   * @param url a third-party URL
+   * @param providerId identifier for a known third party
+   * @param linkedId identifier used by third party specifed in providerId parameter
+   * @param callback callback notified when request completes or null
+   * @return Future of VenuesSearchResult object wrapped in Result object
+   */
+  public ResultFuture<VenuesSearchResult> venuesSearchAsync(String near, String query, Integer limit, String intent, String categoryId, String url, String providerId, String linkedId, ResultCallback<VenuesSearchResult> callback) {
+    return doApiRequestAsync(new VenuesSearchResultHandler(), callback, Method.GET, "venues/search", isAuthenticated(), "near", near, "query", query, "limit", limit, "intent", intent, "categoryId", categoryId, "url", url, "providerId", providerId, "linkedId", linkedId);
   }
 
  
@@ -1088,18 +1374,20 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompactVenue[]> venuesTrending(String ll, Integer limit, Integer radius) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "venues/trending", isAuthenticated(), "ll", ll, "limit", limit, "radius", radius);
-      CompactVenue[] result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (CompactVenue[]) JSONFieldParser.parseEntities(CompactVenue.class, response.getResponse().getJSONArray("venues"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<CompactVenue[]>("venues", CompactVenue.class), Method.GET, "venues/trending", isAuthenticated(), "ll", ll, "limit", limit, "radius", radius);
+  }
 
-      return new Result<CompactVenue[]>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #venuesTrending(String,Integer,Integer)}
+   * 
+   * @param ll latitude and longitude of the user's location.
+   * @param limit number of results to return, up to 50.
+   * @param radius radius in meters, up to approximately 2000 meters.
+   * @param callback callback notified when request completes or null
+   * @return Future of Array of CompactVenue entities wrapped in Result object
+   */
+  public ResultFuture<CompactVenue[]> venuesTrendingAsync(String ll, Integer limit, Integer radius, ResultCallback<CompactVenue[]> callback) {
+    return doApiRequestAsync(new EntityResultHandler<CompactVenue[]>("venues", CompactVenue.class), callback, Method.GET, "venues/trending", isAuthenticated(), "ll", ll, "limit", limit, "radius", radius);
   }
 
   /**
@@ -1113,18 +1401,23 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<Checkin> checkin(String checkinId, String signature) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "checkins/" + checkinId, true, "signature", signature);
-      Checkin result = null;
+    if (batchDispatcher != null) {
+      return awaitResult(batchDispatcher.checkin(checkinId, signature));
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (Checkin) JSONFieldParser.parseEntity(Checkin.class, response.getResponse().getJSONObject("checkin"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<Checkin>("checkin", Checkin.class), Method.GET, "checkins/" + checkinId, true, "signature", signature);
+  }
 
-      return new Result<Checkin>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #checkin(String,String)}
+   * 
+   * @param checkinId the ID of the checkin to retrieve additional information for.
+   * @param signature when checkins are sent to public feeds such as Twitter, Foursquare appends a signature (s=XXXXXX) allowing users to bypass the friends-only access check on checkins. The same value can be used here for programmatic access to otherwise inaccessible checkins. 
+   * @param callback callback notified when request completes or null
+   * @return Future of Checkin entity wrapped in Result object
+   */
+  public ResultFuture<Checkin> checkinAsync(String checkinId, String signature, ResultCallback<Checkin> callback) {
+    return doApiRequestAsync(new EntityResultHandler<Checkin>("checkin", Checkin.class), callback, Method.GET, "checkins/" + checkinId, true, "signature", signature);
   }
 
   /**
@@ -1172,18 +1465,20 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<Checkin[]> checkinsRecent(String ll, Integer limit, Long afterTimestamp) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "checkins/recent", true, "ll", ll, "limit", limit, "afterTimestamp", afterTimestamp);
-      Checkin[] result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (Checkin[]) JSONFieldParser.parseEntities(Checkin.class, response.getResponse().getJSONArray("recent"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<Checkin[]>("recent", Checkin.class), Method.GET, "checkins/recent", true, "ll", ll, "limit", limit, "afterTimestamp", afterTimestamp);
+  }
 
-      return new Result<Checkin[]>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #checkinsRecent(String,Integer,Long)}
+   * 
+   * @param ll latitude and longitude of the user's location, so response can include distance.
+   * @param limit number of results to return, up to 100.
+   * @param afterTimestamp seconds after which to look for checkins
+   * @param callback callback notified when request completes or null
+   * @return Future of Array of Checkin entities wrapped in Result object
+   */
+  public ResultFuture<Checkin[]> checkinsRecentAsync(String ll, Integer limit, Long afterTimestamp, ResultCallback<Checkin[]> callback) {
+    return doApiRequestAsync(new EntityResultHandler<Checkin[]>("recent", Checkin.class), callback, Method.GET, "checkins/recent", true, "ll", ll, "limit", limit, "afterTimestamp", afterTimestamp);
   }
 
   /**
@@ -1246,18 +1541,22 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompleteTip> tip(String id) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "tips/" + id, false);
-      CompleteTip result = null;
+    if (batchDispatcher != null) {
+      return awaitResult(batchDispatcher.tip(id));
+    }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (CompleteTip) JSONFieldParser.parseEntity(CompleteTip.class, response.getResponse().getJSONObject("tip"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<CompleteTip>("tip", CompleteTip.class), Method.GET, "tips/" + id, false);
+  }
 
-      return new Result<CompleteTip>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #tip(String)}
+   * 
+   * @param id id of tip to retrieve
+   * @param callback callback notified when request completes or null
+   * @return Future of CompleteTip entity wrapped in Result object
+   */
+  public ResultFuture<CompleteTip> tipAsync(String id, ResultCallback<CompleteTip> callback) {
+    return doApiRequestAsync(new EntityResultHandler<CompleteTip>("tip", CompleteTip.class), callback, Method.GET, "tips/" + id, false);
   }
 
   /**
@@ -1300,18 +1599,44 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompleteTip[]> tipsSearch(String ll, Integer limit, Integer offset, String filter, String query) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "tips/search", isAuthenticated(), "ll", ll, "limit", limit, "offset", offset, "filter", filter, "query", query);
-      CompleteTip[] result = null;
+    return doApiRequest(new EntityResultHandler<CompleteTip[]>("tips", CompleteTip.class), Method.GET, "tips/search", isAuthenticated(), "ll", ll, "limit", limit, "offset", offset, "filter", filter, "query", query);
+  }
 
-      if (response.getMeta().getCode() == 200) {
-        result = (CompleteTip[]) JSONFieldParser.parseEntities(CompleteTip.class, response.getResponse().getJSONArray("tips"), this.skipNonExistingFields);
-      }
+  /**
+   * Asynchronous version of {@link #tipsSearch(String,Integer,Integer,String,String)}
+   * 
+   * @param ll latitude and longitude of the user's location.
+   * @param limit number of results to return, up to 500. 
+   * @param offset used to page through results.
+   * @param filter if set to friends, only show nearby tips from friends. 
+   * @param query only find tips matching the given term, cannot be used in conjunction with friends filter.
+   * @param callback callback notified when request completes or null
+   * @return Future of Array of CompleteTip entities wrapped in Result object
+   */
+  public ResultFuture<CompleteTip[]> tipsSearchAsync(String ll, Integer limit, Integer offset, String filter, String query, ResultCallback<CompleteTip[]> callback) {
+    return doApiRequestAsync(new EntityResultHandler<CompleteTip[]>("tips", CompleteTip.class), callback, Method.GET, "tips/search", isAuthenticated(), "ll", ll, "limit", limit, "offset", offset, "filter", filter, "query", query);
+  }
 
-      return new Result<CompleteTip[]>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Returns iterator over all tips found by a tip search. Search results do not tell the total 
+   * number of tips, so pages are fetched one at a time as the iterator is consumed.
+   * 
+   * @see #tipsSearch(String, Integer, Integer, String, String)
+   * @see PageIterator
+   * 
+   * @param ll latitude and longitude of the user's location.
+   * @param pageSize number of tips requested per page, up to 500. Larger page sizes are reduced to 500.
+   * @param filter if set to friends, only show nearby tips from friends. 
+   * @param query only find tips matching the given term, cannot be used in conjunction with friends filter.
+   * @return iterator over tips
+   */
+  public PageIterator<CompleteTip> tipsSearchIterator(final String ll, int pageSize, final String filter, final String query) {
+    return new PageIterator<CompleteTip>(Math.min(pageSize, 500), 0) {
+      @Override
+      protected ResultFuture<CompleteTip[]> fetchPage(int offset, int limit) {
+        return tipsSearchAsync(ll, limit, offset, filter, query, null);
+      }
+    };
   }
   
   /**
@@ -1396,18 +1721,18 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<Photo> photo(String id) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "photos/" + id, true);
-      Photo result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (Photo) JSONFieldParser.parseEntity(Photo.class, response.getResponse().getJSONObject("photo"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<Photo>("photo", Photo.class), Method.GET, "photos/" + id, true);
+  }
 
-      return new Result<Photo>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #photo(String)}
+   * 
+   * @param id the id of the photo to retrieve additional information for.
+   * @param callback callback notified when request completes or null
+   * @return Future of Photo entity wrapped in Result object
+   */
+  public ResultFuture<Photo> photoAsync(String id, ResultCallback<Photo> callback) {
+    return doApiRequestAsync(new EntityResultHandler<Photo>("photo", Photo.class), callback, Method.GET, "photos/" + id, true);
   }
   
   /**
@@ -1476,18 +1801,17 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<Setting> settingsAll() throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "settings/all", true);
-      Setting result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (Setting) JSONFieldParser.parseEntity(Setting.class, response.getResponse().getJSONObject("settings"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<Setting>("settings", Setting.class), Method.GET, "settings/all", true);
+  }
 
-      return new Result<Setting>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #settingsAll()}
+   * 
+   * @param callback callback notified when request completes or null
+   * @return Future of Setting entity wrapped in Result object
+   */
+  public ResultFuture<Setting> settingsAllAsync(ResultCallback<Setting> callback) {
+    return doApiRequestAsync(new EntityResultHandler<Setting>("settings", Setting.class), callback, Method.GET, "settings/all", true);
   }
 
   /**
@@ -1501,18 +1825,19 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<CompleteSpecial> special(String id, String venueId) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "specials/" + id, isAuthenticated(), "venueId", venueId);
-      CompleteSpecial result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (CompleteSpecial) JSONFieldParser.parseEntity(CompleteSpecial.class, response.getResponse().getJSONObject("special"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<CompleteSpecial>("special", CompleteSpecial.class), Method.GET, "specials/" + id, isAuthenticated(), "venueId", venueId);
+  }
 
-      return new Result<CompleteSpecial>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #special(String,String)}
+   * 
+   * @param id id of special to retrieve
+   * @param venueId id of a venue the special is running at
+   * @param callback callback notified when request completes or null
+   * @return Future of CompleteSpecial entity wrapped in Result object
+   */
+  public ResultFuture<CompleteSpecial> specialAsync(String id, String venueId, ResultCallback<CompleteSpecial> callback) {
+    return doApiRequestAsync(new EntityResultHandler<CompleteSpecial>("special", CompleteSpecial.class), callback, Method.GET, "specials/" + id, isAuthenticated(), "venueId", venueId);
   }
 
   /**
@@ -1529,18 +1854,22 @@ public class FoursquareApi {
    * @throws FoursquareApiException when something unexpected happens
    */
   public Result<SpecialGroup> specialsSearch(String ll, Double llAcc, Double alt, Double altAcc, Integer limit) throws FoursquareApiException {
-    try {
-      ApiRequestResponse response = doApiRequest(Method.GET, "specials/search", true, "ll", ll, "llAcc", llAcc, "alt", alt, "altAcc", altAcc, "limit", limit);
-      SpecialGroup result = null;
-
-      if (response.getMeta().getCode() == 200) {
-        result = (SpecialGroup) JSONFieldParser.parseEntity(SpecialGroup.class, response.getResponse().getJSONObject("specials"), this.skipNonExistingFields);
-      }
+    return doApiRequest(new EntityResultHandler<SpecialGroup>("specials", SpecialGroup.class), Method.GET, "specials/search", true, "ll", ll, "llAcc", llAcc, "alt", alt, "altAcc", altAcc, "limit", limit);
+  }
 
-      return new Result<SpecialGroup>(response.getMeta(), result);
-    } catch (JSONException e) {
-      throw new FoursquareApiException(e);
-    }
+  /**
+   * Asynchronous version of {@link #specialsSearch(String,Double,Double,Double,Integer)}
+   * 
+   * @param ll latitude and longitude to search near.
+   * @param llAcc accuracy of latitude and longitude, in meters. 
+   * @param alt altitude of the user's location, in meters.
+   * @param altAcc accuracy of the user's altitude, in meters.
+   * @param limit number of results to return, up to 50
+   * @param callback callback notified when request completes or null
+   * @return Future of SpecialGroup entity wrapped in Result object
+   */
+  public ResultFuture<SpecialGroup> specialsSearchAsync(String ll, Double llAcc, Double alt, Double altAcc, Integer limit, ResultCallback<SpecialGroup> callback) {
+    return doApiRequestAsync(new EntityResultHandler<SpecialGroup>("specials", SpecialGroup.class), callback, Method.GET, "specials/search", true, "ll", ll, "llAcc", llAcc, "alt", alt, "altAcc", altAcc, "limit", limit);
   }
 
   /* Authentication */
@@ -1621,12 +1950,7 @@ public class FoursquareApi {
     
     String url = getApiRequestUrl(path, auth, parameters.toArray());
     Response response = ioHandler.fetchDataMultipartMime(url, multipartParameters.toArray(new MultipartParameter[0]));
-
-    if (useCallback) {
-      return handleCallbackApiResponse(response);
-    } else {
-      return handleApiResponse(response);
-    }
+    return handleResponse(response, null);
   }
 
   /**
@@ -1643,14 +1967,194 @@ public class FoursquareApi {
   private ApiRequestResponse doApiRequest(Method method, String path, boolean auth, Object... params) throws JSONException, FoursquareApiException {
     String url = getApiRequestUrl(path, auth, params);
     Response response = ioHandler.fetchData(url, method);
+    return handleResponse(response, null);
+  }
 
-    if (useCallback) {
-      return handleCallbackApiResponse(response);
-    } else {
-      return handleApiResponse(response);
+  /**
+   * API Request that builds the result with given result handler
+   * 
+   * @param handler handler that builds result from the response 
+   * @param method method used in request
+   * @param path API endpoint
+   * @param auth whether request should send oAuthToken or not
+   * @param params request parameters. Parameters should be added in parameter name, parameter value pairs
+   * @return result
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private <T> Result<T> doApiRequest(ResultHandler<T> handler, Method method, String path, boolean auth, Object... params) throws FoursquareApiException {
+    String url = getApiRequestUrl(path, auth, params);
+    
+    if (singleFlight && method == Method.GET) {
+      return doSingleFlightRequest(handler, url);
+    }
+    
+    return fetchResult(handler, method, url);
+  }
+
+  /**
+   * Sends GET request unless identical request is already in flight, in which case result of 
+   * that request is waited for and shared.
+   * 
+   * @param handler handler that builds result from the response 
+   * @param url request URL
+   * @return result
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  @SuppressWarnings("unchecked")
+  private <T> Result<T> doSingleFlightRequest(ResultHandler<T> handler, String url) throws FoursquareApiException {
+    String key = handler.getClass().getName() + ' ' + url;
+    ResultFuture<T> call = new ResultFuture<T>(null);
+    ResultFuture<?> inFlightCall = inFlightRequests.putIfAbsent(key, call);
+    if (inFlightCall != null) {
+      sharedRequestCount.incrementAndGet();
+      return awaitResult((ResultFuture<T>) inFlightCall);
+    }
+    
+    try {
+      Result<T> result = fetchResult(handler, Method.GET, url);
+      call.complete(result);
+      return result;
+    } catch (FoursquareApiException e) {
+      call.fail(e);
+      throw e;
+    } catch (RuntimeException e) {
+      call.fail(new FoursquareApiException(e));
+      throw e;
+    } finally {
+      inFlightRequests.remove(key, call);
+    }
+  }
+
+  /**
+   * Fetches URL and builds the result with given result handler
+   * 
+   * @param handler handler that builds result from the response 
+   * @param method method used in request
+   * @param url request URL
+   * @return result
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private <T> Result<T> fetchResult(ResultHandler<T> handler, Method method, String url) throws FoursquareApiException {
+    try {
+      Response response = ioHandler.fetchData(url, method);
+      return handleResult(handler, handleResponse(response, handler.getEntityClasses()));
+    } catch (JSONException e) {
+      throw new FoursquareApiException(e);
     }
   }
   
+  /**
+   * Asynchronous API Request that builds the result with given result handler
+   * 
+   * @param handler handler that builds result from the response 
+   * @param callback callback notified when request completes or null
+   * @param method method used in request
+   * @param path API endpoint
+   * @param auth whether request should send oAuthToken or not
+   * @param params request parameters. Parameters should be added in parameter name, parameter value pairs
+   * @return future of the result
+   */
+  private <T> ResultFuture<T> doApiRequestAsync(final ResultHandler<T> handler, ResultCallback<T> callback, Method method, String path, boolean auth, Object... params) {
+    final ResultFuture<T> future = new ResultFuture<T>(callback);
+    
+    try {
+      String url = getApiRequestUrl(path, auth, params);
+      future.setIOFuture(ioHandler.fetchDataAsync(url, method, new IOCallback() {
+        public void completed(Response response) {
+          try {
+            future.complete(handleResult(handler, handleResponse(response, handler.getEntityClasses())));
+          } catch (JSONException e) {
+            future.fail(new FoursquareApiException(e));
+          } catch (FoursquareApiException e) {
+            future.fail(e);
+          } catch (RuntimeException e) {
+            future.fail(new FoursquareApiException(e));
+          }
+        }
+      }));
+    } catch (FoursquareApiException e) {
+      future.fail(e);
+    }
+    
+    return future;
+  }
+  
+  /**
+   * Returns result of an entity cached in the entity cache. Entity of the current user is never 
+   * served from the cache, because 'self' is not an id of an entity.
+   * 
+   * @param entityClass entity class
+   * @param id entity id
+   * @return result of the cached entity or null if entity is not cached
+   */
+  private <T extends FoursquareEntity> Result<T> getCachedResult(Class<T> entityClass, String id) {
+    EntityCache cache = entityCache;
+    if (cache == null || "self".equals(id)) {
+      return null;
+    }
+
+    T cached = cache.get(entityClass, id);
+    return cached != null ? new Result<T>(new ResultMeta(200, "", ""), cached) : null;
+  }
+
+  /**
+   * Returns future that has already completed with a result. Callback is notified on the calling thread.
+   * 
+   * @param result result
+   * @param callback callback notified of the result or null
+   * @return completed future
+   */
+  private <T> ResultFuture<T> completedFuture(Result<T> result, ResultCallback<T> callback) {
+    ResultFuture<T> future = new ResultFuture<T>(callback);
+    future.complete(result);
+    return future;
+  }
+
+  /**
+   * Waits for result of a future
+   * 
+   * @param future future
+   * @return result
+   * @throws FoursquareApiException when request failed or waiting was interrupted
+   */
+  private <T> Result<T> awaitResult(Future<Result<T>> future) throws FoursquareApiException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FoursquareApiException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof FoursquareApiException) {
+        throw (FoursquareApiException) e.getCause();
+      }
+      
+      throw new FoursquareApiException(e.getCause());
+    }
+  }
+
+  /**
+   * Builds result from API request response
+   * 
+   * @param handler handler that builds result from the response
+   * @param response API request response
+   * @return result
+   * @throws JSONException when JSON parsing error occurs
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private <T> Result<T> handleResult(ResultHandler<T> handler, ApiRequestResponse response) throws JSONException, FoursquareApiException {
+    T result = null;
+
+    if (response.getMeta().getCode() == 200) {
+      result = handler.handle(response);
+      
+      if (entityCache != null) {
+        entityCache.collect(result);
+      }
+    }
+
+    return new Result<T>(response.getMeta(), result);
+  }
+  
   /**
    * Builds request URL
    * 
@@ -1664,25 +2168,7 @@ public class FoursquareApi {
     StringBuilder urlBuilder = new StringBuilder(apiUrl);
     urlBuilder.append(path);
     urlBuilder.append('?');
-
-    if (params.length > 0) {
-      int paramIndex = 0;
-      try {
-        while (paramIndex < params.length) {
-          Object value = params[paramIndex + 1];
-          if (value != null) {
-            urlBuilder.append(params[paramIndex]);
-            urlBuilder.append('=');
-            urlBuilder.append(URLEncoder.encode(value.toString(), "UTF-8"));
-            urlBuilder.append('&');
-          }
-
-          paramIndex += 2;
-        }
-      } catch (UnsupportedEncodingException e) {
-        throw new FoursquareApiException(e);
-      }
-    }
+    appendParameters(urlBuilder, params);
 
     if (auth) {
       urlBuilder.append("oauth_token=");
@@ -1703,6 +2189,147 @@ public class FoursquareApi {
     return urlBuilder.toString();
   }
 
+  /**
+   * Appends URL encoded parameters into builder. Each parameter is followed by '&' character
+   * 
+   * @param builder builder
+   * @param params request parameters. Parameters should be added in parameter name, parameter value pairs
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private void appendParameters(StringBuilder builder, Object... params) throws FoursquareApiException {
+    int paramIndex = 0;
+    try {
+      while (paramIndex < params.length) {
+        Object value = params[paramIndex + 1];
+        if (value != null) {
+          builder.append(params[paramIndex]);
+          builder.append('=');
+          builder.append(URLEncoder.encode(value.toString(), "UTF-8"));
+          builder.append('&');
+        }
+
+        paramIndex += 2;
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new FoursquareApiException(e);
+    }
+  }
+
+  /**
+   * Builds path of a single request within multi request
+   * 
+   * @param path API endpoint
+   * @param params request parameters. Parameters should be added in parameter name, parameter value pairs
+   * @return path with query parameters
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  String getMultiRequestPath(String path, Object... params) throws FoursquareApiException {
+    StringBuilder pathBuilder = new StringBuilder("/");
+    pathBuilder.append(path);
+    pathBuilder.append('?');
+    appendParameters(pathBuilder, params);
+    pathBuilder.setLength(pathBuilder.length() - 1);
+    return pathBuilder.toString();
+  }
+
+  /**
+   * Sends requests as a single multi request and completes futures of requests with 
+   * their results.
+   * 
+   * @see <a href="https://developer.foursquare.com/docs/multi/multi.html" target="_blank">https://developer.foursquare.com/docs/multi/multi.html</a>
+   * 
+   * @param requests requests
+   * @throws FoursquareApiException when something unexpected happens. Futures of requests are failed with the same exception
+   */
+  void doMultiRequest(List<BatchRequest.Request<?>> requests) throws FoursquareApiException {
+    StringBuilder requestsBuilder = new StringBuilder();
+    for (BatchRequest.Request<?> request : requests) {
+      if (requestsBuilder.length() > 0) {
+        requestsBuilder.append(',');
+      }
+      
+      requestsBuilder.append(request.getPath());
+    }
+    
+    try {
+      ApiRequestResponse response = doApiRequest(Method.GET, "multi", isAuthenticated(), "requests", requestsBuilder.toString());
+      JSONArray responses = null;
+      if (response.getMeta().getCode() == 200) {
+        responses = response.getResponse().getJSONArray("responses");
+      }
+
+      for (int i = 0, l = requests.size(); i < l; i++) {
+        if (responses != null && i < responses.length()) {
+          JSONObject responseObject = responses.getJSONObject(i);
+          JSONObject metaObject = responseObject.getJSONObject("meta");
+          ResultMeta meta = new ResultMeta(metaObject.getInt("code"), metaObject.optString("errorType"), metaObject.optString("errorDetail"));
+          completeMultiRequest(requests.get(i), new ApiRequestResponse(meta, responseObject.optJSONObject("response"), null));
+        } else {
+          completeMultiRequest(requests.get(i), new ApiRequestResponse(response.getMeta(), (JSONObject) null, null));
+        }
+      }
+    } catch (JSONException e) {
+      throw failMultiRequest(requests, new FoursquareApiException(e));
+    } catch (FoursquareApiException e) {
+      throw failMultiRequest(requests, e);
+    } catch (RuntimeException e) {
+      // Such as a multi response without response object
+      throw failMultiRequest(requests, new FoursquareApiException(e));
+    }
+  }
+
+  /**
+   * Fails futures of requests within multi request that have not been completed yet
+   * 
+   * @param requests requests
+   * @param exception exception the futures are failed with
+   * @return the exception
+   */
+  private FoursquareApiException failMultiRequest(List<BatchRequest.Request<?>> requests, FoursquareApiException exception) {
+    for (BatchRequest.Request<?> request : requests) {
+      request.getFuture().fail(exception);
+    }
+    
+    return exception;
+  }
+
+  /**
+   * Completes future of a request within multi request
+   * 
+   * @param request request
+   * @param response response of the request
+   */
+  private <T> void completeMultiRequest(BatchRequest.Request<T> request, ApiRequestResponse response) {
+    try {
+      request.getFuture().complete(handleResult(request.getHandler(), response));
+    } catch (JSONException e) {
+      request.getFuture().fail(new FoursquareApiException(e));
+    } catch (FoursquareApiException e) {
+      request.getFuture().fail(e);
+    } catch (RuntimeException e) {
+      request.getFuture().fail(new FoursquareApiException(e));
+    }
+  }
+
+  /**
+   * Handles API request response using parser and mode set for this API instance
+   * 
+   * @param response raw response
+   * @param entityClasses entity classes of response fields or null if response should be parsed into JSON object tree
+   * @return ApiRequestResponse
+   * @throws JSONException when JSON parsing error occurs
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private ApiRequestResponse handleResponse(Response response, Map<String, Class<?>> entityClasses) throws JSONException, FoursquareApiException {
+    if (useStreamingParser && entityClasses != null) {
+      return handleStreamingApiResponse(response, entityClasses);
+    } else if (useCallback) {
+      return handleCallbackApiResponse(response);
+    } else {
+      return handleApiResponse(response);
+    }
+  }
+
   /**
    * Handles normal API request response
    * 
@@ -1716,14 +2343,14 @@ public class FoursquareApi {
     String errorDetail = null;
 
     if (response.getResponseCode() == 200) {
-      JSONObject responseObject = new JSONObject(response.getResponseContent());
+      JSONObject responseObject = new JSONObject(new JSONTokener(response.getResponseReader()));
       responseJson = responseObject.getJSONObject("response");
       notificationsJson = responseObject.optJSONArray("notifications");
     } else {
       errorDetail = response.getMessage();
     }
 
-    return new ApiRequestResponse(new ResultMeta(response.getResponseCode(), "", errorDetail), responseJson, notificationsJson);
+    return new ApiRequestResponse(getResultMeta(response, response.getResponseCode(), "", errorDetail), responseJson, notificationsJson);
   }
 
   /**
@@ -1733,12 +2360,9 @@ public class FoursquareApi {
    * @return ApiRequestResponse
    * @throws JSONException when JSON parsing error occurs
    */
-  private ApiRequestResponse handleCallbackApiResponse(Response response) throws JSONException {
+  private ApiRequestResponse handleCallbackApiResponse(Response response) throws JSONException, FoursquareApiException {
     if (response.getResponseCode() == 200) {
-      String responseContent = response.getResponseContent();
-      String callbackPrefix = "c(";
-      String callbackPostfix = ");";
-      JSONObject responseObject = new JSONObject(responseContent.substring(callbackPrefix.length(), responseContent.length() - callbackPostfix.length()));
+      JSONObject responseObject = new JSONObject(new JSONTokener(skipCallbackPrefix(response.getResponseReader())));
 
       JSONObject metaObject = responseObject.getJSONObject("meta");
       int code = metaObject.getInt("code");
@@ -1748,12 +2372,124 @@ public class FoursquareApi {
       JSONObject responseJson = responseObject.getJSONObject("response");
       JSONArray notificationsJson = responseObject.optJSONArray("notifications");
 
-      return new ApiRequestResponse(new ResultMeta(code, errorType, errorDetail), responseJson, notificationsJson);
+      return new ApiRequestResponse(getResultMeta(response, code, errorType, errorDetail), responseJson, notificationsJson);
     } else {
-      return new ApiRequestResponse(new ResultMeta(response.getResponseCode(), "", response.getMessage()), null, null);
+      return new ApiRequestResponse(getResultMeta(response, response.getResponseCode(), "", response.getMessage()), (JSONObject) null, null);
     }
   }
 
+  /**
+   * Skips callback prefix from callback response content
+   * 
+   * @param reader reader of the response content
+   * @return reader positioned at the beginning of the response object
+   * @throws FoursquareApiException when response content could not be read
+   */
+  private Reader skipCallbackPrefix(Reader reader) throws FoursquareApiException {
+    try {
+      PushbackReader pushbackReader = new PushbackReader(reader);
+      int c;
+      while ((c = pushbackReader.read()) != -1) {
+        if (c == '{') {
+          pushbackReader.unread(c);
+          break;
+        }
+      }
+      
+      return pushbackReader;
+    } catch (IOException e) {
+      throw new FoursquareApiException(e);
+    }
+  }
+
+  /**
+   * Handles API request response with streaming parser. Response fields listed in entityClasses are 
+   * parsed straight into entities, other fields are skipped.
+   * 
+   * @param response raw response
+   * @param entityClasses entity classes of response fields
+   * @return ApiRequestResponse
+   * @throws JSONException when JSON parsing error occurs
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private ApiRequestResponse handleStreamingApiResponse(Response response, Map<String, Class<?>> entityClasses) throws JSONException, FoursquareApiException {
+    if (response.getResponseCode() != 200) {
+      return new ApiRequestResponse(getResultMeta(response, response.getResponseCode(), "", response.getMessage()), (JSONObject) null, null);
+    }
+    
+    JSONStreamReader reader = new JSONStreamReader(response.getResponseReader());
+    Map<String, Object> entities = new HashMap<String, Object>();
+    JSONArray notificationsJson = null;
+    int code = response.getResponseCode();
+    String errorType = "";
+    String errorDetail = "";
+
+    reader.skipToObject();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("meta".equals(name)) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String metaName = reader.nextName();
+          if ("code".equals(metaName)) {
+            code = Integer.parseInt(reader.nextString());
+          } else if ("errorType".equals(metaName)) {
+            errorType = reader.nextString();
+          } else if ("errorDetail".equals(metaName)) {
+            errorDetail = reader.nextString();
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      } else if ("response".equals(name)) {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String entityName = reader.nextName();
+          Class<?> entityClass = entityClasses.get(entityName);
+          JSONStreamReader.Token token = reader.peek();
+
+          if (entityClass != null && token == JSONStreamReader.Token.BEGIN_ARRAY) {
+            entities.put(entityName, JSONStreamParser.parseEntities(entityClass, reader, this.skipNonExistingFields));
+          } else if (entityClass != null && token == JSONStreamReader.Token.BEGIN_OBJECT) {
+            entities.put(entityName, JSONStreamParser.parseEntity(entityClass, reader, this.skipNonExistingFields));
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      } else if ("notifications".equals(name) && reader.peek() == JSONStreamReader.Token.BEGIN_ARRAY) {
+        notificationsJson = (JSONArray) reader.nextJSONValue();
+      } else {
+        reader.skipValue();
+      }
+    }
+    
+    ResultMeta meta = useCallback ? getResultMeta(response, code, errorType, errorDetail) : getResultMeta(response, response.getResponseCode(), "", null);
+    return new ApiRequestResponse(meta, entities, notificationsJson);
+  }
+
+  /**
+   * Creates result meta with rate limit state from X-RateLimit headers of the response
+   * 
+   * @param response raw response
+   * @param code code
+   * @param errorType error type
+   * @param errorDetail error details
+   * @return ResultMeta
+   */
+  private ResultMeta getResultMeta(Response response, int code, String errorType, String errorDetail) {
+    Long rateLimit = response.getNumericHeader("X-RateLimit-Limit");
+    Long rateLimitRemaining = response.getNumericHeader("X-RateLimit-Remaining");
+    Long rateLimitReset = response.getNumericHeader("X-RateLimit-Reset");
+    
+    return new ResultMeta(code, errorType, errorDetail, 
+        rateLimit != null ? rateLimit.intValue() : null, 
+        rateLimitRemaining != null ? rateLimitRemaining.intValue() : null, 
+        rateLimitReset);
+  }
+
   private boolean skipNonExistingFields = true;
   private String clientId;
   private String clientSecret;
@@ -1762,6 +2498,12 @@ public class FoursquareApi {
   private IOHandler ioHandler;
   private String version = DEFAULT_VERSION;
   private boolean useCallback = true;
+  private boolean useStreamingParser = false;
+  private volatile BatchDispatcher batchDispatcher;
+  private volatile boolean singleFlight = false;
+  private volatile EntityCache entityCache;
+  private final ConcurrentMap<String, ResultFuture<?>> inFlightRequests = new ConcurrentHashMap<String, ResultFuture<?>>();
+  private final AtomicLong sharedRequestCount = new AtomicLong();
   private static final String apiUrl = "https://api.foursquare.com/v2/";
 
   /**
@@ -1785,6 +2527,19 @@ public class FoursquareApi {
       this.notifications = notifications;
     }
 
+    /**
+     * Constructor
+     * 
+     * @param meta status information
+     * @param entities response fields already parsed into entities
+     * @param notifications notifications JSON Object
+     */
+    public ApiRequestResponse(ResultMeta meta, Map<String, Object> entities, JSONArray notifications) {
+      this.meta = meta;
+      this.entities = entities;
+      this.notifications = notifications;
+    }
+
     /**
      * Returns response JSON Object
      * 
@@ -1794,6 +2549,32 @@ public class FoursquareApi {
       return response;
     }
 
+    /**
+     * Returns response field as an entity or as an array of entities. 
+     * 
+     * @param name name of the response field
+     * @param entityClass entity class
+     * @return entity, array of entities or null if response does not contain the field
+     * @throws JSONException when JSON parsing error occurs
+     * @throws FoursquareApiException when something unexpected happens
+     */
+    public Object getEntity(String name, Class<?> entityClass) throws JSONException, FoursquareApiException {
+      if (entities != null) {
+        return entities.get(name);
+      }
+      
+      if (response == null || !response.has(name) || response.isNull(name)) {
+        return null;
+      }
+      
+      Object value = response.get(name);
+      if (value instanceof JSONArray) {
+        return JSONFieldParser.parseEntities(entityClass, (JSONArray) value, skipNonExistingFields);
+      } else {
+        return JSONFieldParser.parseEntity(entityClass, response.getJSONObject(name), skipNonExistingFields);
+      }
+    }
+
     /**
      * Returns notifications JSON Object
      * 
@@ -1813,7 +2594,104 @@ public class FoursquareApi {
     }
 
     private JSONObject response;
+    private Map<String, Object> entities;
     private JSONArray notifications;
     private ResultMeta meta;
   }
+
+  /**
+   * Base class for handlers that build results from API request responses
+   * 
+   * @author Antti Leppä
+   *
+   * @param <T> type of resulting entity
+   */
+  abstract static class ResultHandler<T> {
+
+    /**
+     * Constructor
+     * 
+     * @param entityFields response field names and entity classes in name, class pairs
+     */
+    public ResultHandler(Object... entityFields) {
+      for (int i = 0; i < entityFields.length; i += 2) {
+        entityClasses.put((String) entityFields[i], (Class<?>) entityFields[i + 1]);
+      }
+    }
+
+    /**
+     * Returns entity classes of response fields this handler uses
+     * 
+     * @return entity classes of response fields
+     */
+    public Map<String, Class<?>> getEntityClasses() {
+      return entityClasses;
+    }
+
+    /**
+     * Builds result from a successful response
+     * 
+     * @param response API request response
+     * @return result entity
+     * @throws JSONException when JSON parsing error occurs
+     * @throws FoursquareApiException when something unexpected happens
+     */
+    public abstract T handle(FoursquareApi.ApiRequestResponse response) throws JSONException, FoursquareApiException;
+
+    private Map<String, Class<?>> entityClasses = new HashMap<String, Class<?>>();
+  }
+
+  /**
+   * Result handler for responses containing single entity or array of entities
+   * 
+   * @author Antti Leppä
+   *
+   * @param <T> type of resulting entity
+   */
+  static class EntityResultHandler<T> extends ResultHandler<T> {
+
+    /**
+     * Constructor
+     * 
+     * @param name name of the response field
+     * @param entityClass entity class
+     */
+    public EntityResultHandler(String name, Class<?> entityClass) {
+      super(name, entityClass);
+      this.name = name;
+      this.entityClass = entityClass;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T handle(FoursquareApi.ApiRequestResponse response) throws JSONException, FoursquareApiException {
+      return (T) response.getEntity(name, entityClass);
+    }
+
+    private String name;
+    private Class<?> entityClass;
+  }
+
+  /**
+   * Result handler for venue search responses
+   * 
+   * @author Antti Leppä
+   */
+  static class VenuesSearchResultHandler extends ResultHandler<VenuesSearchResult> {
+
+    /**
+     * Constructor
+     */
+    public VenuesSearchResultHandler() {
+      super("venues", CompactVenue.class, "groups", VenueGroup.class, "geocode", GeoCode.class);
+    }
+
+    @Override
+    public VenuesSearchResult handle(FoursquareApi.ApiRequestResponse response) throws JSONException, FoursquareApiException {
+      CompactVenue[] venues = (CompactVenue[]) response.getEntity("venues", CompactVenue.class);
+      VenueGroup[] groups = (VenueGroup[]) response.getEntity("groups", VenueGroup.class);
+      GeoCode geocode = (GeoCode) response.getEntity("geocode", GeoCode.class);
+      return new VenuesSearchResult(venues, groups, geocode);
+    }
+  }
 }
@@ -12,18 +12,20 @@
 package fi.foyt.foursquare.api;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import fi.foyt.foursquare.api.entities.Category;
+import fi.foyt.foursquare.api.entities.Checkin;
+import fi.foyt.foursquare.api.entities.CompactUser;
+import fi.foyt.foursquare.api.entities.CompactVenue;
+import fi.foyt.foursquare.api.entities.CompleteUser;
+
 /**
  * Class responsible of parsing API responses
  * 
@@ -38,6 +40,38 @@ public class JSONFieldParser {
     
   }
   
+  /**
+   * Registers dedicated parser for an entity class. Registered parser is used instead of 
+   * reflection whenever an entity of given class is parsed, including nested entities and 
+   * entities parsed by JSONStreamParser. Parsers of CompactVenue, Category and Checkin are 
+   * registered by default.
+   * 
+   * @param clazz entity class
+   * @param parser parser
+   */
+  public static <T extends FoursquareEntity> void registerEntityParser(Class<T> clazz, EntityParser<T> parser) {
+    entityParsers.put(clazz, parser);
+  }
+  
+  /**
+   * Removes dedicated parser of an entity class. Entities of given class are parsed by reflection afterwards.
+   * 
+   * @param clazz entity class
+   */
+  public static void unregisterEntityParser(Class<? extends FoursquareEntity> clazz) {
+    entityParsers.remove(clazz);
+  }
+  
+  /**
+   * Returns dedicated parser of an entity class
+   * 
+   * @param clazz entity class
+   * @return parser or null if no parser has been registered for the class
+   */
+  static EntityParser<?> getEntityParser(Class<?> clazz) {
+    return entityParsers.isEmpty() ? null : entityParsers.get(clazz);
+  }
+  
   /**
    * Static method that parses JSON array into array of FoursquareEntities
    * 
@@ -100,45 +134,27 @@ public class JSONFieldParser {
    * @throws FoursquareApiException when something unexpected happens
    */
   public static FoursquareEntity parseEntity(Class<?> clazz, JSONObject jsonObject, boolean skipNonExistingFields) throws FoursquareApiException {
-    FoursquareEntity entity = createNewEntity(clazz);
+    EntityParser<?> entityParser = getEntityParser(clazz);
+    if (entityParser != null) {
+      return entityParser.parse(jsonObject, skipNonExistingFields);
+    }
     
-    String[] objectFieldNames = getFieldNames(jsonObject);
-    if (objectFieldNames != null) {
-      for (String objectFieldName : objectFieldNames) {
-        Class<?> fieldClass = getFieldClass(entity.getClass(), objectFieldName);
-        if (fieldClass == null) {
-          Method setterMethod = getSetterMethod(entity.getClass(), objectFieldName);
-          if (setterMethod == null) {
-            if (!skipNonExistingFields) {
-              throw new FoursquareApiException("Could not find field " + objectFieldName + " from " + entity.getClass().getName() + " class");
-            }
-          } else {
-            Class<?>[] parameters = setterMethod.getParameterTypes();
-            if (parameters.length == 1) {
-              fieldClass = parameters[0];
-              
-              try {
-                setterMethod.setAccessible(true);
-                setterMethod.invoke(entity, parseValue(fieldClass, jsonObject, objectFieldName, skipNonExistingFields));
-              } catch (JSONException e) {
-                throw new FoursquareApiException(e);
-              } catch (IllegalArgumentException e) {
-                throw new FoursquareApiException(e);
-              } catch (IllegalAccessException e) {
-                throw new FoursquareApiException(e);
-              } catch (InvocationTargetException e) {
-                throw new FoursquareApiException(e);
-              }
-            } else {
-              throw new FoursquareApiException("Could not find field " + objectFieldName + " from " + entity.getClass().getName() + " class");
-            }
-          }
-        } else {
-          try {
-            setEntityFieldValue(entity, objectFieldName, parseValue(fieldClass, jsonObject, objectFieldName, skipNonExistingFields));
-          } catch (JSONException e) {
-            throw new FoursquareApiException(e);
-          }
+    EntityBindings bindings = EntityBindings.forClass(clazz);
+    FoursquareEntity entity = bindings.newEntity();
+    
+    Iterator<?> objectFieldNames = jsonObject.keys();
+    while (objectFieldNames.hasNext()) {
+      String objectFieldName = (String) objectFieldNames.next();
+      EntityBindings.Binding binding = bindings.getBinding(objectFieldName);
+      if (binding == null) {
+        if (!skipNonExistingFields) {
+          throw new FoursquareApiException("Could not find field " + objectFieldName + " from " + clazz.getName() + " class");
+        }
+      } else {
+        try {
+          binding.setValue(entity, parseValue(binding.getType(), binding.getKind(), binding.getComponentType(), binding.getComponentKind(), jsonObject, objectFieldName, skipNonExistingFields));
+        } catch (JSONException e) {
+          throw new FoursquareApiException(e);
         }
       }
     }
@@ -149,7 +165,10 @@ public class JSONFieldParser {
   /**
    * Parses single JSON object field into a value. Value might be of type String, Integer, Long, Double, Boolean or FoursquareEntity depending classes field type
    * 
-   * @param clazz class
+   * @param type type of the value
+   * @param kind kind of the value
+   * @param arrayClass array component type or null if value is not an array
+   * @param componentKind array component kind or null if value is not an array
    * @param jsonObject JSON Object
    * @param objectFieldName field to be parsed
    * @param skipNonExistingFields whether parser should ignore non-existing fields
@@ -157,177 +176,52 @@ public class JSONFieldParser {
    * @throws JSONException when JSON parsing error occures
    * @throws FoursquareApiException when something unexpected happens
    */
-  private static Object parseValue(Class<?> clazz, JSONObject jsonObject, String objectFieldName, boolean skipNonExistingFields) throws JSONException, FoursquareApiException {
-    if (clazz.isArray()) {
-      JSONArray jsonArray = jsonObject.getJSONArray(objectFieldName);
-      Class<?> arrayClass = clazz.getComponentType();
-      Object[] arrayValue = (Object[]) Array.newInstance(arrayClass, jsonArray.length());
-      
-      for (int i = 0, l = jsonArray.length(); i < l; i++) {
-        if (arrayClass.equals(String.class)) {
-          arrayValue[i] = jsonArray.getString(i);
-        } else if (arrayClass.equals(Integer.class)) {
-          arrayValue[i] = jsonArray.getInt(i);  
-        } else if (arrayClass.equals(Long.class)) {
-          arrayValue[i] = jsonArray.getLong(i);  
-        } else if (arrayClass.equals(Double.class)) {
-          arrayValue[i] = jsonArray.getDouble(i);  
-        } else if (arrayClass.equals(Boolean.class)) {
-          arrayValue[i] = jsonArray.getBoolean(i);  
-        } else if (isFoursquareEntity(arrayClass)) {
-          arrayValue[i] = parseEntity(arrayClass, jsonArray.getJSONObject(i), skipNonExistingFields);
-        } else {
-          throw new FoursquareApiException("Unknown array type: " + arrayClass);
+  static Object parseValue(Class<?> type, EntityBindings.ValueKind kind, Class<?> arrayClass, EntityBindings.ValueKind componentKind, JSONObject jsonObject, String objectFieldName, boolean skipNonExistingFields) throws JSONException, FoursquareApiException {
+    switch (kind) {
+      case ARRAY:
+        JSONArray jsonArray = jsonObject.getJSONArray(objectFieldName);
+        Object[] arrayValue = (Object[]) Array.newInstance(arrayClass, jsonArray.length());
+        
+        for (int i = 0, l = jsonArray.length(); i < l; i++) {
+          switch (componentKind) {
+            case STRING:
+              arrayValue[i] = jsonArray.getString(i);
+            break;
+            case INTEGER:
+              arrayValue[i] = jsonArray.getInt(i);
+            break;
+            case LONG:
+              arrayValue[i] = jsonArray.getLong(i);
+            break;
+            case DOUBLE:
+              arrayValue[i] = jsonArray.getDouble(i);
+            break;
+            case BOOLEAN:
+              arrayValue[i] = jsonArray.getBoolean(i);
+            break;
+            case ENTITY:
+              arrayValue[i] = parseEntity(arrayClass, jsonArray.getJSONObject(i), skipNonExistingFields);
+            break;
+            default:
+              throw new FoursquareApiException("Unknown array type: " + arrayClass);
+          }
         }
-      }
-      
-      return arrayValue;
-    } else if (clazz.equals(String.class)) {
-      return jsonObject.getString(objectFieldName);
-    } else if (clazz.equals(Integer.class)) {
-      return jsonObject.getInt(objectFieldName);
-    } else if (clazz.equals(Long.class)) {
-      return jsonObject.getLong(objectFieldName);
-    } else if (clazz.equals(Double.class)) {
-      return jsonObject.getDouble(objectFieldName);
-    } else if (clazz.equals(Boolean.class)) {
-      return jsonObject.getBoolean(objectFieldName);
-    } else if (isFoursquareEntity(clazz)) {
-      return parseEntity(clazz, jsonObject.getJSONObject(objectFieldName), skipNonExistingFields); 
-    } else {
-      throw new FoursquareApiException("Unknown type: " + clazz);
-    }
-  }
-  
-  /**
-   * Returns whether class is derived from FoursquareEntity interface
-   * 
-   * @param clazz class
-   * @return whether class is derived from FoursquareEntity interface
-   */
-  private static boolean isFoursquareEntity(Class<?> clazz) {
-    for (Class<?> intrf : clazz.getInterfaces()) {
-      if (intrf.equals(FoursquareEntity.class)) {
-        return true;
-      }
-    }
-    
-    Class<?> superClass = clazz.getSuperclass();
-    if (!superClass.equals(Object.class)) {
-      return isFoursquareEntity(superClass);
-    }
-    
-    return false;
-  }
-  
-  /**
-   * Returns field of class
-   * 
-   * @param entityClass class
-   * @param fieldName field
-   * @return Field
-   */
-  private static Field getField(Class<?> entityClass, String fieldName) {
-    try {
-      Field field = entityClass.getDeclaredField(fieldName);
-      field.setAccessible(true);
-      return field;
-    } catch (SecurityException e) {
-      return null;
-    } catch (NoSuchFieldException e) {
-      Class<?> superClass = entityClass.getSuperclass();
-      if (superClass.equals(Object.class)) {
-        return null;
-      } else {
-        return getField(superClass, fieldName);
-      }
-    }
-  } 
-  
-  /**
-   * Returns list of all methods in a class
-   * 
-   * @param entityClass class
-   * @return list of all methods in a class
-   */
-  private static List<Method> getMethods(Class<?> entityClass) {
-    List<Method> result = new ArrayList<Method>(Arrays.asList(entityClass.getDeclaredMethods()));
-    if (!entityClass.getSuperclass().equals(Object.class)) {
-      result.addAll(getMethods(entityClass.getSuperclass()));
-    }    
-    
-    return result;
-  }
-  
-  /**
-   * Returns setter method for a field
-   * 
-   * @param entityClass class
-   * @param fieldName field
-   * @return setter method for a field
-   */
-  private static Method getSetterMethod(Class<?> entityClass, String fieldName) {
-    StringBuilder methodNameBuilder = new StringBuilder();
-    methodNameBuilder.append("set");
-    methodNameBuilder.append(Character.toUpperCase(fieldName.charAt(0)));
-    methodNameBuilder.append(fieldName.substring(1));
-    
-    String methodName = methodNameBuilder.toString();
-    
-    List<Method> methods = getMethods(entityClass);
-    for (Method method : methods) {
-      if (method.getName().equals(methodName)) {
-        return method;
-      }
-    }
-    
-    return null;
-  }
-  
-  /**
-   * Returns class for class's field
-   * 
-   * @param entityClass class
-   * @param fieldName field
-   * @return class's field's class
-   */
-  private static Class<?> getFieldClass(Class<?> entityClass, String fieldName) {
-    Field field = getField(entityClass, fieldName);
-    return field != null ? field.getType() : null;
-  } 
-  
-  /**
-   * Sets entity's field's value
-   * 
-   * @param entity entity
-   * @param fieldName field
-   * @param value value
-   * @throws FoursquareApiException when something unexpected happens
-   */
-  private static void setEntityFieldValue(FoursquareEntity entity, String fieldName, Object value) throws FoursquareApiException {
-    java.lang.reflect.Field fieldProperty;
-    try {
-      fieldProperty = getField(entity.getClass(), fieldName);
-      fieldProperty.setAccessible(true);
-      fieldProperty.set(entity, value);
-    } catch (Exception e) {
-      throw new FoursquareApiException(e);
-    }
-  }
-  
-  /**
-   * Initializes new entity instance
-   * 
-   * @param clazz class
-   * @return new entity instance
-   */
-  private static FoursquareEntity createNewEntity(Class<?> clazz) {
-    try {
-      return (FoursquareEntity) clazz.newInstance();
-    } catch (InstantiationException e) {
-      return null;
-    } catch (IllegalAccessException e) {
-      return null;
+        
+        return arrayValue;
+      case STRING:
+        return jsonObject.getString(objectFieldName);
+      case INTEGER:
+        return jsonObject.getInt(objectFieldName);
+      case LONG:
+        return jsonObject.getLong(objectFieldName);
+      case DOUBLE:
+        return jsonObject.getDouble(objectFieldName);
+      case BOOLEAN:
+        return jsonObject.getBoolean(objectFieldName);
+      case ENTITY:
+        return parseEntity(type, jsonObject.getJSONObject(objectFieldName), skipNonExistingFields); 
+      default:
+        throw new FoursquareApiException("Unknown type: " + type);
     }
   }
   
@@ -357,4 +251,14 @@ public class JSONFieldParser {
     
     return names;
   }
+  
+  private static final ConcurrentMap<Class<?>, EntityParser<?>> entityParsers = new ConcurrentHashMap<Class<?>, EntityParser<?>>();
+  
+  static {
+    registerEntityParser(CompactVenue.class, new CompactVenue.Parser());
+    registerEntityParser(Category.class, new Category.Parser());
+    registerEntityParser(Checkin.class, new Checkin.Parser());
+    registerEntityParser(CompactUser.class, new CompactUser.Parser());
+    registerEntityParser(CompleteUser.class, new CompleteUser.Parser());
+  }
 }
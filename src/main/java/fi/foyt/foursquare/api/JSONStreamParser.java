@@ -0,0 +1,200 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+
+/**
+ * Class responsible of parsing API responses straight from a JSONStreamReader.
+ *
+ * Unlike JSONFieldParser this parser does not build an org.json tree of the document:
+ * values are written into entities as they are read and unknown fields are skipped
+ * without materializing them.
+ *
+ * @author Antti Leppä
+ */
+public class JSONStreamParser {
+
+  /**
+   * Utility class so no constructor needed.
+   */
+  private JSONStreamParser() {
+
+  }
+
+  /**
+   * Static method that parses JSON array into array of FoursquareEntities
+   *
+   * @param clazz entity class
+   * @param reader reader positioned at the beginning of the array
+   * @param skipNonExistingFields whether parser should ignore non-existing fields
+   * @return list of entities
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public static FoursquareEntity[] parseEntities(Class<?> clazz, JSONStreamReader reader, boolean skipNonExistingFields) throws FoursquareApiException {
+    return (FoursquareEntity[]) parseArray(clazz, EntityBindings.ValueKind.ENTITY, reader, skipNonExistingFields);
+  }
+
+  /**
+   * Static method that parses single JSON Object into FoursquareEntity
+   *
+   * @param clazz entity class
+   * @param reader reader positioned at the beginning of the object
+   * @param skipNonExistingFields whether parser should ignore non-existing fields
+   * @return entity
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  public static FoursquareEntity parseEntity(Class<?> clazz, JSONStreamReader reader, boolean skipNonExistingFields) throws FoursquareApiException {
+    try {
+      EntityParser<?> entityParser = JSONFieldParser.getEntityParser(clazz);
+      if (entityParser != null) {
+        return entityParser.parse(reader, skipNonExistingFields);
+      }
+
+      EntityBindings bindings = EntityBindings.forClass(clazz);
+      FoursquareEntity entity = bindings.newEntity();
+
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String objectFieldName = reader.nextName();
+        EntityBindings.Binding binding = bindings.getBinding(objectFieldName);
+        if (binding == null) {
+          if (!skipNonExistingFields) {
+            throw new FoursquareApiException("Could not find field " + objectFieldName + " from " + clazz.getName() + " class");
+          }
+
+          reader.skipValue();
+        } else {
+          Object value;
+          if (binding.getKind() == EntityBindings.ValueKind.ARRAY) {
+            value = parseArray(binding.getComponentType(), binding.getComponentKind(), reader, skipNonExistingFields);
+          } else {
+            value = parseValue(binding.getType(), binding.getKind(), reader, skipNonExistingFields);
+          }
+
+          binding.setValue(entity, value);
+        }
+      }
+      reader.endObject();
+
+      return entity;
+    } catch (JSONException e) {
+      throw new FoursquareApiException(e);
+    }
+  }
+
+  /**
+   * Parses JSON array into an array of given component type
+   *
+   * @param componentType array component type
+   * @param componentKind kind of array components
+   * @param reader reader positioned at the beginning of the array
+   * @param skipNonExistingFields whether parser should ignore non-existing fields
+   * @return array or null if value was null
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  private static Object[] parseArray(Class<?> componentType, EntityBindings.ValueKind componentKind, JSONStreamReader reader, boolean skipNonExistingFields) throws FoursquareApiException {
+    try {
+      if (isNull(reader)) {
+        return null;
+      }
+
+      List<Object> values = new ArrayList<Object>();
+
+      reader.beginArray();
+      while (reader.hasNext()) {
+        values.add(parseValue(componentType, componentKind, reader, skipNonExistingFields));
+      }
+      reader.endArray();
+
+      return values.toArray((Object[]) Array.newInstance(componentType, values.size()));
+    } catch (JSONException e) {
+      throw new FoursquareApiException(e);
+    }
+  }
+
+  /**
+   * Parses single value. Value might be of type String, Integer, Long, Double, Boolean or FoursquareEntity depending on kind
+   *
+   * @param clazz class of the value
+   * @param kind kind of the value
+   * @param reader reader positioned at the beginning of the value
+   * @param skipNonExistingFields whether parser should ignore non-existing fields
+   * @return value
+   * @throws JSONException when JSON parsing error occures
+   * @throws FoursquareApiException when something unexpected happens
+   */
+  static Object parseValue(Class<?> clazz, EntityBindings.ValueKind kind, JSONStreamReader reader, boolean skipNonExistingFields) throws JSONException, FoursquareApiException {
+    if (isNull(reader)) {
+      return null;
+    }
+
+    try {
+      switch (kind) {
+        case STRING:
+          return reader.nextString();
+        case INTEGER:
+          String integerValue = reader.nextString();
+          try {
+            return Integer.valueOf(integerValue);
+          } catch (NumberFormatException e) {
+            return (int) Double.parseDouble(integerValue);
+          }
+        case LONG:
+          String longValue = reader.nextString();
+          try {
+            return Long.valueOf(longValue);
+          } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(longValue);
+          }
+        case DOUBLE:
+          return Double.valueOf(reader.nextString());
+        case BOOLEAN:
+          String booleanValue = reader.nextString();
+          if ("true".equalsIgnoreCase(booleanValue)) {
+            return Boolean.TRUE;
+          } else if ("false".equalsIgnoreCase(booleanValue)) {
+            return Boolean.FALSE;
+          }
+
+          throw new FoursquareApiException("Value " + booleanValue + " is not a Boolean");
+        case ENTITY:
+          return parseEntity(clazz, reader, skipNonExistingFields);
+        case ARRAY:
+          return parseArray(clazz.getComponentType(), EntityBindings.getValueKind(clazz.getComponentType()), reader, skipNonExistingFields);
+        default:
+          throw new FoursquareApiException("Unknown type: " + clazz);
+      }
+    } catch (NumberFormatException e) {
+      throw new FoursquareApiException(e);
+    }
+  }
+
+  /**
+   * Consumes null literal if next value is null
+   *
+   * @param reader reader
+   * @return whether next value was null
+   * @throws JSONException when document could not be read
+   */
+  private static boolean isNull(JSONStreamReader reader) throws JSONException {
+    if (reader.peek() == JSONStreamReader.Token.LITERAL && reader.nextNull()) {
+      return true;
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,670 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Pull tokenizer that reads JSON documents from a Reader without building an object tree.
+ *
+ * Tokenizer is as lenient as org.json parser: names may be unquoted and strings may be
+ * quoted with single quotes. Separators are handled by the reader, so callers only
+ * need to call hasNext() between values of an object or an array.
+ *
+ * @author Antti Leppä
+ */
+public class JSONStreamReader {
+
+  /**
+   * Constructor
+   *
+   * @param reader reader the document is read from
+   */
+  public JSONStreamReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Returns type of the next token without consuming it
+   *
+   * @return type of the next token
+   * @throws JSONException when document could not be read
+   */
+  public Token peek() throws JSONException {
+    if (pendingLiteral != null) {
+      return Token.LITERAL;
+    }
+
+    int c = peekClean();
+    switch (c) {
+      case -1:
+        return Token.END_DOCUMENT;
+      case '{':
+        return Token.BEGIN_OBJECT;
+      case '}':
+        return Token.END_OBJECT;
+      case '[':
+        return Token.BEGIN_ARRAY;
+      case ']':
+        return Token.END_ARRAY;
+      case '"':
+      case '\'':
+        return Token.STRING;
+      default:
+        return Token.LITERAL;
+    }
+  }
+
+  /**
+   * Skips characters until the beginning of the next object. Used for skipping JSONP callback prefix.
+   *
+   * @throws JSONException when document does not contain an object
+   */
+  public void skipToObject() throws JSONException {
+    int c;
+    while ((c = peekChar()) != '{') {
+      if (c == -1) {
+        throw syntaxError("Expected '{'");
+      }
+
+      pos++;
+    }
+  }
+
+  /**
+   * Consumes beginning of an object
+   *
+   * @throws JSONException when next token is not beginning of an object
+   */
+  public void beginObject() throws JSONException {
+    expect('{');
+  }
+
+  /**
+   * Consumes end of an object
+   *
+   * @throws JSONException when next token is not end of an object
+   */
+  public void endObject() throws JSONException {
+    expect('}');
+  }
+
+  /**
+   * Consumes beginning of an array
+   *
+   * @throws JSONException when next token is not beginning of an array
+   */
+  public void beginArray() throws JSONException {
+    expect('[');
+  }
+
+  /**
+   * Consumes end of an array
+   *
+   * @throws JSONException when next token is not end of an array
+   */
+  public void endArray() throws JSONException {
+    expect(']');
+  }
+
+  /**
+   * Returns whether current object or array has more elements
+   *
+   * @return whether current object or array has more elements
+   * @throws JSONException when document could not be read
+   */
+  public boolean hasNext() throws JSONException {
+    if (pendingLiteral != null) {
+      return true;
+    }
+
+    int c = peekClean();
+    if (c == ',' || c == ';') {
+      pos++;
+      c = peekClean();
+    }
+
+    return c != '}' && c != ']' && c != -1;
+  }
+
+  /**
+   * Consumes name of an object field and the following separator
+   *
+   * @return name of the field
+   * @throws JSONException when next token is not a name
+   */
+  public String nextName() throws JSONException {
+    String name;
+    int c = peekClean();
+    if (c == '"' || c == '\'') {
+      pos++;
+      name = readQuoted((char) c);
+    } else {
+      name = readLiteral();
+    }
+
+    c = peekClean();
+    if (c == '=') {
+      pos++;
+      if (peekChar() == '>') {
+        pos++;
+      }
+    } else if (c == ':') {
+      pos++;
+    } else {
+      throw syntaxError("Expected ':' after " + name);
+    }
+
+    return name;
+  }
+
+  /**
+   * Consumes a string or a literal (number, boolean, null or unquoted string) and returns it as text
+   *
+   * @return text of the value
+   * @throws JSONException when next token is not a string or a literal
+   */
+  public String nextString() throws JSONException {
+    if (pendingLiteral != null) {
+      return readLiteral();
+    }
+
+    int c = peekClean();
+    if (c == '"' || c == '\'') {
+      pos++;
+      return readQuoted((char) c);
+    }
+
+    if (c == '{' || c == '[' || c == '}' || c == ']' || c == -1) {
+      throw syntaxError("Expected a value");
+    }
+
+    return readLiteral();
+  }
+
+  /**
+   * Consumes next value if it is a null literal
+   *
+   * @return whether next value was null
+   * @throws JSONException when next token is not a literal
+   */
+  public boolean nextNull() throws JSONException {
+    String literal = readLiteral();
+    if ("null".equals(literal)) {
+      return true;
+    }
+
+    pendingLiteral = literal;
+    return false;
+  }
+
+  /**
+   * Skips next value including all nested objects and arrays
+   *
+   * @throws JSONException when document could not be read
+   */
+  public void skipValue() throws JSONException {
+    if (pendingLiteral != null) {
+      pendingLiteral = null;
+      return;
+    }
+
+    int depth = 0;
+    do {
+      int c = peekClean();
+      switch (c) {
+        case -1:
+          throw syntaxError("Unexpected end of document");
+        case '{':
+        case '[':
+          pos++;
+          depth++;
+        break;
+        case '}':
+        case ']':
+          pos++;
+          depth--;
+        break;
+        case ',':
+        case ';':
+        case ':':
+          pos++;
+        break;
+        case '=':
+          pos++;
+          if (peekChar() == '>') {
+            pos++;
+          }
+        break;
+        case '"':
+        case '\'':
+          pos++;
+          skipQuoted((char) c);
+        break;
+        default:
+          skipLiteral();
+        break;
+      }
+    } while (depth > 0);
+  }
+
+  /**
+   * Reads next value as org.json object. Objects are returned as JSONObjects, arrays as JSONArrays,
+   * strings as Strings, numbers as Longs or Doubles, booleans as Booleans and nulls as JSONObject.NULL
+   *
+   * @return value
+   * @throws JSONException when document could not be read
+   */
+  public Object nextJSONValue() throws JSONException {
+    switch (peek()) {
+      case BEGIN_OBJECT:
+        JSONObject object = new JSONObject();
+        beginObject();
+        while (hasNext()) {
+          String name = nextName();
+          object.put(name, nextJSONValue());
+        }
+        endObject();
+        return object;
+      case BEGIN_ARRAY:
+        JSONArray array = new JSONArray();
+        beginArray();
+        while (hasNext()) {
+          array.put(nextJSONValue());
+        }
+        endArray();
+        return array;
+      case STRING:
+        return nextString();
+      case LITERAL:
+        return literalToValue(readLiteral());
+      default:
+        throw syntaxError("Expected a value");
+    }
+  }
+
+  /**
+   * Converts literal into a value the same way org.json does
+   *
+   * @param literal literal
+   * @return value
+   */
+  private Object literalToValue(String literal) {
+    if ("true".equalsIgnoreCase(literal)) {
+      return Boolean.TRUE;
+    } else if ("false".equalsIgnoreCase(literal)) {
+      return Boolean.FALSE;
+    } else if ("null".equalsIgnoreCase(literal)) {
+      return JSONObject.NULL;
+    }
+
+    char first = literal.charAt(0);
+    if ((first >= '0' && first <= '9') || first == '-' || first == '.') {
+      try {
+        if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+          return Long.valueOf(literal);
+        } else {
+          return Double.valueOf(literal);
+        }
+      } catch (NumberFormatException e) {
+        return literal;
+      }
+    }
+
+    return literal;
+  }
+
+  /**
+   * Reads quoted string. Opening quote must already be consumed.
+   *
+   * @param quote quote character
+   * @return unescaped string
+   * @throws JSONException when string is not terminated
+   */
+  private String readQuoted(char quote) throws JSONException {
+    StringBuilder builder = null;
+
+    while (true) {
+      int start = pos;
+      while (pos < limit) {
+        char c = buffer[pos];
+        if (c == quote) {
+          String result;
+          if (builder == null) {
+            result = new String(buffer, start, pos - start);
+          } else {
+            builder.append(buffer, start, pos - start);
+            result = builder.toString();
+          }
+
+          pos++;
+          return result;
+        } else if (c == '\\') {
+          if (builder == null) {
+            builder = new StringBuilder();
+          }
+
+          builder.append(buffer, start, pos - start);
+          pos++;
+          builder.append(readEscaped());
+          start = pos;
+        } else if (c == '\n' || c == '\r') {
+          throw syntaxError("Unterminated string");
+        } else {
+          pos++;
+        }
+      }
+
+      if (builder == null) {
+        builder = new StringBuilder();
+      }
+
+      builder.append(buffer, start, pos - start);
+      if (!fill()) {
+        throw syntaxError("Unterminated string");
+      }
+    }
+  }
+
+  /**
+   * Reads escaped character. Backslash must already be consumed.
+   *
+   * @return unescaped character
+   * @throws JSONException when escape sequence is invalid
+   */
+  private char readEscaped() throws JSONException {
+    int c = nextChar();
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'f':
+        return '\f';
+      case 'r':
+        return '\r';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(nextChar(), 16);
+          if (digit == -1) {
+            throw syntaxError("Illegal escape");
+          }
+
+          value = (value << 4) + digit;
+        }
+
+        return (char) value;
+      case '"':
+      case '\'':
+      case '\\':
+      case '/':
+        return (char) c;
+      default:
+        throw syntaxError("Illegal escape");
+    }
+  }
+
+  /**
+   * Skips quoted string without unescaping it. Opening quote must already be consumed.
+   *
+   * @param quote quote character
+   * @throws JSONException when string is not terminated
+   */
+  private void skipQuoted(char quote) throws JSONException {
+    while (true) {
+      int c = nextChar();
+      if (c == quote) {
+        return;
+      } else if (c == '\\') {
+        nextChar();
+      } else if (c == -1 || c == '\n' || c == '\r') {
+        throw syntaxError("Unterminated string");
+      }
+    }
+  }
+
+  /**
+   * Reads unquoted literal
+   *
+   * @return literal
+   * @throws JSONException when there is no literal
+   */
+  private String readLiteral() throws JSONException {
+    if (pendingLiteral != null) {
+      String result = pendingLiteral;
+      pendingLiteral = null;
+      return result;
+    }
+
+    peekClean();
+    StringBuilder builder = null;
+
+    while (true) {
+      int start = pos;
+      while (pos < limit && !isLiteralEnd(buffer[pos])) {
+        pos++;
+      }
+
+      if (pos < limit) {
+        String result;
+        if (builder == null) {
+          result = new String(buffer, start, pos - start);
+        } else {
+          builder.append(buffer, start, pos - start);
+          result = builder.toString();
+        }
+
+        if (result.length() == 0) {
+          throw syntaxError("Missing value");
+        }
+
+        return result;
+      }
+
+      if (builder == null) {
+        builder = new StringBuilder();
+      }
+
+      builder.append(buffer, start, pos - start);
+      if (!fill()) {
+        if (builder.length() == 0) {
+          throw syntaxError("Missing value");
+        }
+
+        return builder.toString();
+      }
+    }
+  }
+
+  /**
+   * Skips unquoted literal
+   *
+   * @throws JSONException when document could not be read
+   */
+  private void skipLiteral() throws JSONException {
+    int c;
+    int length = 0;
+    while ((c = peekChar()) != -1 && !isLiteralEnd((char) c)) {
+      pos++;
+      length++;
+    }
+
+    if (length == 0) {
+      throw syntaxError("Unexpected character");
+    }
+  }
+
+  /**
+   * Returns whether character terminates an unquoted literal
+   *
+   * @param c character
+   * @return whether character terminates an unquoted literal
+   */
+  private boolean isLiteralEnd(char c) {
+    return c <= ' ' || ",:]}/\\\"[{;=#".indexOf(c) != -1;
+  }
+
+  /**
+   * Consumes expected character after skipping whitespace
+   *
+   * @param expected expected character
+   * @throws JSONException when next character is something else
+   */
+  private void expect(char expected) throws JSONException {
+    if (peekClean() != expected) {
+      throw syntaxError("Expected '" + expected + "'");
+    }
+
+    pos++;
+  }
+
+  /**
+   * Skips whitespace and comments and returns next character without consuming it
+   *
+   * @return next character or -1 when document has ended
+   * @throws JSONException when document could not be read
+   */
+  private int peekClean() throws JSONException {
+    while (true) {
+      int c = peekChar();
+      if (c == '/' || c == '#') {
+        skipComment();
+      } else if (c == -1 || c > ' ') {
+        return c;
+      } else {
+        pos++;
+      }
+    }
+  }
+
+  /**
+   * Skips a comment
+   *
+   * @throws JSONException when comment is not terminated
+   */
+  private void skipComment() throws JSONException {
+    int c = nextChar();
+    if (c == '/') {
+      if (peekChar() == '*') {
+        pos++;
+        int previous = 0;
+        while ((c = nextChar()) != -1) {
+          if (previous == '*' && c == '/') {
+            return;
+          }
+
+          previous = c;
+        }
+
+        throw syntaxError("Unclosed comment");
+      } else if (peekChar() != '/') {
+        throw syntaxError("Unexpected '/'");
+      }
+    }
+
+    while ((c = nextChar()) != -1 && c != '\n' && c != '\r') {
+    }
+  }
+
+  /**
+   * Returns next character without consuming it
+   *
+   * @return next character or -1 when document has ended
+   * @throws JSONException when document could not be read
+   */
+  private int peekChar() throws JSONException {
+    if (pos >= limit && !fill()) {
+      return -1;
+    }
+
+    return buffer[pos];
+  }
+
+  /**
+   * Consumes next character
+   *
+   * @return next character or -1 when document has ended
+   * @throws JSONException when document could not be read
+   */
+  private int nextChar() throws JSONException {
+    if (pos >= limit && !fill()) {
+      return -1;
+    }
+
+    return buffer[pos++];
+  }
+
+  /**
+   * Reads more characters into the buffer
+   *
+   * @return false if document has ended
+   * @throws JSONException when document could not be read
+   */
+  private boolean fill() throws JSONException {
+    try {
+      offset += limit;
+      pos = 0;
+      limit = 0;
+
+      int l;
+      while ((l = reader.read(buffer)) == 0) {
+      }
+
+      if (l > 0) {
+        limit = l;
+        return true;
+      }
+
+      return false;
+    } catch (IOException e) {
+      throw new JSONException(e.getMessage());
+    }
+  }
+
+  /**
+   * Creates syntax error with current position
+   *
+   * @param message message
+   * @return exception
+   */
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + (offset + pos));
+  }
+
+  private Reader reader;
+  private char[] buffer = new char[4096];
+  private int pos;
+  private int limit;
+  private long offset;
+  private String pendingLiteral;
+
+  /**
+   * Enumeration of JSON token types
+   */
+  public enum Token {
+    BEGIN_OBJECT,
+    END_OBJECT,
+    BEGIN_ARRAY,
+    END_ARRAY,
+    STRING,
+    LITERAL,
+    END_DOCUMENT
+  }
+}
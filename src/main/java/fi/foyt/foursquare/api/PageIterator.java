@@ -0,0 +1,253 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import fi.foyt.foursquare.api.entities.Group;
+
+/**
+ * Iterator over all items of an endpoint that is paged with limit and offset parameters.
+ *
+ * Pages are fetched lazily with asynchronous requests. Pages may be groups, which tell the total
+ * number of items, or plain arrays of items. Once the total number of items is known, up to
+ * prefetch depth following pages are requested in parallel in the background while the current
+ * page is being consumed, so iterating is not slowed down by request round trips. Pages of
+ * endpoints that do not tell the total number of items are prefetched one at a time. With prefetch
+ * depth 0 nothing is prefetched and each page is requested when the previous one has been consumed.
+ *
+ * Iteration ends when items up to the total number of items have been requested and returned,
+ * a page is empty or the iterator is cancelled. When the total number of items is not known,
+ * iteration also ends on a page shorter than the page size. Endpoints limit the number of items per
+ * page, so page size must not exceed the maximum of the endpoint. Iterator can be cancelled from any thread. Failed requests are thrown from hasNext and next as
+ * IllegalStateExceptions caused by FoursquareApiException, after which the iterator is cancelled.
+ *
+ * @author Antti Leppä
+ *
+ * @param <T> type of items
+ */
+public abstract class PageIterator<T extends FoursquareEntity> implements Iterator<T> {
+
+  /**
+   * Constructor
+   *
+   * @param pageSize number of items requested per page
+   * @param prefetchDepth maximum number of pages requested ahead of the page being consumed
+   */
+  protected PageIterator(int pageSize, int prefetchDepth) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must be positive");
+    }
+
+    if (prefetchDepth < 0) {
+      throw new IllegalArgumentException("Prefetch depth must not be negative");
+    }
+
+    this.pageSize = pageSize;
+    this.prefetchDepth = prefetchDepth;
+  }
+
+  /**
+   * Starts asynchronous request for a page. Result of the page must be a Group of T or an array of T.
+   *
+   * @param offset offset of the first item of the page
+   * @param limit number of items in the page
+   * @return Future of the page
+   */
+  protected abstract ResultFuture<?> fetchPage(int offset, int limit);
+
+  public synchronized boolean hasNext() {
+    if (cancelled) {
+      return false;
+    }
+
+    while (items == null || index >= items.length) {
+      if (cancelled || endReached) {
+        return false;
+      }
+
+      // Page is requested on demand when it has not been prefetched
+      if (pendingPages.isEmpty() && !requestPage()) {
+        return false;
+      }
+
+      Object page = awaitPage(pendingPages.poll());
+      if (page == null) {
+        return false;
+      }
+
+      setPage(page);
+
+      // Pages may be short before the end when items are removed between requests, so short
+      // page ends iteration only when total number of items is not known
+      if (items == null || items.length == 0 || (count == null && items.length < pageSize)) {
+        endReached = true;
+        cancelPendingPages();
+      } else {
+        requestPages();
+      }
+    }
+
+    return true;
+  }
+
+  public synchronized T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    return items[index++];
+  }
+
+  /**
+   * Items can not be removed
+   *
+   * @throws UnsupportedOperationException always
+   */
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Stops iteration and cancels requests of prefetched pages
+   */
+  public void cancel() {
+    cancelled = true;
+    cancelPendingPages();
+
+    ResultFuture<?> future = currentPage;
+    if (future != null) {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Returns total number of items reported by the endpoint
+   *
+   * @return total number of items or null if it is not known yet
+   */
+  public synchronized Long getCount() {
+    return count;
+  }
+
+  /**
+   * Requests pages ahead of the current page until prefetch depth is reached or all items have been requested
+   */
+  private void requestPages() {
+    while (pendingPages.size() < prefetchDepth) {
+      // Without total number of items pages are prefetched one at a time
+      if (count == null && !pendingPages.isEmpty()) {
+        return;
+      }
+
+      if (!requestPage()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Requests next page unless all items have been requested
+   *
+   * @return whether page was requested
+   */
+  private boolean requestPage() {
+    if (endReached || cancelled || (count != null && nextOffset >= count)) {
+      return false;
+    }
+
+    pendingPages.add(fetchPage(nextOffset, pageSize));
+    nextOffset += pageSize;
+    return true;
+  }
+
+  /**
+   * Sets items of the page as current items and updates total number of items
+   *
+   * @param page Group of T or array of T
+   */
+  @SuppressWarnings("unchecked")
+  private void setPage(Object page) {
+    if (page instanceof Group) {
+      Group<T> group = (Group<T>) page;
+      if (group.getCount() != null) {
+        count = group.getCount();
+      }
+
+      items = group.getItems();
+    } else {
+      items = (T[]) page;
+    }
+
+    index = 0;
+  }
+
+  /**
+   * Waits for page and returns it
+   *
+   * @param future Future of the page
+   * @return page or null if iterator was cancelled
+   * @throws IllegalStateException when page could not be fetched
+   */
+  private Object awaitPage(ResultFuture<?> future) {
+    FoursquareApiException exception;
+
+    currentPage = future;
+    try {
+      if (cancelled) {
+        return null;
+      }
+
+      Result<?> result = future.get();
+      if (result.getMeta().getCode() == 200 && result.getResult() != null) {
+        return result.getResult();
+      }
+
+      exception = new FoursquareApiException(result.getMeta().getErrorType() + ": " + result.getMeta().getErrorDetail());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      exception = new FoursquareApiException(e);
+    } catch (CancellationException e) {
+      return null;
+    } catch (ExecutionException e) {
+      exception = e.getCause() instanceof FoursquareApiException ? (FoursquareApiException) e.getCause() : new FoursquareApiException(e.getCause());
+    } finally {
+      currentPage = null;
+    }
+
+    cancel();
+    throw new IllegalStateException("Could not fetch page", exception);
+  }
+
+  private void cancelPendingPages() {
+    ResultFuture<?> future;
+    while ((future = pendingPages.poll()) != null) {
+      future.cancel(true);
+    }
+  }
+
+  private int pageSize;
+  private int prefetchDepth;
+  private int nextOffset = 0;
+  private Long count;
+  private boolean endReached = false;
+  private volatile boolean cancelled = false;
+  private T[] items;
+  private int index;
+  private volatile ResultFuture<?> currentPage;
+  private final Queue<ResultFuture<?>> pendingPages = new LinkedBlockingQueue<ResultFuture<?>>();
+}
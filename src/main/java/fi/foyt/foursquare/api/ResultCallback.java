@@ -0,0 +1,37 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+/**
+ * Callback interface for asynchronous API requests
+ *
+ * @author Antti Leppä
+ *
+ * @param <T> type of resulting entity
+ */
+public interface ResultCallback<T> {
+
+  /**
+   * Called when request has completed and result has been parsed. Result meta 
+   * should be checked for API errors as in synchronous requests.
+   *
+   * @param result result
+   */
+  public void completed(Result<T> result);
+
+  /**
+   * Called when request fails with an exception
+   *
+   * @param exception exception
+   */
+  public void failed(FoursquareApiException exception);
+}
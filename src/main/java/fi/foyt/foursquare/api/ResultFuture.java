@@ -0,0 +1,159 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future of an asynchronous API request. 
+ * 
+ * Future is completed by the API once response has been received and parsed. Failures 
+ * are reported as ExecutionExceptions caused by FoursquareApiException.
+ *
+ * @author Antti Leppä
+ *
+ * @param <T> type of resulting entity
+ */
+public class ResultFuture<T> implements Future<Result<T>> {
+
+  /**
+   * Constructor
+   * 
+   * @param callback callback notified when future completes or null
+   */
+  ResultFuture(ResultCallback<T> callback) {
+    this.callback = callback;
+  }
+
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    Future<?> ioFuture;
+    
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+      
+      cancelled = true;
+      ioFuture = this.ioFuture;
+      latch.countDown();
+    }
+    
+    if (ioFuture != null) {
+      ioFuture.cancel(mayInterruptIfRunning);
+    }
+    
+    return true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+
+  public Result<T> get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return getResult();
+  }
+
+  public Result<T> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    
+    return getResult();
+  }
+  
+  /**
+   * Sets future of the underlying IO operation. Cancelling this future cancels the IO operation.
+   * 
+   * @param ioFuture future of the underlying IO operation
+   */
+  void setIOFuture(Future<?> ioFuture) {
+    boolean cancel;
+    
+    synchronized (this) {
+      this.ioFuture = ioFuture;
+      cancel = cancelled;
+    }
+    
+    if (cancel) {
+      ioFuture.cancel(true);
+    }
+  }
+
+  /**
+   * Completes future with a result
+   * 
+   * @param result result
+   */
+  void complete(Result<T> result) {
+    synchronized (this) {
+      if (isDone()) {
+        return;
+      }
+      
+      this.result = result;
+      latch.countDown();
+    }
+    
+    if (callback != null) {
+      callback.completed(result);
+    }
+  }
+
+  /**
+   * Completes future with a failure
+   * 
+   * @param exception exception
+   */
+  void fail(FoursquareApiException exception) {
+    synchronized (this) {
+      if (isDone()) {
+        return;
+      }
+      
+      this.exception = exception;
+      latch.countDown();
+    }
+    
+    if (callback != null) {
+      callback.failed(exception);
+    }
+  }
+  
+  private synchronized Result<T> getResult() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    
+    if (exception != null) {
+      throw new ExecutionException(exception);
+    }
+    
+    return result;
+  }
+
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private final ResultCallback<T> callback;
+  private volatile boolean cancelled;
+  private Future<?> ioFuture;
+  private Result<T> result;
+  private FoursquareApiException exception;
+}
@@ -20,6 +20,23 @@ public class ResultMeta {
     this.errorDetail = errorDetail;
   }
 
+  /**
+   * Constructor
+   * 
+   * @param code code
+   * @param errorType errorType
+   * @param errorDetail error details
+   * @param rateLimit number of requests allowed in the rate limit window or null if not known
+   * @param rateLimitRemaining number of requests left in the rate limit window or null if not known
+   * @param rateLimitReset time when the rate limit window resets in seconds since epoch or null if not known
+   */
+  public ResultMeta(Integer code, String errorType, String errorDetail, Integer rateLimit, Integer rateLimitRemaining, Long rateLimitReset) {
+    this(code, errorType, errorDetail);
+    this.rateLimit = rateLimit;
+    this.rateLimitRemaining = rateLimitRemaining;
+    this.rateLimitReset = rateLimitReset;
+  }
+
   /**
    * Returns code
    * 
@@ -51,7 +68,37 @@ public class ResultMeta {
     return errorDetail;
   }
 
+  /**
+   * Returns number of requests allowed in the rate limit window, as reported by X-RateLimit-Limit header
+   * 
+   * @return number of requests allowed or null if response did not tell it
+   */
+  public Integer getRateLimit() {
+    return rateLimit;
+  }
+
+  /**
+   * Returns number of requests left in the rate limit window, as reported by X-RateLimit-Remaining header
+   * 
+   * @return number of requests left or null if response did not tell it
+   */
+  public Integer getRateLimitRemaining() {
+    return rateLimitRemaining;
+  }
+
+  /**
+   * Returns time when the rate limit window resets, as reported by X-RateLimit-Reset header
+   * 
+   * @return time in seconds since epoch or null if response did not tell it
+   */
+  public Long getRateLimitReset() {
+    return rateLimitReset;
+  }
+
   private Integer code;
   private String errorType;
   private String errorDetail;
+  private Integer rateLimit;
+  private Integer rateLimitRemaining;
+  private Long rateLimitReset;
 }
\ No newline at end of file
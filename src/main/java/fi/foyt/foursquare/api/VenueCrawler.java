@@ -0,0 +1,463 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fi.foyt.foursquare.api.entities.CompactVenue;
+import fi.foyt.foursquare.api.entities.VenueGroup;
+import fi.foyt.foursquare.api.entities.VenuesSearchResult;
+
+/**
+ * Crawler that collects all venues of a geographic bounding box with venue searches.
+ *
+ * Bounding box is covered with tiles that are searched with the browse intent of venuesSearch.
+ * Because search returns at most a limited number of venues, a tile that returns the limit is
+ * split into four quadrants that are searched again, until tiles get smaller than the minimum
+ * tile span. Tiles are searched concurrently with asynchronous requests, limited by maximum
+ * number of concurrent requests and maximum request rate. Venues found in several tiles are
+ * returned only once.
+ *
+ * Crawler can be stopped at any time and its state saved into a checkpoint, from which another
+ * crawler can resume the crawl later. Tiles whose search failed are kept and searched again when
+ * the crawl is resumed.
+ *
+ * @author Antti Leppä
+ */
+public class VenueCrawler {
+
+  /**
+   * Constructor
+   *
+   * @param foursquareApi API instance used in searches
+   * @param south southern latitude of the bounding box
+   * @param west western longitude of the bounding box
+   * @param north northern latitude of the bounding box
+   * @param east eastern longitude of the bounding box
+   */
+  public VenueCrawler(FoursquareApi foursquareApi, double south, double west, double north, double east) {
+    this.foursquareApi = foursquareApi;
+    this.pendingTiles.add(new Tile(south, west, north, east));
+  }
+
+  /**
+   * Sets additional search parameter, such as query or categoryId, sent with every search
+   *
+   * @param name parameter name
+   * @param value parameter value or null to remove the parameter
+   */
+  public synchronized void setSearchParameter(String name, String value) {
+    if (value != null) {
+      searchParameters.put(name, value);
+    } else {
+      searchParameters.remove(name);
+    }
+  }
+
+  /**
+   * Sets maximum number of venues returned by a search. Tiles returning this many venues are split. Default is 50.
+   *
+   * @param searchLimit maximum number of venues returned by a search
+   */
+  public synchronized void setSearchLimit(int searchLimit) {
+    this.searchLimit = searchLimit;
+  }
+
+  /**
+   * Sets minimum span of a tile in degrees. Tiles smaller than this are not split even if they return
+   * the search limit. Default is 0.0005 degrees, about 50 meters.
+   *
+   * @param minTileSpan minimum span of a tile in degrees
+   */
+  public synchronized void setMinTileSpan(double minTileSpan) {
+    this.minTileSpan = minTileSpan;
+  }
+
+  /**
+   * Sets maximum number of concurrent search requests. Default is 4.
+   *
+   * @param maxConcurrentRequests maximum number of concurrent search requests
+   */
+  public synchronized void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * Sets maximum number of search requests started per second. Default is 0, which means no limit.
+   *
+   * @param maxRequestsPerSecond maximum number of search requests started per second
+   */
+  public synchronized void setMaxRequestsPerSecond(double maxRequestsPerSecond) {
+    this.requestIntervalNanos = maxRequestsPerSecond > 0 ? (long) (1000000000d / maxRequestsPerSecond) : 0;
+  }
+
+  /**
+   * Crawls pending tiles until all of them have been searched or the crawler is stopped. When
+   * stopped, crawl returns after requests in progress have completed.
+   *
+   * @return venues found during this crawl that had not been found before
+   * @throws InterruptedException when thread is interrupted while waiting for requests
+   */
+  public List<CompactVenue> crawl() throws InterruptedException {
+    synchronized (this) {
+      stopped = false;
+      foundVenues = new ArrayList<CompactVenue>();
+      pendingTiles.addAll(failedTiles);
+      failedTiles.clear();
+    }
+
+    while (true) {
+      Tile tile;
+
+      synchronized (this) {
+        while (inFlightTiles.size() > 0 && (stopped || pendingTiles.isEmpty() || inFlightTiles.size() >= maxConcurrentRequests)) {
+          wait();
+        }
+
+        if (stopped || pendingTiles.isEmpty()) {
+          List<CompactVenue> result = foundVenues;
+          foundVenues = null;
+          return result;
+        }
+
+        tile = pendingTiles.removeFirst();
+        inFlightTiles.add(tile);
+      }
+
+      throttle();
+      search(tile);
+    }
+  }
+
+  /**
+   * Stops the crawl. Tiles that have not been searched stay pending.
+   */
+  public synchronized void stop() {
+    stopped = true;
+    notifyAll();
+  }
+
+  /**
+   * Writes checkpoint of the crawler state: tiles that have not been searched yet and ids of
+   * venues found so far. Tiles whose search is in progress are written as pending.
+   *
+   * @param writer writer
+   * @throws IOException when checkpoint could not be written
+   */
+  public void saveCheckpoint(Writer writer) throws IOException {
+    List<Tile> tiles;
+    List<String> venueIds;
+
+    synchronized (this) {
+      tiles = new ArrayList<Tile>(inFlightTiles);
+      tiles.addAll(pendingTiles);
+      tiles.addAll(failedTiles);
+      venueIds = new ArrayList<String>(this.venueIds);
+    }
+
+    for (Tile tile : tiles) {
+      writer.write(CHECKPOINT_TILE + ' ' + tile.getSouth() + ' ' + tile.getWest() + ' ' + tile.getNorth() + ' ' + tile.getEast() + '\n');
+    }
+
+    for (String venueId : venueIds) {
+      writer.write(CHECKPOINT_VENUE + ' ' + venueId + '\n');
+    }
+
+    writer.flush();
+  }
+
+  /**
+   * Replaces state of the crawler with a checkpoint written by saveCheckpoint. Must not be called during a crawl.
+   *
+   * @param reader reader
+   * @throws IOException when checkpoint could not be read or is not valid
+   */
+  public void loadCheckpoint(Reader reader) throws IOException {
+    List<Tile> tiles = new ArrayList<Tile>();
+    Set<String> venueIds = new HashSet<String>();
+
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    String line;
+    while ((line = bufferedReader.readLine()) != null) {
+      String[] fields = line.split(" ");
+      try {
+        if (fields.length == 5 && CHECKPOINT_TILE.equals(fields[0])) {
+          tiles.add(new Tile(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3]), Double.parseDouble(fields[4])));
+        } else if (fields.length == 2 && CHECKPOINT_VENUE.equals(fields[0])) {
+          venueIds.add(fields[1]);
+        } else if (line.length() > 0) {
+          throw new IOException("Invalid checkpoint line: " + line);
+        }
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid checkpoint line: " + line);
+      }
+    }
+
+    synchronized (this) {
+      pendingTiles.clear();
+      pendingTiles.addAll(tiles);
+      failedTiles.clear();
+      this.venueIds.clear();
+      this.venueIds.addAll(venueIds);
+    }
+  }
+
+  /**
+   * Returns whether all tiles have been searched successfully
+   *
+   * @return whether all tiles have been searched successfully
+   */
+  public synchronized boolean isComplete() {
+    return pendingTiles.isEmpty() && inFlightTiles.isEmpty() && failedTiles.isEmpty();
+  }
+
+  /**
+   * Returns number of distinct venues found
+   *
+   * @return number of distinct venues found
+   */
+  public synchronized int getVenueCount() {
+    return venueIds.size();
+  }
+
+  /**
+   * Returns number of search requests sent
+   *
+   * @return number of search requests sent
+   */
+  public synchronized long getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * Returns number of tiles split because they returned the search limit
+   *
+   * @return number of split tiles
+   */
+  public synchronized long getSplitCount() {
+    return splitCount;
+  }
+
+  /**
+   * Returns number of tiles that returned the search limit but were too small to be split, so
+   * they may have venues that were not found
+   *
+   * @return number of truncated tiles
+   */
+  public synchronized long getTruncatedTileCount() {
+    return truncatedTileCount;
+  }
+
+  /**
+   * Returns number of tiles whose search has failed and that are searched again in the next crawl
+   *
+   * @return number of failed tiles
+   */
+  public synchronized int getFailedTileCount() {
+    return failedTiles.size();
+  }
+
+  /**
+   * Waits until next request may be started without exceeding the maximum request rate
+   *
+   * @throws InterruptedException when thread is interrupted while waiting
+   */
+  private void throttle() throws InterruptedException {
+    long delay;
+
+    synchronized (this) {
+      if (requestIntervalNanos == 0) {
+        return;
+      }
+
+      long now = System.nanoTime();
+      nextRequestTime = Math.max(nextRequestTime, now);
+      delay = nextRequestTime - now;
+      nextRequestTime += requestIntervalNanos;
+    }
+
+    if (delay > 0) {
+      Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+    }
+  }
+
+  /**
+   * Starts asynchronous search of a tile
+   *
+   * @param tile tile
+   */
+  private void search(final Tile tile) {
+    final int limit;
+    Map<String, String> params;
+
+    synchronized (this) {
+      limit = searchLimit;
+      params = new HashMap<String, String>(searchParameters);
+      requestCount++;
+    }
+
+    params.put("intent", "browse");
+    params.put("sw", tile.getSouth() + "," + tile.getWest());
+    params.put("ne", tile.getNorth() + "," + tile.getEast());
+    params.put("limit", String.valueOf(limit));
+
+    try {
+      foursquareApi.venuesSearchAsync(params, new ResultCallback<VenuesSearchResult>() {
+        public void completed(Result<VenuesSearchResult> result) {
+          if (result.getMeta().getCode() == 200 && result.getResult() != null) {
+            searchCompleted(tile, getVenues(result.getResult()), limit);
+          } else {
+            searchFailed(tile);
+          }
+        }
+
+        public void failed(FoursquareApiException exception) {
+          searchFailed(tile);
+        }
+      });
+    } catch (RuntimeException e) {
+      searchFailed(tile);
+      throw e;
+    }
+  }
+
+  /**
+   * Collects found venues and splits the tile if the search returned its limit
+   *
+   * @param tile tile
+   * @param venues venues found in the tile
+   * @param limit search limit
+   */
+  private synchronized void searchCompleted(Tile tile, List<CompactVenue> venues, int limit) {
+    inFlightTiles.remove(tile);
+
+    for (CompactVenue venue : venues) {
+      if (venue.getId() != null && venueIds.add(venue.getId()) && foundVenues != null) {
+        foundVenues.add(venue);
+      }
+    }
+
+    if (venues.size() >= limit) {
+      if (tile.getNorth() - tile.getSouth() > minTileSpan || tile.getEast() - tile.getWest() > minTileSpan) {
+        double latitude = (tile.getSouth() + tile.getNorth()) / 2;
+        double longitude = (tile.getWest() + tile.getEast()) / 2;
+        pendingTiles.add(new Tile(tile.getSouth(), tile.getWest(), latitude, longitude));
+        pendingTiles.add(new Tile(tile.getSouth(), longitude, latitude, tile.getEast()));
+        pendingTiles.add(new Tile(latitude, tile.getWest(), tile.getNorth(), longitude));
+        pendingTiles.add(new Tile(latitude, longitude, tile.getNorth(), tile.getEast()));
+        splitCount++;
+      } else {
+        truncatedTileCount++;
+      }
+    }
+
+    notifyAll();
+  }
+
+  private synchronized void searchFailed(Tile tile) {
+    inFlightTiles.remove(tile);
+    failedTiles.add(tile);
+    notifyAll();
+  }
+
+  /**
+   * Returns venues of a search result, which may be listed directly or in groups depending on API version
+   *
+   * @param result search result
+   * @return venues of the result
+   */
+  private static List<CompactVenue> getVenues(VenuesSearchResult result) {
+    List<CompactVenue> venues = new ArrayList<CompactVenue>();
+
+    if (result.getVenues() != null) {
+      for (CompactVenue venue : result.getVenues()) {
+        venues.add(venue);
+      }
+    }
+
+    if (result.getGroups() != null) {
+      for (VenueGroup group : result.getGroups()) {
+        if (group.getItems() != null) {
+          for (CompactVenue venue : group.getItems()) {
+            venues.add(venue);
+          }
+        }
+      }
+    }
+
+    return venues;
+  }
+
+  private static final String CHECKPOINT_TILE = "tile";
+  private static final String CHECKPOINT_VENUE = "venue";
+
+  private FoursquareApi foursquareApi;
+  private final Map<String, String> searchParameters = new HashMap<String, String>();
+  private int searchLimit = 50;
+  private double minTileSpan = 0.0005;
+  private int maxConcurrentRequests = 4;
+  private long requestIntervalNanos = 0;
+  private long nextRequestTime = 0;
+  private final LinkedList<Tile> pendingTiles = new LinkedList<Tile>();
+  private final List<Tile> inFlightTiles = new ArrayList<Tile>();
+  private final List<Tile> failedTiles = new ArrayList<Tile>();
+  private final Set<String> venueIds = new HashSet<String>();
+  private List<CompactVenue> foundVenues;
+  private boolean stopped = false;
+  private long requestCount = 0;
+  private long splitCount = 0;
+  private long truncatedTileCount = 0;
+
+  /**
+   * Bounding box searched with a single request
+   */
+  private static class Tile {
+
+    public Tile(double south, double west, double north, double east) {
+      this.south = south;
+      this.west = west;
+      this.north = north;
+      this.east = east;
+    }
+
+    public double getSouth() {
+      return south;
+    }
+
+    public double getWest() {
+      return west;
+    }
+
+    public double getNorth() {
+      return north;
+    }
+
+    public double getEast() {
+      return east;
+    }
+
+    private double south;
+    private double west;
+    private double north;
+    private double east;
+  }
+}
@@ -0,0 +1,422 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import fi.foyt.foursquare.api.entities.Category;
+import fi.foyt.foursquare.api.entities.CompactVenue;
+import fi.foyt.foursquare.api.entities.Location;
+
+/**
+ * In-memory spatial index of venues.
+ *
+ * Venue coordinates are copied into primitive arrays and organized into a k-d tree, which answers
+ * bounding box, radius and nearest neighbour queries without scanning all venues. Queries can be
+ * limited to venues of a category. When a CategoryIndex is set, category filter matches venues of
+ * the category and all of its subcategories.
+ *
+ * Venues are identified by id, so adding a venue again replaces the earlier copy. Venues without
+ * coordinates are ignored. Tree is rebuilt lazily on the first query after venues have been added.
+ * Distances are great-circle distances in meters; bounding boxes must not cross the antimeridian.
+ *
+ * @author Antti Leppä
+ */
+public class VenueIndex {
+
+  /**
+   * Sets category index used in category filters. When set, category filter matches subcategories too.
+   *
+   * @param categoryIndex category index or null to match category ids exactly
+   */
+  public synchronized void setCategoryIndex(CategoryIndex categoryIndex) {
+    this.categoryIndex = categoryIndex;
+  }
+
+  /**
+   * Adds venue into the index
+   *
+   * @param venue venue
+   * @return whether venue was added. Venues without coordinates are not added.
+   */
+  public synchronized boolean add(CompactVenue venue) {
+    Location location = venue.getLocation();
+    if (venue.getId() == null || location == null || location.getLat() == null || location.getLng() == null) {
+      return false;
+    }
+
+    Integer index = indexes.get(venue.getId());
+    if (index == null) {
+      index = venues.size();
+      indexes.put(venue.getId(), index);
+      venues.add(venue);
+    } else {
+      venues.set(index, venue);
+    }
+
+    dirty = true;
+    return true;
+  }
+
+  /**
+   * Adds venues into the index
+   *
+   * @param venues venues
+   * @return number of venues added
+   */
+  public synchronized int addAll(Collection<? extends CompactVenue> venues) {
+    int added = 0;
+    for (CompactVenue venue : venues) {
+      if (add(venue)) {
+        added++;
+      }
+    }
+
+    return added;
+  }
+
+  /**
+   * Removes venue from the index
+   *
+   * @param venueId venue id
+   * @return whether venue was in the index
+   */
+  public synchronized boolean remove(String venueId) {
+    Integer index = indexes.remove(venueId);
+    if (index == null) {
+      return false;
+    }
+
+    // Last venue is moved into the place of the removed one
+    CompactVenue last = venues.remove(venues.size() - 1);
+    if (index < venues.size()) {
+      venues.set(index, last);
+      indexes.put(last.getId(), index);
+    }
+
+    dirty = true;
+    return true;
+  }
+
+  /**
+   * Returns number of indexed venues
+   *
+   * @return number of indexed venues
+   */
+  public synchronized int size() {
+    return venues.size();
+  }
+
+  /**
+   * Returns venues inside a bounding box
+   *
+   * @param south southern latitude
+   * @param west western longitude
+   * @param north northern latitude
+   * @param east eastern longitude
+   * @param categoryId category of returned venues or null for all venues
+   * @return venues inside the bounding box
+   */
+  public synchronized List<CompactVenue> findWithinBounds(double south, double west, double north, double east, String categoryId) {
+    build();
+
+    List<Integer> found = new ArrayList<Integer>();
+    findWithinBounds(0, size, 0, south, west, north, east, found);
+
+    List<CompactVenue> result = new ArrayList<CompactVenue>(found.size());
+    for (Integer venue : found) {
+      if (matchesCategory(venue, categoryId)) {
+        result.add(venues.get(order[venue]));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns venues within a distance of a point ordered by distance
+   *
+   * @param latitude latitude of the point
+   * @param longitude longitude of the point
+   * @param radius distance in meters
+   * @param categoryId category of returned venues or null for all venues
+   * @return venues within the distance, nearest first
+   */
+  public synchronized List<CompactVenue> findWithinRadius(double latitude, double longitude, double radius, String categoryId) {
+    build();
+
+    double latitudeSpan = Math.toDegrees(radius / EARTH_RADIUS);
+    double cos = Math.cos(Math.toRadians(Math.min(Math.abs(latitude) + latitudeSpan, 90)));
+    double longitudeSpan = cos > 0 ? Math.min(Math.toDegrees(radius / (EARTH_RADIUS * cos)), 180) : 180;
+
+    List<Integer> found = new ArrayList<Integer>();
+    findWithinBounds(0, size, 0, latitude - latitudeSpan, longitude - longitudeSpan, latitude + latitudeSpan, longitude + longitudeSpan, found);
+
+    List<Neighbour> neighbours = new ArrayList<Neighbour>();
+    for (Integer venue : found) {
+      double distance = getDistance(latitude, longitude, latitudes[venue], longitudes[venue]);
+      if (distance <= radius && matchesCategory(venue, categoryId)) {
+        neighbours.add(new Neighbour(venue, distance));
+      }
+    }
+
+    Collections.sort(neighbours, NEAREST_FIRST);
+    return getVenues(neighbours);
+  }
+
+  /**
+   * Returns nearest venues of a point ordered by distance
+   *
+   * @param latitude latitude of the point
+   * @param longitude longitude of the point
+   * @param count maximum number of venues returned
+   * @param categoryId category of returned venues or null for all venues
+   * @return nearest venues, nearest first
+   */
+  public synchronized List<CompactVenue> findNearest(double latitude, double longitude, int count, String categoryId) {
+    build();
+
+    PriorityQueue<Neighbour> nearest = new PriorityQueue<Neighbour>(Math.max(count, 1), Collections.reverseOrder(NEAREST_FIRST));
+    if (count > 0) {
+      findNearest(0, size, 0, latitude, longitude, count, categoryId, nearest);
+    }
+
+    List<Neighbour> neighbours = new ArrayList<Neighbour>(nearest);
+    Collections.sort(neighbours, NEAREST_FIRST);
+    return getVenues(neighbours);
+  }
+
+  /**
+   * Returns great-circle distance between two points
+   *
+   * @param latitude1 latitude of the first point
+   * @param longitude1 longitude of the first point
+   * @param latitude2 latitude of the second point
+   * @param longitude2 longitude of the second point
+   * @return distance in meters
+   */
+  public static double getDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+    double latitudeSine = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+    double longitudeSine = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+    double a = latitudeSine * latitudeSine + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * longitudeSine * longitudeSine;
+    return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  /**
+   * Rebuilds the tree if venues have changed since it was built. Tree is stored implicitly: each
+   * range of the tree arrays is split by the median at its middle, alternating between latitude
+   * and longitude on every level.
+   */
+  private void build() {
+    if (!dirty) {
+      return;
+    }
+
+    size = venues.size();
+    order = new int[size];
+    latitudes = new double[size];
+    longitudes = new double[size];
+    categoryIds = new String[size][];
+
+    Integer[] sorted = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = i;
+    }
+
+    double[] venueLatitudes = new double[size];
+    double[] venueLongitudes = new double[size];
+    for (int i = 0; i < size; i++) {
+      Location location = venues.get(i).getLocation();
+      venueLatitudes[i] = location.getLat();
+      venueLongitudes[i] = location.getLng();
+    }
+
+    buildRange(sorted, 0, size, 0, venueLatitudes, venueLongitudes);
+
+    for (int i = 0; i < size; i++) {
+      CompactVenue venue = venues.get(sorted[i]);
+      order[i] = sorted[i];
+      latitudes[i] = venueLatitudes[sorted[i]];
+      longitudes[i] = venueLongitudes[sorted[i]];
+
+      Category[] categories = venue.getCategories();
+      categoryIds[i] = new String[categories != null ? categories.length : 0];
+      for (int j = 0; j < categoryIds[i].length; j++) {
+        categoryIds[i][j] = categories[j].getId();
+      }
+    }
+
+    dirty = false;
+  }
+
+  private void buildRange(Integer[] sorted, int from, int to, int depth, final double[] venueLatitudes, final double[] venueLongitudes) {
+    if (to - from <= 1) {
+      return;
+    }
+
+    final boolean latitudeAxis = depth % 2 == 0;
+    Arrays.sort(sorted, from, to, new Comparator<Integer>() {
+      public int compare(Integer venue1, Integer venue2) {
+        return latitudeAxis ? Double.compare(venueLatitudes[venue1], venueLatitudes[venue2]) : Double.compare(venueLongitudes[venue1], venueLongitudes[venue2]);
+      }
+    });
+
+    int middle = (from + to) >>> 1;
+    buildRange(sorted, from, middle, depth + 1, venueLatitudes, venueLongitudes);
+    buildRange(sorted, middle + 1, to, depth + 1, venueLatitudes, venueLongitudes);
+  }
+
+  private void findWithinBounds(int from, int to, int depth, double south, double west, double north, double east, List<Integer> found) {
+    if (from >= to) {
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    double latitude = latitudes[middle];
+    double longitude = longitudes[middle];
+    if (latitude >= south && latitude <= north && longitude >= west && longitude <= east) {
+      found.add(middle);
+    }
+
+    double value = depth % 2 == 0 ? latitude : longitude;
+    double min = depth % 2 == 0 ? south : west;
+    double max = depth % 2 == 0 ? north : east;
+
+    if (min <= value) {
+      findWithinBounds(from, middle, depth + 1, south, west, north, east, found);
+    }
+
+    if (max >= value) {
+      findWithinBounds(middle + 1, to, depth + 1, south, west, north, east, found);
+    }
+  }
+
+  private void findNearest(int from, int to, int depth, double latitude, double longitude, int count, String categoryId, PriorityQueue<Neighbour> nearest) {
+    if (from >= to) {
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    if (matchesCategory(middle, categoryId)) {
+      double distance = getDistance(latitude, longitude, latitudes[middle], longitudes[middle]);
+      if (nearest.size() < count) {
+        nearest.add(new Neighbour(middle, distance));
+      } else if (distance < nearest.peek().getDistance()) {
+        nearest.poll();
+        nearest.add(new Neighbour(middle, distance));
+      }
+    }
+
+    boolean latitudeAxis = depth % 2 == 0;
+    double difference = latitudeAxis ? latitude - latitudes[middle] : longitude - longitudes[middle];
+    boolean lowerFirst = difference < 0;
+
+    findNearest(lowerFirst ? from : middle + 1, lowerFirst ? middle : to, depth + 1, latitude, longitude, count, categoryId, nearest);
+
+    // Far side can only contain nearer venues if the splitting line is nearer than the farthest venue found so far
+    if (nearest.size() < count || getSplitDistance(latitudeAxis, latitude, Math.abs(difference)) < nearest.peek().getDistance()) {
+      findNearest(lowerFirst ? middle + 1 : from, lowerFirst ? to : middle, depth + 1, latitude, longitude, count, categoryId, nearest);
+    }
+  }
+
+  /**
+   * Returns lower bound of the distance from a point to venues on the other side of a splitting line
+   *
+   * @param latitudeAxis whether the line is a parallel instead of a meridian
+   * @param latitude latitude of the point
+   * @param difference difference of the point and the line in degrees
+   * @return lower bound of the distance in meters
+   */
+  private static double getSplitDistance(boolean latitudeAxis, double latitude, double difference) {
+    if (latitudeAxis) {
+      return EARTH_RADIUS * Math.toRadians(difference);
+    }
+
+    if (difference >= 90) {
+      return 0;
+    }
+
+    // Distance from the point to the great circle of the meridian
+    return EARTH_RADIUS * Math.asin(Math.sin(Math.toRadians(difference)) * Math.cos(Math.toRadians(latitude)));
+  }
+
+  private boolean matchesCategory(int venue, String categoryId) {
+    if (categoryId == null) {
+      return true;
+    }
+
+    for (String venueCategoryId : categoryIds[venue]) {
+      if (categoryId.equals(venueCategoryId) || (categoryIndex != null && categoryIndex.isInSubtree(venueCategoryId, categoryId))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private List<CompactVenue> getVenues(List<Neighbour> neighbours) {
+    List<CompactVenue> result = new ArrayList<CompactVenue>(neighbours.size());
+    for (Neighbour neighbour : neighbours) {
+      result.add(venues.get(order[neighbour.getVenue()]));
+    }
+
+    return result;
+  }
+
+  private static final double EARTH_RADIUS = 6371009;
+
+  private static final Comparator<Neighbour> NEAREST_FIRST = new Comparator<Neighbour>() {
+    public int compare(Neighbour neighbour1, Neighbour neighbour2) {
+      return Double.compare(neighbour1.getDistance(), neighbour2.getDistance());
+    }
+  };
+
+  private CategoryIndex categoryIndex;
+  private final List<CompactVenue> venues = new ArrayList<CompactVenue>();
+  private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+  private boolean dirty = true;
+  private int size;
+  private int[] order;
+  private double[] latitudes;
+  private double[] longitudes;
+  private String[][] categoryIds;
+
+  /**
+   * Venue found in a query with its distance
+   */
+  private static class Neighbour {
+
+    public Neighbour(int venue, double distance) {
+      this.venue = venue;
+      this.distance = distance;
+    }
+
+    public int getVenue() {
+      return venue;
+    }
+
+    public double getDistance() {
+      return distance;
+    }
+
+    private int venue;
+    private double distance;
+  }
+}
@@ -11,6 +11,7 @@
 
 package fi.foyt.foursquare.api.entities;
 
+import fi.foyt.foursquare.api.FieldTableParser;
 import fi.foyt.foursquare.api.FoursquareEntity;
 
 /**
@@ -92,4 +93,55 @@ public class Category implements FoursquareEntity {
   private String[] parents;
   private Boolean primary;
   private Category[] categories;
+
+  /**
+   * Dedicated parser of Category entities. Registered by default in JSONFieldParser.
+   */
+  public static class Parser extends FieldTableParser<Category> {
+
+    public Parser() {
+      super(Category.class);
+
+      addField(new Field<Category>("id", String.class) {
+        protected void set(Category category, Object value) {
+          category.id = (String) value;
+        }
+      });
+      addField(new Field<Category>("name", String.class) {
+        protected void set(Category category, Object value) {
+          category.name = (String) value;
+        }
+      });
+      addField(new Field<Category>("pluralName", String.class) {
+        protected void set(Category category, Object value) {
+          category.pluralName = (String) value;
+        }
+      });
+      addField(new Field<Category>("icon", String.class) {
+        protected void set(Category category, Object value) {
+          category.icon = (String) value;
+        }
+      });
+      addField(new Field<Category>("parents", String[].class) {
+        protected void set(Category category, Object value) {
+          category.parents = (String[]) value;
+        }
+      });
+      addField(new Field<Category>("primary", Boolean.class) {
+        protected void set(Category category, Object value) {
+          category.primary = (Boolean) value;
+        }
+      });
+      addField(new Field<Category>("categories", Category[].class) {
+        protected void set(Category category, Object value) {
+          category.categories = (Category[]) value;
+        }
+      });
+    }
+
+    @Override
+    protected Category newEntity() {
+      return new Category();
+    }
+  }
 }
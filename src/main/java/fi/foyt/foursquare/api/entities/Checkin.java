@@ -11,6 +11,7 @@
 
 package fi.foyt.foursquare.api.entities;
 
+import fi.foyt.foursquare.api.FieldTableParser;
 import fi.foyt.foursquare.api.FoursquareEntity;
 
 /**
@@ -176,4 +177,95 @@ public class Checkin implements FoursquareEntity {
   private PhotoGroup photos;
   private CommentGroup comments;
   private CheckinGroup overlaps;
+
+  /**
+   * Dedicated parser of Checkin entities. Registered by default in JSONFieldParser.
+   */
+  public static class Parser extends FieldTableParser<Checkin> {
+
+    public Parser() {
+      super(Checkin.class);
+
+      addField(new Field<Checkin>("id", String.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.id = (String) value;
+        }
+      });
+      addField(new Field<Checkin>("type", String.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.type = (String) value;
+        }
+      });
+      addField(new Field<Checkin>("private", Boolean.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.isPrivate = (Boolean) value;
+        }
+      });
+      addField(new Field<Checkin>("isPrivate", Boolean.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.isPrivate = (Boolean) value;
+        }
+      });
+      addField(new Field<Checkin>("user", CompactUser.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.user = (CompactUser) value;
+        }
+      });
+      addField(new Field<Checkin>("isMayor", Boolean.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.isMayor = (Boolean) value;
+        }
+      });
+      addField(new Field<Checkin>("timeZone", String.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.timeZone = (String) value;
+        }
+      });
+      addField(new Field<Checkin>("venue", CompleteVenue.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.venue = (CompleteVenue) value;
+        }
+      });
+      addField(new Field<Checkin>("location", Location.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.location = (Location) value;
+        }
+      });
+      addField(new Field<Checkin>("shout", String.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.shout = (String) value;
+        }
+      });
+      addField(new Field<Checkin>("createdAt", Long.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.createdAt = (Long) value;
+        }
+      });
+      addField(new Field<Checkin>("source", Source.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.source = (Source) value;
+        }
+      });
+      addField(new Field<Checkin>("photos", PhotoGroup.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.photos = (PhotoGroup) value;
+        }
+      });
+      addField(new Field<Checkin>("comments", CommentGroup.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.comments = (CommentGroup) value;
+        }
+      });
+      addField(new Field<Checkin>("overlaps", CheckinGroup.class) {
+        protected void set(Checkin checkin, Object value) {
+          checkin.overlaps = (CheckinGroup) value;
+        }
+      });
+    }
+
+    @Override
+    protected Checkin newEntity() {
+      return new Checkin();
+    }
+  }
 }
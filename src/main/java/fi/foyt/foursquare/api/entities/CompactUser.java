@@ -11,6 +11,7 @@
 
 package fi.foyt.foursquare.api.entities;
 
+import fi.foyt.foursquare.api.FieldTableParser;
 import fi.foyt.foursquare.api.FoursquareEntity;
 
 /**
@@ -94,4 +95,55 @@ public class CompactUser implements FoursquareEntity {
   private String photo;
   private String gender;
   private String relationship;
+
+  /**
+   * Dedicated parser of CompactUser entities. Registered by default in JSONFieldParser.
+   */
+  public static class Parser extends FieldTableParser<CompactUser> {
+
+    public Parser() {
+      super(CompactUser.class);
+
+      addField(new Field<CompactUser>("id", String.class) {
+        protected void set(CompactUser user, Object value) {
+          user.id = (String) value;
+        }
+      });
+      addField(new Field<CompactUser>("firstName", String.class) {
+        protected void set(CompactUser user, Object value) {
+          user.firstName = (String) value;
+        }
+      });
+      addField(new Field<CompactUser>("lastName", String.class) {
+        protected void set(CompactUser user, Object value) {
+          user.lastName = (String) value;
+        }
+      });
+      addField(new Field<CompactUser>("homeCity", String.class) {
+        protected void set(CompactUser user, Object value) {
+          user.homeCity = (String) value;
+        }
+      });
+      addField(new Field<CompactUser>("photo", String.class) {
+        protected void set(CompactUser user, Object value) {
+          user.photo = (String) value;
+        }
+      });
+      addField(new Field<CompactUser>("gender", String.class) {
+        protected void set(CompactUser user, Object value) {
+          user.gender = (String) value;
+        }
+      });
+      addField(new Field<CompactUser>("relationship", String.class) {
+        protected void set(CompactUser user, Object value) {
+          user.relationship = (String) value;
+        }
+      });
+    }
+
+    @Override
+    protected CompactUser newEntity() {
+      return new CompactUser();
+    }
+  }
 }
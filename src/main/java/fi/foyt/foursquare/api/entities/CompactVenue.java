@@ -11,6 +11,7 @@
 
 package fi.foyt.foursquare.api.entities;
 
+import fi.foyt.foursquare.api.FieldTableParser;
 import fi.foyt.foursquare.api.FoursquareEntity;
 
 /**
@@ -143,4 +144,80 @@ public class CompactVenue implements FoursquareEntity {
   private String url;
   private Tips tips;
   private TodoGroup todos;
+
+  /**
+   * Dedicated parser of CompactVenue entities. Registered by default in JSONFieldParser.
+   */
+  public static class Parser extends FieldTableParser<CompactVenue> {
+
+    public Parser() {
+      super(CompactVenue.class);
+
+      addField(new Field<CompactVenue>("id", String.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.id = (String) value;
+        }
+      });
+      addField(new Field<CompactVenue>("name", String.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.name = (String) value;
+        }
+      });
+      addField(new Field<CompactVenue>("verified", Boolean.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.verified = (Boolean) value;
+        }
+      });
+      addField(new Field<CompactVenue>("contact", Contact.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.contact = (Contact) value;
+        }
+      });
+      addField(new Field<CompactVenue>("location", Location.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.location = (Location) value;
+        }
+      });
+      addField(new Field<CompactVenue>("categories", Category[].class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.categories = (Category[]) value;
+        }
+      });
+      addField(new Field<CompactVenue>("specials", CompleteSpecial[].class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.specials = (CompleteSpecial[]) value;
+        }
+      });
+      addField(new Field<CompactVenue>("hereNow", HereNow.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.hereNow = (HereNow) value;
+        }
+      });
+      addField(new Field<CompactVenue>("stats", Stats.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.stats = (Stats) value;
+        }
+      });
+      addField(new Field<CompactVenue>("url", String.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.url = (String) value;
+        }
+      });
+      addField(new Field<CompactVenue>("tips", Tips.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.tips = (Tips) value;
+        }
+      });
+      addField(new Field<CompactVenue>("todos", TodoGroup.class) {
+        protected void set(CompactVenue venue, Object value) {
+          venue.todos = (TodoGroup) value;
+        }
+      });
+    }
+
+    @Override
+    protected CompactVenue newEntity() {
+      return new CompactVenue();
+    }
+  }
 }
@@ -11,6 +11,8 @@
 
 package fi.foyt.foursquare.api.entities;
 
+import fi.foyt.foursquare.api.FieldTableParser;
+
 /**
  * Class representing CompleteUser entity
  * 
@@ -152,4 +154,86 @@ public class CompleteUser extends CompactUser {
   private Count following;
   private Count requests;
   private Scores scores;
+
+  /**
+   * Dedicated parser of CompleteUser entities. Registered by default in JSONFieldParser.
+   */
+  public static class Parser extends FieldTableParser<CompleteUser> {
+
+    public Parser() {
+      super(CompleteUser.class);
+
+      addFields(new CompactUser.Parser());
+      addField(new Field<CompleteUser>("type", String.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.type = (String) value;
+        }
+      });
+      addField(new Field<CompleteUser>("contact", Contact.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.contact = (Contact) value;
+        }
+      });
+      addField(new Field<CompleteUser>("pings", Boolean.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.pings = (Boolean) value;
+        }
+      });
+      addField(new Field<CompleteUser>("badges", Count.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.badges = (Count) value;
+        }
+      });
+      addField(new Field<CompleteUser>("checkins", CheckinGroup.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.checkins = (CheckinGroup) value;
+        }
+      });
+      addField(new Field<CompleteUser>("mayorships", VenueGroup.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.mayorships = (VenueGroup) value;
+        }
+      });
+      addField(new Field<CompleteUser>("tips", TipGroup.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.tips = (TipGroup) value;
+        }
+      });
+      addField(new Field<CompleteUser>("todos", TodoGroup.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.todos = (TodoGroup) value;
+        }
+      });
+      addField(new Field<CompleteUser>("friends", UserGroups.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.friends = (UserGroups) value;
+        }
+      });
+      addField(new Field<CompleteUser>("followers", Count.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.followers = (Count) value;
+        }
+      });
+      addField(new Field<CompleteUser>("following", Count.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.following = (Count) value;
+        }
+      });
+      addField(new Field<CompleteUser>("requests", Count.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.requests = (Count) value;
+        }
+      });
+      addField(new Field<CompleteUser>("scores", Scores.class) {
+        protected void set(CompleteUser user, Object value) {
+          user.scores = (Scores) value;
+        }
+      });
+    }
+
+    @Override
+    protected CompleteUser newEntity() {
+      return new CompleteUser();
+    }
+  }
 }
@@ -0,0 +1,88 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for inspecting API request URLs in IOHandlers.
+ *
+ * @author Antti Leppä
+ */
+class ApiUrls {
+
+  private ApiUrls() {
+  }
+
+  /**
+   * Returns endpoint path of API request URL, for example "venues/5104" for
+   * "https://api.foursquare.com/v2/venues/5104?v=20110615"
+   *
+   * @param url URL
+   * @return endpoint path
+   */
+  public static String getEndpoint(String url) {
+    int queryStart = url.indexOf('?');
+    String path = queryStart != -1 ? url.substring(0, queryStart) : url;
+
+    int versionIndex = path.indexOf(API_VERSION_PATH);
+    if (versionIndex != -1) {
+      return path.substring(versionIndex + API_VERSION_PATH.length());
+    }
+
+    int hostEnd = path.indexOf('/', path.indexOf("://") + 3);
+    return hostEnd != -1 ? path.substring(hostEnd + 1) : "";
+  }
+
+  /**
+   * Returns endpoint group of an endpoint path
+   *
+   * @param endpoint endpoint path
+   * @param endpointGroups regular expressions of endpoint groups
+   * @return first matching endpoint group pattern or first part of the path when no group matches
+   */
+  public static String getEndpointGroup(String endpoint, List<Pattern> endpointGroups) {
+    for (Pattern endpointGroup : endpointGroups) {
+      if (endpointGroup.matcher(endpoint).matches()) {
+        return endpointGroup.pattern();
+      }
+    }
+
+    int slash = endpoint.indexOf('/');
+    return slash != -1 ? endpoint.substring(0, slash) : endpoint;
+  }
+
+  /**
+   * Returns value of a query parameter of the URL as it appears in the URL
+   *
+   * @param url URL
+   * @param name name of the parameter
+   * @return encoded value of the parameter or null if URL does not have the parameter
+   */
+  public static String getParameter(String url, String name) {
+    int queryStart = url.indexOf('?');
+    if (queryStart == -1) {
+      return null;
+    }
+
+    for (String parameter : url.substring(queryStart + 1).split("&")) {
+      if (parameter.startsWith(name + "=")) {
+        return parameter.substring(name.length() + 1);
+      }
+    }
+
+    return null;
+  }
+
+  private static final String API_VERSION_PATH = "/v2/";
+}
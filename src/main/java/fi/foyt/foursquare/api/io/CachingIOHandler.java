@@ -0,0 +1,523 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IOHandler that caches successful GET responses of another IOHandler.
+ *
+ * Response is successful when its response code is 200 and, for API responses, the code of its
+ * meta object is 200 too. In callback mode API returns errors with response code 200, so errors
+ * such as rate_limit_exceeded are recognized from the meta code and they are never cached.
+ *
+ * Time to live is configured per endpoint with regular expressions matched against the endpoint
+ * path (for example "venues/categories" or "venues/[^/]+"). Responses of endpoints without
+ * a matching rule are cached with the default time to live, which is 0 (no caching) unless set.
+ *
+ * Cache is bounded by total size of cached response contents and least recently used responses
+ * are evicted first.
+ *
+ * Validators (ETag and Last-Modified headers) of cached responses are kept, and expired responses
+ * that have them are refreshed with conditional requests. When server answers 304 Not Modified the
+ * cached response is served again without downloading or parsing it. With stale-while-revalidate
+ * enabled, expired responses are served immediately while they are refreshed in the background.
+ *
+ * @author Antti Leppä
+ *
+ */
+public class CachingIOHandler extends IOHandler {
+
+  /**
+   * Constructor
+   *
+   * @param ioHandler IOHandler used to fetch responses that are not cached
+   * @param maxSize maximum total size of cached response contents in bytes
+   */
+  public CachingIOHandler(IOHandler ioHandler, long maxSize) {
+    this.ioHandler = ioHandler;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns IOHandler used to fetch responses that are not cached
+   *
+   * @return IOHandler used to fetch responses that are not cached
+   */
+  public IOHandler getIOHandler() {
+    return ioHandler;
+  }
+
+  /**
+   * Sets time to live for endpoints matching the pattern. Rules are matched in the order they were added.
+   *
+   * @param endpointPattern regular expression matched against endpoint path, e.g. "venues/[^/]+"
+   * @param timeToLive time to live, 0 disables caching of the endpoints
+   * @param unit unit of the time to live
+   */
+  public void setTimeToLive(String endpointPattern, long timeToLive, TimeUnit unit) {
+    timeToLiveRules.add(endpointPattern, unit.toMillis(timeToLive));
+  }
+
+  /**
+   * Sets time to live for endpoints that do not match any rule
+   *
+   * @param timeToLive time to live, 0 disables caching of the endpoints
+   * @param unit unit of the time to live
+   */
+  public void setDefaultTimeToLive(long timeToLive, TimeUnit unit) {
+    timeToLiveRules.setDefaultTimeToLive(unit.toMillis(timeToLive));
+  }
+
+  /**
+   * Sets how long expired responses may be served while they are refreshed in the background.
+   * Default is 0, which means that expired responses are refreshed before they are returned.
+   *
+   * @param staleTime time expired responses may be served, 0 disables stale responses
+   * @param unit unit of the time
+   */
+  public void setStaleWhileRevalidate(long staleTime, TimeUnit unit) {
+    this.staleWhileRevalidate = unit.toMillis(staleTime);
+  }
+
+  @Override
+  public Response fetchData(String url, Method method) {
+    return fetchCached(url, method, null);
+  }
+
+  @Override
+  public Response fetchData(String url, Method method, Map<String, String> requestHeaders) {
+    if (requestHeaders == null || requestHeaders.isEmpty()) {
+      return fetchData(url, method);
+    }
+
+    // Callers sending their own headers get responses to exactly those requests
+    return ioHandler.fetchData(url, method, requestHeaders);
+  }
+
+  @Override
+  protected Response fetchDataCancellable(String url, Method method, Map<String, String> requestHeaders, CancellableRequest request) {
+    if (requestHeaders == null || requestHeaders.isEmpty()) {
+      return fetchCached(url, method, request);
+    }
+
+    return ioHandler.fetchDataCancellable(url, method, requestHeaders, request);
+  }
+
+  /**
+   * Cached responses complete immediately and responses that are not cached are fetched with 
+   * fetchDataAsync of the other handler. Expired responses with validators are refreshed with 
+   * a conditional request in the executor of this handler.
+   */
+  @Override
+  public Future<Response> fetchDataAsync(final String url, Method method, final IOCallback callback) {
+    final long timeToLive = method == Method.GET ? timeToLiveRules.getTimeToLive(url) : 0;
+    if (timeToLive <= 0) {
+      return ioHandler.fetchDataAsync(url, method, callback);
+    }
+
+    CacheEntry entry = getCached(url);
+    Response cached = getServable(url, entry, timeToLive);
+    if (cached != null) {
+      return completed(cached, callback);
+    }
+
+    if (entry != null) {
+      return super.fetchDataAsync(url, method, callback);
+    }
+
+    missCount.incrementAndGet();
+    return ioHandler.fetchDataAsync(url, method, new IOCallback() {
+      public void completed(Response response) {
+        if (isCacheable(response)) {
+          putCached(url, response, System.currentTimeMillis() + timeToLive);
+        }
+
+        if (callback != null) {
+          callback.completed(response);
+        }
+      }
+    });
+  }
+
+  @Override
+  public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+    return ioHandler.fetchDataMultipartMime(url, params);
+  }
+
+  /**
+   * Removes cached response of the URL
+   *
+   * @param url URL
+   */
+  public void invalidate(String url) {
+    synchronized (entries) {
+      CacheEntry entry = entries.remove(url);
+      if (entry != null) {
+        size -= entry.getSize();
+      }
+    }
+  }
+
+  /**
+   * Removes all cached responses
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * Returns total size of cached response contents in bytes
+   *
+   * @return total size of cached response contents in bytes
+   */
+  public long getSize() {
+    synchronized (entries) {
+      return size;
+    }
+  }
+
+  /**
+   * Returns number of requests served from the cache
+   *
+   * @return number of requests served from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns number of cacheable requests that were not found from the cache
+   *
+   * @return number of cacheable requests that were not found from the cache
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns number of expired responses served while they were refreshed in the background
+   *
+   * @return number of stale responses served
+   */
+  public long getStaleHitCount() {
+    return staleHitCount.get();
+  }
+
+  /**
+   * Returns number of conditional requests sent to refresh expired responses
+   *
+   * @return number of conditional requests
+   */
+  public long getRevalidationCount() {
+    return revalidationCount.get();
+  }
+
+  /**
+   * Returns number of conditional requests answered with 304 Not Modified
+   *
+   * @return number of conditional requests answered with 304 Not Modified
+   */
+  public long getNotModifiedCount() {
+    return notModifiedCount.get();
+  }
+
+  /**
+   * Returns number of responses evicted to keep the cache within its size bound
+   *
+   * @return number of responses evicted
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Returns number of responses removed because they had expired
+   *
+   * @return number of expired responses
+   */
+  public long getExpirationCount() {
+    return expirationCount.get();
+  }
+
+  /**
+   * Returns cached response of the URL or fetches and caches it
+   *
+   * @param url URL
+   * @param method method used
+   * @param request request used to cancel the query or null
+   * @return response
+   */
+  private Response fetchCached(String url, Method method, CancellableRequest request) {
+    long timeToLive = method == Method.GET ? timeToLiveRules.getTimeToLive(url) : 0;
+    if (timeToLive <= 0) {
+      return delegate(ioHandler, url, method, null, request);
+    }
+
+    CacheEntry entry = getCached(url);
+    Response cached = getServable(url, entry, timeToLive);
+    if (cached != null) {
+      return cached;
+    }
+
+    Response response = revalidate(url, entry, timeToLive, request);
+    if (entry != null && response == entry.getResponse()) {
+      hitCount.incrementAndGet();
+    } else {
+      missCount.incrementAndGet();
+    }
+
+    return response;
+  }
+
+  /**
+   * Returns cached response if it has not expired or if it may be served stale, in which case
+   * it is refreshed in the background
+   *
+   * @param url URL
+   * @param entry cache entry or null
+   * @param timeToLive time to live in milliseconds
+   * @return cached response or null if response has to be fetched
+   */
+  private Response getServable(String url, CacheEntry entry, long timeToLive) {
+    if (entry == null) {
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    if (entry.getExpires() > now) {
+      hitCount.incrementAndGet();
+      return entry.getResponse();
+    }
+
+    if (entry.getExpires() + staleWhileRevalidate > now) {
+      hitCount.incrementAndGet();
+      staleHitCount.incrementAndGet();
+      revalidateInBackground(url, entry, timeToLive);
+      return entry.getResponse();
+    }
+
+    return null;
+  }
+
+  /**
+   * Fetches response and caches it. If expired cache entry has validators, request is sent as
+   * conditional request and cached response is returned when server answers 304 Not Modified.
+   *
+   * @param url URL
+   * @param entry expired cache entry or null
+   * @param timeToLive time to live in milliseconds
+   * @param request request used to cancel the query or null
+   * @return response
+   */
+  private Response revalidate(String url, CacheEntry entry, long timeToLive, CancellableRequest request) {
+    Map<String, String> conditionalHeaders = entry != null ? entry.getConditionalHeaders() : null;
+    if (conditionalHeaders == null) {
+      Response response = delegate(ioHandler, url, Method.GET, null, request);
+      if (isCacheable(response)) {
+        putCached(url, response, System.currentTimeMillis() + timeToLive);
+      }
+
+      return response;
+    }
+
+    revalidationCount.incrementAndGet();
+    Response response = delegate(ioHandler, url, Method.GET, conditionalHeaders, request);
+    if (response.getResponseCode() == 304) {
+      notModifiedCount.incrementAndGet();
+      putCached(url, entry.getResponse(), System.currentTimeMillis() + timeToLive);
+      return entry.getResponse();
+    }
+
+    if (isCacheable(response)) {
+      putCached(url, response, System.currentTimeMillis() + timeToLive);
+    }
+
+    return response;
+  }
+
+  /**
+   * Returns whether response may be cached
+   *
+   * @param response response
+   * @return whether response code and meta code of the response are 200
+   */
+  private boolean isCacheable(Response response) {
+    if (response.getResponseCode() != 200) {
+      return false;
+    }
+
+    Integer metaCode = response.getMetaCode();
+    return metaCode == null || metaCode.intValue() == 200;
+  }
+
+  /**
+   * Refreshes expired response in the executor of this handler unless it is already being refreshed
+   *
+   * @param url URL
+   * @param entry expired cache entry
+   * @param timeToLive time to live in milliseconds
+   */
+  private void revalidateInBackground(final String url, final CacheEntry entry, final long timeToLive) {
+    if (!revalidatingUrls.add(url)) {
+      return;
+    }
+
+    try {
+      getExecutor().execute(new Runnable() {
+        public void run() {
+          try {
+            revalidate(url, entry, timeToLive, null);
+          } finally {
+            revalidatingUrls.remove(url);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      revalidatingUrls.remove(url);
+      throw e;
+    }
+  }
+
+  /**
+   * Returns cache entry of the URL or null if URL is not cached. Expired entries are returned if
+   * they can be revalidated or served stale, otherwise they are removed.
+   *
+   * @param url URL
+   * @return cache entry or null
+   */
+  private CacheEntry getCached(String url) {
+    synchronized (entries) {
+      CacheEntry entry = entries.get(url);
+      if (entry == null) {
+        return null;
+      }
+
+      long now = System.currentTimeMillis();
+      if (entry.getExpires() <= now && entry.getConditionalHeaders() == null && entry.getExpires() + staleWhileRevalidate <= now) {
+        entries.remove(url);
+        size -= entry.getSize();
+        expirationCount.incrementAndGet();
+        return null;
+      }
+
+      return entry;
+    }
+  }
+
+  /**
+   * Adds response into the cache and evicts least recently used responses if cache grows over its size bound
+   *
+   * @param url URL
+   * @param response response
+   * @param expires expiration time in milliseconds
+   */
+  private void putCached(String url, Response response, long expires) {
+    byte[] content = response.getResponseBytes();
+    int entrySize = content != null ? content.length : 0;
+    if (entrySize > maxSize) {
+      // Previous response of the URL must not be served in place of the newer one
+      invalidate(url);
+      return;
+    }
+
+    synchronized (entries) {
+      CacheEntry previous = entries.put(url, new CacheEntry(response, expires, entrySize));
+      if (previous != null) {
+        size -= previous.getSize();
+      }
+
+      size += entrySize;
+
+      Iterator<CacheEntry> iterator = entries.values().iterator();
+      while (size > maxSize && iterator.hasNext()) {
+        CacheEntry eldest = iterator.next();
+        iterator.remove();
+        size -= eldest.getSize();
+        evictionCount.incrementAndGet();
+      }
+    }
+  }
+
+  private IOHandler ioHandler;
+  private long maxSize;
+  private final TimeToLiveRules timeToLiveRules = new TimeToLiveRules();
+  private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+  private long size = 0;
+  private volatile long staleWhileRevalidate = 0;
+  private final Set<String> revalidatingUrls = Collections.synchronizedSet(new HashSet<String>());
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong expirationCount = new AtomicLong();
+  private final AtomicLong staleHitCount = new AtomicLong();
+  private final AtomicLong revalidationCount = new AtomicLong();
+  private final AtomicLong notModifiedCount = new AtomicLong();
+
+  /**
+   * Cached response
+   */
+  private static class CacheEntry {
+
+    public CacheEntry(Response response, long expires, int size) {
+      this.response = response;
+      this.expires = expires;
+      this.size = size;
+
+      String entityTag = response.getHeader("ETag");
+      String lastModified = response.getHeader("Last-Modified");
+      if (entityTag != null || lastModified != null) {
+        conditionalHeaders = new HashMap<String, String>();
+        if (entityTag != null) {
+          conditionalHeaders.put("If-None-Match", entityTag);
+        }
+
+        if (lastModified != null) {
+          conditionalHeaders.put("If-Modified-Since", lastModified);
+        }
+      }
+    }
+
+    public Response getResponse() {
+      return response;
+    }
+
+    public long getExpires() {
+      return expires;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public Map<String, String> getConditionalHeaders() {
+      return conditionalHeaders;
+    }
+
+    private Response response;
+    private long expires;
+    private int size;
+    private Map<String, String> conditionalHeaders;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Query that can be cancelled from another thread while it is in progress. Cancelling interrupts
+ * the thread running the query if one has been set, otherwise it disconnects the connection of the
+ * query if it has one. Handlers that wait between connections, such as for a retry or a rate limit,
+ * set the thread only while they wait, so that the wait is interrupted instead of the connection of
+ * an earlier attempt being disconnected.
+ *
+ * Requests are created by the handlers of this package and passed to IOHandler.fetchDataCancellable.
+ * Custom handlers use them through that method.
+ *
+ * @author Antti Leppä
+ */
+public class CancellableRequest {
+
+  /**
+   * Sets connection of the query
+   *
+   * @param connection connection
+   * @throws IOException when query has already been cancelled
+   */
+  public synchronized void setConnection(HttpURLConnection connection) throws IOException {
+    if (cancelled) {
+      throw new IOException("Request cancelled");
+    }
+
+    this.connection = connection;
+  }
+
+  /**
+   * Sets thread running the query. Thread is interrupted if query is cancelled before the thread is cleared.
+   *
+   * @param thread thread running the query
+   * @return false if query has already been cancelled
+   */
+  public synchronized boolean setThread(Thread thread) {
+    if (cancelled) {
+      return false;
+    }
+
+    this.thread = thread;
+    return true;
+  }
+
+  /**
+   * Clears thread running the query and the interrupt caused by cancelling, so that the thread
+   * can be used normally afterwards. Must be called by the thread running the query.
+   */
+  public synchronized void clearThread() {
+    thread = null;
+    if (interrupted) {
+      Thread.interrupted();
+      interrupted = false;
+    }
+  }
+
+  /**
+   * Cancels the query
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+    if (thread != null) {
+      thread.interrupt();
+      interrupted = true;
+    } else if (connection != null) {
+      // Connection disconnected before its request has been sent is opened again when the
+      // response is read, so short timeouts make the reopened connection fail at once
+      connection.setConnectTimeout(1);
+      connection.setReadTimeout(1);
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Returns whether the query has been cancelled
+   *
+   * @return whether the query has been cancelled
+   */
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  private HttpURLConnection connection;
+  private Thread thread;
+  private boolean interrupted;
+  private boolean cancelled;
+}
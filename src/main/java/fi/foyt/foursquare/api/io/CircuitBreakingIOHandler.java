@@ -0,0 +1,548 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * IOHandler that stops sending requests to endpoints of another IOHandler while they are failing.
+ *
+ * Each endpoint group has its own circuit. Groups are defined with regular expressions matched
+ * against endpoint path (for example "venues/search" or "users/[^/]+"); endpoints that do not match
+ * any group are grouped by the first part of their path, e.g. "venues".
+ *
+ * Circuit keeps outcomes of the latest requests of its group. Requests that fail with response
+ * code 500 or above, or take longer than slow call duration, are failures. When at least minimum
+ * calls outcomes are known and failure rate reaches the threshold, circuit opens and requests of
+ * the group fail immediately with response code 503 without being sent. Rejected responses have
+ * CIRCUIT_OPEN_HEADER header, so that they can be told apart from 503 responses of the API. After open duration
+ * circuit becomes half-open and lets probe count requests through. If all probes succeed the circuit
+ * closes, if any of them fails it opens again. Outcomes of requests let through before the circuit
+ * last changed its state do not affect it, so a slow request sent while the circuit was closed is
+ * not taken for a probe. Requests cancelled while in progress, such as hedge requests that lost
+ * to another request, do not affect the circuit either.
+ *
+ * In callback mode API returns errors with response code 200, so code of the meta object of
+ * the response is checked instead when response code is 200.
+ *
+ * @author Antti Leppä
+ *
+ */
+public class CircuitBreakingIOHandler extends IOHandler {
+
+  /**
+   * Header of responses of requests rejected by an open circuit. Value is the endpoint group of the circuit.
+   */
+  public static final String CIRCUIT_OPEN_HEADER = "X-Circuit-Open";
+
+  /**
+   * Constructor
+   *
+   * @param ioHandler IOHandler used to send the requests
+   */
+  public CircuitBreakingIOHandler(IOHandler ioHandler) {
+    this.ioHandler = ioHandler;
+  }
+
+  /**
+   * Returns IOHandler used to send the requests
+   *
+   * @return IOHandler used to send the requests
+   */
+  public IOHandler getIOHandler() {
+    return ioHandler;
+  }
+
+  /**
+   * Adds endpoint group with its own circuit. Groups are matched in the order they were added.
+   *
+   * @param endpointPattern regular expression matched against endpoint path, e.g. "users/[^/]+"
+   */
+  public synchronized void addEndpointGroup(String endpointPattern) {
+    endpointGroups.add(Pattern.compile(endpointPattern));
+  }
+
+  /**
+   * Sets failure rate that opens a circuit. Default is 0.5.
+   *
+   * @param failureRateThreshold failure rate between 0 and 1
+   */
+  public void setFailureRateThreshold(double failureRateThreshold) {
+    if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+      throw new IllegalArgumentException("Failure rate threshold must be greater than 0 and at most 1");
+    }
+
+    this.failureRateThreshold = failureRateThreshold;
+  }
+
+  /**
+   * Sets number of latest outcomes kept per circuit and number of outcomes needed before a circuit
+   * may open. Defaults are 20 and 10. Changes apply to circuits created or closed afterwards.
+   *
+   * @param windowSize number of latest outcomes kept
+   * @param minimumCalls number of outcomes needed before circuit may open
+   */
+  public void setWindow(int windowSize, int minimumCalls) {
+    if (minimumCalls < 1 || windowSize < minimumCalls) {
+      throw new IllegalArgumentException("Minimum calls must be positive and window size must not be less than minimum calls");
+    }
+
+    this.windowSize = windowSize;
+    this.minimumCalls = minimumCalls;
+  }
+
+  /**
+   * Sets duration after which successful requests count as failures. Default is 10 seconds.
+   *
+   * @param slowCallDuration duration of slow requests
+   * @param unit unit of the duration
+   */
+  public void setSlowCallDuration(long slowCallDuration, TimeUnit unit) {
+    this.slowCallDuration = unit.toMillis(slowCallDuration);
+  }
+
+  /**
+   * Sets how long circuit stays open before probe requests are sent. Default is 30 seconds.
+   *
+   * @param openDuration open duration
+   * @param unit unit of the duration
+   */
+  public void setOpenDuration(long openDuration, TimeUnit unit) {
+    this.openDuration = unit.toMillis(openDuration);
+  }
+
+  /**
+   * Sets number of probe requests sent through a half-open circuit. Default is 3.
+   *
+   * @param probeCount number of probe requests
+   */
+  public void setProbeCount(int probeCount) {
+    if (probeCount < 1) {
+      throw new IllegalArgumentException("Probe count must be positive");
+    }
+
+    this.probeCount = probeCount;
+  }
+
+  @Override
+  public Response fetchData(final String url, final Method method) {
+    return fetchThroughCircuit(url, null, new Call() {
+      public Response fetch() {
+        return ioHandler.fetchData(url, method);
+      }
+    });
+  }
+
+  @Override
+  public Response fetchData(final String url, final Method method, final Map<String, String> requestHeaders) {
+    return fetchThroughCircuit(url, null, new Call() {
+      public Response fetch() {
+        return ioHandler.fetchData(url, method, requestHeaders);
+      }
+    });
+  }
+
+  @Override
+  protected Response fetchDataCancellable(final String url, final Method method, final Map<String, String> requestHeaders, final CancellableRequest request) {
+    return fetchThroughCircuit(url, request, new Call() {
+      public Response fetch() {
+        return ioHandler.fetchDataCancellable(url, method, requestHeaders, request);
+      }
+    });
+  }
+
+  @Override
+  public Response fetchDataMultipartMime(final String url, final MultipartParameter... params) {
+    return fetchThroughCircuit(url, null, new Call() {
+      public Response fetch() {
+        return ioHandler.fetchDataMultipartMime(url, params);
+      }
+    });
+  }
+
+  /**
+   * Requests let through are sent with fetchDataAsync of the other handler and requests rejected
+   * by an open circuit complete immediately. Cancelled requests do not affect the circuit.
+   */
+  @Override
+  public Future<Response> fetchDataAsync(String url, Method method, final IOCallback callback) {
+    String group = getGroup(url);
+    Circuit circuit = getCircuit(group);
+    long generation = circuit.tryAcquire(System.currentTimeMillis());
+    if (generation == -1) {
+      return completed(getRejectedResponse(group), callback);
+    }
+
+    final Permit permit = new Permit(circuit, generation);
+    Future<Response> future;
+    try {
+      future = ioHandler.fetchDataAsync(url, method, new IOCallback() {
+        public void completed(Response response) {
+          permit.record(response);
+
+          if (callback != null) {
+            callback.completed(response);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      // Request that could not be sent fails like a request that threw while sending
+      permit.record(null);
+      throw e;
+    }
+
+    return new PermittedRequest(permit, future);
+  }
+
+  /**
+   * Returns state of the circuit of an endpoint. Open circuits become half-open on the first
+   * request after open duration.
+   *
+   * @param endpoint endpoint path, e.g. "venues/search"
+   * @return state of the circuit
+   */
+  public CircuitState getCircuitState(String endpoint) {
+    Circuit circuit;
+    synchronized (this) {
+      circuit = circuits.get(ApiUrls.getEndpointGroup(endpoint, endpointGroups));
+    }
+
+    return circuit != null ? circuit.getState() : CircuitState.CLOSED;
+  }
+
+  /**
+   * Returns states of all circuits by endpoint group
+   *
+   * @return states of circuits
+   */
+  public synchronized Map<String, CircuitState> getCircuitStates() {
+    Map<String, CircuitState> states = new HashMap<String, CircuitState>();
+    for (Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+      states.put(entry.getKey(), entry.getValue().getState());
+    }
+
+    return states;
+  }
+
+  /**
+   * Returns number of requests failed without sending them because their circuit was open
+   *
+   * @return number of rejected requests
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Returns number of times circuits have opened
+   *
+   * @return number of times circuits have opened
+   */
+  public long getOpenedCount() {
+    return openedCount.get();
+  }
+
+  private Response fetchThroughCircuit(String url, CancellableRequest request, Call call) {
+    String group = getGroup(url);
+    Circuit circuit = getCircuit(group);
+    long generation = circuit.tryAcquire(System.currentTimeMillis());
+    if (generation == -1) {
+      return getRejectedResponse(group);
+    }
+
+    Permit permit = new Permit(circuit, generation);
+    Response response = null;
+    try {
+      response = call.fetch();
+    } finally {
+      // Cancelled request failed because it was not needed anymore, not because of its endpoint
+      if (request != null && request.isCancelled()) {
+        permit.release();
+      } else {
+        permit.record(response);
+      }
+    }
+
+    return response;
+  }
+
+  private synchronized String getGroup(String url) {
+    return ApiUrls.getEndpointGroup(ApiUrls.getEndpoint(url), endpointGroups);
+  }
+
+  private synchronized Circuit getCircuit(String group) {
+    Circuit circuit = circuits.get(group);
+    if (circuit == null) {
+      circuit = new Circuit();
+      circuits.put(group, circuit);
+    }
+
+    return circuit;
+  }
+
+  private Response getRejectedResponse(String group) {
+    rejectedCount.incrementAndGet();
+    Map<String, String> headers = new HashMap<String, String>();
+    headers.put(CIRCUIT_OPEN_HEADER, group);
+    return new Response("", 503, "Circuit of " + group + " is open", headers);
+  }
+
+  /**
+   * Returns whether request failed
+   *
+   * @param response response or null if request threw an exception
+   * @param duration duration of the request in milliseconds
+   * @return whether request failed
+   */
+  private boolean isFailure(Response response, long duration) {
+    if (response == null || duration > slowCallDuration) {
+      return true;
+    }
+
+    int code = response.getResponseCode();
+    if (code == 200) {
+      Integer metaCode = response.getMetaCode();
+      if (metaCode != null) {
+        code = metaCode;
+      }
+    }
+
+    return code >= 500;
+  }
+
+  private IOHandler ioHandler;
+  private final List<Pattern> endpointGroups = new ArrayList<Pattern>();
+  private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+  private volatile double failureRateThreshold = 0.5;
+  private volatile int windowSize = 20;
+  private volatile int minimumCalls = 10;
+  private volatile long slowCallDuration = 10000;
+  private volatile long openDuration = 30000;
+  private volatile int probeCount = 3;
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong openedCount = new AtomicLong();
+
+  /**
+   * Request sent through a circuit
+   */
+  private interface Call {
+
+    public Response fetch();
+  }
+
+  /**
+   * Permission of a request let through a circuit. Outcome of the request is recorded once, or
+   * the permission is released if the request is cancelled before its outcome is known.
+   */
+  private class Permit {
+
+    public Permit(Circuit circuit, long generation) {
+      this.circuit = circuit;
+      this.generation = generation;
+      this.start = System.currentTimeMillis();
+    }
+
+    public void record(Response response) {
+      if (finished.compareAndSet(false, true)) {
+        long end = System.currentTimeMillis();
+        circuit.record(generation, isFailure(response, end - start), end);
+      }
+    }
+
+    public void release() {
+      if (finished.compareAndSet(false, true)) {
+        circuit.release(generation);
+      }
+    }
+
+    private Circuit circuit;
+    private long generation;
+    private long start;
+    private final AtomicBoolean finished = new AtomicBoolean();
+  }
+
+  /**
+   * Asynchronous request let through a circuit. Cancelling the request releases its permit.
+   */
+  private static class PermittedRequest implements Future<Response> {
+
+    public PermittedRequest(Permit permit, Future<Response> future) {
+      this.permit = permit;
+      this.future = future;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = future.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        permit.release();
+      }
+
+      return cancelled;
+    }
+
+    public boolean isCancelled() {
+      return future.isCancelled();
+    }
+
+    public boolean isDone() {
+      return future.isDone();
+    }
+
+    public Response get() throws InterruptedException, ExecutionException {
+      return future.get();
+    }
+
+    public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      return future.get(timeout, unit);
+    }
+
+    private Permit permit;
+    private Future<Response> future;
+  }
+
+  /**
+   * Circuit of an endpoint group
+   */
+  private class Circuit {
+
+    public Circuit() {
+      reset();
+    }
+
+    public synchronized CircuitState getState() {
+      return state;
+    }
+
+    /**
+     * Returns whether request may be sent. Open circuit becomes half-open when open duration has
+     * passed, and half-open circuit lets through up to probe count requests.
+     *
+     * @param now current time in milliseconds
+     * @return generation of the state the request was let through in, or -1 if request may not be sent
+     */
+    public synchronized long tryAcquire(long now) {
+      if (state == CircuitState.OPEN) {
+        if (now - openedAt < openDuration) {
+          return -1;
+        }
+
+        setState(CircuitState.HALF_OPEN);
+        probesStarted = 0;
+        probesSucceeded = 0;
+      }
+
+      if (state == CircuitState.HALF_OPEN) {
+        if (probesStarted >= probeCount) {
+          return -1;
+        }
+
+        probesStarted++;
+      }
+
+      return generation;
+    }
+
+    /**
+     * Records outcome of a request. Requests let through in another generation, such as requests
+     * sent before the circuit opened, do not affect it.
+     *
+     * @param generation generation returned by tryAcquire for the request
+     * @param failure whether request failed
+     * @param now current time in milliseconds
+     */
+    public synchronized void record(long generation, boolean failure, long now) {
+      if (generation != this.generation) {
+        return;
+      }
+
+      if (state == CircuitState.HALF_OPEN) {
+        if (failure) {
+          open(now);
+        } else if (++probesSucceeded >= probeCount) {
+          setState(CircuitState.CLOSED);
+          reset();
+        }
+
+        return;
+      }
+
+      if (count == outcomes.length) {
+        if (outcomes[index]) {
+          failures--;
+        }
+      } else {
+        count++;
+      }
+
+      outcomes[index] = failure;
+      if (failure) {
+        failures++;
+      }
+
+      index = (index + 1) % outcomes.length;
+
+      if (count >= minimumCalls && failures >= failureRateThreshold * count) {
+        open(now);
+      }
+    }
+
+    /**
+     * Releases request that was cancelled before its outcome was known, so that a half-open
+     * circuit can let another probe through.
+     *
+     * @param generation generation returned by tryAcquire for the request
+     */
+    public synchronized void release(long generation) {
+      if (generation == this.generation && state == CircuitState.HALF_OPEN) {
+        probesStarted--;
+      }
+    }
+
+    private void open(long now) {
+      setState(CircuitState.OPEN);
+      openedAt = now;
+      openedCount.incrementAndGet();
+    }
+
+    private void setState(CircuitState state) {
+      this.state = state;
+      generation++;
+    }
+
+    private void reset() {
+      outcomes = new boolean[windowSize];
+      index = 0;
+      count = 0;
+      failures = 0;
+    }
+
+    private CircuitState state = CircuitState.CLOSED;
+    private long generation;
+    private boolean[] outcomes;
+    private int index;
+    private int count;
+    private int failures;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+/**
+ * Enumeration representing state of a circuit of CircuitBreakingIOHandler
+ *
+ * CLOSED circuits send requests normally, OPEN circuits fail requests without sending them and
+ * HALF_OPEN circuits send a limited number of probe requests to find out whether endpoints
+ * have recovered.
+ *
+ * @author Antti Leppä
+ *
+ */
+public enum CircuitState {
+  CLOSED,
+  OPEN,
+  HALF_OPEN
+}
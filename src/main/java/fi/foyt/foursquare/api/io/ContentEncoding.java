@@ -0,0 +1,130 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ * 
+ * License: 
+ * 
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Helper for decoding compressed response content
+ * 
+ * @author Antti Leppä
+ *
+ */
+final class ContentEncoding {
+
+  /**
+   * Value of Accept-Encoding header sent by IOHandlers that support compression
+   */
+  static final String ACCEPT_ENCODING = "gzip, deflate";
+  
+  /**
+   * Utility class so no constructor needed.
+   */
+  private ContentEncoding() {
+  }
+  
+  /**
+   * Returns whether content with given encoding needs to be decoded
+   * 
+   * @param contentEncoding value of Content-Encoding header or null
+   * @return whether content needs to be decoded
+   */
+  static boolean isEncoded(String contentEncoding) {
+    return "gzip".equalsIgnoreCase(contentEncoding) || "deflate".equalsIgnoreCase(contentEncoding);
+  }
+  
+  /**
+   * Wraps stream into a decoding stream
+   * 
+   * @param inputStream stream of encoded content
+   * @param contentEncoding value of Content-Encoding header
+   * @return stream of decoded content
+   * @throws IOException when stream could not be opened
+   */
+  static InputStream decode(InputStream inputStream, String contentEncoding) throws IOException {
+    if ("gzip".equalsIgnoreCase(contentEncoding)) {
+      return new GZIPInputStream(inputStream);
+    } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+      return inflate(inputStream);
+    }
+    
+    return inputStream;
+  }
+  
+  /**
+   * Wraps stream of deflate encoded content into an inflating stream. Deflate encoding should be 
+   * zlib wrapped, but some servers send raw deflate data, so zlib header is checked before 
+   * choosing the inflater.
+   * 
+   * @param inputStream stream of deflate encoded content
+   * @return stream of decoded content
+   * @throws IOException when stream could not be read
+   */
+  private static InputStream inflate(InputStream inputStream) throws IOException {
+    PushbackInputStream pushbackStream = new PushbackInputStream(inputStream, 2);
+    byte[] header = new byte[2];
+    int length = 0;
+    int l;
+    while (length < header.length && (l = pushbackStream.read(header, length, header.length - length)) >= 0) {
+      length += l;
+    }
+    
+    pushbackStream.unread(header, 0, length);
+    
+    // zlib header: compression method 8 and header checksum divisible by 31
+    boolean zlib = length == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+    final Inflater inflater = new Inflater(!zlib);
+    
+    return new InflaterInputStream(pushbackStream, inflater) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          // Inflaters passed to the stream are not ended by it
+          inflater.end();
+        }
+      }
+    };
+  }
+  
+  /**
+   * Decodes encoded content
+   * 
+   * @param content encoded content
+   * @param contentEncoding value of Content-Encoding header
+   * @return decoded content
+   * @throws IOException when content could not be decoded
+   */
+  static byte[] decode(byte[] content, String contentEncoding) throws IOException {
+    InputStream inputStream = decode(new ByteArrayInputStream(content), contentEncoding);
+    try {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(content.length * 4);
+      byte[] buf = new byte[8192];
+      int l;
+      while ((l = inputStream.read(buf)) >= 0) {
+        outputStream.write(buf, 0, l);
+      }
+      
+      return outputStream.toByteArray();
+    } finally {
+      inputStream.close();
+    }
+  }
+}
@@ -11,14 +11,18 @@
 
 package fi.foyt.foursquare.api.io;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default implementation of the IOHandler
@@ -28,31 +32,207 @@ import java.net.URL;
  */
 public class DefaultIOHandler extends IOHandler {
 
+  /**
+   * Constructor. Connections are opened with JVM default timeouts.
+   */
+  public DefaultIOHandler() {
+    this(0, 0);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param connectTimeout connect timeout in milliseconds, 0 for JVM default
+   * @param readTimeout read timeout in milliseconds, 0 for JVM default
+   */
+  public DefaultIOHandler(int connectTimeout, int readTimeout) {
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Returns whether keep-alive mode is enabled
+   * 
+   * @return whether keep-alive mode is enabled
+   */
+  public boolean getKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * Enables or disables keep-alive mode. 
+   * 
+   * In keep-alive mode response and error streams are read fully and connections are left open, so 
+   * HttpURLConnection can return them into the JVM keep-alive cache and reuse them in later requests 
+   * to the same host. When disabled, connection is disconnected after each request.
+   * 
+   * @param keepAlive whether keep-alive mode should be enabled
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * Sets maximum number of idle connections kept alive per host. 
+   * 
+   * HttpURLConnection keep-alive cache is shared by the whole JVM and it reads this setting 
+   * (http.maxConnections system property) only once, so this method must be called before 
+   * first HTTP connection is made.
+   * 
+   * @param maxIdleConnections maximum number of idle connections kept alive per host
+   */
+  public static void setMaxIdleConnectionsPerHost(int maxIdleConnections) {
+    System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+  }
+
+  /**
+   * Returns whether compressed responses are requested
+   * 
+   * @return whether compressed responses are requested
+   */
+  public boolean getCompression() {
+    return compression;
+  }
+
+  /**
+   * Enables or disables compression. When enabled, handler asks server for gzip or deflate 
+   * compressed responses and decompresses them transparently. Compression is enabled by default.
+   * 
+   * @param compression whether compressed responses should be requested
+   */
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Returns number of response content bytes received over the network. For compressed 
+   * responses this is the compressed size.
+   * 
+   * @return number of response content bytes received over the network
+   */
+  public long getReceivedByteCount() {
+    return receivedByteCount.get();
+  }
+
+  /**
+   * Returns number of response content bytes after decompression
+   * 
+   * @return number of response content bytes after decompression
+   */
+  public long getContentByteCount() {
+    return contentByteCount.get();
+  }
+
+  /**
+   * Returns number of requests made with this handler
+   * 
+   * @return number of requests made with this handler
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Returns number of connections released into keep-alive cache
+   * 
+   * @return number of connections released into keep-alive cache
+   */
+  public long getReleasedConnectionCount() {
+    return releasedConnectionCount.get();
+  }
+
+  /**
+   * Returns number of connections that were disconnected
+   * 
+   * @return number of connections that were disconnected
+   */
+  public long getClosedConnectionCount() {
+    return closedConnectionCount.get();
+  }
+
+  /**
+   * Returns connect timeout in milliseconds
+   * 
+   * @return connect timeout in milliseconds, 0 for JVM default
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Sets connect timeout in milliseconds
+   * 
+   * @param connectTimeout connect timeout in milliseconds, 0 for JVM default
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * Returns read timeout in milliseconds
+   * 
+   * @return read timeout in milliseconds, 0 for JVM default
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * Sets read timeout in milliseconds
+   * 
+   * @param readTimeout read timeout in milliseconds, 0 for JVM default
+   */
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
   @Override
   public Response fetchData(String url, Method method) {
+    return fetchData(url, method, null);
+  }
+
+  @Override
+  public Response fetchData(String url, Method method, Map<String, String> requestHeaders) {
     int code = 200;
 
     try {
-      URL aUrl = new URL(url);
-      HttpURLConnection connection = (HttpURLConnection) aUrl.openConnection();
+      HttpURLConnection connection = openConnection(url);
+      boolean reusable = false;
       try {
         connection.setDoInput(true);
         if("POST".equals(method.name())) {
             connection.setDoOutput(true);
         }
         connection.setRequestMethod(method.name());
+        if (requestHeaders != null) {
+          for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+          }
+        }
         connection.connect();
+        
+        // Query cancelled while connecting may have missed the disconnect
+        CancellableRequest request = activeRequest.get();
+        if (request != null && request.isCancelled()) {
+          throw new IOException("Request cancelled");
+        }
 
         code = connection.getResponseCode();
         if (code == 200) {
-          InputStream inputStream = connection.getInputStream();
-          return new Response(readStream(inputStream), code, connection.getResponseMessage());
+          Response response = readResponse(connection);
+          reusable = true;
+          return response;
         } else {
-          return new Response("", code, getMessageByCode(code));
+          if (keepAlive) {
+            drainStream(connection.getErrorStream());
+            reusable = true;
+          }
+          
+          return new Response("", code, getMessageByCode(code), getHeaders(connection));
         }
 
       } finally {
-        connection.disconnect();
+        releaseConnection(connection, reusable);
       }
     } catch (MalformedURLException e) {
       return new Response("", 400, "Malformed URL: " + url);
@@ -61,13 +241,30 @@ public class DefaultIOHandler extends IOHandler {
     }
   }
 
+  /**
+   * Query cancelled while it is in progress disconnects its connection. Calling thread is not interrupted.
+   */
+  @Override
+  protected Response fetchDataCancellable(String url, Method method, Map<String, String> requestHeaders, CancellableRequest request) {
+    if (request.isCancelled()) {
+      return getCancelledResponse();
+    }
+
+    activeRequest.set(request);
+    try {
+      return fetchData(url, method, requestHeaders);
+    } finally {
+      activeRequest.remove();
+    }
+  }
+
   @Override
   public Response fetchDataMultipartMime(String url, MultipartParameter... parameters) {
     int code = 200;
 
     try {
-      URL aUrl = new URL(url);
-      HttpURLConnection connection = (HttpURLConnection) aUrl.openConnection();
+      HttpURLConnection connection = openConnection(url);
+      boolean reusable = false;
       try {
         connection.setDoInput(true);
         connection.setDoOutput(true);
@@ -107,14 +304,20 @@ public class DefaultIOHandler extends IOHandler {
 
         code = connection.getResponseCode();
         if (code == 200) {
-          InputStream inputStream = connection.getInputStream();
-          return new Response(readStream(inputStream), code, connection.getResponseMessage());
+          Response response = readResponse(connection);
+          reusable = true;
+          return response;
         } else {
-          return new Response("", code, getMessageByCode(code));
+          if (keepAlive) {
+            drainStream(connection.getErrorStream());
+            reusable = true;
+          }
+          
+          return new Response("", code, getMessageByCode(code), getHeaders(connection));
         }
 
       } finally {
-        connection.disconnect();
+        releaseConnection(connection, reusable);
       }
     } catch (MalformedURLException e) {
       return new Response("", 400, "Malformed URL: " + url);
@@ -124,26 +327,166 @@ public class DefaultIOHandler extends IOHandler {
   }
 
   /**
-   * Reads input stream and returns it's contents as String
+   * Opens connection to given URL with timeouts of this handler
+   * 
+   * @param url URL
+   * @return connection
+   * @throws IOException when connection could not be opened
+   */
+  private HttpURLConnection openConnection(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    requestCount.incrementAndGet();
+    
+    CancellableRequest request = activeRequest.get();
+    if (request != null) {
+      request.setConnection(connection);
+    }
+    
+    if (compression) {
+      connection.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+    }
+    
+    if (connectTimeout > 0) {
+      connection.setConnectTimeout(connectTimeout);
+    }
+    
+    if (readTimeout > 0) {
+      connection.setReadTimeout(readTimeout);
+    }
+    
+    return connection;
+  }
+
+  /**
+   * Reads successful response from connection. Compressed content is decompressed while reading.
+   * 
+   * @param connection connection
+   * @return response
+   * @throws IOException when response could not be read
+   */
+  private Response readResponse(HttpURLConnection connection) throws IOException {
+    String contentEncoding = connection.getContentEncoding();
+    CountingInputStream inputStream = new CountingInputStream(connection.getInputStream());
+    byte[] content;
+    
+    if (ContentEncoding.isEncoded(contentEncoding)) {
+      // Content-Length is the compressed length so it can not be used for sizing the buffer
+      content = readStream(ContentEncoding.decode(inputStream, contentEncoding), -1);
+    } else {
+      content = readStream(inputStream, connection.getContentLength());
+    }
+    
+    receivedByteCount.addAndGet(inputStream.getCount());
+    contentByteCount.addAndGet(content.length);
+    
+    return new Response(content, getCharset(connection.getContentType()), connection.getResponseCode(), connection.getResponseMessage(), getHeaders(connection));
+  }
+
+  /**
+   * Returns response headers of connection. For repeated headers the last value is returned.
+   * 
+   * @param connection connection
+   * @return response headers
+   */
+  private Map<String, String> getHeaders(HttpURLConnection connection) {
+    Map<String, String> headers = new HashMap<String, String>();
+    for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+      // Status line is returned with null key
+      if (header.getKey() != null && !header.getValue().isEmpty()) {
+        headers.put(header.getKey(), header.getValue().get(header.getValue().size() - 1));
+      }
+    }
+    
+    return headers;
+  }
+
+  /**
+   * Releases connection. In keep-alive mode reusable connections are left open for the keep-alive cache, 
+   * otherwise connection is disconnected.
+   * 
+   * @param connection connection
+   * @param reusable whether response has been read fully and connection can be reused
+   */
+  private void releaseConnection(HttpURLConnection connection, boolean reusable) {
+    if (keepAlive && reusable) {
+      releasedConnectionCount.incrementAndGet();
+    } else {
+      connection.disconnect();
+      closedConnectionCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Reads stream to the end and closes it
+   * 
+   * @param inputStream stream or null
+   * @throws IOException when stream could not be read
+   */
+  private void drainStream(InputStream inputStream) throws IOException {
+    if (inputStream != null) {
+      try {
+        byte[] buf = new byte[1024];
+        while (inputStream.read(buf) >= 0) {
+        }
+      } finally {
+        inputStream.close();
+      }
+    }
+  }
+
+  /**
+   * Reads input stream and returns it's contents as bytes
    * 
    * @param inputStream input stream to be readed
+   * @param contentLength length of the content or -1 if not known
    * @return Stream's content
    * @throws IOException 
    */
-  private String readStream(InputStream inputStream) throws IOException {
-    StringWriter responseWriter = new StringWriter();
-
-    char[] buf = new char[1024];
+  private byte[] readStream(InputStream inputStream, int contentLength) throws IOException {
+    byte[] buf = new byte[contentLength >= 0 ? contentLength : 8192];
+    int length = 0;
     int l = 0;
 
-    InputStreamReader inputStreamReader = new InputStreamReader(inputStream, "UTF-8");
-    while ((l = inputStreamReader.read(buf)) > 0) {
-      responseWriter.write(buf, 0, l);
+    try {
+      while (true) {
+        if (length == buf.length) {
+          if (contentLength >= 0) {
+            break;
+          }
+          
+          buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        
+        if ((l = inputStream.read(buf, length, buf.length - length)) < 0) {
+          break;
+        }
+        
+        length += l;
+      }
+    } finally {
+      inputStream.close();
     }
 
-    responseWriter.flush();
-    responseWriter.close();
-    return responseWriter.getBuffer().toString();
+    return length == buf.length ? buf : Arrays.copyOf(buf, length);
+  }
+
+  /**
+   * Returns charset from content type header or UTF-8 if header does not specify one
+   * 
+   * @param contentType content type header
+   * @return charset
+   */
+  private String getCharset(String contentType) {
+    if (contentType != null) {
+      for (String parameter : contentType.split(";")) {
+        parameter = parameter.trim();
+        if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+          return parameter.substring(8).replace("\"", "");
+        }
+      }
+    }
+    
+    return "UTF-8";
   }
 
   /**
@@ -158,6 +501,8 @@ public class DefaultIOHandler extends IOHandler {
         return "Bad Request";
       case 401:
         return "Unauthorized";
+      case 304:
+        return "Not Modified";
       case 403:
         return "Forbidden";
       case 404:
@@ -172,4 +517,57 @@ public class DefaultIOHandler extends IOHandler {
   }
 
   private static String BOUNDARY = "----------gc0p4Jq0M2Yt08jU534c0p";
+  private volatile int connectTimeout;
+  private volatile int readTimeout;
+  private volatile boolean keepAlive = false;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong releasedConnectionCount = new AtomicLong();
+  private final AtomicLong closedConnectionCount = new AtomicLong();
+  private volatile boolean compression = true;
+  private final AtomicLong receivedByteCount = new AtomicLong();
+  private final AtomicLong contentByteCount = new AtomicLong();
+  private final ThreadLocal<CancellableRequest> activeRequest = new ThreadLocal<CancellableRequest>();
+  
+  /**
+   * Input stream that counts bytes read through it
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    
+    public CountingInputStream(InputStream inputStream) {
+      super(inputStream);
+    }
+    
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      
+      return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int l = super.read(b, off, len);
+      if (l > 0) {
+        count += l;
+      }
+      
+      return l;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+      long l = super.skip(n);
+      count += l;
+      return l;
+    }
+    
+    public long getCount() {
+      return count;
+    }
+    
+    private long count;
+  }
 }
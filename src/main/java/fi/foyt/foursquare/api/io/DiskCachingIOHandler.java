@@ -0,0 +1,882 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * IOHandler that caches successful GET responses of another IOHandler on disk, so that cached
+ * responses survive restarts of the application. Like in CachingIOHandler, response is successful
+ * only when both its response code and the code of its meta object are 200, so API errors returned
+ * with response code 200 in callback mode are not written to disk.
+ *
+ * Responses are appended gzip compressed into segment files in the cache directory and located
+ * through a hash index that is memory mapped from the index file of the directory. Index is keyed
+ * by SHA-1 digest of the request URL, so URLs and credentials in their query strings are never
+ * written to disk. Time to live is configured per endpoint like in CachingIOHandler.
+ *
+ * When segment files grow over the disk budget the cache is compacted: live responses are copied
+ * into new segments while expired and replaced ones are dropped. If live responses alone would
+ * take more than three quarters of the budget, responses closest to their expiration are evicted.
+ *
+ * Cache directory must not be used by several handlers at the same time and handler should be
+ * closed when it is not needed anymore.
+ *
+ * @author Antti Leppä
+ *
+ */
+public class DiskCachingIOHandler extends IOHandler {
+
+  /**
+   * Constructor
+   *
+   * @param ioHandler IOHandler used to fetch responses that are not cached
+   * @param directory cache directory, created if it does not exist
+   * @param maxDiskSize maximum total size of segment files in bytes
+   * @throws IOException when cache directory could not be opened
+   */
+  public DiskCachingIOHandler(IOHandler ioHandler, File directory, long maxDiskSize) throws IOException {
+    this(ioHandler, directory, maxDiskSize, DEFAULT_INDEX_CAPACITY);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param ioHandler IOHandler used to fetch responses that are not cached
+   * @param directory cache directory, created if it does not exist
+   * @param maxDiskSize maximum total size of segment files in bytes
+   * @param indexCapacity initial number of index slots. Index grows when needed, so this is only a hint
+   * @throws IOException when cache directory could not be opened
+   */
+  public DiskCachingIOHandler(IOHandler ioHandler, File directory, long maxDiskSize, int indexCapacity) throws IOException {
+    this.ioHandler = ioHandler;
+    this.directory = directory;
+    this.maxDiskSize = maxDiskSize;
+    this.segmentSize = Math.max(maxDiskSize / SEGMENTS_PER_BUDGET, MIN_SEGMENT_SIZE);
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create cache directory " + directory);
+    }
+
+    openIndex(indexCapacity);
+    openSegments();
+  }
+
+  /**
+   * Returns IOHandler used to fetch responses that are not cached
+   *
+   * @return IOHandler used to fetch responses that are not cached
+   */
+  public IOHandler getIOHandler() {
+    return ioHandler;
+  }
+
+  /**
+   * Sets time to live for endpoints matching the pattern. Rules are matched in the order they were added.
+   *
+   * @param endpointPattern regular expression matched against endpoint path, e.g. "venues/[^/]+"
+   * @param timeToLive time to live, 0 disables caching of the endpoints
+   * @param unit unit of the time to live
+   */
+  public void setTimeToLive(String endpointPattern, long timeToLive, TimeUnit unit) {
+    timeToLiveRules.add(endpointPattern, unit.toMillis(timeToLive));
+  }
+
+  /**
+   * Sets time to live for endpoints that do not match any rule
+   *
+   * @param timeToLive time to live, 0 disables caching of the endpoints
+   * @param unit unit of the time to live
+   */
+  public void setDefaultTimeToLive(long timeToLive, TimeUnit unit) {
+    timeToLiveRules.setDefaultTimeToLive(unit.toMillis(timeToLive));
+  }
+
+  @Override
+  public Response fetchData(String url, Method method) {
+    return fetchCached(url, method, null);
+  }
+
+  @Override
+  protected Response fetchDataCancellable(String url, Method method, Map<String, String> requestHeaders, CancellableRequest request) {
+    if (requestHeaders == null || requestHeaders.isEmpty()) {
+      return fetchCached(url, method, request);
+    }
+
+    return ioHandler.fetchDataCancellable(url, method, requestHeaders, request);
+  }
+
+  /**
+   * Cached responses complete immediately and responses that are not cached are fetched with 
+   * fetchDataAsync of the other handler.
+   */
+  @Override
+  public Future<Response> fetchDataAsync(String url, Method method, final IOCallback callback) {
+    final long timeToLive = method == Method.GET ? timeToLiveRules.getTimeToLive(url) : 0;
+    if (timeToLive <= 0) {
+      return ioHandler.fetchDataAsync(url, method, callback);
+    }
+
+    final byte[] digest = getDigest(url);
+    Response cached = getCached(digest);
+    if (cached != null) {
+      hitCount.incrementAndGet();
+      return completed(cached, callback);
+    }
+
+    missCount.incrementAndGet();
+    return ioHandler.fetchDataAsync(url, method, new IOCallback() {
+      public void completed(Response response) {
+        cache(digest, response, timeToLive);
+
+        if (callback != null) {
+          callback.completed(response);
+        }
+      }
+    });
+  }
+
+  @Override
+  public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+    return ioHandler.fetchDataMultipartMime(url, params);
+  }
+
+  /**
+   * Returns cached response of the URL or fetches and caches it
+   *
+   * @param url URL
+   * @param method method used
+   * @param request request used to cancel the query or null
+   * @return response
+   */
+  private Response fetchCached(String url, Method method, CancellableRequest request) {
+    long timeToLive = method == Method.GET ? timeToLiveRules.getTimeToLive(url) : 0;
+    if (timeToLive <= 0) {
+      return delegate(ioHandler, url, method, null, request);
+    }
+
+    byte[] digest = getDigest(url);
+    Response cached = getCached(digest);
+    if (cached != null) {
+      hitCount.incrementAndGet();
+      return cached;
+    }
+
+    missCount.incrementAndGet();
+    Response response = delegate(ioHandler, url, method, null, request);
+    cache(digest, response, timeToLive);
+    return response;
+  }
+
+  /**
+   * Writes response into the cache if it may be cached
+   *
+   * @param digest digest of the URL
+   * @param response response
+   * @param timeToLive time to live in milliseconds
+   */
+  private void cache(byte[] digest, Response response, long timeToLive) {
+    if (isCacheable(response)) {
+      try {
+        putCached(digest, response, System.currentTimeMillis() + timeToLive);
+      } catch (IOException e) {
+        // Response is returned uncached if it could not be written to disk
+      }
+    }
+  }
+
+  /**
+   * Returns whether response may be cached
+   *
+   * @param response response
+   * @return whether response has content and its response code and meta code are 200
+   */
+  private boolean isCacheable(Response response) {
+    if (response.getResponseCode() != 200 || response.getResponseBytes() == null) {
+      return false;
+    }
+
+    Integer metaCode = response.getMetaCode();
+    return metaCode == null || metaCode.intValue() == 200;
+  }
+
+  /**
+   * Removes cached response of the URL
+   *
+   * @param url URL
+   */
+  public synchronized void invalidate(String url) {
+    int slot = findSlot(getHash(getDigest(url)));
+    if (slot != -1) {
+      removeSlot(slot);
+    }
+  }
+
+  /**
+   * Removes all cached responses and their segment files
+   *
+   * @throws IOException when segment files could not be removed
+   */
+  public synchronized void clear() throws IOException {
+    rebuildIndex(new ArrayList<IndexEntry>(), capacity);
+    deleteSegments(new ArrayList<Integer>(segments.keySet()));
+  }
+
+  /**
+   * Compacts the cache by copying live responses into new segment files and removing the old
+   * ones. Expired and replaced responses are dropped and responses closest to their expiration
+   * are evicted if live responses would take more than three quarters of the disk budget.
+   *
+   * Cache is compacted automatically when segment files grow over the disk budget.
+   *
+   * @throws IOException when segment files could not be read or written
+   */
+  public synchronized void compact() throws IOException {
+    long now = System.currentTimeMillis();
+    List<IndexEntry> entries = new ArrayList<IndexEntry>();
+    for (IndexEntry entry : getIndexEntries()) {
+      if (entry.getExpires() <= now) {
+        expirationCount.incrementAndGet();
+      } else {
+        entries.add(entry);
+      }
+    }
+
+    Collections.sort(entries, new Comparator<IndexEntry>() {
+      public int compare(IndexEntry entry1, IndexEntry entry2) {
+        return entry1.getExpires() < entry2.getExpires() ? 1 : entry1.getExpires() > entry2.getExpires() ? -1 : 0;
+      }
+    });
+
+    List<Integer> oldSegments = new ArrayList<Integer>(segments.keySet());
+    writeSegmentId = -1;
+
+    long keptSize = 0;
+    List<IndexEntry> moved = new ArrayList<IndexEntry>(entries.size());
+    for (IndexEntry entry : entries) {
+      if (keptSize + entry.getLength() > maxDiskSize * 3 / 4) {
+        evictionCount.incrementAndGet();
+      } else {
+        byte[] record = readRecord(entry);
+        if (record != null) {
+          moved.add(appendRecord(record, entry.getHash(), entry.getExpires()));
+          keptSize += record.length;
+        }
+      }
+    }
+
+    // Old segments are removed only after index points to the new ones
+    rebuildIndex(moved, capacity);
+    index.force();
+    deleteSegments(oldSegments);
+    compactionCount.incrementAndGet();
+  }
+
+  /**
+   * Writes index to disk and closes cache files. Handler must not be used after it has been closed.
+   *
+   * @throws IOException when files could not be closed
+   */
+  public synchronized void close() throws IOException {
+    index.force();
+    indexFile.close();
+
+    for (RandomAccessFile segment : segments.values()) {
+      segment.close();
+    }
+
+    segments.clear();
+  }
+
+  /**
+   * Returns total size of segment files in bytes
+   *
+   * @return total size of segment files in bytes
+   */
+  public synchronized long getDiskSize() {
+    return diskSize;
+  }
+
+  /**
+   * Returns number of cached responses
+   *
+   * @return number of cached responses
+   */
+  public synchronized int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * Returns number of requests served from the cache
+   *
+   * @return number of requests served from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns number of cacheable requests that were not found from the cache
+   *
+   * @return number of cacheable requests that were not found from the cache
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns number of responses evicted to keep the cache within its disk budget
+   *
+   * @return number of responses evicted
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Returns number of responses removed because they had expired
+   *
+   * @return number of expired responses
+   */
+  public long getExpirationCount() {
+    return expirationCount.get();
+  }
+
+  /**
+   * Returns number of times the cache has been compacted
+   *
+   * @return number of compactions
+   */
+  public long getCompactionCount() {
+    return compactionCount.get();
+  }
+
+  /**
+   * Returns cached response or null if response is not cached, has expired or could not be read
+   *
+   * @param digest digest of the URL
+   * @return cached response or null
+   */
+  private Response getCached(byte[] digest) {
+    byte[] record;
+
+    synchronized (this) {
+      int slot = findSlot(getHash(digest));
+      if (slot == -1) {
+        return null;
+      }
+
+      IndexEntry entry = getIndexEntry(slot);
+      if (entry.getExpires() <= System.currentTimeMillis()) {
+        removeSlot(slot);
+        expirationCount.incrementAndGet();
+        return null;
+      }
+
+      try {
+        record = readRecord(entry);
+      } catch (IOException e) {
+        record = null;
+      }
+
+      if (record == null) {
+        removeSlot(slot);
+        return null;
+      }
+    }
+
+    try {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+      input.readInt();
+      input.readLong();
+      byte[] recordDigest = new byte[DIGEST_LENGTH];
+      input.readFully(recordDigest);
+      if (!Arrays.equals(digest, recordDigest)) {
+        return null;
+      }
+
+      String charset = input.readUTF();
+      byte[] content = new byte[input.readInt()];
+      input.readFully(content);
+
+      return new Response(ContentEncoding.decode(content, "gzip"), charset, 200, "OK");
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes response into the cache and compacts the cache if it grows over the disk budget
+   *
+   * @param digest digest of the URL
+   * @param response response
+   * @param expires expiration time in milliseconds
+   * @throws IOException when response could not be written
+   */
+  private void putCached(byte[] digest, Response response, long expires) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzipStream = new GZIPOutputStream(compressed);
+    gzipStream.write(response.getResponseBytes());
+    gzipStream.close();
+
+    ByteArrayOutputStream recordStream = new ByteArrayOutputStream(compressed.size() + RECORD_HEADER_SIZE);
+    DataOutputStream output = new DataOutputStream(recordStream);
+    output.writeInt(RECORD_MAGIC);
+    output.writeLong(expires);
+    output.write(digest);
+    output.writeUTF(response.getCharset());
+    output.writeInt(compressed.size());
+    compressed.writeTo(output);
+    output.close();
+
+    byte[] record = recordStream.toByteArray();
+    if (record.length > maxDiskSize / 2) {
+      // Previous response of the URL must not be served in place of the newer one
+      synchronized (this) {
+        int slot = findSlot(getHash(digest));
+        if (slot != -1) {
+          removeSlot(slot);
+        }
+      }
+
+      return;
+    }
+
+    synchronized (this) {
+      putIndexEntry(appendRecord(record, getHash(digest), expires));
+
+      if (diskSize > maxDiskSize) {
+        compact();
+      }
+    }
+  }
+
+  /**
+   * Appends record into the segment being written, starting a new segment when current one is full
+   *
+   * @param record record
+   * @param hash hash of the URL
+   * @param expires expiration time in milliseconds
+   * @return index entry of the record
+   * @throws IOException when record could not be written
+   */
+  private IndexEntry appendRecord(byte[] record, long hash, long expires) throws IOException {
+    RandomAccessFile segment = writeSegmentId != -1 ? segments.get(writeSegmentId) : null;
+    if (segment == null || segment.length() >= segmentSize) {
+      writeSegmentId = nextSegmentId++;
+      segment = new RandomAccessFile(getSegmentFile(writeSegmentId), "rw");
+      segments.put(writeSegmentId, segment);
+    }
+
+    long offset = segment.length();
+    segment.seek(offset);
+    segment.write(record);
+    diskSize += record.length;
+
+    return new IndexEntry(hash, writeSegmentId, record.length, offset, expires);
+  }
+
+  /**
+   * Reads record of the index entry
+   *
+   * @param entry index entry
+   * @return record or null if entry does not point to a valid record
+   * @throws IOException when segment file could not be read
+   */
+  private byte[] readRecord(IndexEntry entry) throws IOException {
+    RandomAccessFile segment = segments.get(entry.getSegment());
+    if (segment == null || entry.getOffset() + entry.getLength() > segment.length()) {
+      return null;
+    }
+
+    byte[] record = new byte[entry.getLength()];
+    segment.seek(entry.getOffset());
+    segment.readFully(record);
+
+    if (ByteBuffer.wrap(record).getInt() != RECORD_MAGIC) {
+      return null;
+    }
+
+    return record;
+  }
+
+  /**
+   * Closes and deletes segment files
+   *
+   * @param segmentIds ids of the segments
+   * @throws IOException when segment file could not be deleted
+   */
+  private void deleteSegments(List<Integer> segmentIds) throws IOException {
+    for (Integer segmentId : segmentIds) {
+      RandomAccessFile segment = segments.remove(segmentId);
+      diskSize -= segment.length();
+      segment.close();
+
+      File file = getSegmentFile(segmentId);
+      if (!file.delete()) {
+        throw new IOException("Could not delete cache segment " + file);
+      }
+
+      if (segmentId == writeSegmentId) {
+        writeSegmentId = -1;
+      }
+    }
+  }
+
+  /**
+   * Opens segment files of the cache directory
+   *
+   * @throws IOException when segment file could not be opened
+   */
+  private void openSegments() throws IOException {
+    for (File file : directory.listFiles()) {
+      Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getName());
+      if (matcher.matches()) {
+        int segmentId = Integer.parseInt(matcher.group(1));
+        RandomAccessFile segment = new RandomAccessFile(file, "rw");
+        segments.put(segmentId, segment);
+        diskSize += segment.length();
+        nextSegmentId = Math.max(nextSegmentId, segmentId + 1);
+      }
+    }
+  }
+
+  /**
+   * Opens and maps the index file. If index file does not exist or is not valid, new index is
+   * created and existing segment files are removed.
+   *
+   * @param requestedCapacity requested number of index slots
+   * @throws IOException when index could not be opened
+   */
+  private void openIndex(int requestedCapacity) throws IOException {
+    File file = new File(directory, INDEX_FILE);
+    indexFile = new RandomAccessFile(file, "rw");
+
+    int existingCapacity = 0;
+    if (indexFile.length() >= INDEX_HEADER_SIZE) {
+      ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+      indexFile.getChannel().read(header, 0);
+      if (header.getInt(0) == INDEX_MAGIC) {
+        existingCapacity = header.getInt(4);
+      }
+    }
+
+    if (existingCapacity > 0 && Integer.bitCount(existingCapacity) == 1 && indexFile.length() >= getIndexSize(existingCapacity)) {
+      mapIndex(existingCapacity);
+      for (int slot = 0; slot < capacity; slot++) {
+        if (index.getLong(getSlotPosition(slot)) != 0) {
+          usedSlots++;
+          if (index.getInt(getSlotPosition(slot) + SLOT_SEGMENT) != TOMBSTONE) {
+            entryCount++;
+          }
+        }
+      }
+    } else {
+      for (File segmentFile : directory.listFiles()) {
+        if (SEGMENT_FILE_PATTERN.matcher(segmentFile.getName()).matches() && !segmentFile.delete()) {
+          throw new IOException("Could not delete cache segment " + segmentFile);
+        }
+      }
+
+      int initialCapacity = MIN_INDEX_CAPACITY;
+      while (initialCapacity < requestedCapacity) {
+        initialCapacity *= 2;
+      }
+
+      rebuildIndex(new ArrayList<IndexEntry>(), initialCapacity);
+    }
+  }
+
+  /**
+   * Maps index file with given number of slots
+   *
+   * @param newCapacity number of index slots
+   * @throws IOException when index file could not be mapped
+   */
+  private void mapIndex(int newCapacity) throws IOException {
+    index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, getIndexSize(newCapacity));
+    capacity = newCapacity;
+  }
+
+  /**
+   * Clears index and inserts given entries into it
+   *
+   * @param entries index entries
+   * @param newCapacity number of index slots
+   * @throws IOException when index file could not be mapped
+   */
+  private void rebuildIndex(List<IndexEntry> entries, int newCapacity) throws IOException {
+    if (index == null || newCapacity != capacity) {
+      mapIndex(newCapacity);
+    }
+
+    for (int position = 0; position < getIndexSize(capacity); position += 8) {
+      index.putLong(position, 0);
+    }
+
+    index.putInt(0, INDEX_MAGIC);
+    index.putInt(4, capacity);
+    usedSlots = 0;
+    entryCount = 0;
+
+    for (IndexEntry entry : entries) {
+      insertSlot(entry);
+    }
+  }
+
+  /**
+   * Adds entry into the index replacing existing entry of the same URL. Index grows if it gets too full.
+   *
+   * @param entry index entry
+   * @throws IOException when index file could not be mapped
+   */
+  private void putIndexEntry(IndexEntry entry) throws IOException {
+    int existing = findSlot(entry.getHash());
+    if (existing != -1) {
+      removeSlot(existing);
+    }
+
+    if ((usedSlots + 1) * 4 > capacity * 3) {
+      rebuildIndex(getIndexEntries(), (entryCount + 1) * 2 > capacity ? capacity * 2 : capacity);
+    }
+
+    insertSlot(entry);
+  }
+
+  /**
+   * Writes entry into first free slot of its probe sequence
+   *
+   * @param entry index entry
+   */
+  private void insertSlot(IndexEntry entry) {
+    int mask = capacity - 1;
+    int slot = (int) entry.getHash() & mask;
+    while (index.getLong(getSlotPosition(slot)) != 0 && index.getInt(getSlotPosition(slot) + SLOT_SEGMENT) != TOMBSTONE) {
+      slot = (slot + 1) & mask;
+    }
+
+    int position = getSlotPosition(slot);
+    if (index.getLong(position) == 0) {
+      usedSlots++;
+    }
+
+    index.putLong(position, entry.getHash());
+    index.putInt(position + SLOT_SEGMENT, entry.getSegment());
+    index.putInt(position + SLOT_LENGTH, entry.getLength());
+    index.putLong(position + SLOT_OFFSET, entry.getOffset());
+    index.putLong(position + SLOT_EXPIRES, entry.getExpires());
+    entryCount++;
+  }
+
+  /**
+   * Returns slot of the hash
+   *
+   * @param hash hash of the URL
+   * @return slot of the hash or -1 if hash is not in the index
+   */
+  private int findSlot(long hash) {
+    int mask = capacity - 1;
+    for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+      int position = getSlotPosition(slot);
+      long slotHash = index.getLong(position);
+      if (slotHash == 0) {
+        return -1;
+      }
+
+      if (slotHash == hash && index.getInt(position + SLOT_SEGMENT) != TOMBSTONE) {
+        return slot;
+      }
+    }
+  }
+
+  /**
+   * Marks slot removed. Slot stays in probe sequences of other entries until index is rebuilt.
+   *
+   * @param slot slot
+   */
+  private void removeSlot(int slot) {
+    index.putInt(getSlotPosition(slot) + SLOT_SEGMENT, TOMBSTONE);
+    entryCount--;
+  }
+
+  /**
+   * Returns entry of an occupied slot
+   *
+   * @param slot slot
+   * @return index entry
+   */
+  private IndexEntry getIndexEntry(int slot) {
+    int position = getSlotPosition(slot);
+    return new IndexEntry(index.getLong(position), index.getInt(position + SLOT_SEGMENT), index.getInt(position + SLOT_LENGTH),
+        index.getLong(position + SLOT_OFFSET), index.getLong(position + SLOT_EXPIRES));
+  }
+
+  /**
+   * Returns all live entries of the index
+   *
+   * @return live index entries
+   */
+  private List<IndexEntry> getIndexEntries() {
+    List<IndexEntry> entries = new ArrayList<IndexEntry>(entryCount);
+    for (int slot = 0; slot < capacity; slot++) {
+      int position = getSlotPosition(slot);
+      if (index.getLong(position) != 0 && index.getInt(position + SLOT_SEGMENT) != TOMBSTONE) {
+        entries.add(getIndexEntry(slot));
+      }
+    }
+
+    return entries;
+  }
+
+  private File getSegmentFile(int segmentId) {
+    return new File(directory, String.format(SEGMENT_FILE_FORMAT, segmentId));
+  }
+
+  private static int getSlotPosition(int slot) {
+    return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  private static int getIndexSize(int capacity) {
+    return INDEX_HEADER_SIZE + capacity * SLOT_SIZE;
+  }
+
+  /**
+   * Returns SHA-1 digest of the URL
+   *
+   * @param url URL
+   * @return digest of the URL
+   */
+  private static byte[] getDigest(String url) {
+    try {
+      return MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns index hash of the digest. Hash is never 0, which marks empty slots.
+   *
+   * @param digest digest of the URL
+   * @return index hash
+   */
+  private static long getHash(byte[] digest) {
+    long hash = ByteBuffer.wrap(digest).getLong();
+    return hash != 0 ? hash : 1;
+  }
+
+  private static final int DEFAULT_INDEX_CAPACITY = 4096;
+  private static final int MIN_INDEX_CAPACITY = 16;
+  private static final long SEGMENTS_PER_BUDGET = 16;
+  private static final long MIN_SEGMENT_SIZE = 4096;
+  private static final String INDEX_FILE = "index";
+  private static final String SEGMENT_FILE_FORMAT = "segment-%08d";
+  private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("segment-([0-9]+)");
+  private static final int INDEX_MAGIC = 0x46534331;
+  private static final int RECORD_MAGIC = 0x46535231;
+  private static final int DIGEST_LENGTH = 20;
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + DIGEST_LENGTH + 2 + 16 + 4;
+  private static final int INDEX_HEADER_SIZE = 16;
+  private static final int SLOT_SIZE = 32;
+  private static final int SLOT_SEGMENT = 8;
+  private static final int SLOT_LENGTH = 12;
+  private static final int SLOT_OFFSET = 16;
+  private static final int SLOT_EXPIRES = 24;
+  private static final int TOMBSTONE = -1;
+
+  private IOHandler ioHandler;
+  private File directory;
+  private long maxDiskSize;
+  private long segmentSize;
+  private final TimeToLiveRules timeToLiveRules = new TimeToLiveRules();
+  private RandomAccessFile indexFile;
+  private MappedByteBuffer index;
+  private int capacity;
+  private int usedSlots = 0;
+  private int entryCount = 0;
+  private final Map<Integer, RandomAccessFile> segments = new TreeMap<Integer, RandomAccessFile>();
+  private int nextSegmentId = 0;
+  private int writeSegmentId = -1;
+  private long diskSize = 0;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong expirationCount = new AtomicLong();
+  private final AtomicLong compactionCount = new AtomicLong();
+
+  /**
+   * Location and expiration time of a cached response
+   */
+  private static class IndexEntry {
+
+    public IndexEntry(long hash, int segment, int length, long offset, long expires) {
+      this.hash = hash;
+      this.segment = segment;
+      this.length = length;
+      this.offset = offset;
+      this.expires = expires;
+    }
+
+    public long getHash() {
+      return hash;
+    }
+
+    public int getSegment() {
+      return segment;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getExpires() {
+      return expires;
+    }
+
+    private long hash;
+    private int segment;
+    private int length;
+    private long offset;
+    private long expires;
+  }
+}
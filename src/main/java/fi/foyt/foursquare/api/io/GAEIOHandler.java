@@ -5,7 +5,11 @@ import static com.google.appengine.api.urlfetch.FetchOptions.Builder.doNotValida
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.appengine.api.urlfetch.HTTPHeader;
 import com.google.appengine.api.urlfetch.HTTPMethod;
 import com.google.appengine.api.urlfetch.HTTPRequest;
 import com.google.appengine.api.urlfetch.HTTPResponse;
@@ -25,6 +29,12 @@ public class GAEIOHandler extends IOHandler {
 
 	@Override
 	public Response fetchData(String url, Method method) {
+		return fetchData(url, method, null);
+	}
+
+	@Override
+	public Response fetchData(String url, Method method,
+			Map<String, String> requestHeaders) {
 		try {
 			URL aUrl = new URL(url);
 
@@ -37,12 +47,39 @@ public class GAEIOHandler extends IOHandler {
 
 			HTTPRequest httpRequest = new HTTPRequest(aUrl, httpMethod,
 					doNotValidateCertificate().setDeadline(10d));
+			if (compression) {
+				httpRequest.setHeader(new HTTPHeader("Accept-Encoding",
+						ContentEncoding.ACCEPT_ENCODING));
+			}
+			if (requestHeaders != null) {
+				for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+					httpRequest.setHeader(new HTTPHeader(header.getKey(), header.getValue()));
+				}
+			}
+			
 			URLFetchService service = URLFetchServiceFactory
 					.getURLFetchService();
 			HTTPResponse response = service.fetch(httpRequest);
 
-			return new Response(new String(response.getContent(), "UTF-8"),
-					response.getResponseCode(), "");
+			byte[] content = response.getContent();
+			if (content == null) {
+				content = new byte[0];
+			}
+			
+			receivedByteCount.addAndGet(content.length);
+			String contentEncoding = getHeader(response, "Content-Encoding");
+			if (ContentEncoding.isEncoded(contentEncoding)) {
+				content = ContentEncoding.decode(content, contentEncoding);
+			}
+			contentByteCount.addAndGet(content.length);
+
+			Map<String, String> headers = new HashMap<String, String>();
+			for (HTTPHeader header : response.getHeaders()) {
+				headers.put(header.getName(), header.getValue());
+			}
+
+			return new Response(content, "UTF-8",
+					response.getResponseCode(), "", headers);
 		} catch (MalformedURLException e) {
 			return new Response("", 400, "Malformed URL: " + url);
 		} catch (IOException e) {
@@ -50,6 +87,44 @@ public class GAEIOHandler extends IOHandler {
 		}
 	}
 
+	/**
+	 * Returns whether compressed responses are requested
+	 * 
+	 * @return whether compressed responses are requested
+	 */
+	public boolean getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Enables or disables compression. When enabled, handler asks for gzip or 
+	 * deflate compressed responses and decompresses them transparently.
+	 * 
+	 * @param compression whether compressed responses should be requested
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Returns number of response content bytes received. For compressed 
+	 * responses this is the compressed size.
+	 * 
+	 * @return number of response content bytes received
+	 */
+	public long getReceivedByteCount() {
+		return receivedByteCount.get();
+	}
+
+	/**
+	 * Returns number of response content bytes after decompression
+	 * 
+	 * @return number of response content bytes after decompression
+	 */
+	public long getContentByteCount() {
+		return contentByteCount.get();
+	}
+
 	@Override
 	/**
 	 * Not yet implemented... 
@@ -60,4 +135,24 @@ public class GAEIOHandler extends IOHandler {
 		return null;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Returns value of response header or null if response does not contain the header
+	 * 
+	 * @param response response
+	 * @param name header name
+	 * @return header value
+	 */
+	private String getHeader(HTTPResponse response, String name) {
+		for (HTTPHeader header : response.getHeaders()) {
+			if (name.equalsIgnoreCase(header.getName())) {
+				return header.getValue();
+			}
+		}
+		
+		return null;
+	}
+
+	private volatile boolean compression = true;
+	private final AtomicLong receivedByteCount = new AtomicLong();
+	private final AtomicLong contentByteCount = new AtomicLong();
+}
@@ -0,0 +1,484 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * IOHandler that hedges slow GET requests of another IOHandler.
+ *
+ * If request has not completed within the hedge delay, an identical hedge request is sent with
+ * fetchDataAsync of the other handler and the response that arrives first is returned, unless it is
+ * a server error and the other request is still on its way. The other request is cancelled. With
+ * DefaultIOHandler, and the caching, retrying, rate limiting and circuit breaking handlers wrapping
+ * it, cancelling disconnects the connection of the request; other handlers are interrupted.
+ *
+ * Synchronous requests are sent on the calling thread and only their hedge requests use the executor
+ * of the other handler, so synchronous requests do not wait for free executor threads and can be
+ * made from result callbacks that run in the executor. Asynchronous requests are sent with
+ * fetchDataAsync of the other handler and hedged without blocking any thread while they wait.
+ *
+ * Hedge delay is a percentile (by default 95th) of recent latencies of the endpoint group, so that
+ * only requests slower than usual are hedged. Until enough latencies have been seen, fixed hedge
+ * delay is used. Endpoint groups are defined with regular expressions matched against endpoint path;
+ * endpoints that do not match any group are grouped by the first part of their path. Hedge requests
+ * are limited to max hedge ratio of all requests, so hedging can not multiply the load of a slow API.
+ *
+ * Only GET requests without additional request headers are hedged, other requests are passed
+ * through as they are.
+ *
+ * @author Antti Leppä
+ *
+ */
+public class HedgingIOHandler extends IOHandler {
+
+  /**
+   * Constructor
+   *
+   * @param ioHandler IOHandler used to send the requests
+   */
+  public HedgingIOHandler(IOHandler ioHandler) {
+    this.ioHandler = ioHandler;
+  }
+
+  /**
+   * Returns IOHandler used to send the requests
+   *
+   * @return IOHandler used to send the requests
+   */
+  public IOHandler getIOHandler() {
+    return ioHandler;
+  }
+
+  /**
+   * Adds endpoint group whose latencies are tracked separately. Groups are matched in the order they were added.
+   *
+   * @param endpointPattern regular expression matched against endpoint path, e.g. "venues/search"
+   */
+  public synchronized void addEndpointGroup(String endpointPattern) {
+    endpointGroups.add(Pattern.compile(endpointPattern));
+  }
+
+  /**
+   * Sets hedge delay used until enough latencies of an endpoint group are known. Default is 500 milliseconds.
+   *
+   * @param hedgeDelay hedge delay
+   * @param unit unit of the delay
+   */
+  public void setHedgeDelay(long hedgeDelay, TimeUnit unit) {
+    this.hedgeDelay = unit.toMillis(hedgeDelay);
+  }
+
+  /**
+   * Sets latency percentile used as hedge delay. Default is 0.95.
+   *
+   * @param percentile percentile between 0 and 1, or 0 to always use fixed hedge delay
+   */
+  public void setHedgeDelayPercentile(double percentile) {
+    if (percentile < 0 || percentile > 1) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 1");
+    }
+
+    this.percentile = percentile;
+  }
+
+  /**
+   * Sets maximum ratio of hedge requests to all requests. Default is 0.05.
+   *
+   * @param maxHedgeRatio maximum ratio of hedge requests
+   */
+  public void setMaxHedgeRatio(double maxHedgeRatio) {
+    if (maxHedgeRatio < 0) {
+      throw new IllegalArgumentException("Max hedge ratio must not be negative");
+    }
+
+    this.maxHedgeRatio = maxHedgeRatio;
+  }
+
+  @Override
+  public Response fetchData(String url, Method method) {
+    if (method != Method.GET) {
+      return ioHandler.fetchData(url, method);
+    }
+
+    HedgedRequest request = new HedgedRequest(url, null);
+    request.run(method);
+
+    try {
+      return request.get();
+    } catch (InterruptedException e) {
+      request.cancel(true);
+      Thread.currentThread().interrupt();
+      return new Response("", 500, "Interrupted while waiting for response");
+    } catch (ExecutionException e) {
+      return new Response("", 500, e.getCause().getMessage());
+    }
+  }
+
+  @Override
+  public Future<Response> fetchDataAsync(String url, Method method, IOCallback callback) {
+    if (method != Method.GET) {
+      return ioHandler.fetchDataAsync(url, method, callback);
+    }
+
+    HedgedRequest request = new HedgedRequest(url, callback);
+    request.start(method);
+    return request;
+  }
+
+  @Override
+  public Response fetchData(String url, Method method, Map<String, String> requestHeaders) {
+    if (requestHeaders == null || requestHeaders.isEmpty()) {
+      return fetchData(url, method);
+    }
+
+    return ioHandler.fetchData(url, method, requestHeaders);
+  }
+
+  @Override
+  public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+    return ioHandler.fetchDataMultipartMime(url, params);
+  }
+
+  /**
+   * Returns current hedge delay of an endpoint
+   *
+   * @param endpoint endpoint path, e.g. "venues/5104"
+   * @return hedge delay in milliseconds
+   */
+  public long getHedgeDelay(String endpoint) {
+    return getLatencies(endpoint).getHedgeDelay();
+  }
+
+  /**
+   * Returns number of hedgeable requests
+   *
+   * @return number of hedgeable requests
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Returns number of hedge requests sent
+   *
+   * @return number of hedge requests
+   */
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  /**
+   * Returns number of hedge requests whose responses were returned instead of the original request
+   *
+   * @return number of hedge requests that won
+   */
+  public long getHedgeWinCount() {
+    return hedgeWinCount.get();
+  }
+
+  private synchronized boolean acquireHedge() {
+    if (hedgeCount.get() + 1 > maxHedgeRatio * requestCount.get()) {
+      return false;
+    }
+
+    hedgeCount.incrementAndGet();
+    return true;
+  }
+
+  private synchronized Latencies getLatencies(String endpoint) {
+    String group = ApiUrls.getEndpointGroup(endpoint, endpointGroups);
+    Latencies groupLatencies = latencies.get(group);
+    if (groupLatencies == null) {
+      groupLatencies = new Latencies();
+      latencies.put(group, groupLatencies);
+    }
+
+    return groupLatencies;
+  }
+
+  /**
+   * Returns scheduler of hedge requests shared by all handlers. Scheduler uses a daemon thread so it
+   * does not prevent JVM from shutting down.
+   *
+   * @return scheduler of hedge requests
+   */
+  private static synchronized ScheduledExecutorService getScheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "foursquare-api-hedge");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    return scheduler;
+  }
+
+  private static final int LATENCY_WINDOW = 100;
+  private static final int MIN_LATENCIES = 20;
+
+  private static ScheduledExecutorService scheduler;
+  private IOHandler ioHandler;
+  private final List<Pattern> endpointGroups = new ArrayList<Pattern>();
+  private final Map<String, Latencies> latencies = new HashMap<String, Latencies>();
+  private volatile long hedgeDelay = 500;
+  private volatile double percentile = 0.95;
+  private volatile double maxHedgeRatio = 0.05;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong hedgeCount = new AtomicLong();
+  private final AtomicLong hedgeWinCount = new AtomicLong();
+
+  /**
+   * Latest latencies of an endpoint group
+   */
+  private class Latencies {
+
+    public synchronized void add(long latency) {
+      latencies[index] = latency;
+      index = (index + 1) % latencies.length;
+      count = Math.min(count + 1, latencies.length);
+    }
+
+    /**
+     * Returns latency percentile, or fixed hedge delay if too few latencies are known
+     *
+     * @return hedge delay in milliseconds
+     */
+    public synchronized long getHedgeDelay() {
+      if (percentile <= 0 || count < MIN_LATENCIES) {
+        return hedgeDelay;
+      }
+
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      return sorted[Math.min((int) Math.ceil(percentile * count) - 1, count - 1)];
+    }
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int index;
+    private int count;
+  }
+
+  /**
+   * Request with its original and hedge requests. Completes with the first successful response.
+   */
+  private class HedgedRequest implements Future<Response> {
+
+    public HedgedRequest(String url, IOCallback callback) {
+      this.url = url;
+      this.callback = callback;
+      this.latencies = getLatencies(ApiUrls.getEndpoint(url));
+    }
+
+    /**
+     * Sends the original request asynchronously and schedules the hedge request
+     *
+     * @param method method of the request
+     */
+    public void start(Method method) {
+      requestCount.incrementAndGet();
+
+      synchronized (this) {
+        startTime = System.currentTimeMillis();
+        pending = 1;
+        primary = ioHandler.fetchDataAsync(url, method, new IOCallback() {
+          public void completed(Response response) {
+            HedgedRequest.this.completed(response, false);
+          }
+        });
+
+        scheduleHedge(method);
+      }
+    }
+
+    /**
+     * Schedules the hedge request and sends the original request on the calling thread. Original
+     * request is cancelled if the hedge request responds first.
+     *
+     * @param method method of the request
+     */
+    public void run(Method method) {
+      requestCount.incrementAndGet();
+
+      CancellableRequest primaryRequest = new CancellableRequest();
+      synchronized (this) {
+        startTime = System.currentTimeMillis();
+        pending = 1;
+        this.primaryRequest = primaryRequest;
+        scheduleHedge(method);
+      }
+
+      Response response;
+      try {
+        response = ioHandler.fetchDataCancellable(url, method, null, primaryRequest);
+      } catch (RuntimeException e) {
+        response = new Response("", 500, e.getMessage());
+      }
+
+      completed(response, false);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      synchronized (this) {
+        if (done) {
+          return false;
+        }
+
+        done = true;
+        cancelled = true;
+        cancelRequests(true, true);
+      }
+
+      latch.countDown();
+      return true;
+    }
+
+    public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    public Response get() throws InterruptedException, ExecutionException {
+      latch.await();
+      return getResult();
+    }
+
+    public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!latch.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+
+      return getResult();
+    }
+
+    private synchronized Response getResult() {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+
+      return result;
+    }
+
+    private void scheduleHedge(final Method method) {
+      if (!done) {
+        hedgeTimer = getScheduler().schedule(new Runnable() {
+          public void run() {
+            sendHedge(method);
+          }
+        }, latencies.getHedgeDelay(), TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private synchronized void sendHedge(Method method) {
+      if (done || !acquireHedge()) {
+        return;
+      }
+
+      // Hedge is counted before sending, because its callback may be invoked before the send returns
+      pending++;
+      try {
+        hedge = ioHandler.fetchDataAsync(url, method, new IOCallback() {
+          public void completed(Response response) {
+            HedgedRequest.this.completed(response, true);
+          }
+        });
+      } catch (RuntimeException e) {
+        completed(new Response("", 500, e.getMessage()), true);
+      }
+    }
+
+    private void completed(Response response, boolean fromHedge) {
+      synchronized (this) {
+        pending--;
+        if (done) {
+          return;
+        }
+
+        // Server error loses to the other request if it still succeeds
+        if (response.getResponseCode() >= 500 && pending > 0) {
+          return;
+        }
+
+        done = true;
+        result = response;
+        if (fromHedge) {
+          hedgeWinCount.incrementAndGet();
+        }
+
+        cancelRequests(fromHedge, !fromHedge);
+
+        // Latency of the original request is at least the time until the first response
+        latencies.add(System.currentTimeMillis() - startTime);
+      }
+
+      latch.countDown();
+
+      if (callback != null) {
+        callback.completed(response);
+      }
+    }
+
+    private void cancelRequests(boolean cancelPrimary, boolean cancelHedge) {
+      if (hedgeTimer != null) {
+        hedgeTimer.cancel(false);
+      }
+
+      if (cancelPrimary && primary != null) {
+        primary.cancel(true);
+      }
+
+      if (cancelPrimary && primaryRequest != null) {
+        primaryRequest.cancel();
+      }
+
+      if (cancelHedge && hedge != null) {
+        hedge.cancel(true);
+      }
+    }
+
+    private String url;
+    private IOCallback callback;
+    private Latencies latencies;
+    private long startTime;
+    private int pending;
+    private Future<Response> primary;
+    private CancellableRequest primaryRequest;
+    private Future<Response> hedge;
+    private ScheduledFuture<?> hedgeTimer;
+    private boolean done;
+    private boolean cancelled;
+    private Response result;
+    private final CountDownLatch latch = new CountDownLatch(1);
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ * 
+ * License: 
+ * 
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+/**
+ * Callback interface for asynchronous IOHandler queries
+ * 
+ * @author Antti Leppä
+ *
+ */
+public interface IOCallback {
+
+  /**
+   * Called when query has completed. IOHandlers report IO errors as responses, so this 
+   * method is called for failed queries too.
+   * 
+   * @param response Response
+   */
+  public void completed(Response response);
+}
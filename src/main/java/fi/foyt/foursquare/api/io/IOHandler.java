@@ -11,6 +11,14 @@
 
 package fi.foyt.foursquare.api.io;
 
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * Abstract class representing IOHandler
  * 
@@ -28,6 +36,23 @@ public abstract class IOHandler {
    */
   public abstract Response fetchData(String url, Method method);
   
+  /**
+   * Method used in API queries that send additional request headers, such as conditional 
+   * requests with If-None-Match or If-Modified-Since headers.
+   * 
+   * Default implementation ignores the headers and calls fetchData(url, method), so handlers 
+   * that do not support request headers work as before. Callers must be prepared to receive 
+   * a full response where a conditional response was asked for.
+   * 
+   * @param url URL of the query
+   * @param method method used
+   * @param requestHeaders request headers or null
+   * @return Response
+   */
+  public Response fetchData(String url, Method method, Map<String, String> requestHeaders) {
+    return fetchData(url, method);
+  }
+  
   /**
    * Method used in multipart/mime API queries
    * 
@@ -36,4 +61,175 @@ public abstract class IOHandler {
    * @return Response
    */
   public abstract Response fetchDataMultipartMime(String url, MultipartParameter... params);
+
+  /**
+   * Method used in asynchronous API queries. 
+   * 
+   * Default implementation runs fetchDataCancellable in the executor of this handler, so all 
+   * existing handlers can be used asynchronously. Handlers that are capable of 
+   * non-blocking IO should override this method. Cancelling the returned future cancels the 
+   * query as fetchDataCancellable does. Callback is not called for cancelled queries.
+   * 
+   * @param url URL of the query
+   * @param method method used
+   * @param callback callback notified when query completes or null
+   * @return Future of Response
+   */
+  public Future<Response> fetchDataAsync(final String url, final Method method, final IOCallback callback) {
+    final CancellableRequest request = new CancellableRequest();
+    
+    FutureTask<Response> task = new FutureTask<Response>(new Callable<Response>() {
+      public Response call() {
+        Response response;
+        try {
+          response = fetchDataCancellable(url, method, null, request);
+        } catch (RuntimeException e) {
+          response = new Response("", 500, e.getMessage());
+        }
+        
+        if (callback != null && !request.isCancelled()) {
+          callback.completed(response);
+        }
+        
+        return response;
+      }
+    }) {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+          request.cancel();
+        }
+        
+        return cancelled;
+      }
+    };
+    
+    getExecutor().execute(task);
+    return task;
+  }
+  
+  /**
+   * Method used in queries that run on the calling thread but may be cancelled from another thread,
+   * such as original requests of synchronous hedged requests.
+   * 
+   * Default implementation interrupts the calling thread when the query is cancelled and clears 
+   * the interrupt after the query has returned. Handlers that can abort queries in progress 
+   * should override this method to do so, and handlers that send their queries with another 
+   * handler should pass the request on to it with delegate.
+   * 
+   * @param url URL of the query
+   * @param method method used
+   * @param requestHeaders request headers or null
+   * @param request request used to cancel the query
+   * @return Response
+   */
+  protected Response fetchDataCancellable(String url, Method method, Map<String, String> requestHeaders, CancellableRequest request) {
+    if (!request.setThread(Thread.currentThread())) {
+      return getCancelledResponse();
+    }
+    
+    try {
+      return requestHeaders != null ? fetchData(url, method, requestHeaders) : fetchData(url, method);
+    } finally {
+      request.clearThread();
+    }
+  }
+  
+  /**
+   * Sends query with another handler. Query is sent with fetchDataCancellable when it has a 
+   * request that may cancel it.
+   * 
+   * @param ioHandler handler used to send the query
+   * @param url URL of the query
+   * @param method method used
+   * @param requestHeaders request headers or null
+   * @param request request used to cancel the query or null
+   * @return Response
+   */
+  protected static Response delegate(IOHandler ioHandler, String url, Method method, Map<String, String> requestHeaders, CancellableRequest request) {
+    if (request != null) {
+      return ioHandler.fetchDataCancellable(url, method, requestHeaders, request);
+    }
+    
+    return requestHeaders != null ? ioHandler.fetchData(url, method, requestHeaders) : ioHandler.fetchData(url, method);
+  }
+  
+  /**
+   * Returns future of a response that is already known, such as a cached response, and notifies 
+   * the callback on the calling thread.
+   * 
+   * @param response response
+   * @param callback callback notified of the response or null
+   * @return completed Future of Response
+   */
+  protected static Future<Response> completed(Response response, IOCallback callback) {
+    FutureTask<Response> task = new FutureTask<Response>(new Runnable() {
+      public void run() {
+      }
+    }, response);
+    task.run();
+    
+    if (callback != null) {
+      callback.completed(response);
+    }
+    
+    return task;
+  }
+  
+  /**
+   * Returns response of a query that was cancelled before it completed
+   * 
+   * @return Response
+   */
+  protected static Response getCancelledResponse() {
+    return new Response("", 500, "Request cancelled");
+  }
+  
+  /**
+   * Sets executor used in asynchronous queries
+   * 
+   * @param executor executor used in asynchronous queries
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+  
+  /**
+   * Returns executor used in asynchronous queries. If executor has not been set, 
+   * executor shared by all handlers is returned.
+   * 
+   * @return executor used in asynchronous queries
+   */
+  public ExecutorService getExecutor() {
+    if (executor == null) {
+      return getDefaultExecutor();
+    }
+    
+    return executor;
+  }
+  
+  /**
+   * Returns executor shared by all handlers. Executor uses daemon threads so it does not 
+   * prevent JVM from shutting down.
+   * 
+   * @return executor shared by all handlers
+   */
+  private static synchronized ExecutorService getDefaultExecutor() {
+    if (defaultExecutor == null) {
+      defaultExecutor = Executors.newFixedThreadPool(DEFAULT_EXECUTOR_THREADS, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "foursquare-api-io");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    
+    return defaultExecutor;
+  }
+  
+  private static final int DEFAULT_EXECUTOR_THREADS = 8;
+  private static ExecutorService defaultExecutor;
+  private volatile ExecutorService executor;
 }
@@ -0,0 +1,1000 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * IOHandler that keeps requests of another IOHandler within rate limits.
+ *
+ * Limits are token buckets. Each OAuth token (or client id of userless requests) has its own
+ * bucket, and endpoints matching a pattern can share an additional bucket. Buckets are refilled
+ * continuously, so requests are spread evenly over the limit period instead of using the whole
+ * quota at once and then waiting for the period to end. Up to burst size requests can be sent
+ * back to back after the bucket has been idle.
+ *
+ * Requests that have to wait are queued in priority lanes: waiting requests of higher priority
+ * are sent before requests of lower priority that need the same buckets. Within a lane tokens are
+ * served round robin, so a worker sending many requests can not starve other workers sharing an
+ * endpoint limit. Requests using different buckets do not wait for each other.
+ *
+ * With adaptive limits enabled, the pace of each token follows X-RateLimit-Remaining and
+ * X-RateLimit-Reset headers of its responses: remaining requests are spread evenly over the rest of
+ * the rate limit window, so the quota is used up as the window ends instead of being exceeded or
+ * left unused. Configured token limit still caps the pace.
+ *
+ * Waiting synchronous requests block the calling thread. Requests interrupted while waiting are
+ * not sent and return response with code 500. Waiting asynchronous requests do not block any
+ * thread: they are queued with the synchronous ones and sent with fetchDataAsync of the other
+ * handler when their turn comes, so throttled background requests do not occupy executor threads
+ * needed by other requests. Cancelling an asynchronous request that is still waiting removes it
+ * from the queue.
+ *
+ * @author Antti Leppä
+ *
+ */
+public class RateLimitingIOHandler extends IOHandler {
+
+  /**
+   * Constructor. Requests are not limited until limits are set.
+   *
+   * @param ioHandler IOHandler used to send the requests
+   */
+  public RateLimitingIOHandler(IOHandler ioHandler) {
+    this.ioHandler = ioHandler;
+
+    for (int i = 0; i < RequestPriority.values().length; i++) {
+      lanes.add(new LinkedHashMap<String, LinkedList<Ticket>>());
+    }
+  }
+
+  /**
+   * Returns IOHandler used to send the requests
+   *
+   * @return IOHandler used to send the requests
+   */
+  public IOHandler getIOHandler() {
+    return ioHandler;
+  }
+
+  /**
+   * Sets limit of requests per OAuth token. Userless requests are limited per client id.
+   *
+   * @param requests number of requests allowed in the period, 0 removes the limit
+   * @param period limit period
+   * @param unit unit of the period
+   */
+  public void setTokenLimit(int requests, long period, TimeUnit unit) {
+    lock.lock();
+    try {
+      tokenRate = getRate(requests, period, unit);
+      tokenBuckets.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets limit shared by all requests to endpoints matching the pattern. Rules are matched in the order they were added.
+   * Setting limit of a pattern again replaces its earlier limit.
+   *
+   * @param endpointPattern regular expression matched against endpoint path, e.g. "venues/search"
+   * @param requests number of requests allowed in the period, 0 removes limit of the endpoints
+   * @param period limit period
+   * @param unit unit of the period
+   */
+  public void setEndpointLimit(String endpointPattern, int requests, long period, TimeUnit unit) {
+    lock.lock();
+    try {
+      double rate = getRate(requests, period, unit);
+      EndpointLimit endpointLimit = new EndpointLimit(Pattern.compile(endpointPattern), rate > 0 ? new TokenBucket(rate) : null);
+      for (int i = 0; i < endpointLimits.size(); i++) {
+        if (endpointLimits.get(i).getPattern().pattern().equals(endpointPattern)) {
+          endpointLimits.set(i, endpointLimit);
+          return;
+        }
+      }
+
+      endpointLimits.add(endpointLimit);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets number of requests that can be sent back to back when bucket has been idle. Default is 1.
+   *
+   * @param burstSize burst size
+   */
+  public void setBurstSize(int burstSize) {
+    if (burstSize < 1) {
+      throw new IllegalArgumentException("Burst size must be positive");
+    }
+
+    lock.lock();
+    try {
+      this.burstSize = burstSize;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets whether token limits adapt to X-RateLimit headers of responses. Default is false.
+   *
+   * @param adaptive whether token limits adapt to X-RateLimit headers
+   */
+  public void setAdaptive(boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+
+  /**
+   * Sets length of the rate limit window used by adaptive limits when responses do not have
+   * X-RateLimit-Reset header. Default is one hour.
+   *
+   * @param window length of the rate limit window
+   * @param unit unit of the window
+   */
+  public void setRateLimitWindow(long window, TimeUnit unit) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("Rate limit window must be positive");
+    }
+
+    this.rateLimitWindow = unit.toMillis(window);
+  }
+
+  /**
+   * Sets priority of requests to endpoints matching the pattern. Rules are matched in the order they were added.
+   * Setting priority of a pattern again replaces its earlier priority.
+   *
+   * @param endpointPattern regular expression matched against endpoint path, e.g. "users/[^/]+"
+   * @param priority priority of the requests
+   */
+  public void setPriority(String endpointPattern, RequestPriority priority) {
+    lock.lock();
+    try {
+      PriorityRule priorityRule = new PriorityRule(Pattern.compile(endpointPattern), priority);
+      for (int i = 0; i < priorityRules.size(); i++) {
+        if (priorityRules.get(i).getPattern().pattern().equals(endpointPattern)) {
+          priorityRules.set(i, priorityRule);
+          return;
+        }
+      }
+
+      priorityRules.add(priorityRule);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sets priority of requests to endpoints that do not match any priority rule. Default is NORMAL.
+   *
+   * @param defaultPriority priority
+   */
+  public void setDefaultPriority(RequestPriority defaultPriority) {
+    lock.lock();
+    try {
+      this.defaultPriority = defaultPriority;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Response fetchData(String url, Method method) {
+    if (!acquire(url)) {
+      return getInterruptedResponse();
+    }
+
+    return adapt(url, ioHandler.fetchData(url, method));
+  }
+
+  @Override
+  public Response fetchData(String url, Method method, Map<String, String> requestHeaders) {
+    if (!acquire(url)) {
+      return getInterruptedResponse();
+    }
+
+    return adapt(url, ioHandler.fetchData(url, method, requestHeaders));
+  }
+
+  @Override
+  protected Response fetchDataCancellable(String url, Method method, Map<String, String> requestHeaders, CancellableRequest request) {
+    if (!acquire(url, request)) {
+      return request.isCancelled() ? getCancelledResponse() : getInterruptedResponse();
+    }
+
+    return adapt(url, ioHandler.fetchDataCancellable(url, method, requestHeaders, request));
+  }
+
+  @Override
+  public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+    if (!acquire(url)) {
+      return getInterruptedResponse();
+    }
+
+    return adapt(url, ioHandler.fetchDataMultipartMime(url, params));
+  }
+
+  @Override
+  public Future<Response> fetchDataAsync(String url, Method method, IOCallback callback) {
+    ThrottledRequest request = new ThrottledRequest(url, method, callback);
+
+    lock.lock();
+    try {
+      Ticket ticket = createTicket(url);
+      if (!ticket.getBuckets().isEmpty()) {
+        request.setTicket(ticket);
+        ticket.setRequest(request);
+
+        // Granted ticket is sent by dispatch
+        long now = System.currentTimeMillis();
+        enqueue(ticket);
+        dispatch(now);
+
+        if (!ticket.isGranted()) {
+          throttledCount.incrementAndGet();
+        }
+
+        return request;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    request.send();
+    return request;
+  }
+
+  /**
+   * Returns number of requests currently waiting for rate limits
+   *
+   * @return number of waiting requests
+   */
+  public int getWaitingCount() {
+    lock.lock();
+    try {
+      return waitingCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns number of requests that have had to wait for rate limits
+   *
+   * @return number of delayed requests
+   */
+  public long getThrottledCount() {
+    return throttledCount.get();
+  }
+
+  /**
+   * Returns number of responses whose X-RateLimit headers have adjusted token limits
+   *
+   * @return number of adjustments
+   */
+  public long getAdaptationCount() {
+    return adaptationCount.get();
+  }
+
+  /**
+   * Waits until the request of the URL is allowed by its buckets and takes tokens from them
+   *
+   * @param url URL
+   * @param request request whose cancelling interrupts the wait or null
+   * @return whether request may be sent. False if thread was interrupted or request was cancelled while waiting.
+   */
+  private boolean acquire(String url, CancellableRequest request) {
+    if (request != null && !request.setThread(Thread.currentThread())) {
+      return false;
+    }
+
+    try {
+      return acquire(url);
+    } finally {
+      if (request != null) {
+        request.clearThread();
+      }
+    }
+  }
+
+  /**
+   * Waits until the request of the URL is allowed by its buckets and takes tokens from them
+   *
+   * @param url URL
+   * @return whether request may be sent. False if thread was interrupted while waiting.
+   */
+  private boolean acquire(String url) {
+    lock.lock();
+    try {
+      Ticket ticket = createTicket(url);
+      if (ticket.getBuckets().isEmpty()) {
+        return true;
+      }
+
+      long now = System.currentTimeMillis();
+      enqueue(ticket);
+      dispatch(now);
+
+      if (!ticket.isGranted()) {
+        throttledCount.incrementAndGet();
+      }
+
+      while (!ticket.isGranted()) {
+        // Tickets that only wait for higher priority tickets are woken when those are granted
+        long waitTime = ticket.getWaitTime(now);
+        try {
+          if (waitTime > 0) {
+            changed.await(waitTime, TimeUnit.MILLISECONDS);
+          } else {
+            changed.await();
+          }
+        } catch (InterruptedException e) {
+          dequeue(ticket);
+
+          // Tickets behind the abandoned one may be available now
+          dispatch(System.currentTimeMillis());
+          changed.signalAll();
+          Thread.currentThread().interrupt();
+          return false;
+        }
+
+        now = System.currentTimeMillis();
+        dispatch(now);
+      }
+
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Grants waiting tickets whose buckets have tokens. Lanes are served in priority order and
+   * callers of a lane round robin, one ticket per caller on each pass. Buckets of tickets that
+   * can not be granted are reserved for the rest of the pass so that tickets behind them can not
+   * take the tokens first. Granted asynchronous requests are sent from the scheduler thread.
+   *
+   * @param now current time in milliseconds
+   */
+  private void dispatch(long now) {
+    boolean granted = false;
+    boolean passGranted;
+
+    do {
+      passGranted = false;
+      Set<TokenBucket> reserved = new HashSet<TokenBucket>();
+
+      for (Map<String, LinkedList<Ticket>> lane : lanes) {
+        List<String> servedCallers = new ArrayList<String>();
+
+        for (Map.Entry<String, LinkedList<Ticket>> entry : lane.entrySet()) {
+          Ticket ticket = entry.getValue().getFirst();
+          if (ticket.isAvailable(now, reserved)) {
+            ticket.grant();
+            servedCallers.add(entry.getKey());
+            if (ticket.getRequest() != null) {
+              sendLater(ticket.getRequest());
+            }
+          } else {
+            reserved.addAll(ticket.getBuckets());
+          }
+        }
+
+        // Served callers are moved to the end of the lane
+        for (String caller : servedCallers) {
+          LinkedList<Ticket> tickets = lane.remove(caller);
+          tickets.removeFirst();
+          waitingCount--;
+          if (!tickets.isEmpty()) {
+            lane.put(caller, tickets);
+          }
+        }
+
+        passGranted = passGranted || !servedCallers.isEmpty();
+      }
+
+      granted = granted || passGranted;
+    } while (passGranted);
+
+    if (granted) {
+      changed.signalAll();
+    }
+
+    scheduleDispatch(now);
+  }
+
+  /**
+   * Schedules dispatch for the time when the first waiting asynchronous request may get its
+   * tokens. Waiting synchronous requests dispatch themselves when they wake up.
+   *
+   * @param now current time in milliseconds
+   */
+  private void scheduleDispatch(long now) {
+    long waitTime = Long.MAX_VALUE;
+    for (Map<String, LinkedList<Ticket>> lane : lanes) {
+      for (LinkedList<Ticket> tickets : lane.values()) {
+        Ticket ticket = tickets.getFirst();
+        if (ticket.getRequest() != null) {
+          // Tickets without wait time only wait for tickets of higher priority
+          long ticketWaitTime = ticket.getWaitTime(now);
+          if (ticketWaitTime > 0) {
+            waitTime = Math.min(waitTime, ticketWaitTime);
+          }
+        }
+      }
+    }
+
+    if (waitTime == Long.MAX_VALUE) {
+      return;
+    }
+
+    final long dispatchTime = now + waitTime;
+    if (scheduledDispatchTime > 0 && scheduledDispatchTime <= dispatchTime) {
+      return;
+    }
+
+    scheduledDispatchTime = dispatchTime;
+    getScheduler().schedule(new Runnable() {
+      public void run() {
+        lock.lock();
+        try {
+          if (scheduledDispatchTime == dispatchTime) {
+            scheduledDispatchTime = 0;
+          }
+
+          dispatch(System.currentTimeMillis());
+        } finally {
+          lock.unlock();
+        }
+      }
+    }, waitTime, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sends asynchronous request from the scheduler thread, so that it is not sent while holding the lock
+   *
+   * @param request request
+   */
+  private void sendLater(final ThrottledRequest request) {
+    getScheduler().execute(new Runnable() {
+      public void run() {
+        request.send();
+      }
+    });
+  }
+
+  /**
+   * Removes waiting asynchronous request from the queue
+   *
+   * @param ticket ticket of the request
+   */
+  private void cancel(Ticket ticket) {
+    lock.lock();
+    try {
+      dequeue(ticket);
+
+      // Tickets behind the cancelled one may be available now
+      dispatch(System.currentTimeMillis());
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adjusts bucket of the token of the URL to pace the remaining requests reported by the response
+   * over the rest of the rate limit window
+   *
+   * @param url URL
+   * @param response response
+   * @return the response
+   */
+  private Response adapt(String url, Response response) {
+    if (!adaptive || response == null) {
+      return response;
+    }
+
+    Long remaining = response.getNumericHeader("X-RateLimit-Remaining");
+    if (remaining == null) {
+      return response;
+    }
+
+    Long reset = response.getNumericHeader("X-RateLimit-Reset");
+
+    lock.lock();
+    try {
+      long now = System.currentTimeMillis();
+      long window = reset != null ? Math.max(reset * 1000 - now, MIN_WINDOW) : rateLimitWindow;
+
+      // When nothing remains the next token is due at the end of the window
+      double rate = Math.max(remaining, 1) / (double) window;
+      if (tokenRate > 0) {
+        rate = Math.min(rate, tokenRate);
+      }
+
+      String caller = getCaller(url);
+      TokenBucket bucket = tokenBuckets.get(caller);
+      if (bucket == null) {
+        bucket = new TokenBucket(rate);
+        tokenBuckets.put(caller, bucket);
+      }
+
+      bucket.adapt(now, rate, remaining);
+      adaptationCount.incrementAndGet();
+
+      // Waiting requests recalculate their wait times with the new pace
+      changed.signalAll();
+      scheduleDispatch(now);
+    } finally {
+      lock.unlock();
+    }
+
+    return response;
+  }
+
+  private void enqueue(Ticket ticket) {
+    Map<String, LinkedList<Ticket>> lane = lanes.get(ticket.getPriority().ordinal());
+    LinkedList<Ticket> tickets = lane.get(ticket.getCaller());
+    if (tickets == null) {
+      tickets = new LinkedList<Ticket>();
+      lane.put(ticket.getCaller(), tickets);
+    }
+
+    tickets.add(ticket);
+    waitingCount++;
+  }
+
+  private void dequeue(Ticket ticket) {
+    Map<String, LinkedList<Ticket>> lane = lanes.get(ticket.getPriority().ordinal());
+    LinkedList<Ticket> tickets = lane.get(ticket.getCaller());
+    if (tickets != null && tickets.remove(ticket)) {
+      waitingCount--;
+      if (tickets.isEmpty()) {
+        lane.remove(ticket.getCaller());
+      }
+    }
+  }
+
+  /**
+   * Creates ticket with the buckets and priority of the URL
+   *
+   * @param url URL
+   * @return ticket
+   */
+  private Ticket createTicket(String url) {
+    String caller = getCaller(url);
+
+    List<TokenBucket> buckets = new ArrayList<TokenBucket>();
+    TokenBucket tokenBucket = tokenBuckets.get(caller);
+    if (tokenBucket == null && tokenRate > 0) {
+      tokenBucket = new TokenBucket(tokenRate);
+      tokenBuckets.put(caller, tokenBucket);
+    }
+
+    if (tokenBucket != null) {
+      buckets.add(tokenBucket);
+    }
+
+    String endpoint = ApiUrls.getEndpoint(url);
+    for (EndpointLimit endpointLimit : endpointLimits) {
+      if (endpointLimit.getPattern().matcher(endpoint).matches()) {
+        if (endpointLimit.getBucket() != null) {
+          buckets.add(endpointLimit.getBucket());
+        }
+
+        break;
+      }
+    }
+
+    RequestPriority priority = defaultPriority;
+    for (PriorityRule priorityRule : priorityRules) {
+      if (priorityRule.getPattern().matcher(endpoint).matches()) {
+        priority = priorityRule.getPriority();
+        break;
+      }
+    }
+
+    return new Ticket(caller, priority, buckets);
+  }
+
+  /**
+   * Returns caller of the URL, which is its OAuth token or client id of userless requests
+   *
+   * @param url URL
+   * @return caller
+   */
+  private static String getCaller(String url) {
+    String caller = ApiUrls.getParameter(url, "oauth_token");
+    if (caller == null) {
+      caller = ApiUrls.getParameter(url, "client_id");
+    }
+
+    return caller != null ? caller : "";
+  }
+
+  private static double getRate(int requests, long period, TimeUnit unit) {
+    if (requests < 0 || period <= 0) {
+      throw new IllegalArgumentException("Limit must not be negative and period must be positive");
+    }
+
+    return requests / (double) unit.toMillis(period);
+  }
+
+  private static Response getInterruptedResponse() {
+    return new Response("", 500, "Interrupted while waiting for rate limit");
+  }
+
+  /**
+   * Returns scheduler of asynchronous requests shared by all handlers. Scheduler uses a daemon
+   * thread so it does not prevent JVM from shutting down.
+   *
+   * @return scheduler of asynchronous requests
+   */
+  private static synchronized ScheduledExecutorService getScheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "foursquare-api-rate-limit");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    return scheduler;
+  }
+
+  private static final long MIN_WINDOW = 1000;
+
+  private static ScheduledExecutorService scheduler;
+  private IOHandler ioHandler;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private double tokenRate = 0;
+  private int burstSize = 1;
+  private final Map<String, TokenBucket> tokenBuckets = new HashMap<String, TokenBucket>();
+  private final List<EndpointLimit> endpointLimits = new ArrayList<EndpointLimit>();
+  private final List<PriorityRule> priorityRules = new ArrayList<PriorityRule>();
+  private RequestPriority defaultPriority = RequestPriority.NORMAL;
+  private volatile boolean adaptive = false;
+  private volatile long rateLimitWindow = TimeUnit.HOURS.toMillis(1);
+  private final List<Map<String, LinkedList<Ticket>>> lanes = new ArrayList<Map<String, LinkedList<Ticket>>>();
+  private int waitingCount = 0;
+  private long scheduledDispatchTime = 0;
+  private final AtomicLong throttledCount = new AtomicLong();
+  private final AtomicLong adaptationCount = new AtomicLong();
+
+  /**
+   * Token bucket refilled continuously at constant rate up to burst size tokens
+   */
+  private class TokenBucket {
+
+    public TokenBucket(double rate) {
+      this.rate = rate;
+      this.tokens = burstSize;
+      this.updated = System.currentTimeMillis();
+    }
+
+    public boolean hasToken(long now) {
+      refill(now);
+      return tokens >= 1;
+    }
+
+    public void take() {
+      tokens -= 1;
+    }
+
+    /**
+     * Returns time until bucket has a token
+     *
+     * @param now current time in milliseconds
+     * @return time in milliseconds, 0 if bucket has a token
+     */
+    public long getWaitTime(long now) {
+      refill(now);
+      return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / rate);
+    }
+
+    /**
+     * Changes refill rate of the bucket and limits its tokens
+     *
+     * @param now current time in milliseconds
+     * @param rate new refill rate in tokens per millisecond
+     * @param maxTokens maximum number of tokens left in the bucket
+     */
+    public void adapt(long now, double rate, long maxTokens) {
+      refill(now);
+      this.rate = rate;
+      this.tokens = Math.min(tokens, maxTokens);
+    }
+
+    private void refill(long now) {
+      if (now > updated) {
+        tokens = Math.min(burstSize, tokens + (now - updated) * rate);
+        updated = now;
+      }
+    }
+
+    private double rate;
+    private double tokens;
+    private long updated;
+  }
+
+  /**
+   * Request waiting for tokens of its buckets
+   */
+  private static class Ticket {
+
+    public Ticket(String caller, RequestPriority priority, List<TokenBucket> buckets) {
+      this.caller = caller;
+      this.priority = priority;
+      this.buckets = buckets;
+    }
+
+    public String getCaller() {
+      return caller;
+    }
+
+    public RequestPriority getPriority() {
+      return priority;
+    }
+
+    public List<TokenBucket> getBuckets() {
+      return buckets;
+    }
+
+    /**
+     * Returns asynchronous request of the ticket
+     *
+     * @return request or null if caller waits for the ticket
+     */
+    public ThrottledRequest getRequest() {
+      return request;
+    }
+
+    public void setRequest(ThrottledRequest request) {
+      this.request = request;
+    }
+
+    public boolean isGranted() {
+      return granted;
+    }
+
+    public boolean isAvailable(long now, Set<TokenBucket> reserved) {
+      for (TokenBucket bucket : buckets) {
+        if (reserved.contains(bucket) || !bucket.hasToken(now)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    public void grant() {
+      for (TokenBucket bucket : buckets) {
+        bucket.take();
+      }
+
+      granted = true;
+    }
+
+    public long getWaitTime(long now) {
+      long waitTime = 0;
+      for (TokenBucket bucket : buckets) {
+        waitTime = Math.max(waitTime, bucket.getWaitTime(now));
+      }
+
+      return waitTime;
+    }
+
+    private String caller;
+    private RequestPriority priority;
+    private List<TokenBucket> buckets;
+    private ThrottledRequest request;
+    private boolean granted = false;
+  }
+
+  /**
+   * Asynchronous request that waits in the queue without blocking a thread
+   */
+  private class ThrottledRequest implements Future<Response> {
+
+    public ThrottledRequest(String url, Method method, IOCallback callback) {
+      this.url = url;
+      this.method = method;
+      this.callback = callback;
+    }
+
+    public void setTicket(Ticket ticket) {
+      this.ticket = ticket;
+    }
+
+    /**
+     * Sends the request with the other handler
+     */
+    public void send() {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+      }
+
+      Future<Response> future;
+      try {
+        future = ioHandler.fetchDataAsync(url, method, new IOCallback() {
+          public void completed(Response response) {
+            ThrottledRequest.this.completed(adapt(url, response));
+          }
+        });
+      } catch (RuntimeException e) {
+        // Such as RejectedExecutionException from the executor of the other handler
+        completed(new Response("", 500, e.getMessage()));
+        return;
+      }
+
+      boolean cancelFuture;
+      synchronized (this) {
+        this.future = future;
+        cancelFuture = cancelled;
+      }
+
+      if (cancelFuture) {
+        future.cancel(true);
+      }
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      Future<Response> future;
+      synchronized (this) {
+        if (done) {
+          return false;
+        }
+
+        done = true;
+        cancelled = true;
+        future = this.future;
+      }
+
+      if (future != null) {
+        future.cancel(mayInterruptIfRunning);
+      } else if (ticket != null) {
+        RateLimitingIOHandler.this.cancel(ticket);
+      }
+
+      latch.countDown();
+      return true;
+    }
+
+    public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    public Response get() throws InterruptedException, ExecutionException {
+      latch.await();
+      return getResult();
+    }
+
+    public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!latch.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+
+      return getResult();
+    }
+
+    private synchronized Response getResult() {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+
+      return result;
+    }
+
+    private void completed(Response response) {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+
+        done = true;
+        result = response;
+      }
+
+      latch.countDown();
+
+      if (callback != null) {
+        callback.completed(response);
+      }
+    }
+
+    private String url;
+    private Method method;
+    private IOCallback callback;
+    private Ticket ticket;
+    private Future<Response> future;
+    private boolean done;
+    private boolean cancelled;
+    private Response result;
+    private final CountDownLatch latch = new CountDownLatch(1);
+  }
+
+  /**
+   * Limit shared by endpoints matching a pattern
+   */
+  private static class EndpointLimit {
+
+    public EndpointLimit(Pattern pattern, TokenBucket bucket) {
+      this.pattern = pattern;
+      this.bucket = bucket;
+    }
+
+    public Pattern getPattern() {
+      return pattern;
+    }
+
+    public TokenBucket getBucket() {
+      return bucket;
+    }
+
+    private Pattern pattern;
+    private TokenBucket bucket;
+  }
+
+  /**
+   * Priority of endpoints matching a pattern
+   */
+  private static class PriorityRule {
+
+    public PriorityRule(Pattern pattern, RequestPriority priority) {
+      this.pattern = pattern;
+      this.priority = priority;
+    }
+
+    public Pattern getPattern() {
+      return pattern;
+    }
+
+    public RequestPriority getPriority() {
+      return priority;
+    }
+
+    private Pattern pattern;
+    private RequestPriority priority;
+  }
+}
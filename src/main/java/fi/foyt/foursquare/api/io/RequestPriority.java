@@ -0,0 +1,25 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+/**
+ * Enumeration representing priority of API requests waiting for rate limits. Requests of higher
+ * priority are sent before waiting requests of lower priority.
+ *
+ * @author Antti Leppä
+ *
+ */
+public enum RequestPriority {
+  INTERACTIVE,
+  NORMAL,
+  BACKGROUND
+}
@@ -11,6 +11,18 @@
 
 package fi.foyt.foursquare.api.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Class that represents response from IOHandler
  *
@@ -27,9 +39,51 @@ public class Response {
    * @param message response message
    */
   public Response(String responseContent, int responseCode, String message) {
+    this(responseContent, responseCode, message, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param responseContent response content
+   * @param responseCode response code
+   * @param message response message
+   * @param headers response headers or null
+   */
+  public Response(String responseContent, int responseCode, String message, Map<String, String> headers) {
     this.responseCode = responseCode;
     this.responseContent = responseContent;
     this.message = message;
+    setHeaders(headers);
+  }
+
+  /**
+   * Constructor. Content is kept as raw bytes and decoded into a String only when asked.
+   *
+   * @param responseBytes raw response content. Array is not copied, so it must not be modified afterwards
+   * @param charset charset of the response content
+   * @param responseCode response code
+   * @param message response message
+   */
+  public Response(byte[] responseBytes, String charset, int responseCode, String message) {
+    this(responseBytes, charset, responseCode, message, null);
+  }
+
+  /**
+   * Constructor. Content is kept as raw bytes and decoded into a String only when asked.
+   *
+   * @param responseBytes raw response content. Array is not copied, so it must not be modified afterwards
+   * @param charset charset of the response content
+   * @param responseCode response code
+   * @param message response message
+   * @param headers response headers or null
+   */
+  public Response(byte[] responseBytes, String charset, int responseCode, String message, Map<String, String> headers) {
+    this.responseCode = responseCode;
+    this.responseBytes = responseBytes;
+    this.charset = charset != null ? charset : DEFAULT_CHARSET;
+    this.message = message;
+    setHeaders(headers);
   }
 
   /**
@@ -56,10 +110,174 @@ public class Response {
    * @return response content
    */
   public String getResponseContent() {
+    if (responseContent == null && responseBytes != null) {
+      try {
+        responseContent = new String(responseBytes, charset);
+      } catch (UnsupportedEncodingException e) {
+        responseContent = new String(responseBytes);
+      }
+    }
+
     return responseContent;
   }
 
+  /**
+   * Returns whether response content is held as raw bytes
+   *
+   * @return whether response content is held as raw bytes
+   */
+  public boolean hasResponseBytes() {
+    return responseBytes != null;
+  }
+
+  /**
+   * Returns raw response content. If response was created from a String, content is encoded with response charset.
+   *
+   * Returned array is not a copy, so it must not be modified.
+   *
+   * @return raw response content
+   */
+  public byte[] getResponseBytes() {
+    if (responseBytes == null && responseContent != null) {
+      try {
+        responseBytes = responseContent.getBytes(charset);
+      } catch (UnsupportedEncodingException e) {
+        responseBytes = responseContent.getBytes();
+      }
+    }
+
+    return responseBytes;
+  }
+
+  /**
+   * Returns charset of the response content
+   *
+   * @return charset of the response content
+   */
+  public String getCharset() {
+    return charset;
+  }
+
+  /**
+   * Returns reader for the response content. Raw content is decoded while reading without creating
+   * a String of the whole content.
+   *
+   * @return reader for the response content
+   */
+  public Reader getResponseReader() {
+    if (responseContent == null && responseBytes != null) {
+      try {
+        return new InputStreamReader(new ByteArrayInputStream(responseBytes), charset);
+      } catch (UnsupportedEncodingException e) {
+        return new InputStreamReader(new ByteArrayInputStream(responseBytes));
+      }
+    }
+
+    return new StringReader(responseContent != null ? responseContent : "");
+  }
+
+  /**
+   * Returns value of response header. Header names are case insensitive.
+   *
+   * @param name header name
+   * @return header value or null if response does not contain the header
+   */
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  /**
+   * Returns value of a numeric response header, such as X-RateLimit-Remaining
+   *
+   * @param name header name
+   * @return header value or null if response does not contain the header or it is not a number
+   */
+  public Long getNumericHeader(String name) {
+    String value = getHeader(name);
+    if (value == null) {
+      return null;
+    }
+
+    try {
+      return Long.valueOf(value.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns response headers. Returned map is unmodifiable and its keys are case insensitive.
+   *
+   * @return response headers
+   */
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Returns code of the meta object of an API response. In callback mode API returns errors with 
+   * response code 200, so the meta code is the only place where the error shows.
+   *
+   * Meta object is normally at the beginning of the response, so only the beginning of the content 
+   * is decoded unless the meta object is not found from there.
+   *
+   * @return meta code or null if content does not have a meta object with a code
+   */
+  public Integer getMetaCode() {
+    if (!metaCodeResolved) {
+      metaCode = findMetaCode();
+      metaCodeResolved = true;
+    }
+
+    return metaCode;
+  }
+
+  private Integer findMetaCode() {
+    if (responseContent == null && responseBytes != null && responseBytes.length > META_SCAN_LENGTH) {
+      // Keys and digits of the meta object are ASCII, so the beginning can be decoded byte per char
+      Integer code = findMetaCode(new String(responseBytes, 0, META_SCAN_LENGTH, Charset.forName("ISO-8859-1")));
+      if (code != null) {
+        return code;
+      }
+    }
+
+    String content = getResponseContent();
+    return content != null ? findMetaCode(content) : null;
+  }
+
+  private Integer findMetaCode(String content) {
+    Matcher matcher = META_CODE.matcher(content);
+    if (matcher.find()) {
+      try {
+        return Integer.valueOf(matcher.group(1));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    return null;
+  }
+
+  private void setHeaders(Map<String, String> headers) {
+    if (headers != null && !headers.isEmpty()) {
+      Map<String, String> caseInsensitiveHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+      caseInsensitiveHeaders.putAll(headers);
+      this.headers = Collections.unmodifiableMap(caseInsensitiveHeaders);
+    } else {
+      this.headers = Collections.emptyMap();
+    }
+  }
+
+  private static final String DEFAULT_CHARSET = "UTF-8";
+  private static final int META_SCAN_LENGTH = 512;
+  private static final Pattern META_CODE = Pattern.compile("[\"']?meta[\"']?\\s*:\\s*\\{[^}]*?[\"']?code[\"']?\\s*:\\s*[\"']?(\\d+)");
+
   private String responseContent;
+  private byte[] responseBytes;
+  private String charset = DEFAULT_CHARSET;
   private String message;
   private int responseCode;
+  private Map<String, String> headers;
+  private Integer metaCode;
+  private boolean metaCodeResolved;
 }
@@ -0,0 +1,604 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IOHandler that retries failed requests of another IOHandler.
+ *
+ * Requests that fail with a retryable response code (by default 500, which DefaultIOHandler
+ * returns when connection fails, 502, 503 and 504) are retried up to max attempts. Waits between
+ * attempts grow exponentially with full jitter: wait before retry n is random time between 0 and
+ * initial backoff * 2^(n-1), capped to max backoff. A longer wait asked with Retry-After header is
+ * respected. Only GET requests are retried unless retrying POST requests is enabled, because
+ * POST requests such as checkinsAdd are not idempotent.
+ *
+ * In callback mode API returns errors with response code 200, so code of the meta object of those
+ * responses is checked against retryable response codes instead. Requests rejected by an open
+ * circuit of CircuitBreakingIOHandler are not retried, because the circuit stays open for a while
+ * and retrying would only drain the retry budget.
+ *
+ * Retries are limited by a retry budget shared by all requests of the handler. Each request adds
+ * retry ratio retries into the budget and each retry takes one, so during an outage retries can
+ * not multiply the traffic sent to the API. Budget holds at most max balance retries, which
+ * allows short bursts of failures to be retried.
+ *
+ * Asynchronous requests are sent with fetchDataAsync of the wrapped handler and their retries are
+ * scheduled after the backoff, so no thread is blocked while waiting for a retry.
+ *
+ * @author Antti Leppä
+ *
+ */
+public class RetryingIOHandler extends IOHandler {
+
+  /**
+   * Constructor
+   *
+   * @param ioHandler IOHandler used to send the requests
+   */
+  public RetryingIOHandler(IOHandler ioHandler) {
+    this.ioHandler = ioHandler;
+    setRetryableResponseCodes(500, 502, 503, 504);
+  }
+
+  /**
+   * Returns IOHandler used to send the requests
+   *
+   * @return IOHandler used to send the requests
+   */
+  public IOHandler getIOHandler() {
+    return ioHandler;
+  }
+
+  /**
+   * Sets maximum number of attempts per request, including the first one. Default is 3.
+   *
+   * @param maxAttempts maximum number of attempts
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("Max attempts must be positive");
+    }
+
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * Sets backoff between attempts. Defaults are 100 milliseconds initial and 10 seconds max backoff.
+   *
+   * @param initialBackoff maximum wait before the first retry
+   * @param maxBackoff maximum wait before any retry
+   * @param unit unit of the backoffs
+   */
+  public void setBackoff(long initialBackoff, long maxBackoff, TimeUnit unit) {
+    if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+      throw new IllegalArgumentException("Backoffs must not be negative and max backoff must not be less than initial backoff");
+    }
+
+    this.initialBackoff = unit.toMillis(initialBackoff);
+    this.maxBackoff = unit.toMillis(maxBackoff);
+  }
+
+  /**
+   * Sets retry budget. Defaults are ratio of 0.1 and max balance of 10 retries.
+   *
+   * @param ratio retries added into the budget by each request
+   * @param maxBalance maximum number of retries in the budget
+   */
+  public void setRetryBudget(double ratio, int maxBalance) {
+    if (ratio < 0 || maxBalance < 0) {
+      throw new IllegalArgumentException("Retry budget must not be negative");
+    }
+
+    synchronized (this) {
+      this.budgetRatio = ratio;
+      this.budgetMaxBalance = maxBalance;
+      this.budgetBalance = Math.min(budgetBalance, maxBalance);
+    }
+  }
+
+  /**
+   * Sets whether POST requests are retried. Default is false.
+   *
+   * @param retryPosts whether POST requests are retried
+   */
+  public void setRetryPosts(boolean retryPosts) {
+    this.retryPosts = retryPosts;
+  }
+
+  /**
+   * Sets response codes of failed requests that are retried
+   *
+   * @param responseCodes response codes
+   */
+  public void setRetryableResponseCodes(int... responseCodes) {
+    Set<Integer> codes = new HashSet<Integer>();
+    for (int responseCode : responseCodes) {
+      codes.add(responseCode);
+    }
+
+    this.retryableResponseCodes = codes;
+  }
+
+  @Override
+  public Response fetchData(final String url, final Method method) {
+    return fetchWithRetries(method, null, new Attempt() {
+      public Response fetch() {
+        return ioHandler.fetchData(url, method);
+      }
+    });
+  }
+
+  @Override
+  public Response fetchData(final String url, final Method method, final Map<String, String> requestHeaders) {
+    return fetchWithRetries(method, null, new Attempt() {
+      public Response fetch() {
+        return ioHandler.fetchData(url, method, requestHeaders);
+      }
+    });
+  }
+
+  @Override
+  protected Response fetchDataCancellable(final String url, final Method method, final Map<String, String> requestHeaders, final CancellableRequest request) {
+    return fetchWithRetries(method, request, new Attempt() {
+      public Response fetch() {
+        return ioHandler.fetchDataCancellable(url, method, requestHeaders, request);
+      }
+    });
+  }
+
+  @Override
+  public Future<Response> fetchDataAsync(String url, Method method, IOCallback callback) {
+    RetriedRequest request = new RetriedRequest(url, method, callback);
+    request.start();
+    return request;
+  }
+
+  @Override
+  public Response fetchDataMultipartMime(final String url, final MultipartParameter... params) {
+    return fetchWithRetries(Method.POST, null, new Attempt() {
+      public Response fetch() {
+        return ioHandler.fetchDataMultipartMime(url, params);
+      }
+    });
+  }
+
+  /**
+   * Returns number of requests sent through this handler, not counting retries
+   *
+   * @return number of requests
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Returns number of retries sent
+   *
+   * @return number of retries
+   */
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  /**
+   * Returns number of requests that succeeded after being retried. Requests whose retry ended in
+   * a response that is not retryable but not successful either, such as 404 or a rejection by an
+   * open circuit, are not counted.
+   *
+   * @return number of recovered requests
+   */
+  public long getRecoveredCount() {
+    return recoveredCount.get();
+  }
+
+  /**
+   * Returns number of requests that still failed after max attempts
+   *
+   * @return number of requests that ran out of attempts
+   */
+  public long getExhaustedCount() {
+    return exhaustedCount.get();
+  }
+
+  /**
+   * Returns number of retries that were not sent because retry budget was empty
+   *
+   * @return number of retries denied by retry budget
+   */
+  public long getBudgetExhaustedCount() {
+    return budgetExhaustedCount.get();
+  }
+
+  /**
+   * Sends request and retries it while it fails with a retryable response code. Cancelled request
+   * is not retried and cancelling it interrupts the wait before a retry.
+   *
+   * @param method method of the request
+   * @param request request used to cancel the query or null
+   * @param attempt attempt sending the request
+   * @return response of the last attempt
+   */
+  private Response fetchWithRetries(Method method, CancellableRequest request, Attempt attempt) {
+    requestCount.incrementAndGet();
+    depositBudget();
+
+    Response response = attempt.fetch();
+    int attempts = 1;
+    long backoff;
+    while ((backoff = getRetryBackoff(method, attempts, response)) >= 0) {
+      if (request != null && request.isCancelled()) {
+        return response;
+      }
+
+      if (!sleep(backoff, request)) {
+        return response;
+      }
+
+      retryCount.incrementAndGet();
+      attempts++;
+      response = attempt.fetch();
+    }
+
+    return response;
+  }
+
+  /**
+   * Decides whether response of an attempt is retried and updates the counters accordingly
+   *
+   * @param method method of the request
+   * @param attempts number of attempts made so far
+   * @param response response of the last attempt
+   * @return wait before the retry in milliseconds or -1 if response is not retried
+   */
+  private long getRetryBackoff(Method method, int attempts, Response response) {
+    if (!isRetryable(response)) {
+      if (attempts > 1 && isSuccessful(response)) {
+        recoveredCount.incrementAndGet();
+      }
+
+      return -1;
+    }
+
+    if (method == Method.POST && !retryPosts) {
+      return -1;
+    }
+
+    if (attempts >= maxAttempts) {
+      exhaustedCount.incrementAndGet();
+      return -1;
+    }
+
+    if (!withdrawBudget()) {
+      budgetExhaustedCount.incrementAndGet();
+      return -1;
+    }
+
+    return getBackoff(attempts, response);
+  }
+
+  /**
+   * Waits before a retry
+   *
+   * @param backoff wait in milliseconds
+   * @param request request used to cancel the query or null
+   * @return false if wait was interrupted or request was cancelled
+   */
+  private boolean sleep(long backoff, CancellableRequest request) {
+    if (request != null && !request.setThread(Thread.currentThread())) {
+      return false;
+    }
+
+    try {
+      Thread.sleep(backoff);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      if (request != null) {
+        request.clearThread();
+      }
+    }
+  }
+
+  private boolean isRetryable(Response response) {
+    if (response == null) {
+      return true;
+    }
+
+    if (response.getHeader(CircuitBreakingIOHandler.CIRCUIT_OPEN_HEADER) != null) {
+      return false;
+    }
+
+    return retryableResponseCodes.contains(getCode(response));
+  }
+
+  private boolean isSuccessful(Response response) {
+    if (response == null || response.getHeader(CircuitBreakingIOHandler.CIRCUIT_OPEN_HEADER) != null) {
+      return false;
+    }
+
+    int code = getCode(response);
+    return code >= 200 && code < 400;
+  }
+
+  /**
+   * Returns response code of the response, or code of its meta object when response code is 200
+   *
+   * @param response response
+   * @return response code
+   */
+  private int getCode(Response response) {
+    int code = response.getResponseCode();
+    if (code == 200) {
+      Integer metaCode = response.getMetaCode();
+      if (metaCode != null) {
+        code = metaCode;
+      }
+    }
+
+    return code;
+  }
+
+  /**
+   * Returns wait before a retry
+   *
+   * @param attempts number of attempts made so far
+   * @param response response of the last attempt
+   * @return wait in milliseconds
+   */
+  private long getBackoff(int attempts, Response response) {
+    long ceiling = initialBackoff << Math.min(attempts - 1, 30);
+    if (ceiling < 0 || ceiling > maxBackoff) {
+      ceiling = maxBackoff;
+    }
+
+    long backoff = (long) (random.nextDouble() * ceiling);
+
+    String retryAfter = response != null ? response.getHeader("Retry-After") : null;
+    if (retryAfter != null) {
+      try {
+        backoff = Math.max(backoff, Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())), maxBackoff));
+      } catch (NumberFormatException e) {
+        // Retry-After given as HTTP date is ignored
+      }
+    }
+
+    return backoff;
+  }
+
+  private synchronized void depositBudget() {
+    budgetBalance = Math.min(budgetBalance + budgetRatio, budgetMaxBalance);
+  }
+
+  private synchronized boolean withdrawBudget() {
+    if (budgetBalance < 1) {
+      return false;
+    }
+
+    budgetBalance -= 1;
+    return true;
+  }
+
+  /**
+   * Returns scheduler of asynchronous retries shared by all handlers. Scheduler uses a daemon thread
+   * so it does not prevent JVM from shutting down.
+   *
+   * @return scheduler of asynchronous retries
+   */
+  private static synchronized ScheduledExecutorService getScheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "foursquare-api-retry");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    return scheduler;
+  }
+
+  private static ScheduledExecutorService scheduler;
+  private IOHandler ioHandler;
+  private volatile int maxAttempts = 3;
+  private volatile long initialBackoff = 100;
+  private volatile long maxBackoff = 10000;
+  private volatile boolean retryPosts = false;
+  private volatile Set<Integer> retryableResponseCodes;
+  private double budgetRatio = 0.1;
+  private int budgetMaxBalance = 10;
+  private double budgetBalance = 10;
+  private final Random random = new Random();
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong retryCount = new AtomicLong();
+  private final AtomicLong recoveredCount = new AtomicLong();
+  private final AtomicLong exhaustedCount = new AtomicLong();
+  private final AtomicLong budgetExhaustedCount = new AtomicLong();
+
+  /**
+   * Single attempt of sending a request
+   */
+  private interface Attempt {
+
+    public Response fetch();
+  }
+
+  /**
+   * Asynchronous request whose attempts are sent with fetchDataAsync of the wrapped handler
+   */
+  private class RetriedRequest implements Future<Response> {
+
+    public RetriedRequest(String url, Method method, IOCallback callback) {
+      this.url = url;
+      this.method = method;
+      this.callback = callback;
+    }
+
+    /**
+     * Sends the first attempt
+     */
+    public void start() {
+      requestCount.incrementAndGet();
+      depositBudget();
+      send(1);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      synchronized (this) {
+        if (done) {
+          return false;
+        }
+
+        done = true;
+        cancelled = true;
+
+        if (retryTimer != null) {
+          retryTimer.cancel(false);
+        }
+
+        if (attemptFuture != null) {
+          attemptFuture.cancel(true);
+        }
+      }
+
+      latch.countDown();
+      return true;
+    }
+
+    public synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    public Response get() throws InterruptedException, ExecutionException {
+      latch.await();
+      return getResult();
+    }
+
+    public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!latch.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+
+      return getResult();
+    }
+
+    private synchronized Response getResult() {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+
+      return result;
+    }
+
+    /**
+     * Sends an attempt. Callback of the attempt may be called before fetchDataAsync returns.
+     *
+     * @param attempt number of the attempt
+     */
+    private void send(int attempt) {
+      Future<Response> future;
+      try {
+        future = ioHandler.fetchDataAsync(url, method, new IOCallback() {
+          public void completed(Response response) {
+            attemptCompleted(response);
+          }
+        });
+      } catch (RuntimeException e) {
+        attemptCompleted(new Response("", 500, e.getMessage()));
+        return;
+      }
+
+      synchronized (this) {
+        if (cancelled) {
+          future.cancel(true);
+        } else if (attempts == attempt) {
+          attemptFuture = future;
+        }
+      }
+    }
+
+    private void retry() {
+      int attempt;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+
+        retryCount.incrementAndGet();
+        attempt = ++attempts;
+      }
+
+      send(attempt);
+    }
+
+    private void attemptCompleted(Response response) {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+
+        long backoff = getRetryBackoff(method, attempts, response);
+        if (backoff >= 0) {
+          retryTimer = getScheduler().schedule(new Runnable() {
+            public void run() {
+              retry();
+            }
+          }, backoff, TimeUnit.MILLISECONDS);
+
+          return;
+        }
+
+        done = true;
+        result = response;
+      }
+
+      latch.countDown();
+
+      if (callback != null) {
+        callback.completed(response);
+      }
+    }
+
+    private String url;
+    private Method method;
+    private IOCallback callback;
+    private int attempts = 1;
+    private Future<Response> attemptFuture;
+    private ScheduledFuture<?> retryTimer;
+    private boolean done;
+    private boolean cancelled;
+    private Response result;
+    private final CountDownLatch latch = new CountDownLatch(1);
+  }
+}
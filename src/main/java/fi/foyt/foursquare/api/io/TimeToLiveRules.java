@@ -0,0 +1,90 @@
+/*
+ * FoursquareAPI - Foursquare API for Java
+ * Copyright (C) 2008 - 2011 Antti Leppä / Foyt
+ * http://www.foyt.fi
+ *
+ * License:
+ *
+ * Licensed under GNU Lesser General Public License Version 3 or later (the "LGPL")
+ * http://www.gnu.org/licenses/lgpl.html
+ */
+
+package fi.foyt.foursquare.api.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Per endpoint time to live rules of caching IOHandlers.
+ *
+ * Rules are regular expressions matched against endpoint path of request URL (for example
+ * "venues/5104" for "https://api.foursquare.com/v2/venues/5104?v=20110615") in the order
+ * they were added. URLs without a matching rule get the default time to live.
+ *
+ * @author Antti Leppä
+ */
+class TimeToLiveRules {
+
+  /**
+   * Adds rule
+   *
+   * @param endpointPattern regular expression matched against endpoint path
+   * @param timeToLive time to live in milliseconds, 0 disables caching
+   */
+  public synchronized void add(String endpointPattern, long timeToLive) {
+    rules.add(new Rule(Pattern.compile(endpointPattern), timeToLive));
+  }
+
+  /**
+   * Sets time to live for URLs that do not match any rule
+   *
+   * @param defaultTimeToLive time to live in milliseconds, 0 disables caching
+   */
+  public void setDefaultTimeToLive(long defaultTimeToLive) {
+    this.defaultTimeToLive = defaultTimeToLive;
+  }
+
+  /**
+   * Returns time to live for the URL
+   *
+   * @param url URL
+   * @return time to live in milliseconds
+   */
+  public synchronized long getTimeToLive(String url) {
+    String endpoint = ApiUrls.getEndpoint(url);
+
+    for (Rule rule : rules) {
+      if (rule.getPattern().matcher(endpoint).matches()) {
+        return rule.getTimeToLive();
+      }
+    }
+
+    return defaultTimeToLive;
+  }
+
+  private final List<Rule> rules = new ArrayList<Rule>();
+  private volatile long defaultTimeToLive = 0;
+
+  /**
+   * Time to live rule for endpoints matching a pattern
+   */
+  private static class Rule {
+
+    public Rule(Pattern pattern, long timeToLive) {
+      this.pattern = pattern;
+      this.timeToLive = timeToLive;
+    }
+
+    public Pattern getPattern() {
+      return pattern;
+    }
+
+    public long getTimeToLive() {
+      return timeToLive;
+    }
+
+    private Pattern pattern;
+    private long timeToLive;
+  }
+}
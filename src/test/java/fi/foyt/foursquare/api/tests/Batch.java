@@ -0,0 +1,227 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.BatchDispatcher;
+import fi.foyt.foursquare.api.BatchRequest;
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.Result;
+import fi.foyt.foursquare.api.ResultFuture;
+import fi.foyt.foursquare.api.entities.Checkin;
+import fi.foyt.foursquare.api.entities.CheckinGroup;
+import fi.foyt.foursquare.api.entities.CompleteTip;
+import fi.foyt.foursquare.api.entities.CompleteUser;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+import fi.foyt.foursquare.api.entities.TipGroup;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.Response;
+
+public class Batch {
+
+  @Test
+  public final void testBatch() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    TestIO testIO = (TestIO) foursquareApi.getIOHandler();
+    BatchRequest batch = new BatchRequest(foursquareApi);
+    
+    ResultFuture<CompleteVenue> venue1 = batch.venue("5104");
+    ResultFuture<CompleteVenue> venue2 = batch.venue("4cb38bf20cdc721ea943234f");
+    ResultFuture<CompleteUser> user = batch.user(null);
+    ResultFuture<Checkin> checkin = batch.checkin("4d7b44d7f260a0932e5024ba", null);
+    ResultFuture<CompleteTip> tip = batch.tip("4b5e662a70c603bba7d790b4");
+    ResultFuture<CheckinGroup> hereNow = batch.venuesHereNow("5104", null, null, null);
+    ResultFuture<TipGroup> tips = batch.venuesTips("5104", "recent", null, null);
+    assertEquals(7, batch.size());
+    
+    batch.execute();
+    
+    assertEquals(0, batch.size());
+    assertEquals(2, testIO.getMultiRequestCount());
+    assertTrue(tips.isDone());
+    
+    assertEquals("Clinton Street Baking Co", venue1.get().getResult().getName());
+    assertEquals(foursquareApi.venue("4cb38bf20cdc721ea943234f").getResult().getName(), venue2.get().getResult().getName());
+    assertEquals(foursquareApi.user(null).getResult().getId(), user.get().getResult().getId());
+    assertEquals("4d7b44d7f260a0932e5024ba", checkin.get().getResult().getId());
+    assertEquals("4b5e662a70c603bba7d790b4", tip.get().getResult().getId());
+    assertEquals(foursquareApi.venuesHereNow("5104", null, null, null).getResult().getCount(), hereNow.get().getResult().getCount());
+    assertEquals(foursquareApi.venuesTips("5104", "recent", null, null).getResult().getCount(), tips.get().getResult().getCount());
+  }
+
+  @Test
+  public final void testBatchSize() throws FoursquareApiException {
+    FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+    foursquareApi.setUseCallback(false);
+    TestIO testIO = (TestIO) foursquareApi.getIOHandler();
+    BatchRequest batch = new BatchRequest(foursquareApi, 2);
+    
+    for (int i = 0; i < 5; i++) {
+      batch.venue("5104");
+    }
+    
+    batch.execute();
+    assertEquals(3, testIO.getMultiRequestCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testTooLargeBatchSize() {
+    new BatchRequest(TestUtils.getAnonymousFoursquareApi(), BatchRequest.MAX_BATCH_SIZE + 1);
+  }
+
+  @Test
+  public final void testBatchError() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    BatchRequest batch = new BatchRequest(foursquareApi);
+    
+    ResultFuture<CompleteVenue> venue = batch.venue("5104");
+    ResultFuture<CompleteVenue> missing = batch.venue("gibberish");
+    batch.execute();
+    
+    assertEquals("40a55d80f964a52020f31ee3", venue.get().getResult().getId());
+    
+    Result<CompleteVenue> result = missing.get();
+    assertEquals(new Integer(404), result.getMeta().getCode());
+    assertEquals("endpoint_error", result.getMeta().getErrorType());
+    assertNull(result.getResult());
+  }
+
+  @Test
+  public final void testBatchWithoutResponses() throws Exception {
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", new TestIO() {
+      @Override
+      public Response fetchData(String url, Method method) {
+        return new Response("{\"meta\":{\"code\":200}}", 200, "OK");
+      }
+    });
+    foursquareApi.setUseCallback(false);
+    BatchRequest batch = new BatchRequest(foursquareApi);
+    
+    ResultFuture<CompleteVenue> venue = batch.venue("5104");
+    ResultFuture<CompleteUser> user = batch.user(null);
+    try {
+      batch.execute();
+      fail("Multi response without response object should fail the batch");
+    } catch (FoursquareApiException e) {
+      // Futures are failed with the same exception
+    }
+    
+    assertTrue(venue.isDone());
+    assertTrue(user.isDone());
+    try {
+      venue.get();
+      fail("Future should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof FoursquareApiException);
+    }
+  }
+
+  @Test
+  public final void testBatchDispatcher() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    TestIO testIO = (TestIO) foursquareApi.getIOHandler();
+    BatchDispatcher dispatcher = new BatchDispatcher(foursquareApi, 1, TimeUnit.HOURS, 3);
+    
+    ResultFuture<CompleteVenue> venue1 = dispatcher.venue("5104");
+    ResultFuture<CompleteVenue> venue2 = dispatcher.venue("4cb38bf20cdc721ea943234f");
+    assertFalse(venue1.isDone());
+    ResultFuture<CompleteUser> user = dispatcher.user(null);
+    
+    assertEquals("Clinton Street Baking Co", venue1.get(10, TimeUnit.SECONDS).getResult().getName());
+    assertEquals("4cb38bf20cdc721ea943234f", venue2.get(10, TimeUnit.SECONDS).getResult().getId());
+    assertNotNull(user.get(10, TimeUnit.SECONDS).getResult());
+    
+    ResultFuture<CompleteTip> tip = dispatcher.tip("4b5e662a70c603bba7d790b4");
+    dispatcher.shutdown();
+    assertEquals("4b5e662a70c603bba7d790b4", tip.get(10, TimeUnit.SECONDS).getResult().getId());
+    
+    assertEquals(2, testIO.getMultiRequestCount());
+    assertEquals(2, dispatcher.getBatchCount());
+    assertEquals(4, dispatcher.getRequestCount());
+    assertEquals(2.0, dispatcher.getAverageBatchSize(), 0.0001);
+    assertArrayEquals(new long[] { 0, 1, 0, 1 }, dispatcher.getBatchSizeCounts());
+  }
+
+  @Test
+  public final void testBatchDispatcherFailures() throws Exception {
+    TestIO failingIO = new TestIO() {
+      @Override
+      public Response fetchData(String url, Method method) {
+        throw new IllegalStateException("IOHandler failed");
+      }
+    };
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", failingIO);
+    BatchDispatcher dispatcher = new BatchDispatcher(foursquareApi, 20, TimeUnit.MILLISECONDS, 5);
+    foursquareApi.setBatchDispatcher(dispatcher);
+    
+    try {
+      foursquareApi.venue("5104");
+      fail("Exception of the IOHandler should fail the request");
+    } catch (FoursquareApiException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    
+    // Batches rejected by the executor fail their requests too
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    dispatcher.setExecutor(executor);
+    try {
+      foursquareApi.user(null);
+      fail("Rejected batch should fail the request");
+    } catch (FoursquareApiException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    
+    dispatcher.shutdown();
+  }
+
+  @Test
+  public final void testBatchingFromCallbacks() throws Exception {
+    final FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    foursquareApi.getIOHandler().setExecutor(executor);
+    BatchDispatcher dispatcher = new BatchDispatcher(foursquareApi, 20, TimeUnit.MILLISECONDS, 5);
+    foursquareApi.setBatchDispatcher(dispatcher);
+    
+    try {
+      // Synchronous call waits for its batch on the only thread of the IOHandler executor
+      Future<String> name = executor.submit(new Callable<String>() {
+        public String call() throws FoursquareApiException {
+          return foursquareApi.venue("5104").getResult().getName();
+        }
+      });
+      
+      assertEquals("Clinton Street Baking Co", name.get(5, TimeUnit.SECONDS));
+      assertEquals(1, dispatcher.getBatchCount());
+    } finally {
+      dispatcher.shutdown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public final void testTransparentBatching() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+    TestIO testIO = (TestIO) foursquareApi.getIOHandler();
+    BatchDispatcher dispatcher = new BatchDispatcher(foursquareApi, 20, TimeUnit.MILLISECONDS, 5);
+    foursquareApi.setBatchDispatcher(dispatcher);
+    
+    Result<CompleteVenue> result = foursquareApi.venue("5104");
+    assertEquals(new Integer(200), result.getMeta().getCode());
+    assertEquals("Clinton Street Baking Co", result.getResult().getName());
+    assertEquals(1, testIO.getMultiRequestCount());
+    assertEquals(1, dispatcher.getBatchCount());
+    
+    dispatcher.shutdown();
+  }
+}
@@ -0,0 +1,488 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.foyt.foursquare.api.EntityCache;
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.Result;
+import fi.foyt.foursquare.api.ResultFuture;
+import fi.foyt.foursquare.api.entities.CompactVenue;
+import fi.foyt.foursquare.api.entities.CompleteUser;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+import fi.foyt.foursquare.api.entities.VenuesSearchResult;
+import fi.foyt.foursquare.api.io.CachingIOHandler;
+import fi.foyt.foursquare.api.io.DiskCachingIOHandler;
+import fi.foyt.foursquare.api.io.IOHandler;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.Response;
+
+public class Cache {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public final void testCachedResponses() throws FoursquareApiException {
+    CountingIO countingIO = new CountingIO();
+    CachingIOHandler cache = new CachingIOHandler(countingIO, 1024 * 1024);
+    cache.setTimeToLive("venues/categories", 10, TimeUnit.MINUTES);
+    cache.setTimeToLive("venues/[^/]+", 5, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    foursquareApi.venuesCategories();
+    foursquareApi.venuesCategories();
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertTrue(cache.getSize() > 0);
+    
+    foursquareApi.venuesTips("5104", "recent", null, null);
+    foursquareApi.venuesTips("5104", "recent", null, null);
+    assertEquals(4, countingIO.getFetchCount());
+    
+    cache.clear();
+    foursquareApi.venue("5104");
+    assertEquals(5, countingIO.getFetchCount());
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public final void testDefaultTimeToLive() throws FoursquareApiException {
+    CountingIO countingIO = new CountingIO();
+    CachingIOHandler cache = new CachingIOHandler(countingIO, 1024 * 1024);
+    cache.setTimeToLive("venues/categories", 0, TimeUnit.MINUTES);
+    cache.setDefaultTimeToLive(1, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    foursquareApi.venuesTips("5104", "recent", null, null);
+    foursquareApi.venuesTips("5104", "recent", null, null);
+    foursquareApi.venuesCategories();
+    foursquareApi.venuesCategories();
+    assertEquals(3, countingIO.getFetchCount());
+  }
+
+  @Test
+  public final void testEviction() throws FoursquareApiException {
+    CountingIO countingIO = new CountingIO();
+    int venueSize = countingIO.fetchData("https://api.foursquare.com/v2/venues/5104?client_id=FAKE_CLIENT_ID&client_secret=FAKE_CLIENT_SECRET&v=20110615&callback=c", Method.GET).getResponseBytes().length;
+    CachingIOHandler cache = new CachingIOHandler(countingIO, venueSize);
+    cache.setDefaultTimeToLive(1, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    foursquareApi.venue("5104");
+    foursquareApi.venue("5104");
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(venueSize, cache.getSize());
+    
+    foursquareApi.venue("4cb38bf20cdc721ea943234f");
+    assertEquals(1, cache.getEvictionCount());
+    foursquareApi.venue("5104");
+    assertEquals(4, countingIO.getFetchCount());
+    assertTrue(cache.getSize() <= venueSize);
+  }
+
+  @Test
+  public final void testOversizedResponse() throws Exception {
+    ChangingIO changingIO = new ChangingIO();
+    CachingIOHandler cache = new CachingIOHandler(changingIO, 100);
+    cache.setDefaultTimeToLive(1, TimeUnit.MILLISECONDS);
+    String url = "https://api.foursquare.com/v2/venues/5104?v=20110615";
+    
+    changingIO.setContent("{\"meta\":{\"code\":200},\"response\":{}}");
+    cache.fetchData(url, Method.GET);
+    assertTrue(cache.getSize() > 0);
+    Thread.sleep(10);
+    
+    // Revalidation returns a response too large to cache, so the previous response is dropped
+    StringBuilder content = new StringBuilder("{\"meta\":{\"code\":200},\"response\":{\"name\":\"");
+    for (int i = 0; i < 100; i++) {
+      content.append('x');
+    }
+    
+    changingIO.setContent(content.append("\"}}").toString());
+    assertEquals(content.toString(), cache.fetchData(url, Method.GET).getResponseContent());
+    assertEquals(0, cache.getSize());
+    
+    changingIO.setContent("{\"meta\":{\"code\":200},\"response\":{}}");
+    assertEquals("{\"meta\":{\"code\":200},\"response\":{}}", cache.fetchData(url, Method.GET).getResponseContent());
+    assertEquals(3, changingIO.getFetchCount());
+  }
+
+  @Test
+  public final void testExpiration() throws Exception {
+    CountingIO countingIO = new CountingIO();
+    CachingIOHandler cache = new CachingIOHandler(countingIO, 1024 * 1024);
+    cache.setDefaultTimeToLive(1, TimeUnit.MILLISECONDS);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    foursquareApi.venue("5104");
+    Thread.sleep(10);
+    foursquareApi.venue("5104");
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(1, cache.getExpirationCount());
+  }
+
+  @Test
+  public final void testErrorsNotCached() throws FoursquareApiException {
+    CountingIO countingIO = new CountingIO();
+    CachingIOHandler cache = new CachingIOHandler(countingIO, 1024 * 1024);
+    cache.setDefaultTimeToLive(1, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    // In callback mode the error comes with response code 200
+    assertEquals(new Integer(404), foursquareApi.venue("missing").getMeta().getCode());
+    assertEquals(new Integer(404), foursquareApi.venue("missing").getMeta().getCode());
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(0, cache.getSize());
+    
+    foursquareApi.venue("5104");
+    foursquareApi.venue("5104");
+    assertEquals(3, countingIO.getFetchCount());
+  }
+
+  @Test
+  public final void testPostNotCached() throws FoursquareApiException {
+    CountingIO countingIO = new CountingIO();
+    CachingIOHandler cache = new CachingIOHandler(countingIO, 1024 * 1024);
+    cache.setDefaultTimeToLive(1, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", "FAKE_OAUTH", cache);
+    
+    foursquareApi.venuesMarkTodo("4b81ea40f964a520e0c330e3", null);
+    foursquareApi.venuesMarkTodo("4b81ea40f964a520e0c330e3", null);
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public final void testConditionalRequests() throws Exception {
+    ValidatingIO validatingIO = new ValidatingIO();
+    CachingIOHandler cache = new CachingIOHandler(validatingIO, 1024 * 1024);
+    cache.setDefaultTimeToLive(1, TimeUnit.MILLISECONDS);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    foursquareApi.venue("5104");
+    Thread.sleep(10);
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertEquals(1, validatingIO.getFetchCount());
+    assertEquals(1, cache.getRevalidationCount());
+    assertEquals(1, cache.getNotModifiedCount());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0, cache.getExpirationCount());
+  }
+
+  @Test
+  public final void testStaleWhileRevalidate() throws Exception {
+    ValidatingIO validatingIO = new ValidatingIO();
+    CachingIOHandler cache = new CachingIOHandler(validatingIO, 1024 * 1024);
+    cache.setDefaultTimeToLive(1, TimeUnit.MILLISECONDS);
+    cache.setStaleWhileRevalidate(1, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    foursquareApi.venue("5104");
+    Thread.sleep(10);
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertEquals(1, cache.getStaleHitCount());
+    
+    for (int i = 0; i < 500 && cache.getNotModifiedCount() == 0; i++) {
+      Thread.sleep(10);
+    }
+    
+    assertEquals(1, cache.getRevalidationCount());
+    assertEquals(1, cache.getNotModifiedCount());
+    assertEquals(1, validatingIO.getFetchCount());
+  }
+
+  @Test
+  public final void testEntityCache() throws Exception {
+    CountingIO countingIO = new CountingIO();
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", "FAKE_OAUTH", countingIO);
+    foursquareApi.setSkipNonExistingFields(false);
+    EntityCache entityCache = new EntityCache(100);
+    foursquareApi.setEntityCache(entityCache);
+    
+    CompleteVenue venue = foursquareApi.venue("4cb38bf20cdc721ea943234f").getResult();
+    Result<CompleteVenue> cachedVenue = foursquareApi.venue("4cb38bf20cdc721ea943234f");
+    assertSame(venue, cachedVenue.getResult());
+    assertEquals(new Integer(200), cachedVenue.getMeta().getCode());
+    assertEquals(1, countingIO.getFetchCount());
+    
+    CompleteUser user = foursquareApi.user(null).getResult();
+    assertSame(user, foursquareApi.user(user.getId()).getResult());
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(2, entityCache.getHitCount());
+    
+    // Asynchronous lookups are served from the cache too
+    ResultFuture<CompleteVenue> venueFuture = foursquareApi.venueAsync("4cb38bf20cdc721ea943234f", null);
+    assertTrue(venueFuture.isDone());
+    assertSame(venue, venueFuture.get().getResult());
+    assertSame(user, foursquareApi.userAsync(user.getId(), null).get().getResult());
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(4, entityCache.getHitCount());
+    
+    // Partial venue nested in a checkin is kept in the compact tier only
+    CompactVenue nestedVenue = user.getCheckins().getItems()[0].getVenue();
+    assertNull(entityCache.get(CompleteVenue.class, nestedVenue.getId()));
+    assertSame(nestedVenue, entityCache.getCompact(CompleteVenue.class, nestedVenue.getId()));
+    assertSame(venue, entityCache.getCompact(CompleteVenue.class, venue.getId()));
+    assertEquals(3, entityCache.size());
+    
+    foursquareApi.venue(nestedVenue.getId());
+    assertEquals(3, countingIO.getFetchCount());
+  }
+
+  @Test
+  public final void testEntityCacheExpiration() throws Exception {
+    CountingIO countingIO = new CountingIO();
+    FoursquareApi foursquareApi = getFoursquareApi(countingIO);
+    EntityCache entityCache = new EntityCache(100, 1, TimeUnit.MILLISECONDS);
+    foursquareApi.setEntityCache(entityCache);
+    
+    foursquareApi.venue("4cb38bf20cdc721ea943234f");
+    Thread.sleep(10);
+    assertNotNull(foursquareApi.venue("4cb38bf20cdc721ea943234f").getResult());
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(1, entityCache.getExpirationCount());
+  }
+
+  @Test
+  public final void testEntityCacheNested() throws FoursquareApiException {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    EntityCache entityCache = new EntityCache(1000);
+    entityCache.setMaxCompactEntities(1000);
+    entityCache.addCachedClass(CompactVenue.class);
+    foursquareApi.setEntityCache(entityCache);
+    
+    VenuesSearchResult result = foursquareApi.venuesSearch("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null).getResult();
+    CompactVenue venue = result.getGroups()[0].getItems()[0];
+    assertSame(venue, entityCache.getCompact(CompactVenue.class, venue.getId()));
+    assertNull(entityCache.get(CompactVenue.class, venue.getId()));
+    assertNull(entityCache.getCompact(CompleteVenue.class, venue.getId()));
+  }
+
+  @Test
+  public final void testEntityCacheEviction() throws FoursquareApiException {
+    FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+    EntityCache entityCache = new EntityCache(1);
+    foursquareApi.setEntityCache(entityCache);
+    
+    CompleteVenue venue1 = foursquareApi.venue("5104").getResult();
+    CompleteVenue venue2 = foursquareApi.venue("4cb38bf20cdc721ea943234f").getResult();
+    assertEquals(1, entityCache.size());
+    assertEquals(1, entityCache.getEvictionCount());
+    assertNull(entityCache.get(CompleteVenue.class, venue1.getId()));
+    assertSame(venue2, entityCache.get(CompleteVenue.class, venue2.getId()));
+  }
+
+  @Test
+  public final void testEntityCacheTiers() throws FoursquareApiException {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    EntityCache entityCache = new EntityCache(1);
+    entityCache.setMaxCompactEntities(0);
+    foursquareApi.setEntityCache(entityCache);
+    
+    // Nested entities are not collected when compact tier is disabled
+    CompleteVenue venue = foursquareApi.venue("5104").getResult();
+    CompactVenue nestedVenue = foursquareApi.usersCheckins(null, null, null, null, null).getResult().getItems()[0].getVenue();
+    assertNull(entityCache.getCompact(CompleteVenue.class, nestedVenue.getId()));
+    assertEquals(1, entityCache.size());
+    
+    // Nested entities do not evict complete ones
+    entityCache.setMaxCompactEntities(1);
+    foursquareApi.usersCheckins(null, null, null, null, null);
+    assertSame(venue, entityCache.get(CompleteVenue.class, venue.getId()));
+    assertEquals(2, entityCache.size());
+  }
+
+  @Test
+  public final void testDiskCache() throws FoursquareApiException, IOException {
+    File directory = temporaryFolder.newFolder("cache");
+    CountingIO countingIO = new CountingIO();
+    DiskCachingIOHandler cache = new DiskCachingIOHandler(countingIO, directory, 1024 * 1024);
+    cache.setTimeToLive("venues/[^/]+", 5, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    foursquareApi.venue("5104");
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertEquals(1, countingIO.getFetchCount());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getEntryCount());
+    assertTrue(cache.getDiskSize() > 0);
+    cache.close();
+    
+    CountingIO restartedIO = new CountingIO();
+    DiskCachingIOHandler restartedCache = new DiskCachingIOHandler(restartedIO, directory, 1024 * 1024);
+    restartedCache.setTimeToLive("venues/[^/]+", 5, TimeUnit.MINUTES);
+    foursquareApi = getFoursquareApi(restartedCache);
+    
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertEquals(0, restartedIO.getFetchCount());
+    assertEquals(1, restartedCache.getEntryCount());
+    
+    foursquareApi.venuesTips("5104", "recent", null, null);
+    assertEquals(1, restartedIO.getFetchCount());
+    
+    restartedCache.clear();
+    assertEquals(0, restartedCache.getDiskSize());
+    foursquareApi.venue("5104");
+    assertEquals(2, restartedIO.getFetchCount());
+    restartedCache.close();
+  }
+
+  @Test
+  public final void testDiskCacheErrorsNotCached() throws FoursquareApiException, IOException {
+    CountingIO countingIO = new CountingIO();
+    DiskCachingIOHandler cache = new DiskCachingIOHandler(countingIO, temporaryFolder.newFolder("errors"), 1024 * 1024);
+    cache.setDefaultTimeToLive(5, TimeUnit.MINUTES);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    // In callback mode the error comes with response code 200
+    assertEquals(new Integer(404), foursquareApi.venue("missing").getMeta().getCode());
+    assertEquals(new Integer(404), foursquareApi.venue("missing").getMeta().getCode());
+    assertEquals(2, countingIO.getFetchCount());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0, cache.getDiskSize());
+    cache.close();
+  }
+
+  @Test
+  public final void testDiskCacheCompaction() throws Exception {
+    CountingIO countingIO = new CountingIO();
+    DiskCachingIOHandler cache = new DiskCachingIOHandler(countingIO, temporaryFolder.newFolder("compaction"), 1024 * 1024);
+    cache.setTimeToLive("venues/categories", 5, TimeUnit.MINUTES);
+    cache.setTimeToLive("venues/[^/]+", 1, TimeUnit.MILLISECONDS);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    foursquareApi.venuesCategories();
+    long categoriesSize = cache.getDiskSize();
+    foursquareApi.venue("5104");
+    Thread.sleep(10);
+    foursquareApi.venue("5104");
+    assertEquals(3, countingIO.getFetchCount());
+    assertEquals(1, cache.getExpirationCount());
+    assertTrue(cache.getDiskSize() > categoriesSize);
+    
+    Thread.sleep(10);
+    cache.compact();
+    assertEquals(1, cache.getCompactionCount());
+    assertEquals(1, cache.getEntryCount());
+    assertEquals(categoriesSize, cache.getDiskSize());
+    
+    foursquareApi.venuesCategories();
+    assertEquals(3, countingIO.getFetchCount());
+    cache.close();
+  }
+
+  @Test
+  public final void testDiskCacheBudget() throws Exception {
+    CountingIO countingIO = new CountingIO();
+    DiskCachingIOHandler probe = new DiskCachingIOHandler(countingIO, temporaryFolder.newFolder("probe"), 1024 * 1024);
+    probe.setDefaultTimeToLive(1, TimeUnit.MINUTES);
+    getFoursquareApi(probe).venue("5104");
+    long recordSize = probe.getDiskSize();
+    probe.close();
+    
+    DiskCachingIOHandler cache = new DiskCachingIOHandler(countingIO, temporaryFolder.newFolder("budget"), recordSize * 3);
+    cache.setDefaultTimeToLive(1, TimeUnit.MILLISECONDS);
+    FoursquareApi foursquareApi = getFoursquareApi(cache);
+    
+    for (int i = 0; i < 5; i++) {
+      foursquareApi.venue("5104");
+      Thread.sleep(5);
+    }
+    
+    assertTrue(cache.getCompactionCount() > 0);
+    assertTrue(cache.getDiskSize() <= recordSize * 3);
+    cache.close();
+  }
+
+  private FoursquareApi getFoursquareApi(IOHandler cache) {
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", cache);
+    foursquareApi.setSkipNonExistingFields(false);
+    return foursquareApi;
+  }
+  
+  private static class CountingIO extends TestIO {
+    
+    @Override
+    public Response fetchData(String url, Method method) {
+      fetchCount.incrementAndGet();
+      return super.fetchData(url, method);
+    }
+    
+    public int getFetchCount() {
+      return fetchCount.get();
+    }
+    
+    private AtomicInteger fetchCount = new AtomicInteger();
+  }
+  
+  /**
+   * IOHandler that returns the content it was last given with an ETag header that is never matched
+   */
+  private static class ChangingIO extends TestIO {
+    
+    @Override
+    public Response fetchData(String url, Method method) {
+      fetchCount.incrementAndGet();
+      Map<String, String> headers = new HashMap<String, String>();
+      headers.put("ETag", "\"" + fetchCount.get() + "\"");
+      return new Response(content, 200, "OK", headers);
+    }
+    
+    public void setContent(String content) {
+      this.content = content;
+    }
+    
+    public int getFetchCount() {
+      return fetchCount.get();
+    }
+    
+    private volatile String content;
+    private AtomicInteger fetchCount = new AtomicInteger();
+  }
+  
+  private static class ValidatingIO extends TestIO {
+    
+    @Override
+    public Response fetchData(String url, Method method) {
+      fetchCount.incrementAndGet();
+      Response response = super.fetchData(url, method);
+      Map<String, String> headers = new HashMap<String, String>();
+      headers.put("ETag", ENTITY_TAG);
+      return new Response(response.getResponseContent(), response.getResponseCode(), response.getMessage(), headers);
+    }
+    
+    @Override
+    public Response fetchData(String url, Method method, Map<String, String> requestHeaders) {
+      if (ENTITY_TAG.equals(requestHeaders.get("If-None-Match"))) {
+        return new Response("", 304, "Not Modified");
+      }
+      
+      return fetchData(url, method);
+    }
+    
+    public int getFetchCount() {
+      return fetchCount.get();
+    }
+    
+    private static final String ENTITY_TAG = "\"v1\"";
+    private AtomicInteger fetchCount = new AtomicInteger();
+  }
+}
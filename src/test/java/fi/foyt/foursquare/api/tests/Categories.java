@@ -0,0 +1,60 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.CategoryIndex;
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.entities.Category;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+
+public class Categories {
+
+  @Test
+  public final void testCategoryIndex() throws FoursquareApiException {
+    CategoryIndex index = CategoryIndex.fetch(TestUtils.getAnonymousFoursquareApi());
+    
+    assertEquals("Multiplex", index.getCategory("4bf58dd8d48988d180941735").getName());
+    assertEquals("Movie Theater", index.getParent("4bf58dd8d48988d180941735").getName());
+    assertEquals("Arts & Entertainment", index.getRoot("4bf58dd8d48988d180941735").getName());
+    assertEquals(2, index.getDepth("4bf58dd8d48988d180941735"));
+    
+    Category[] ancestors = index.getAncestors("4bf58dd8d48988d180941735");
+    assertEquals(2, ancestors.length);
+    assertEquals("Arts & Entertainment", ancestors[0].getName());
+    assertEquals("Movie Theater", ancestors[1].getName());
+    
+    assertNull(index.getCategory("unknown"));
+    assertNull(index.getRoot("unknown"));
+    assertEquals(-1, index.getDepth("unknown"));
+  }
+
+  @Test
+  public final void testCategoryIndexSubtrees() throws FoursquareApiException {
+    CategoryIndex index = CategoryIndex.fetch(TestUtils.getAnonymousFoursquareApi());
+    
+    assertTrue(index.isInSubtree("4bf58dd8d48988d180941735", "4bf58dd8d48988d17f941735"));
+    assertTrue(index.isInSubtree("4bf58dd8d48988d17f941735", "4bf58dd8d48988d17f941735"));
+    assertFalse(index.isInSubtree("4bf58dd8d48988d17f941735", "4bf58dd8d48988d180941735"));
+    assertFalse(index.isInSubtree("4bf58dd8d48988d18f941735", "4bf58dd8d48988d17f941735"));
+    assertTrue(index.isInSubtree("4bf58dd8d48988d18f941735", "4bf58dd8d48988d181941735"));
+    assertFalse(index.isInSubtree("unknown", "4bf58dd8d48988d181941735"));
+  }
+
+  @Test
+  public final void testVenueCategories() throws FoursquareApiException {
+    FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+    CategoryIndex index = new CategoryIndex(new Category[0]);
+    assertEquals(0, index.size());
+    
+    index.refresh(foursquareApi);
+    assertTrue(index.size() > 0);
+    
+    CompleteVenue venue = foursquareApi.venue("5104").getResult();
+    assertEquals("Breakfast Spot", index.getPrimaryCategory(venue).getName());
+    assertEquals("Breakfast Spots", index.getPrimaryCategory(venue).getPluralName());
+    assertEquals("Food", index.getRoot(venue).getName());
+  }
+}
@@ -0,0 +1,279 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.io.CircuitBreakingIOHandler;
+import fi.foyt.foursquare.api.io.CircuitState;
+import fi.foyt.foursquare.api.io.IOHandler;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.MultipartParameter;
+import fi.foyt.foursquare.api.io.Response;
+
+public class Circuits {
+
+  @Test
+  public final void testOpenCircuit() {
+    UpstreamIO upstreamIO = new UpstreamIO();
+    CircuitBreakingIOHandler breaker = getCircuitBreakingIOHandler(upstreamIO);
+    breaker.addEndpointGroup("venues/search");
+
+    upstreamIO.setResponseCode(500);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(500, breaker.fetchData(getUrl("venues/search"), Method.GET).getResponseCode());
+    }
+
+    assertEquals(CircuitState.CLOSED, breaker.getCircuitState("venues/search"));
+    breaker.fetchData(getUrl("venues/search"), Method.GET);
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("venues/search"));
+    assertEquals(1, breaker.getOpenedCount());
+
+    assertEquals(503, breaker.fetchData(getUrl("venues/search"), Method.GET).getResponseCode());
+    assertEquals(5, upstreamIO.getFetchCount());
+    assertEquals(1, breaker.getRejectedCount());
+
+    // Other endpoint groups have their own circuits
+    upstreamIO.setResponseCode(200);
+    assertEquals(200, breaker.fetchData(getUrl("users/self"), Method.GET).getResponseCode());
+    assertEquals(200, breaker.fetchData(getUrl("venues/5104"), Method.GET).getResponseCode());
+    assertEquals(CircuitState.CLOSED, breaker.getCircuitState("venues/5104"));
+    assertEquals(CircuitState.OPEN, breaker.getCircuitStates().get("venues/search"));
+  }
+
+  @Test
+  public final void testCallbackErrors() {
+    UpstreamIO upstreamIO = new UpstreamIO();
+    CircuitBreakingIOHandler breaker = getCircuitBreakingIOHandler(upstreamIO);
+
+    // Client errors do not trip the breaker
+    upstreamIO.setContent("c({\"meta\":{\"code\":404,\"errorType\":\"not_found\"},\"response\":{}});");
+    for (int i = 0; i < 5; i++) {
+      assertEquals(200, breaker.fetchData(getUrl("venues/search"), Method.GET).getResponseCode());
+    }
+
+    assertEquals(CircuitState.CLOSED, breaker.getCircuitState("venues/search"));
+
+    // In callback mode server errors are returned with response code 200
+    upstreamIO.setContent("c({\"meta\":{\"code\":500,\"errorType\":\"server_error\"},\"response\":{}});");
+    for (int i = 0; i < 5; i++) {
+      assertEquals(200, breaker.fetchData(getUrl("venues/search"), Method.GET).getResponseCode());
+    }
+
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("venues/search"));
+    assertEquals(503, breaker.fetchData(getUrl("venues/search"), Method.GET).getResponseCode());
+  }
+
+  @Test
+  public final void testHalfOpenCircuit() throws InterruptedException {
+    UpstreamIO upstreamIO = new UpstreamIO();
+    CircuitBreakingIOHandler breaker = getCircuitBreakingIOHandler(upstreamIO);
+    breaker.setOpenDuration(50, TimeUnit.MILLISECONDS);
+    breaker.setProbeCount(2);
+
+    upstreamIO.setResponseCode(503);
+    for (int i = 0; i < 5; i++) {
+      breaker.fetchData(getUrl("venues/search"), Method.GET);
+    }
+
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("venues/search"));
+    Thread.sleep(60);
+
+    // Failing probe opens the circuit again
+    breaker.fetchData(getUrl("venues/search"), Method.GET);
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("venues/search"));
+    assertEquals(503, breaker.fetchData(getUrl("venues/search"), Method.GET).getResponseCode());
+    assertEquals(6, upstreamIO.getFetchCount());
+    Thread.sleep(60);
+
+    upstreamIO.setResponseCode(200);
+    breaker.fetchData(getUrl("venues/search"), Method.GET);
+    assertEquals(CircuitState.HALF_OPEN, breaker.getCircuitState("venues/search"));
+    breaker.fetchData(getUrl("venues/search"), Method.GET);
+    assertEquals(CircuitState.CLOSED, breaker.getCircuitState("venues/search"));
+    assertEquals(2, breaker.getOpenedCount());
+  }
+
+  @Test
+  public final void testFailingAsyncProbe() throws Exception {
+    UpstreamIO upstreamIO = new UpstreamIO();
+    CircuitBreakingIOHandler breaker = getCircuitBreakingIOHandler(upstreamIO);
+    breaker.setOpenDuration(50, TimeUnit.MILLISECONDS);
+    breaker.setProbeCount(1);
+
+    upstreamIO.setResponseCode(503);
+    for (int i = 0; i < 5; i++) {
+      breaker.fetchData(getUrl("venues/search"), Method.GET);
+    }
+
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("venues/search"));
+    Thread.sleep(60);
+
+    // Probe that could not be sent opens the circuit again instead of keeping it half-open
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    upstreamIO.setExecutor(executor);
+    try {
+      breaker.fetchDataAsync(getUrl("venues/search"), Method.GET, null);
+      fail("Probe should not have been sent");
+    } catch (RejectedExecutionException e) {
+    }
+
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("venues/search"));
+    Thread.sleep(60);
+
+    upstreamIO.setExecutor(null);
+    upstreamIO.setResponseCode(200);
+    assertEquals(200, breaker.fetchDataAsync(getUrl("venues/search"), Method.GET, null).get(5, TimeUnit.SECONDS).getResponseCode());
+    assertEquals(CircuitState.CLOSED, breaker.getCircuitState("venues/search"));
+  }
+
+  @Test
+  public final void testStaleOutcomes() throws InterruptedException {
+    UpstreamIO upstreamIO = new UpstreamIO();
+    CircuitBreakingIOHandler breaker = getCircuitBreakingIOHandler(upstreamIO);
+    breaker.setOpenDuration(50, TimeUnit.MILLISECONDS);
+    breaker.setProbeCount(1);
+
+    CountDownLatch staleGate = new CountDownLatch(1);
+    upstreamIO.setGate(staleGate);
+    Thread stale = startRequest(breaker, upstreamIO, 1);
+
+    upstreamIO.setGate(null);
+    upstreamIO.setResponseCode(500);
+    for (int i = 0; i < 5; i++) {
+      breaker.fetchData(getUrl("venues/search"), Method.GET);
+    }
+
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("venues/search"));
+    Thread.sleep(60);
+
+    CountDownLatch probeGate = new CountDownLatch(1);
+    upstreamIO.setGate(probeGate);
+    upstreamIO.setResponseCode(200);
+    Thread probe = startRequest(breaker, upstreamIO, 7);
+    assertEquals(CircuitState.HALF_OPEN, breaker.getCircuitState("venues/search"));
+
+    // Request sent while the circuit was closed is not a probe
+    staleGate.countDown();
+    stale.join();
+    assertEquals(CircuitState.HALF_OPEN, breaker.getCircuitState("venues/search"));
+
+    probeGate.countDown();
+    probe.join();
+    assertEquals(CircuitState.CLOSED, breaker.getCircuitState("venues/search"));
+  }
+
+  @Test
+  public final void testSlowCalls() {
+    UpstreamIO upstreamIO = new UpstreamIO();
+    CircuitBreakingIOHandler breaker = getCircuitBreakingIOHandler(upstreamIO);
+    breaker.addEndpointGroup("users/[^/]+");
+    breaker.setSlowCallDuration(10, TimeUnit.MILLISECONDS);
+
+    upstreamIO.setDelay(20);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(200, breaker.fetchData(getUrl("users/" + i), Method.GET).getResponseCode());
+    }
+
+    assertEquals(CircuitState.OPEN, breaker.getCircuitState("users/self"));
+    assertEquals(CircuitState.CLOSED, breaker.getCircuitState("users/self/checkins"));
+  }
+
+  private CircuitBreakingIOHandler getCircuitBreakingIOHandler(IOHandler ioHandler) {
+    CircuitBreakingIOHandler breaker = new CircuitBreakingIOHandler(ioHandler);
+    breaker.setWindow(10, 5);
+    return breaker;
+  }
+
+  /**
+   * Starts request in another thread and waits until it has reached the upstream handler
+   */
+  private Thread startRequest(final IOHandler ioHandler, UpstreamIO upstreamIO, int fetchCount) throws InterruptedException {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        ioHandler.fetchData(getUrl("venues/search"), Method.GET);
+      }
+    };
+
+    thread.start();
+    while (upstreamIO.getFetchCount() < fetchCount) {
+      Thread.sleep(5);
+    }
+
+    return thread;
+  }
+
+  private String getUrl(String endpoint) {
+    return "https://api.foursquare.com/v2/" + endpoint + "?v=20110615";
+  }
+
+  private static class UpstreamIO extends IOHandler {
+
+    @Override
+    public Response fetchData(String url, Method method) {
+      CountDownLatch gate = this.gate;
+      fetchCount.incrementAndGet();
+
+      try {
+        if (gate != null) {
+          gate.await();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      return new Response(content, responseCode, "");
+    }
+
+    @Override
+    public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+      return fetchData(url, Method.POST);
+    }
+
+    public void setResponseCode(int responseCode) {
+      this.responseCode = responseCode;
+    }
+
+    public void setContent(String content) {
+      this.content = content;
+    }
+
+    public void setDelay(long delay) {
+      this.delay = delay;
+    }
+
+    /**
+     * Sets latch that requests started afterwards wait for before responding
+     */
+    public void setGate(CountDownLatch gate) {
+      this.gate = gate;
+    }
+
+    public int getFetchCount() {
+      return fetchCount.get();
+    }
+
+    private volatile int responseCode = 200;
+    private volatile String content = "{}";
+    private volatile long delay = 0;
+    private volatile CountDownLatch gate;
+    private AtomicInteger fetchCount = new AtomicInteger();
+  }
+}
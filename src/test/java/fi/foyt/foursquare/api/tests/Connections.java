@@ -0,0 +1,126 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.io.DefaultIOHandler;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.Response;
+
+public class Connections {
+
+  @Test
+  public final void testReadTimeout() throws Exception {
+    TestHttpServer server = new TestHttpServer();
+    server.setStalledConnections(1);
+    server.start();
+    try {
+      // Server accepts the connection but never answers
+      DefaultIOHandler ioHandler = new DefaultIOHandler(1000, 200);
+      long start = System.currentTimeMillis();
+      Response response = ioHandler.fetchData(server.getUrl("/v2/venues/5104?v=20110615"), Method.GET);
+
+      assertEquals(500, response.getResponseCode());
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertEquals(1, ioHandler.getClosedConnectionCount());
+
+      Socket socket = server.getStalledSocket();
+      assertNotNull(socket);
+      socket.close();
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public final void testKeepAlive() throws Exception {
+    TestHttpServer server = new TestHttpServer();
+    server.start();
+    try {
+      DefaultIOHandler ioHandler = new DefaultIOHandler();
+      ioHandler.setKeepAlive(true);
+
+      // Error stream is drained so the connection can be reused for the next request
+      Response response = ioHandler.fetchData(server.getUrl("/v2/venues/missing?v=20110615"), Method.GET);
+      assertEquals(404, response.getResponseCode());
+      response = ioHandler.fetchData(server.getUrl("/v2/venues/5104?v=20110615"), Method.GET);
+      assertEquals(200, response.getResponseCode());
+      assertEquals("{}", response.getResponseContent());
+
+      assertEquals(1, server.getConnectionCount());
+      assertEquals(2, server.getRequestCount());
+      assertEquals(2, ioHandler.getReleasedConnectionCount());
+      assertEquals(0, ioHandler.getClosedConnectionCount());
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public final void testNoKeepAlive() throws Exception {
+    TestHttpServer server = new TestHttpServer();
+    server.start();
+    try {
+      DefaultIOHandler ioHandler = new DefaultIOHandler();
+
+      assertEquals(404, ioHandler.fetchData(server.getUrl("/v2/venues/missing?v=20110615"), Method.GET).getResponseCode());
+      assertEquals(200, ioHandler.fetchData(server.getUrl("/v2/venues/5104?v=20110615"), Method.GET).getResponseCode());
+
+      assertEquals(2, server.getConnectionCount());
+      assertEquals(0, ioHandler.getReleasedConnectionCount());
+      assertEquals(2, ioHandler.getClosedConnectionCount());
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public final void testCompression() throws Exception {
+    String content = "{\"meta\":{\"code\":200},\"response\":{\"venue\":{\"name\":\"Clinton Street Baking Co\"}}}";
+    byte[] bytes = content.getBytes("UTF-8");
+
+    ByteArrayOutputStream gzipContent = new ByteArrayOutputStream();
+    GZIPOutputStream gzipStream = new GZIPOutputStream(gzipContent);
+    gzipStream.write(bytes);
+    gzipStream.close();
+
+    TestHttpServer server = new TestHttpServer();
+    server.setResponse("/gzip", "gzip", gzipContent.toByteArray());
+    server.setResponse("/zlib", "deflate", deflate(bytes, false));
+    server.setResponse("/raw", "deflate", deflate(bytes, true));
+    server.start();
+    try {
+      DefaultIOHandler ioHandler = new DefaultIOHandler();
+      for (String path : new String[] { "/gzip", "/zlib", "/raw" }) {
+        Response response = ioHandler.fetchData(server.getUrl(path + "?v=20110615"), Method.GET);
+        assertEquals(path, 200, response.getResponseCode());
+        assertEquals(path, content, response.getResponseContent());
+      }
+
+      assertEquals(bytes.length * 3, ioHandler.getContentByteCount());
+    } finally {
+      server.close();
+    }
+  }
+
+  private byte[] deflate(byte[] content, boolean raw) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+    deflater.setInput(content);
+    deflater.finish();
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buf = new byte[1024];
+    while (!deflater.finished()) {
+      outputStream.write(buf, 0, deflater.deflate(buf));
+    }
+
+    deflater.end();
+    return outputStream.toByteArray();
+  }
+}
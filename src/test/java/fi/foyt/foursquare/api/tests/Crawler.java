@@ -0,0 +1,202 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.VenueCrawler;
+import fi.foyt.foursquare.api.entities.CompactVenue;
+import fi.foyt.foursquare.api.io.IOHandler;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.MultipartParameter;
+import fi.foyt.foursquare.api.io.Response;
+
+public class Crawler {
+
+  @Test
+  public final void testCrawl() throws Exception {
+    SearchIO searchIO = new SearchIO(200);
+    VenueCrawler crawler = new VenueCrawler(getFoursquareApi(searchIO), 40, -74, 41, -73);
+    crawler.setSearchLimit(50);
+    
+    List<CompactVenue> venues = crawler.crawl();
+    assertEquals(200, venues.size());
+    assertEquals(200, getIds(venues).size());
+    assertEquals(200, crawler.getVenueCount());
+    assertTrue(crawler.getSplitCount() > 0);
+    assertEquals(crawler.getRequestCount(), searchIO.getRequestCount());
+    assertTrue(crawler.isComplete());
+  }
+
+  @Test
+  public final void testTruncatedTiles() throws Exception {
+    VenueCrawler crawler = new VenueCrawler(getFoursquareApi(new SearchIO(200)), 40, -74, 41, -73);
+    crawler.setSearchLimit(50);
+    crawler.setMinTileSpan(1);
+    
+    assertEquals(50, crawler.crawl().size());
+    assertEquals(1, crawler.getRequestCount());
+    assertEquals(1, crawler.getTruncatedTileCount());
+  }
+
+  @Test
+  public final void testCheckpoint() throws Exception {
+    final SearchIO searchIO = new SearchIO(200);
+    final VenueCrawler crawler = new VenueCrawler(getFoursquareApi(searchIO), 40, -74, 41, -73);
+    crawler.setSearchLimit(20);
+    crawler.setMaxConcurrentRequests(1);
+    searchIO.setStopAfter(crawler, 3);
+    
+    List<CompactVenue> firstVenues = crawler.crawl();
+    assertEquals(3, crawler.getRequestCount());
+    assertFalse(crawler.isComplete());
+    
+    StringWriter checkpoint = new StringWriter();
+    crawler.saveCheckpoint(checkpoint);
+    
+    VenueCrawler resumed = new VenueCrawler(getFoursquareApi(new SearchIO(200)), 0, 0, 0, 0);
+    resumed.setSearchLimit(20);
+    resumed.loadCheckpoint(new StringReader(checkpoint.toString()));
+    List<CompactVenue> resumedVenues = resumed.crawl();
+    
+    Set<String> ids = getIds(firstVenues);
+    for (String id : getIds(resumedVenues)) {
+      assertTrue(ids.add(id));
+    }
+    
+    assertEquals(200, ids.size());
+    assertEquals(200, resumed.getVenueCount());
+    assertTrue(resumed.isComplete());
+  }
+
+  @Test
+  public final void testFailedTiles() throws Exception {
+    SearchIO searchIO = new SearchIO(10);
+    searchIO.setFailing(true);
+    VenueCrawler crawler = new VenueCrawler(getFoursquareApi(searchIO), 40, -74, 41, -73);
+    
+    assertEquals(0, crawler.crawl().size());
+    assertEquals(1, crawler.getFailedTileCount());
+    assertFalse(crawler.isComplete());
+    
+    searchIO.setFailing(false);
+    assertEquals(10, crawler.crawl().size());
+    assertTrue(crawler.isComplete());
+  }
+
+  private Set<String> getIds(List<CompactVenue> venues) {
+    Set<String> ids = new HashSet<String>();
+    for (CompactVenue venue : venues) {
+      ids.add(venue.getId());
+    }
+    
+    return ids;
+  }
+
+  private FoursquareApi getFoursquareApi(IOHandler ioHandler) {
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", ioHandler);
+    foursquareApi.setSkipNonExistingFields(false);
+    return foursquareApi;
+  }
+  
+  /**
+   * IOHandler that answers browse searches from a fixed set of random venues
+   */
+  private static class SearchIO extends IOHandler {
+    
+    public SearchIO(int venueCount) {
+      Random random = new Random(1);
+      latitudes = new double[venueCount];
+      longitudes = new double[venueCount];
+      for (int i = 0; i < venueCount; i++) {
+        latitudes[i] = 40 + random.nextDouble();
+        longitudes[i] = -74 + random.nextDouble();
+      }
+    }
+    
+    public void setStopAfter(VenueCrawler crawler, int requests) {
+      this.crawler = crawler;
+      this.stopAfter = requests;
+    }
+    
+    public void setFailing(boolean failing) {
+      this.failing = failing;
+    }
+    
+    public int getRequestCount() {
+      return requestCount.get();
+    }
+
+    @Override
+    public Response fetchData(String url, Method method) {
+      if (requestCount.incrementAndGet() == stopAfter && crawler != null) {
+        crawler.stop();
+      }
+      
+      if (failing) {
+        return new Response("", 500, "Internal Server Error");
+      }
+      
+      double[] sw = getPoint(url, "sw");
+      double[] ne = getPoint(url, "ne");
+      int limit = Integer.parseInt(getParameter(url, "limit"));
+      
+      StringBuilder venues = new StringBuilder();
+      int count = 0;
+      for (int i = 0; i < latitudes.length && count < limit; i++) {
+        if (latitudes[i] >= sw[0] && latitudes[i] <= ne[0] && longitudes[i] >= sw[1] && longitudes[i] <= ne[1]) {
+          if (count++ > 0) {
+            venues.append(',');
+          }
+          
+          venues.append("{\"id\":\"v" + i + "\",\"name\":\"Venue " + i + "\",\"location\":{\"lat\":" + latitudes[i] + ",\"lng\":" + longitudes[i] + "}}");
+        }
+      }
+      
+      String json = "{\"meta\":{\"code\":200},\"response\":{\"venues\":[" + venues + "]}}";
+      return new Response(url.contains("callback=") ? "c(" + json + ");" : json, 200, "");
+    }
+
+    @Override
+    public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+      return new Response("", 404, "Not Found");
+    }
+    
+    private double[] getPoint(String url, String name) {
+      String[] point = getParameter(url, name).split(",");
+      return new double[] { Double.parseDouble(point[0]), Double.parseDouble(point[1]) };
+    }
+    
+    private String getParameter(String url, String name) {
+      for (String parameter : url.substring(url.indexOf('?') + 1).split("&")) {
+        if (parameter.startsWith(name + "=")) {
+          try {
+            return URLDecoder.decode(parameter.substring(name.length() + 1), "UTF-8");
+          } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      }
+      
+      return null;
+    }
+    
+    private double[] latitudes;
+    private double[] longitudes;
+    private volatile VenueCrawler crawler;
+    private int stopAfter;
+    private volatile boolean failing;
+    private AtomicInteger requestCount = new AtomicInteger();
+  }
+}
@@ -2,12 +2,22 @@ package fi.foyt.foursquare.api.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 import fi.foyt.foursquare.api.FoursquareApiException;
 import fi.foyt.foursquare.api.Result;
 import fi.foyt.foursquare.api.entities.CompleteUser;
 import fi.foyt.foursquare.api.entities.CompleteVenue;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.Response;
 
 public class FoursquareApi {
 
@@ -105,4 +115,46 @@ public class FoursquareApi {
     fi.foyt.foursquare.api.FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
     assertEquals(foursquareApi.getIOHandler().getClass(), TestIO.class);
   }
+
+  @Test
+  public final void testSingleFlight() throws Exception {
+    final AtomicInteger fetchCount = new AtomicInteger();
+    final fi.foyt.foursquare.api.FoursquareApi foursquareApi = new fi.foyt.foursquare.api.FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", new TestIO() {
+      @Override
+      public Response fetchData(String url, Method method) {
+        fetchCount.incrementAndGet();
+        try {
+          Thread.sleep(300);
+        } catch (InterruptedException e) {
+        }
+        
+        return super.fetchData(url, method);
+      }
+    });
+    foursquareApi.setSkipNonExistingFields(false);
+    foursquareApi.setSingleFlight(true);
+    
+    ExecutorService executor = Executors.newFixedThreadPool(5);
+    List<Future<Result<CompleteVenue>>> results = new ArrayList<Future<Result<CompleteVenue>>>();
+    for (int i = 0; i < 5; i++) {
+      results.add(executor.submit(new Callable<Result<CompleteVenue>>() {
+        public Result<CompleteVenue> call() throws Exception {
+          return foursquareApi.venue("5104");
+        }
+      }));
+    }
+    
+    Result<CompleteVenue> first = results.get(0).get();
+    for (Future<Result<CompleteVenue>> result : results) {
+      assertSame(first, result.get());
+    }
+    executor.shutdown();
+    
+    assertEquals("Clinton Street Baking Co", first.getResult().getName());
+    assertEquals(1, fetchCount.get());
+    assertEquals(4, foursquareApi.getSharedRequestCount());
+    
+    foursquareApi.venue("5104");
+    assertEquals(2, fetchCount.get());
+  }
 }
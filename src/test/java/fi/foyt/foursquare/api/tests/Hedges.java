@@ -0,0 +1,340 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.Result;
+import fi.foyt.foursquare.api.ResultFuture;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+import fi.foyt.foursquare.api.io.CachingIOHandler;
+import fi.foyt.foursquare.api.io.CancellableRequest;
+import fi.foyt.foursquare.api.io.CircuitBreakingIOHandler;
+import fi.foyt.foursquare.api.io.DefaultIOHandler;
+import fi.foyt.foursquare.api.io.DiskCachingIOHandler;
+import fi.foyt.foursquare.api.io.HedgingIOHandler;
+import fi.foyt.foursquare.api.io.IOCallback;
+import fi.foyt.foursquare.api.io.IOHandler;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.MultipartParameter;
+import fi.foyt.foursquare.api.io.RateLimitingIOHandler;
+import fi.foyt.foursquare.api.io.Response;
+import fi.foyt.foursquare.api.io.RetryingIOHandler;
+
+public class Hedges {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public final void testHedgedRequest() throws FoursquareApiException {
+    SlowIO slowIO = new SlowIO(2000, 0);
+    HedgingIOHandler hedging = new HedgingIOHandler(slowIO);
+    hedging.setHedgeDelay(20, TimeUnit.MILLISECONDS);
+    hedging.setMaxHedgeRatio(1);
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", hedging);
+
+    long start = System.currentTimeMillis();
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    assertEquals(2, slowIO.getFetchCount());
+    assertEquals(1, hedging.getHedgeCount());
+    assertEquals(1, hedging.getHedgeWinCount());
+  }
+
+  @Test
+  public final void testCustomCancellableHandler() {
+    final SlowIO slowIO = new SlowIO(2000, 0);
+    final List<CancellableRequest> requests = new ArrayList<CancellableRequest>();
+    IOHandler passingIO = new IOHandler() {
+      @Override
+      public Response fetchData(String url, Method method) {
+        return slowIO.fetchData(url, method);
+      }
+
+      @Override
+      public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+        return slowIO.fetchDataMultipartMime(url, params);
+      }
+
+      @Override
+      protected Response fetchDataCancellable(String url, Method method, Map<String, String> requestHeaders, CancellableRequest request) {
+        synchronized (requests) {
+          requests.add(request);
+        }
+
+        return delegate(slowIO, url, method, requestHeaders, request);
+      }
+    };
+    HedgingIOHandler hedging = new HedgingIOHandler(passingIO);
+    hedging.setHedgeDelay(20, TimeUnit.MILLISECONDS);
+    hedging.setMaxHedgeRatio(1);
+
+    long start = System.currentTimeMillis();
+    assertEquals(200, hedging.fetchData("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.GET).getResponseCode());
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    assertEquals(1, hedging.getHedgeWinCount());
+
+    // Original request reached the custom handler and was cancelled through it
+    synchronized (requests) {
+      assertTrue(requests.size() >= 1);
+      assertTrue(requests.get(0).isCancelled());
+    }
+  }
+
+  @Test
+  public final void testAsyncHedgedRequest() throws Exception {
+    SlowIO slowIO = new SlowIO(2000, 0);
+    HedgingIOHandler hedging = new HedgingIOHandler(slowIO);
+    hedging.setHedgeDelay(20, TimeUnit.MILLISECONDS);
+    hedging.setMaxHedgeRatio(1);
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", hedging);
+
+    ResultFuture<CompleteVenue> future = foursquareApi.venueAsync("5104", null);
+    Result<CompleteVenue> result = future.get(1, TimeUnit.SECONDS);
+    assertEquals("Clinton Street Baking Co", result.getResult().getName());
+    assertEquals(1, hedging.getHedgeWinCount());
+  }
+
+  @Test
+  public final void testDefaultExecutor() throws Exception {
+    SlowIO slowIO = new SlowIO(50, 50, 50, 50, 50, 50, 50, 50);
+    slowIO.setExecutor(null);
+    final HedgingIOHandler hedging = new HedgingIOHandler(slowIO);
+    hedging.setHedgeDelay(1, TimeUnit.SECONDS);
+
+    // Synchronous requests are made from all threads of the shared executor, as in result callbacks
+    final CountDownLatch started = new CountDownLatch(8);
+    List<Future<Response>> responses = new ArrayList<Future<Response>>();
+    for (int i = 0; i < 8; i++) {
+      responses.add(slowIO.getExecutor().submit(new Callable<Response>() {
+        public Response call() throws InterruptedException {
+          started.countDown();
+          started.await(5, TimeUnit.SECONDS);
+          return hedging.fetchData("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.GET);
+        }
+      }));
+    }
+
+    for (Future<Response> response : responses) {
+      assertEquals(200, response.get(5, TimeUnit.SECONDS).getResponseCode());
+    }
+
+    assertEquals(8, slowIO.getFetchCount());
+    assertEquals(0, hedging.getHedgeCount());
+  }
+
+  @Test
+  public final void testHedgeRatio() throws FoursquareApiException {
+    SlowIO slowIO = new SlowIO(100, 0);
+    HedgingIOHandler hedging = new HedgingIOHandler(slowIO);
+    hedging.setHedgeDelay(20, TimeUnit.MILLISECONDS);
+    hedging.setMaxHedgeRatio(0);
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", hedging);
+
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertEquals(1, slowIO.getFetchCount());
+    assertEquals(1, hedging.getRequestCount());
+    assertEquals(0, hedging.getHedgeCount());
+  }
+
+  @Test
+  public final void testFailingHedgeSend() throws Exception {
+    SlowIO slowIO = new SlowIO(100) {
+      @Override
+      public Future<Response> fetchDataAsync(String url, Method method, IOCallback callback) {
+        if (sends.getAndIncrement() > 0) {
+          throw new IllegalStateException("Rejected");
+        }
+
+        return super.fetchDataAsync(url, method, callback);
+      }
+
+      @Override
+      public Response fetchData(String url, Method method) {
+        super.fetchData(url, method);
+        return new Response("", 503, "Service Unavailable");
+      }
+
+      private AtomicInteger sends = new AtomicInteger();
+    };
+    HedgingIOHandler hedging = new HedgingIOHandler(slowIO);
+    hedging.setHedgeDelay(20, TimeUnit.MILLISECONDS);
+    hedging.setMaxHedgeRatio(1);
+
+    Future<Response> response = hedging.fetchDataAsync("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.GET, null);
+    assertEquals(503, response.get(5, TimeUnit.SECONDS).getResponseCode());
+    assertEquals(1, slowIO.getFetchCount());
+    assertEquals(1, hedging.getHedgeCount());
+  }
+
+  @Test
+  public final void testHedgeDelayPercentile() throws FoursquareApiException {
+    SlowIO slowIO = new SlowIO();
+    HedgingIOHandler hedging = new HedgingIOHandler(slowIO);
+    hedging.setHedgeDelay(1, TimeUnit.SECONDS);
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", hedging);
+
+    assertEquals(1000, hedging.getHedgeDelay("venues/5104"));
+    for (int i = 0; i < 20; i++) {
+      foursquareApi.venue("5104");
+    }
+
+    assertTrue(hedging.getHedgeDelay("venues/5104") < 500);
+    assertEquals(1000, hedging.getHedgeDelay("users/self"));
+    assertEquals(0, hedging.getHedgeCount());
+  }
+
+  @Test
+  public final void testCancelDefaultIOHandler() throws Exception {
+    TestHttpServer server = new TestHttpServer();
+    server.setStalledConnections(Integer.MAX_VALUE);
+    server.start();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      DefaultIOHandler ioHandler = new DefaultIOHandler();
+      ioHandler.setExecutor(executor);
+
+      // Request is cancelled before connecting, right after connecting and while waiting for the response
+      for (int i = 0; i < 30; i++) {
+        final AtomicInteger callbacks = new AtomicInteger();
+        Future<Response> future = ioHandler.fetchDataAsync(server.getUrl("/v2/venues/5104?v=20110615"), Method.GET, new IOCallback() {
+          public void completed(Response response) {
+            callbacks.incrementAndGet();
+          }
+        });
+
+        if (i % 3 > 0) {
+          assertNotNull(server.getStalledSocket());
+        }
+
+        if (i % 3 > 1) {
+          Thread.sleep(i % 5);
+        }
+
+        assertTrue(future.cancel(true));
+
+        // Server never answers, cancelling disconnects the connection and frees the executor thread
+        Future<Boolean> next = executor.submit(new Callable<Boolean>() {
+          public Boolean call() {
+            return true;
+          }
+        });
+
+        assertTrue(next.get(5, TimeUnit.SECONDS));
+        assertEquals(0, callbacks.get());
+      }
+    } finally {
+      executor.shutdownNow();
+      server.close();
+    }
+  }
+
+  @Test
+  public final void testHedgeThroughDecorators() throws Exception {
+    CachingIOHandler caching = new CachingIOHandler(createStallableIOHandler(), 1024 * 1024);
+    caching.setDefaultTimeToLive(1, TimeUnit.MINUTES);
+    DiskCachingIOHandler diskCaching = new DiskCachingIOHandler(createStallableIOHandler(), temporaryFolder.newFolder("cache"), 1024 * 1024);
+    diskCaching.setDefaultTimeToLive(1, TimeUnit.MINUTES);
+    RateLimitingIOHandler rateLimiting = new RateLimitingIOHandler(createStallableIOHandler());
+    rateLimiting.setTokenLimit(100, 1, TimeUnit.SECONDS);
+    rateLimiting.setBurstSize(2);
+
+    List<IOHandler> decorators = new ArrayList<IOHandler>();
+    decorators.add(caching);
+    decorators.add(diskCaching);
+    decorators.add(rateLimiting);
+    decorators.add(new RetryingIOHandler(createStallableIOHandler()));
+    decorators.add(new CircuitBreakingIOHandler(createStallableIOHandler()));
+
+    try {
+      for (IOHandler decorator : decorators) {
+        TestHttpServer server = new TestHttpServer();
+        server.setStalledConnections(1);
+        server.start();
+        try {
+          HedgingIOHandler hedging = new HedgingIOHandler(decorator);
+          hedging.setHedgeDelay(50, TimeUnit.MILLISECONDS);
+          hedging.setMaxHedgeRatio(1);
+
+          // Original request is stuck reading a response that never comes, hedge request is answered
+          long start = System.currentTimeMillis();
+          Response response = hedging.fetchData(server.getUrl("/v2/venues/5104?v=20110615"), Method.GET);
+          String name = decorator.getClass().getSimpleName();
+          assertEquals(name, 200, response.getResponseCode());
+          assertTrue(name, System.currentTimeMillis() - start < 5000);
+          assertEquals(name, 1, hedging.getHedgeWinCount());
+
+          // Cancelling the original disconnected its connection instead of interrupting the thread
+          Socket stalled = server.getStalledSocket();
+          assertNotNull(name, stalled);
+          stalled.setSoTimeout(5000);
+          InputStream inputStream = stalled.getInputStream();
+          while (inputStream.read() != -1) {
+            // Request is skipped until the client closes the connection or the read times out
+          }
+
+          stalled.close();
+        } finally {
+          server.close();
+        }
+      }
+    } finally {
+      diskCaching.close();
+    }
+  }
+
+  private DefaultIOHandler createStallableIOHandler() {
+    // Read timeout is far longer than the test waits for the hedge
+    DefaultIOHandler ioHandler = new DefaultIOHandler(1000, 30000);
+    ioHandler.setExecutor(Executors.newCachedThreadPool());
+    return ioHandler;
+  }
+
+  private static class SlowIO extends TestIO {
+
+    public SlowIO(long... delays) {
+      this.delays = delays;
+      setExecutor(Executors.newCachedThreadPool());
+    }
+
+    @Override
+    public Response fetchData(String url, Method method) {
+      int fetch = fetchCount.getAndIncrement();
+      if (fetch < delays.length && delays[fetch] > 0) {
+        try {
+          Thread.sleep(delays[fetch]);
+        } catch (InterruptedException e) {
+          return new Response("", 500, "Interrupted");
+        }
+      }
+
+      return super.fetchData(url, method);
+    }
+
+    public int getFetchCount() {
+      return fetchCount.get();
+    }
+
+    private long[] delays;
+    private AtomicInteger fetchCount = new AtomicInteger();
+  }
+}
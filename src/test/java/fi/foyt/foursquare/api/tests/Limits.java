@@ -0,0 +1,296 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.ResultMeta;
+import fi.foyt.foursquare.api.io.IOCallback;
+import fi.foyt.foursquare.api.io.IOHandler;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.MultipartParameter;
+import fi.foyt.foursquare.api.io.RateLimitingIOHandler;
+import fi.foyt.foursquare.api.io.RequestPriority;
+import fi.foyt.foursquare.api.io.Response;
+
+public class Limits {
+
+  @Test
+  public final void testTokenLimit() {
+    RecordingIO recordingIO = new RecordingIO();
+    RateLimitingIOHandler limiter = new RateLimitingIOHandler(recordingIO);
+    limiter.setTokenLimit(20, 1, TimeUnit.SECONDS);
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 6; i++) {
+      assertEquals(200, limiter.fetchData(getUrl("venues/5104", "a"), Method.GET).getResponseCode());
+    }
+
+    assertTrue(System.currentTimeMillis() - start >= 200);
+    assertEquals(5, limiter.getThrottledCount());
+    assertEquals(0, limiter.getWaitingCount());
+
+    limiter.setTokenLimit(2, 1, TimeUnit.SECONDS);
+    limiter.fetchData(getUrl("venues/5104", "a"), Method.GET);
+
+    // Other tokens have their own buckets
+    start = System.currentTimeMillis();
+    limiter.fetchData(getUrl("venues/5104", "b"), Method.GET);
+    assertTrue(System.currentTimeMillis() - start < 250);
+    assertEquals(8, recordingIO.getRequests().size());
+  }
+
+  @Test
+  public final void testPriorities() throws InterruptedException {
+    RecordingIO recordingIO = new RecordingIO();
+    final RateLimitingIOHandler limiter = new RateLimitingIOHandler(recordingIO);
+    limiter.setTokenLimit(20, 1, TimeUnit.SECONDS);
+    limiter.setPriority("users/[^/]+", RequestPriority.INTERACTIVE);
+    limiter.setPriority("venues/search", RequestPriority.BACKGROUND);
+
+    List<Thread> threads = startThreads(limiter, 4, "venues/search", "a", 3);
+    while (limiter.getWaitingCount() < 3) {
+      Thread.sleep(5);
+    }
+
+    int sent = recordingIO.getRequests().size();
+    limiter.fetchData(getUrl("users/self", "a"), Method.GET);
+    assertTrue(recordingIO.getRequests().indexOf("users/self a") <= sent + 2);
+
+    joinThreads(threads);
+    assertEquals(13, recordingIO.getRequests().size());
+  }
+
+  @Test
+  public final void testChangeEndpointLimit() {
+    RecordingIO recordingIO = new RecordingIO();
+    RateLimitingIOHandler limiter = new RateLimitingIOHandler(recordingIO);
+    limiter.setEndpointLimit("venues/search", 1, 1, TimeUnit.HOURS);
+    limiter.fetchData(getUrl("venues/search", "a"), Method.GET);
+
+    // New limit replaces the old one, which would make the next request wait for an hour
+    long start = System.currentTimeMillis();
+    limiter.setEndpointLimit("venues/search", 20, 1, TimeUnit.SECONDS);
+    limiter.fetchData(getUrl("venues/search", "a"), Method.GET);
+    limiter.fetchData(getUrl("venues/search", "a"), Method.GET);
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    assertEquals(1, limiter.getThrottledCount());
+
+    // Zero removes the limit
+    limiter.setEndpointLimit("venues/search", 0, 1, TimeUnit.SECONDS);
+    for (int i = 0; i < 5; i++) {
+      limiter.fetchData(getUrl("venues/search", "a"), Method.GET);
+    }
+
+    assertEquals(1, limiter.getThrottledCount());
+    assertEquals(8, recordingIO.getRequests().size());
+  }
+
+  @Test
+  public final void testFairQueuing() throws InterruptedException {
+    RecordingIO recordingIO = new RecordingIO();
+    RateLimitingIOHandler limiter = new RateLimitingIOHandler(recordingIO);
+    limiter.setEndpointLimit("venues/search", 20, 1, TimeUnit.SECONDS);
+
+    List<Thread> threads = startThreads(limiter, 3, "venues/search", "a", 4);
+    threads.addAll(startThreads(limiter, 1, "venues/search", "b", 4));
+    joinThreads(threads);
+
+    List<String> requests = recordingIO.getRequests();
+    assertEquals(16, requests.size());
+    assertTrue(requests.lastIndexOf("venues/search b") <= 10);
+  }
+
+  @Test
+  public final void testAdaptiveLimit() {
+    RecordingIO recordingIO = new RecordingIO();
+    RateLimitingIOHandler limiter = new RateLimitingIOHandler(recordingIO);
+    limiter.setAdaptive(true);
+
+    recordingIO.setRateLimitHeaders(0, System.currentTimeMillis() / 1000 + 2);
+    limiter.fetchData(getUrl("venues/5104", "a"), Method.GET);
+    assertEquals(1, limiter.getAdaptationCount());
+
+    // Nothing remains, so the next request waits for the window to reset
+    recordingIO.setRateLimitHeaders(1000, System.currentTimeMillis() / 1000 + 2);
+    long start = System.currentTimeMillis();
+    limiter.fetchData(getUrl("venues/5104", "a"), Method.GET);
+    assertTrue(System.currentTimeMillis() - start >= 500);
+
+    start = System.currentTimeMillis();
+    for (int i = 0; i < 5; i++) {
+      limiter.fetchData(getUrl("venues/5104", "a"), Method.GET);
+    }
+
+    limiter.fetchData(getUrl("venues/5104", "b"), Method.GET);
+    assertTrue(System.currentTimeMillis() - start < 500);
+    assertEquals(8, limiter.getAdaptationCount());
+  }
+
+  @Test
+  public final void testAsyncRequests() throws Exception {
+    RecordingIO recordingIO = new RecordingIO();
+    RateLimitingIOHandler limiter = new RateLimitingIOHandler(recordingIO);
+    limiter.setEndpointLimit("venues/search", 10, 1, TimeUnit.SECONDS);
+
+    // Waiting requests would occupy the only thread if they blocked it
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    recordingIO.setExecutor(executor);
+    limiter.setExecutor(executor);
+    try {
+      final CountDownLatch completed = new CountDownLatch(4);
+      IOCallback callback = new IOCallback() {
+        public void completed(Response response) {
+          completed.countDown();
+        }
+      };
+
+      List<Future<Response>> searches = new ArrayList<Future<Response>>();
+      for (int i = 0; i < 5; i++) {
+        searches.add(limiter.fetchDataAsync(getUrl("venues/search", "a"), Method.GET, callback));
+      }
+
+      assertEquals(4, limiter.getWaitingCount());
+      assertEquals(4, limiter.getThrottledCount());
+      assertEquals(200, limiter.fetchDataAsync(getUrl("users/self", "a"), Method.GET, null).get(200, TimeUnit.MILLISECONDS).getResponseCode());
+
+      // Cancelled request leaves the queue and is never sent
+      assertTrue(searches.get(4).cancel(true));
+      assertTrue(searches.get(4).isCancelled());
+      assertEquals(3, limiter.getWaitingCount());
+
+      for (int i = 0; i < 4; i++) {
+        assertEquals(200, searches.get(i).get(2, TimeUnit.SECONDS).getResponseCode());
+      }
+
+      assertTrue(completed.await(2, TimeUnit.SECONDS));
+      assertEquals(0, limiter.getWaitingCount());
+      Thread.sleep(200);
+      assertEquals(5, recordingIO.getRequests().size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public final void testRejectedAsyncRequests() throws Exception {
+    RecordingIO recordingIO = new RecordingIO();
+    RateLimitingIOHandler limiter = new RateLimitingIOHandler(recordingIO);
+    limiter.setEndpointLimit("venues/search", 10, 1, TimeUnit.SECONDS);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    recordingIO.setExecutor(executor);
+
+    final CountDownLatch completed = new CountDownLatch(2);
+    IOCallback callback = new IOCallback() {
+      public void completed(Response response) {
+        completed.countDown();
+      }
+    };
+
+    // Request sent at once and request sent later from the scheduler both fail instead of hanging
+    Future<Response> first = limiter.fetchDataAsync(getUrl("venues/search", "a"), Method.GET, callback);
+    Future<Response> second = limiter.fetchDataAsync(getUrl("venues/search", "a"), Method.GET, callback);
+    assertEquals(500, first.get(2, TimeUnit.SECONDS).getResponseCode());
+    assertEquals(500, second.get(2, TimeUnit.SECONDS).getResponseCode());
+    assertTrue(completed.await(2, TimeUnit.SECONDS));
+    assertEquals(0, recordingIO.getRequests().size());
+  }
+
+  @Test
+  public final void testRateLimitMeta() throws FoursquareApiException {
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", new TestIO() {
+      @Override
+      public Response fetchData(String url, Method method) {
+        Response response = super.fetchData(url, method);
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("X-RateLimit-Limit", "5000");
+        headers.put("X-RateLimit-Remaining", "4999");
+        return new Response(response.getResponseContent(), response.getResponseCode(), response.getMessage(), headers);
+      }
+    });
+
+    ResultMeta meta = foursquareApi.venue("5104").getMeta();
+    assertEquals(200, meta.getCode().intValue());
+    assertEquals(Integer.valueOf(5000), meta.getRateLimit());
+    assertEquals(Integer.valueOf(4999), meta.getRateLimitRemaining());
+    assertNull(meta.getRateLimitReset());
+
+    assertNull(TestUtils.getAnonymousFoursquareApi().venue("5104").getMeta().getRateLimitRemaining());
+  }
+
+  private List<Thread> startThreads(final IOHandler ioHandler, int count, final String endpoint, final String token, final int requests) {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < count; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < requests; j++) {
+            ioHandler.fetchData(getUrl(endpoint, token), Method.GET);
+          }
+        }
+      };
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    return threads;
+  }
+
+  private void joinThreads(List<Thread> threads) throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  private String getUrl(String endpoint, String token) {
+    return "https://api.foursquare.com/v2/" + endpoint + "?oauth_token=" + token + "&v=20110615";
+  }
+
+  private static class RecordingIO extends IOHandler {
+
+    @Override
+    public Response fetchData(String url, Method method) {
+      String endpoint = url.substring(url.indexOf("/v2/") + 4, url.indexOf('?'));
+      String token = url.substring(url.indexOf("oauth_token=") + 12, url.indexOf('&'));
+      requests.add(endpoint + " " + token);
+      return new Response("{}", 200, "OK", rateLimitHeaders);
+    }
+
+    public void setRateLimitHeaders(int remaining, long reset) {
+      Map<String, String> headers = new HashMap<String, String>();
+      headers.put("X-RateLimit-Remaining", String.valueOf(remaining));
+      headers.put("X-RateLimit-Reset", String.valueOf(reset));
+      rateLimitHeaders = headers;
+    }
+
+    @Override
+    public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
+      return fetchData(url, Method.POST);
+    }
+
+    public List<String> getRequests() {
+      synchronized (requests) {
+        return new ArrayList<String>(requests);
+      }
+    }
+
+    private volatile Map<String, String> rateLimitHeaders;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+  }
+}
@@ -0,0 +1,159 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.CategoryIndex;
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.JSONFieldParser;
+import fi.foyt.foursquare.api.VenueIndex;
+import fi.foyt.foursquare.api.entities.CompactVenue;
+import fi.foyt.foursquare.api.entities.VenueGroup;
+
+public class Locations {
+
+  @Test
+  public final void testSearchResults() throws FoursquareApiException {
+    FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+    VenueIndex index = new VenueIndex();
+    for (VenueGroup group : foursquareApi.venuesSearch("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null).getResult().getGroups()) {
+      index.addAll(Arrays.asList(group.getItems()));
+    }
+
+    assertTrue(index.size() > 0);
+
+    List<CompactVenue> nearest = index.findNearest(40.70443641202592, -74.01012361049652, 1, null);
+    assertEquals(1, nearest.size());
+    assertEquals("4116be80f964a520fc0b1fe3", nearest.get(0).getId());
+
+    for (CompactVenue venue : index.findNearest(40.7, -74, 5, "4bf58dd8d48988d116941735")) {
+      assertEquals("4bf58dd8d48988d116941735", venue.getCategories()[0].getId());
+    }
+
+    index.setCategoryIndex(CategoryIndex.fetch(foursquareApi));
+    assertTrue(index.findWithinRadius(40.7, -74, 10000, "unknown").isEmpty());
+  }
+
+  @Test
+  public final void testQueries() throws FoursquareApiException, JSONException {
+    List<CompactVenue> venues = createVenues(2000);
+    VenueIndex index = new VenueIndex();
+    assertEquals(2000, index.addAll(venues));
+
+    Random random = new Random(2);
+    for (int i = 0; i < 50; i++) {
+      double latitude = 60 + random.nextDouble();
+      double longitude = 24 + random.nextDouble() * 2;
+      String categoryId = i % 2 == 0 ? null : "category" + (i % 3);
+
+      assertEquals(findNearest(venues, latitude, longitude, 10, categoryId), getIds(index.findNearest(latitude, longitude, 10, categoryId)));
+      assertEquals(findWithinRadius(venues, latitude, longitude, 5000, categoryId), getIds(index.findWithinRadius(latitude, longitude, 5000, categoryId)));
+      assertEquals(findWithinBounds(venues, latitude, longitude, latitude + 0.1, longitude + 0.2, categoryId), new HashSet<String>(getIds(index.findWithinBounds(latitude, longitude, latitude + 0.1, longitude + 0.2, categoryId))));
+    }
+  }
+
+  @Test
+  public final void testUpdates() throws FoursquareApiException, JSONException {
+    VenueIndex index = new VenueIndex();
+    assertTrue(index.add(createVenue("a", 60, 24, "category0")));
+    assertTrue(index.add(createVenue("b", 61, 25, "category0")));
+    assertFalse(index.add((CompactVenue) JSONFieldParser.parseEntity(CompactVenue.class, new JSONObject("{\"id\":\"c\",\"name\":\"c\"}"), true)));
+    assertEquals("a", index.findNearest(60.1, 24.1, 1, null).get(0).getId());
+
+    index.add(createVenue("a", 62, 26, "category0"));
+    assertEquals(2, index.size());
+    assertEquals("b", index.findNearest(60.1, 24.1, 1, null).get(0).getId());
+
+    assertTrue(index.remove("b"));
+    assertFalse(index.remove("b"));
+    assertEquals(1, index.size());
+    assertEquals("a", index.findNearest(60.1, 24.1, 1, null).get(0).getId());
+    assertTrue(index.findNearest(60.9, 24.9, 0, null).isEmpty());
+    assertTrue(index.findWithinRadius(60.9, 24.9, 1000, null).isEmpty());
+  }
+
+  private List<CompactVenue> createVenues(int count) throws FoursquareApiException, JSONException {
+    Random random = new Random(1);
+    List<CompactVenue> venues = new ArrayList<CompactVenue>();
+    for (int i = 0; i < count; i++) {
+      venues.add(createVenue("venue" + i, 60 + random.nextDouble(), 24 + random.nextDouble() * 2, "category" + (i % 3)));
+    }
+
+    return venues;
+  }
+
+  private CompactVenue createVenue(String id, double latitude, double longitude, String categoryId) throws FoursquareApiException, JSONException {
+    JSONObject json = new JSONObject();
+    json.put("id", id);
+    json.put("name", id);
+    json.put("location", new JSONObject().put("lat", latitude).put("lng", longitude));
+    json.put("categories", new JSONArray().put(new JSONObject().put("id", categoryId).put("name", categoryId)));
+    return (CompactVenue) JSONFieldParser.parseEntity(CompactVenue.class, json, true);
+  }
+
+  private List<String> findNearest(List<CompactVenue> venues, double latitude, double longitude, int count, String categoryId) {
+    List<CompactVenue> sorted = findVenuesWithinRadius(venues, latitude, longitude, Double.MAX_VALUE, categoryId);
+    return getIds(sorted.subList(0, Math.min(count, sorted.size())));
+  }
+
+  private List<String> findWithinRadius(List<CompactVenue> venues, double latitude, double longitude, double radius, String categoryId) {
+    return getIds(findVenuesWithinRadius(venues, latitude, longitude, radius, categoryId));
+  }
+
+  private List<CompactVenue> findVenuesWithinRadius(List<CompactVenue> venues, final double latitude, final double longitude, double radius, String categoryId) {
+    List<CompactVenue> result = new ArrayList<CompactVenue>();
+    for (CompactVenue venue : venues) {
+      if ((categoryId == null || categoryId.equals(venue.getCategories()[0].getId())) && getDistance(venue, latitude, longitude) <= radius) {
+        result.add(venue);
+      }
+    }
+
+    Collections.sort(result, new Comparator<CompactVenue>() {
+      public int compare(CompactVenue venue1, CompactVenue venue2) {
+        return Double.compare(getDistance(venue1, latitude, longitude), getDistance(venue2, latitude, longitude));
+      }
+    });
+
+    return result;
+  }
+
+  private Set<String> findWithinBounds(List<CompactVenue> venues, double south, double west, double north, double east, String categoryId) {
+    Set<String> result = new HashSet<String>();
+    for (CompactVenue venue : venues) {
+      double latitude = venue.getLocation().getLat();
+      double longitude = venue.getLocation().getLng();
+      if ((categoryId == null || categoryId.equals(venue.getCategories()[0].getId())) && latitude >= south && latitude <= north && longitude >= west && longitude <= east) {
+        result.add(venue.getId());
+      }
+    }
+
+    return result;
+  }
+
+  private double getDistance(CompactVenue venue, double latitude, double longitude) {
+    return VenueIndex.getDistance(latitude, longitude, venue.getLocation().getLat(), venue.getLocation().getLng());
+  }
+
+  private List<String> getIds(List<CompactVenue> venues) {
+    List<String> ids = new ArrayList<String>();
+    for (CompactVenue venue : venues) {
+      ids.add(venue.getId());
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,289 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.PageIterator;
+import fi.foyt.foursquare.api.ResultFuture;
+import fi.foyt.foursquare.api.entities.Checkin;
+import fi.foyt.foursquare.api.entities.CompleteTip;
+import fi.foyt.foursquare.api.entities.Photo;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.Response;
+
+public class Paging {
+
+  @Test
+  public final void testUsersCheckinsIterator() throws FoursquareApiException {
+    PagingIO pagingIO = new PagingIO();
+    FoursquareApi foursquareApi = getFoursquareApi(pagingIO);
+    
+    PageIterator<Checkin> checkins = foursquareApi.usersCheckinsIterator(null, 2, 2, null, null);
+    assertEquals("4de3212d2271bfb844acdf5d", checkins.next().getId());
+    assertEquals(new Long(6), checkins.getCount());
+    
+    int count = 1;
+    while (checkins.hasNext()) {
+      assertNotNull(checkins.next().getId());
+      count++;
+    }
+    
+    assertEquals(6, count);
+    assertEquals(3, pagingIO.getPageCount());
+  }
+
+  @Test
+  public final void testShortLastPage() throws FoursquareApiException {
+    PagingIO pagingIO = new PagingIO();
+    Iterator<Checkin> checkins = getFoursquareApi(pagingIO).usersCheckinsIterator(null, 4, 0, null, null);
+    
+    int count = 0;
+    while (checkins.hasNext()) {
+      checkins.next();
+      count++;
+    }
+    
+    assertEquals(6, count);
+    assertEquals(2, pagingIO.getPageCount());
+  }
+
+  @Test
+  public final void testShortPageBeforeCount() throws FoursquareApiException {
+    PagingIO pagingIO = new PagingIO();
+    pagingIO.setShortFirstPage(true);
+    Iterator<Checkin> checkins = getFoursquareApi(pagingIO).usersCheckinsIterator(null, 2, 0, null, null);
+    
+    int count = 0;
+    while (checkins.hasNext()) {
+      checkins.next();
+      count++;
+    }
+    
+    // Short first page does not end iteration when total number of items is known
+    assertEquals(5, count);
+    assertEquals(3, pagingIO.getPageCount());
+  }
+
+  @Test
+  public final void testMaximumPageSize() throws FoursquareApiException {
+    PagingIO pagingIO = new PagingIO();
+    Iterator<Checkin> checkins = getFoursquareApi(pagingIO).usersCheckinsIterator(null, 1000, 0, null, null);
+    
+    assertTrue(checkins.hasNext());
+    assertEquals(250, pagingIO.getLastLimit());
+  }
+
+  @Test
+  public final void testParallelPages() throws FoursquareApiException {
+    PagingIO pagingIO = new PagingIO();
+    PageIterator<Photo> photos = getFoursquareApi(pagingIO).venuesPhotosIterator("43695300f964a5208c291fe3", "venue", 10, 3);
+    
+    int count = 0;
+    while (photos.hasNext()) {
+      assertNotNull(photos.next().getId());
+      count++;
+    }
+    
+    assertEquals(28, count);
+    assertEquals(new Long(28), photos.getCount());
+    assertEquals(3, pagingIO.getPageCount());
+  }
+
+  @Test
+  public final void testVenuesTipsIterator() throws FoursquareApiException {
+    PageIterator<CompleteTip> tips = getFoursquareApi(new PagingIO()).venuesTipsIterator("5104", "recent", 10, 2);
+    
+    int count = 0;
+    while (tips.hasNext()) {
+      tips.next();
+      count++;
+    }
+    
+    // Test data reports more tips than it contains
+    assertEquals(30, count);
+    assertEquals(new Long(103), tips.getCount());
+  }
+
+  @Test
+  public final void testArrayPages() throws FoursquareApiException {
+    PagingIO pagingIO = new PagingIO();
+    PageIterator<CompleteTip> tips = getFoursquareApi(pagingIO).tipsSearchIterator("40.7,-74", 5, null, null);
+    
+    int count = 0;
+    while (tips.hasNext()) {
+      assertNotNull(tips.next().getId());
+      count++;
+    }
+    
+    assertEquals(21, count);
+    assertNull(tips.getCount());
+    assertEquals(5, pagingIO.getPageCount());
+  }
+
+  @Test
+  public final void testPrefetchDepth() throws FoursquareApiException {
+    FoursquareApi foursquareApi = getFoursquareApi(new PagingIO());
+    
+    for (int prefetchDepth = 0; prefetchDepth <= 2; prefetchDepth++) {
+      CountingPageIterator checkins = new CountingPageIterator(foursquareApi, 1, prefetchDepth);
+      assertEquals("4de3212d2271bfb844acdf5d", checkins.next().getId());
+      
+      // Page being consumed and prefetch depth pages ahead of it
+      assertEquals(1 + prefetchDepth, checkins.getRequestedPageCount());
+      checkins.cancel();
+    }
+    
+    CountingPageIterator checkins = new CountingPageIterator(foursquareApi, 2, 0);
+    int count = 0;
+    while (checkins.hasNext()) {
+      checkins.next();
+      count++;
+      assertEquals((count + 1) / 2, checkins.getRequestedPageCount());
+    }
+    
+    assertEquals(6, count);
+    assertEquals(3, checkins.getRequestedPageCount());
+  }
+
+  @Test
+  public final void testCancel() throws FoursquareApiException {
+    PageIterator<Checkin> checkins = getFoursquareApi(new PagingIO()).usersCheckinsIterator(null, 1, 3, null, null);
+    
+    assertTrue(checkins.hasNext());
+    checkins.next();
+    checkins.cancel();
+    assertFalse(checkins.hasNext());
+  }
+
+  @Test
+  public final void testPageError() throws FoursquareApiException {
+    PageIterator<Checkin> checkins = getFoursquareApi(new PagingIO()).usersCheckinsIterator("gibberish", 2, 1, null, null);
+    
+    try {
+      checkins.hasNext();
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof FoursquareApiException);
+    }
+    
+    assertFalse(checkins.hasNext());
+  }
+
+  private FoursquareApi getFoursquareApi(PagingIO pagingIO) {
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", "FAKE_OAUTH", pagingIO);
+    foursquareApi.setSkipNonExistingFields(false);
+    return foursquareApi;
+  }
+  
+  /**
+   * Iterator over checkins of the user that counts requested pages
+   */
+  private static class CountingPageIterator extends PageIterator<Checkin> {
+    
+    public CountingPageIterator(FoursquareApi foursquareApi, int pageSize, int prefetchDepth) {
+      super(pageSize, prefetchDepth);
+      this.foursquareApi = foursquareApi;
+    }
+    
+    @Override
+    protected ResultFuture<?> fetchPage(int offset, int limit) {
+      requestedPageCount++;
+      return foursquareApi.usersCheckinsAsync(null, limit, offset, null, null, null);
+    }
+    
+    public int getRequestedPageCount() {
+      return requestedPageCount;
+    }
+    
+    private FoursquareApi foursquareApi;
+    private int requestedPageCount;
+  }
+  
+  /**
+   * TestIO that serves limit and offset slices of the items in the test data 
+   */
+  private static class PagingIO extends TestIO {
+    
+    @Override
+    public Response fetchData(String url, Method method) {
+      int limit = -1;
+      int offset = 0;
+      
+      StringBuilder urlBuilder = new StringBuilder(url.substring(0, url.indexOf('?') + 1));
+      for (String parameter : url.substring(url.indexOf('?') + 1).split("&")) {
+        if (parameter.startsWith("limit=")) {
+          limit = Integer.parseInt(parameter.substring(6));
+        } else if (parameter.startsWith("offset=")) {
+          offset = Integer.parseInt(parameter.substring(7));
+        } else {
+          urlBuilder.append(parameter).append('&');
+        }
+      }
+      
+      Response response = super.fetchData(urlBuilder.substring(0, urlBuilder.length() - 1), method);
+      if (limit == -1 || response.getResponseCode() != 200) {
+        return response;
+      }
+      
+      pageCount.incrementAndGet();
+      lastLimit = limit;
+      if (shortFirstPage && offset == 0) {
+        limit--;
+      }
+      
+      try {
+        String content = response.getResponseContent();
+        boolean callback = content.startsWith("c(");
+        JSONObject json = new JSONObject(callback ? content.substring(2, content.length() - 2) : content);
+        JSONObject responseJson = json.getJSONObject("response");
+        
+        String key = (String) responseJson.keys().next();
+        Object value = responseJson.get(key);
+        if (value instanceof JSONArray) {
+          responseJson.put(key, slice((JSONArray) value, offset, limit));
+        } else {
+          JSONObject group = (JSONObject) value;
+          group.put("items", slice(group.getJSONArray("items"), offset, limit));
+        }
+        
+        return new Response(callback ? "c(" + json.toString() + ");" : json.toString(), 200, "");
+      } catch (JSONException e) {
+        return new Response("", 500, e.getMessage());
+      }
+    }
+    
+    public int getPageCount() {
+      return pageCount.get();
+    }
+    
+    public int getLastLimit() {
+      return lastLimit;
+    }
+    
+    public void setShortFirstPage(boolean shortFirstPage) {
+      this.shortFirstPage = shortFirstPage;
+    }
+    
+    private JSONArray slice(JSONArray items, int offset, int limit) throws JSONException {
+      JSONArray slice = new JSONArray();
+      for (int i = offset; i < Math.min(offset + limit, items.length()); i++) {
+        slice.put(items.get(i));
+      }
+      
+      return slice;
+    }
+    
+    private AtomicInteger pageCount = new AtomicInteger();
+    private volatile int lastLimit;
+    private volatile boolean shortFirstPage;
+  }
+}
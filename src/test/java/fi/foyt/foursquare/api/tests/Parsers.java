@@ -0,0 +1,164 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.EntityParser;
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.FoursquareEntity;
+import fi.foyt.foursquare.api.JSONFieldParser;
+import fi.foyt.foursquare.api.JSONStreamReader;
+import fi.foyt.foursquare.api.entities.Category;
+import fi.foyt.foursquare.api.entities.Checkin;
+import fi.foyt.foursquare.api.entities.CheckinGroup;
+import fi.foyt.foursquare.api.entities.CompactVenue;
+import fi.foyt.foursquare.api.entities.CompleteUser;
+import fi.foyt.foursquare.api.entities.CompleteVenue;
+
+public class Parsers {
+
+  @Test
+  public final void testDispatch() throws FoursquareApiException {
+    CountingParser<CompactVenue> parser = new CountingParser<CompactVenue>(new CompactVenue.Parser());
+    JSONFieldParser.registerEntityParser(CompactVenue.class, parser);
+    try {
+      FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+      CompactVenue venue = foursquareApi.venuesSearch("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null).getResult().getGroups()[0].getItems()[0];
+
+      assertTrue(parser.getTreeCount() > 0);
+      assertEquals("4116be80f964a520fc0b1fe3", venue.getId());
+      assertEquals("Ulysses Folk House", venue.getName());
+      assertEquals(Boolean.TRUE, venue.getVerified());
+      assertEquals("ulyssesfolkhous", venue.getContact().getTwitter());
+      assertEquals(new Double(-74.01012361049652), venue.getLocation().getLng());
+      assertEquals(new Integer(5656), venue.getStats().getCheckinsCount());
+    } finally {
+      JSONFieldParser.registerEntityParser(CompactVenue.class, new CompactVenue.Parser());
+    }
+  }
+
+  @Test
+  public final void testNestedEntities() throws FoursquareApiException {
+    CountingParser<Category> parser = new CountingParser<Category>(new Category.Parser());
+    JSONFieldParser.registerEntityParser(Category.class, parser);
+    try {
+      FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+      Category category = foursquareApi.venuesSearch("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null).getResult().getGroups()[0].getItems()[0].getCategories()[0];
+
+      assertTrue(parser.getTreeCount() > 0);
+      assertEquals("4bf58dd8d48988d116941735", category.getId());
+      assertEquals("Bars", category.getPluralName());
+      assertArrayEquals(new String[] { "Nightlife Spots" }, category.getParents());
+      assertEquals(Boolean.TRUE, category.getPrimary());
+    } finally {
+      JSONFieldParser.registerEntityParser(Category.class, new Category.Parser());
+    }
+  }
+
+  @Test
+  public final void testStreaming() throws FoursquareApiException {
+    CountingParser<Checkin> parser = new CountingParser<Checkin>(new Checkin.Parser());
+    JSONFieldParser.registerEntityParser(Checkin.class, parser);
+    try {
+      FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+      foursquareApi.setUseStreamingParser(true);
+      CheckinGroup checkins = foursquareApi.usersCheckins(null, null, null, null, null).getResult();
+
+      assertTrue(parser.getStreamCount() >= checkins.getItems().length);
+      Checkin checkin = checkins.getItems()[0];
+      assertEquals("4de3212d2271bfb844acdf5d", checkin.getId());
+      assertEquals(new Long(1306730797), checkin.getCreatedAt());
+      assertEquals(Boolean.TRUE, checkin.isPrivate());
+      assertEquals("Europe/Helsinki", checkin.getTimeZone());
+      assertTrue(checkin.getVenue() instanceof CompleteVenue);
+      assertEquals("4c6bbfafa48420a1b09a0a0b", checkin.getVenue().getId());
+    } finally {
+      JSONFieldParser.registerEntityParser(Checkin.class, new Checkin.Parser());
+    }
+  }
+
+  @Test
+  public final void testInheritedFields() throws FoursquareApiException {
+    CountingParser<CompleteUser> parser = new CountingParser<CompleteUser>(new CompleteUser.Parser());
+    JSONFieldParser.registerEntityParser(CompleteUser.class, parser);
+    try {
+      FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+      CompleteUser user = foursquareApi.user("self").getResult();
+
+      assertEquals(1, parser.getTreeCount());
+      assertEquals("7613255", user.getId());
+      assertEquals("Foyt", user.getFirstName());
+      assertEquals("Mikkeli, Suomi", user.getHomeCity());
+      assertEquals("user", user.getType());
+      assertEquals("development@foyt.fi", user.getContact().getEmail());
+      assertEquals(new Long(9), user.getCheckins().getCount());
+      assertEquals(new Long(35), user.getScores().getRecent());
+    } finally {
+      JSONFieldParser.registerEntityParser(CompleteUser.class, new CompleteUser.Parser());
+    }
+  }
+
+  @Test
+  public final void testNonExistingFields() throws Exception {
+    String json = "{\"id\":\"1\",\"name\":\"Bar\",\"parents\":[\"Nightlife Spots\"],\"unknown\":{\"a\":[1,2]},\"categories\":[{\"id\":\"2\",\"name\":\"Pub\"}]}";
+    Category.Parser parser = new Category.Parser();
+
+    Category category = parser.parse(new JSONObject(json), true);
+    assertEquals("Bar", category.getName());
+    assertEquals("Pub", category.getCategories()[0].getName());
+
+    category = parser.parse(new JSONStreamReader(new StringReader(json)), true);
+    assertEquals("Bar", category.getName());
+    assertArrayEquals(new String[] { "Nightlife Spots" }, category.getParents());
+    assertEquals("Pub", category.getCategories()[0].getName());
+
+    try {
+      parser.parse(new JSONObject(json), false);
+      fail("Non-existing field was not reported");
+    } catch (FoursquareApiException e) {
+      assertEquals("Could not find field unknown from " + Category.class.getName() + " class", e.getMessage());
+    }
+
+    try {
+      parser.parse(new JSONStreamReader(new StringReader(json)), false);
+      fail("Non-existing field was not reported");
+    } catch (FoursquareApiException e) {
+      assertEquals("Could not find field unknown from " + Category.class.getName() + " class", e.getMessage());
+    }
+  }
+
+  private static class CountingParser<T extends FoursquareEntity> implements EntityParser<T> {
+
+    public CountingParser(EntityParser<T> parser) {
+      this.parser = parser;
+    }
+
+    public T parse(JSONObject jsonObject, boolean skipNonExistingFields) throws FoursquareApiException {
+      treeCount.incrementAndGet();
+      return parser.parse(jsonObject, skipNonExistingFields);
+    }
+
+    public T parse(JSONStreamReader reader, boolean skipNonExistingFields) throws FoursquareApiException {
+      streamCount.incrementAndGet();
+      return parser.parse(reader, skipNonExistingFields);
+    }
+
+    public int getTreeCount() {
+      return treeCount.get();
+    }
+
+    public int getStreamCount() {
+      return streamCount.get();
+    }
+
+    private EntityParser<T> parser;
+    private AtomicInteger treeCount = new AtomicInteger();
+    private AtomicInteger streamCount = new AtomicInteger();
+  }
+}
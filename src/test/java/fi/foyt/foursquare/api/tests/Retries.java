@@ -0,0 +1,211 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.io.CircuitBreakingIOHandler;
+import fi.foyt.foursquare.api.io.IOCallback;
+import fi.foyt.foursquare.api.io.IOHandler;
+import fi.foyt.foursquare.api.io.Method;
+import fi.foyt.foursquare.api.io.Response;
+import fi.foyt.foursquare.api.io.RetryingIOHandler;
+
+public class Retries {
+
+  @Test
+  public final void testRetries() throws FoursquareApiException {
+    FailingIO failingIO = new FailingIO(2);
+    RetryingIOHandler retrying = getRetryingIOHandler(failingIO);
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", retrying);
+
+    assertEquals("Clinton Street Baking Co", foursquareApi.venue("5104").getResult().getName());
+    assertEquals(3, failingIO.getFetchCount());
+    assertEquals(1, retrying.getRequestCount());
+    assertEquals(2, retrying.getRetryCount());
+    assertEquals(1, retrying.getRecoveredCount());
+    assertEquals(0, retrying.getExhaustedCount());
+  }
+
+  @Test
+  public final void testMaxAttempts() throws FoursquareApiException {
+    FailingIO failingIO = new FailingIO(5);
+    RetryingIOHandler retrying = getRetryingIOHandler(failingIO);
+    retrying.setMaxAttempts(4);
+    FoursquareApi foursquareApi = new FoursquareApi("FAKE_CLIENT_ID", "FAKE_CLIENT_SECRET", "FAKE_REDIRECT_URL", retrying);
+
+    assertEquals(500, foursquareApi.venue("5104").getMeta().getCode().intValue());
+    assertEquals(4, failingIO.getFetchCount());
+    assertEquals(3, retrying.getRetryCount());
+    assertEquals(0, retrying.getRecoveredCount());
+    assertEquals(1, retrying.getExhaustedCount());
+  }
+
+  @Test
+  public final void testPosts() {
+    FailingIO failingIO = new FailingIO(1);
+    RetryingIOHandler retrying = getRetryingIOHandler(failingIO);
+
+    assertEquals(500, retrying.fetchData("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.POST).getResponseCode());
+    assertEquals(0, retrying.getRetryCount());
+
+    failingIO = new FailingIO(1);
+    retrying = getRetryingIOHandler(failingIO);
+    retrying.setRetryPosts(true);
+    retrying.fetchData("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.POST);
+    assertEquals(2, failingIO.getFetchCount());
+    assertEquals(1, retrying.getRetryCount());
+  }
+
+  @Test
+  public final void testRetryBudget() {
+    FailingIO failingIO = new FailingIO(Integer.MAX_VALUE);
+    RetryingIOHandler retrying = getRetryingIOHandler(failingIO);
+    retrying.setRetryBudget(0.1, 5);
+
+    for (int i = 0; i < 20; i++) {
+      retrying.fetchData("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.GET);
+    }
+
+    // Five retries from the initial balance and one for about every ten requests
+    assertTrue(retrying.getRetryCount() >= 5 && retrying.getRetryCount() <= 7);
+    assertEquals(20 + retrying.getRetryCount(), failingIO.getFetchCount());
+    assertTrue(retrying.getBudgetExhaustedCount() > 0);
+  }
+
+  @Test
+  public final void testCallbackErrors() {
+    FailingIO failingIO = new FailingIO(2, true);
+    RetryingIOHandler retrying = getRetryingIOHandler(failingIO);
+
+    Response response = retrying.fetchData("https://api.foursquare.com/v2/venues/5104?callback=c&v=20110615", Method.GET);
+    assertEquals(200, response.getResponseCode());
+    assertEquals(Integer.valueOf(200), response.getMetaCode());
+    assertEquals(3, failingIO.getFetchCount());
+    assertEquals(2, retrying.getRetryCount());
+    assertEquals(1, retrying.getRecoveredCount());
+  }
+
+  @Test
+  public final void testOpenCircuit() {
+    FailingIO failingIO = new FailingIO(Integer.MAX_VALUE);
+    CircuitBreakingIOHandler breaker = new CircuitBreakingIOHandler(failingIO);
+    breaker.setWindow(2, 2);
+    RetryingIOHandler retrying = getRetryingIOHandler(breaker);
+    retrying.setMaxAttempts(5);
+
+    // Second attempt opens the circuit and the third is rejected, which ends retrying
+    assertEquals(503, retrying.fetchData("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.GET).getResponseCode());
+    assertEquals(2, failingIO.getFetchCount());
+    assertEquals(2, retrying.getRetryCount());
+    assertEquals(1, breaker.getRejectedCount());
+
+    assertEquals(503, retrying.fetchData("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.GET).getResponseCode());
+    assertEquals(2, retrying.getRetryCount());
+    assertEquals(2, breaker.getRejectedCount());
+    assertEquals(0, retrying.getExhaustedCount());
+    assertEquals(0, retrying.getRecoveredCount());
+  }
+
+  @Test
+  public final void testNotRecovered() {
+    FailingIO failingIO = new FailingIO(1);
+    RetryingIOHandler retrying = getRetryingIOHandler(failingIO);
+
+    // Retry ends in an error that is not retried, so the request did not recover
+    assertEquals(404, retrying.fetchData("https://api.foursquare.com/v2/venues/missing?v=20110615", Method.GET).getResponseCode());
+    assertEquals(1, retrying.getRetryCount());
+    assertEquals(0, retrying.getRecoveredCount());
+  }
+
+  @Test
+  public final void testAsyncRetries() throws Exception {
+    FailingIO failingIO = new FailingIO(2);
+    failingIO.setExecutor(Executors.newSingleThreadExecutor());
+    RetryingIOHandler retrying = getRetryingIOHandler(failingIO);
+
+    // Retries are sent with the wrapped handler, so executor of the retrying handler is not needed
+    retrying.setExecutor(Executors.newSingleThreadExecutor());
+    retrying.getExecutor().shutdown();
+
+    final AtomicReference<Response> callbackResponse = new AtomicReference<Response>();
+    final CountDownLatch completed = new CountDownLatch(1);
+    Future<Response> future = retrying.fetchDataAsync("https://api.foursquare.com/v2/venues/5104?v=20110615", Method.GET, new IOCallback() {
+      public void completed(Response response) {
+        callbackResponse.set(response);
+        completed.countDown();
+      }
+    });
+
+    // Future completes before the callback is called
+    Response response = future.get(5, TimeUnit.SECONDS);
+    assertEquals(200, response.getResponseCode());
+    assertTrue(completed.await(5, TimeUnit.SECONDS));
+    assertSame(response, callbackResponse.get());
+    assertEquals(3, failingIO.getFetchCount());
+    assertEquals(3, failingIO.getAsyncFetchCount());
+    assertEquals(2, retrying.getRetryCount());
+    assertEquals(1, retrying.getRecoveredCount());
+    failingIO.getExecutor().shutdown();
+  }
+
+  private RetryingIOHandler getRetryingIOHandler(IOHandler ioHandler) {
+    RetryingIOHandler retrying = new RetryingIOHandler(ioHandler);
+    retrying.setBackoff(1, 5, TimeUnit.MILLISECONDS);
+    return retrying;
+  }
+
+  private static class FailingIO extends TestIO {
+
+    public FailingIO(int failures) {
+      this(failures, false);
+    }
+
+    public FailingIO(int failures, boolean callback) {
+      this.failures = failures;
+      this.callback = callback;
+    }
+
+    @Override
+    public Response fetchData(String url, Method method) {
+      if (fetchCount.incrementAndGet() <= failures) {
+        if (callback) {
+          // Callback mode returns API errors with response code 200
+          return new Response("c({\"meta\":{\"code\":500,\"errorType\":\"server_error\",\"errorDetail\":\"Foursquare servers are experiencing problems.\"},\"response\":{}})", 200, "OK");
+        }
+
+        return new Response("", 500, "Connection reset");
+      }
+
+      return super.fetchData(url, method);
+    }
+
+    @Override
+    public Future<Response> fetchDataAsync(String url, Method method, IOCallback callback) {
+      asyncFetchCount.incrementAndGet();
+      return super.fetchDataAsync(url, method, callback);
+    }
+
+    public int getFetchCount() {
+      return fetchCount.get();
+    }
+
+    public int getAsyncFetchCount() {
+      return asyncFetchCount.get();
+    }
+
+    private int failures;
+    private boolean callback;
+    private AtomicInteger fetchCount = new AtomicInteger();
+    private AtomicInteger asyncFetchCount = new AtomicInteger();
+  }
+}
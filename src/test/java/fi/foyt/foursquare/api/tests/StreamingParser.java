@@ -0,0 +1,110 @@
+package fi.foyt.foursquare.api.tests;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+
+import fi.foyt.foursquare.api.FoursquareApi;
+import fi.foyt.foursquare.api.FoursquareApiException;
+import fi.foyt.foursquare.api.FoursquareEntity;
+import fi.foyt.foursquare.api.Result;
+import fi.foyt.foursquare.api.entities.CompleteUser;
+
+public class StreamingParser {
+
+  @Test
+  public final void testVenue() throws Exception {
+    FoursquareApi treeApi = TestUtils.getAnonymousFoursquareApi();
+    FoursquareApi streamingApi = getStreamingFoursquareApi(false);
+
+    assertResultEquals(treeApi.venue("5104"), streamingApi.venue("5104"));
+    assertResultEquals(treeApi.venue("4cb38bf20cdc721ea943234f"), streamingApi.venue("4cb38bf20cdc721ea943234f"));
+    assertEquals("Clinton Street Baking Co", streamingApi.venue("5104").getResult().getName());
+  }
+
+  @Test
+  public final void testVenues() throws Exception {
+    FoursquareApi treeApi = TestUtils.getAuthenticatedFoursquareApi();
+    FoursquareApi streamingApi = getStreamingFoursquareApi(true);
+
+    assertResultEquals(treeApi.venuesSearch("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null), streamingApi.venuesSearch("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null));
+    assertResultEquals(treeApi.venuesCategories(), streamingApi.venuesCategories());
+    assertResultEquals(treeApi.venuesHereNow("5104", null, null, null), streamingApi.venuesHereNow("5104", null, null, null));
+    assertResultEquals(treeApi.venuesTips("5104", "recent", null, null), streamingApi.venuesTips("5104", "recent", null, null));
+    assertResultEquals(treeApi.venuesPhotos("43695300f964a5208c291fe3", "venue", null, null), streamingApi.venuesPhotos("43695300f964a5208c291fe3", "venue", null, null));
+    assertResultEquals(treeApi.venuesTrending("40.7,-74", null, null), streamingApi.venuesTrending("40.7,-74", null, null));
+  }
+
+  @Test
+  public final void testUsers() throws Exception {
+    FoursquareApi treeApi = TestUtils.getAuthenticatedFoursquareApi();
+    FoursquareApi streamingApi = getStreamingFoursquareApi(true);
+
+    assertResultEquals(treeApi.user(null), streamingApi.user(null));
+    assertResultEquals(treeApi.usersCheckins(null, null, null, null, null), streamingApi.usersCheckins(null, null, null, null, null));
+    assertResultEquals(treeApi.usersFriends(null), streamingApi.usersFriends(null));
+    assertResultEquals(treeApi.checkin("4d7b44d7f260a0932e5024ba", null), streamingApi.checkin("4d7b44d7f260a0932e5024ba", null));
+    assertResultEquals(treeApi.tipsSearch("40.7,-74", null, null, null, null), streamingApi.tipsSearch("40.7,-74", null, null, null, null));
+  }
+
+  @Test
+  public final void testNoCallback() throws Exception {
+    FoursquareApi treeApi = TestUtils.getAnonymousFoursquareApi();
+    treeApi.setUseCallback(false);
+    FoursquareApi streamingApi = getStreamingFoursquareApi(false);
+    streamingApi.setUseCallback(false);
+
+    assertResultEquals(treeApi.venue("5104"), streamingApi.venue("5104"));
+  }
+
+  @Test
+  public final void testError() throws FoursquareApiException {
+    FoursquareApi streamingApi = getStreamingFoursquareApi(true);
+    Result<CompleteUser> result = streamingApi.user("gibberish");
+
+    assertEquals(new Integer(400), result.getMeta().getCode());
+    assertEquals("param_error", result.getMeta().getErrorType());
+    assertEquals("Must provide a valid user ID or 'self.'", result.getMeta().getErrorDetail());
+    assertNull(result.getResult());
+  }
+
+  private FoursquareApi getStreamingFoursquareApi(boolean authenticated) {
+    FoursquareApi foursquareApi = authenticated ? TestUtils.getAuthenticatedFoursquareApi() : TestUtils.getAnonymousFoursquareApi();
+    foursquareApi.setUseStreamingParser(true);
+    return foursquareApi;
+  }
+
+  private void assertResultEquals(Result<?> expected, Result<?> actual) throws IllegalAccessException {
+    assertEquals(expected.getMeta().getCode(), actual.getMeta().getCode());
+    assertNotNull(actual.getResult());
+    assertValueEquals(expected.getResult(), actual.getResult());
+  }
+
+  private void assertValueEquals(Object expected, Object actual) throws IllegalAccessException {
+    if (expected == null || actual == null) {
+      assertEquals(expected, actual);
+    } else if (expected.getClass().isArray()) {
+      Object[] expectedArray = (Object[]) expected;
+      Object[] actualArray = (Object[]) actual;
+      assertEquals(expectedArray.length, actualArray.length);
+      for (int i = 0; i < expectedArray.length; i++) {
+        assertValueEquals(expectedArray[i], actualArray[i]);
+      }
+    } else if (expected instanceof FoursquareEntity) {
+      assertEquals(expected.getClass(), actual.getClass());
+      for (Class<?> clazz = expected.getClass(); !clazz.equals(Object.class); clazz = clazz.getSuperclass()) {
+        for (Field field : clazz.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            field.setAccessible(true);
+            assertValueEquals(field.get(expected), field.get(actual));
+          }
+        }
+      }
+    } else {
+      assertEquals(expected, actual);
+    }
+  }
+}
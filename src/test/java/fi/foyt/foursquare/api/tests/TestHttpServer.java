@@ -0,0 +1,146 @@
+package fi.foyt.foursquare.api.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server that keeps connections open. Paths containing "missing" return 404,
+ * paths with a response set return it and others return "{}".
+ *
+ * First connections up to the stalled connection count are accepted but never answered, so that
+ * tests can check how clients give up on them.
+ */
+public class TestHttpServer extends Thread {
+
+  public TestHttpServer() throws IOException {
+    serverSocket = new ServerSocket(0);
+    setDaemon(true);
+  }
+
+  public String getUrl(String path) {
+    return "http://localhost:" + serverSocket.getLocalPort() + path;
+  }
+
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  public void setResponse(String path, String contentEncoding, byte[] content) {
+    responses.put(path, new Object[] { contentEncoding, content });
+  }
+
+  /**
+   * Sets number of first connections that are never answered
+   */
+  public void setStalledConnections(int stalledConnections) {
+    this.stalledConnections = stalledConnections;
+  }
+
+  /**
+   * Returns next stalled connection, waiting for it for at most 5 seconds
+   *
+   * @return stalled connection or null if none was accepted in time
+   */
+  public Socket getStalledSocket() throws InterruptedException {
+    return stalledSockets.poll(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stops accepting connections and closes stalled connections that have not been taken
+   */
+  public void close() throws IOException {
+    serverSocket.close();
+
+    Socket socket;
+    while ((socket = stalledSockets.poll()) != null) {
+      socket.close();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        final Socket socket = serverSocket.accept();
+        if (connectionCount.incrementAndGet() <= stalledConnections) {
+          stalledSockets.add(socket);
+        } else {
+          Thread handler = new Thread() {
+            @Override
+            public void run() {
+              serve(socket);
+            }
+          };
+          handler.setDaemon(true);
+          handler.start();
+        }
+      }
+    } catch (IOException e) {
+      // Server socket was closed
+    }
+  }
+
+  private void serve(Socket socket) {
+    try {
+      InputStream inputStream = socket.getInputStream();
+      OutputStream outputStream = socket.getOutputStream();
+      String requestLine;
+      while ((requestLine = readRequest(inputStream)) != null) {
+        requestCount.incrementAndGet();
+        String path = requestLine.split(" ")[1];
+        int queryStart = path.indexOf('?');
+        Object[] response = responses.get(queryStart != -1 ? path.substring(0, queryStart) : path);
+        if (response != null) {
+          byte[] content = (byte[]) response[1];
+          outputStream.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=UTF-8\r\nContent-Encoding: " + response[0] + "\r\nContent-Length: " + content.length + "\r\n\r\n").getBytes("UTF-8"));
+          outputStream.write(content);
+        } else if (path.contains("missing")) {
+          outputStream.write("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain\r\nContent-Length: 9\r\n\r\nNot Found".getBytes("UTF-8"));
+        } else {
+          outputStream.write("HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=UTF-8\r\nContent-Length: 2\r\n\r\n{}".getBytes("UTF-8"));
+        }
+
+        outputStream.flush();
+      }
+
+      socket.close();
+    } catch (IOException e) {
+      // Client closed the connection
+    }
+  }
+
+  /**
+   * Reads request headers and returns the request line, or null when the connection was closed
+   */
+  private String readRequest(InputStream inputStream) throws IOException {
+    StringBuilder request = new StringBuilder();
+    int c;
+    while ((c = inputStream.read()) != -1) {
+      request.append((char) c);
+      if (request.length() >= 4 && request.lastIndexOf("\r\n\r\n") == request.length() - 4) {
+        return request.substring(0, request.indexOf("\r\n"));
+      }
+    }
+
+    return null;
+  }
+
+  private ServerSocket serverSocket;
+  private volatile int stalledConnections;
+  private AtomicInteger connectionCount = new AtomicInteger();
+  private AtomicInteger requestCount = new AtomicInteger();
+  private Map<String, Object[]> responses = new ConcurrentHashMap<String, Object[]>();
+  private LinkedBlockingQueue<Socket> stalledSockets = new LinkedBlockingQueue<Socket>();
+}
@@ -5,10 +5,12 @@ import java.io.FileReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.net.URLDecoder;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fi.foyt.foursquare.api.io.IOHandler;
 import fi.foyt.foursquare.api.io.Method;
@@ -58,6 +60,10 @@ public class TestIO extends IOHandler {
         searchUrl += '?' + searchUrlParameters;
       }
       
+      if (searchUrl.startsWith(MULTI_URL)) {
+        return fetchMultiData(URLDecoder.decode(searchUrl.substring(MULTI_URL.length()), "UTF-8"), callback);
+      }
+      
       String path = response.get(searchUrl);
       if (path != null) {
         StringWriter responseWriter = new StringWriter();
@@ -83,7 +89,7 @@ public class TestIO extends IOHandler {
         if (callback)
           responseWriter.append(");");
         
-        return new Response(responseWriter.getBuffer().toString(), 200, "");
+        return new Response(responseWriter.getBuffer().toString().getBytes("UTF-8"), "UTF-8", 200, "");
       } else {
         if (callback) {
           return new Response(
@@ -101,6 +107,39 @@ public class TestIO extends IOHandler {
     }
   }
   
+  private Response fetchMultiData(String requests, boolean callback) {
+    StringBuilder responseBuilder = new StringBuilder();
+    if (callback)
+      responseBuilder.append("c(");
+    
+    responseBuilder.append("{\"meta\":{\"code\":200},\"response\":{\"responses\":[");
+    
+    String[] paths = requests.split(",");
+    for (int i = 0; i < paths.length; i++) {
+      if (i > 0)
+        responseBuilder.append(',');
+      
+      String url = "https://api.foursquare.com/v2" + paths[i] + (paths[i].indexOf('?') == -1 ? '?' : '&') + "v=" + "20110615";
+      Response response = fetchData(url, Method.GET);
+      if (response.getResponseCode() == 200) {
+        responseBuilder.append(response.getResponseContent());
+      } else {
+        responseBuilder.append("{\"meta\":{\"code\":404,\"errorType\":\"endpoint_error\",\"errorDetail\":\"The requested path does not exist.\"},\"response\":{}}");
+      }
+    }
+    
+    responseBuilder.append("]}}");
+    if (callback)
+      responseBuilder.append(");");
+    
+    multiRequestCount.incrementAndGet();
+    return new Response(responseBuilder.toString(), 200, "");
+  }
+  
+  public int getMultiRequestCount() {
+    return multiRequestCount.get();
+  }
+  
   @Override
   public Response fetchDataMultipartMime(String url, MultipartParameter... params) {
     return fetchData(url, Method.POST);
@@ -111,6 +150,8 @@ public class TestIO extends IOHandler {
   } 
   
   private static Map<String, String> response = new HashMap<String, String>();
+  private static final String MULTI_URL = "https://api.foursquare.com/v2/multi?requests=";
+  private AtomicInteger multiRequestCount = new AtomicInteger();
   
   static {
     setResponse("https://foursquare.com/oauth2/access_token?grant_type=authorization_code&redirect_uri=FAKE_REDIRECT_URL&code=FAKE_CODE", "auth/token_1.json");
@@ -2,6 +2,8 @@ package fi.foyt.foursquare.api.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 import fi.foyt.foursquare.api.FoursquareApi;
@@ -308,6 +310,21 @@ public class Users {
     assertEquals(new Integer(200), result.getMeta().getCode());
     assertEquals("10078668", result.getResult().getId());
   }
-  
-  
-}
\ No newline at end of file
+
+  @Test
+  public final void testUsersCheckinsAsync() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    CheckinGroup checkins = foursquareApi.usersCheckinsAsync(null, null, null, null, null, null).get(10, TimeUnit.SECONDS).getResult();
+    assertEquals(new Long(6), checkins.getCount());
+    assertEquals("4de3212d2271bfb844acdf5d", checkins.getItems()[0].getId());
+  }
+
+  @Test
+  public final void testUserAsyncError() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    Result<CompleteUser> result = foursquareApi.userAsync("gibberish", null).get(10, TimeUnit.SECONDS);
+    assertEquals(new Integer(400), result.getMeta().getCode());
+    assertEquals("param_error", result.getMeta().getErrorType());
+    assertNull(result.getResult());
+  }
+}
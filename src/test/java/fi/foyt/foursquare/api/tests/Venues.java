@@ -2,11 +2,16 @@ package fi.foyt.foursquare.api.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Test;
 
 import fi.foyt.foursquare.api.FoursquareApi;
 import fi.foyt.foursquare.api.FoursquareApiException;
 import fi.foyt.foursquare.api.Result;
+import fi.foyt.foursquare.api.ResultCallback;
 import fi.foyt.foursquare.api.entities.Category;
 import fi.foyt.foursquare.api.entities.CheckinGroup;
 import fi.foyt.foursquare.api.entities.CompactVenue;
@@ -330,4 +335,38 @@ public class Venues {
     assertEquals("https://foursquare.com/download/#/iphone", result.getResult().getItems()[0].getSource().getUrl());
     assertEquals("2910458", result.getResult().getItems()[0].getUser().getId());
   }
+
+  @Test
+  public final void testVenueAsync() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAnonymousFoursquareApi();
+    
+    Result<CompleteVenue> result = foursquareApi.venueAsync("5104", null).get(10, TimeUnit.SECONDS);
+    
+    assertEquals(new Integer(200), result.getMeta().getCode());
+    assertEquals("40a55d80f964a52020f31ee3", result.getResult().getId());
+    assertEquals("Clinton Street Baking Co", result.getResult().getName());
+  }
+
+  @Test
+  public final void testVenuesSearchAsync() throws Exception {
+    FoursquareApi foursquareApi = TestUtils.getAuthenticatedFoursquareApi();
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Result<VenuesSearchResult>> callbackResult = new AtomicReference<Result<VenuesSearchResult>>();
+    
+    Result<VenuesSearchResult> result = foursquareApi.venuesSearchAsync("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null, new ResultCallback<VenuesSearchResult>() {
+      public void completed(Result<VenuesSearchResult> result) {
+        callbackResult.set(result);
+        latch.countDown();
+      }
+      
+      public void failed(FoursquareApiException exception) {
+        latch.countDown();
+      }
+    }).get(10, TimeUnit.SECONDS);
+    
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertSame(result, callbackResult.get());
+    assertEquals(new Integer(200), result.getMeta().getCode());
+    assertEquals(foursquareApi.venuesSearch("40.7,-74", null, null, null, null, null, null, null, null, null, null, null, null).getResult().getGroups()[0].getItems()[0].getId(), result.getResult().getGroups()[0].getItems()[0].getId());
+  }
 }